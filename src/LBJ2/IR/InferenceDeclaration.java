@@ -13,13 +13,18 @@ import LBJ2.frontend.TokenValue;
 public class InferenceDeclaration extends Declaration
                                   implements LBJ2.CodeGenerator
 {
-  /** If no inference algorithm is specified, this algorithm is used. */
+  /**
+    * If no inference algorithm is specified, this algorithm is used.  It
+    * solves its ILP problems with GLPK if LBJ was configured to use it, and
+    * with {@link LBJ2.infer.BranchAndBoundILPSolver} otherwise.
+   **/
   public static final InstanceCreationExpression defaultInferenceConstructor =
     new InstanceCreationExpression(
         new Name("ILPInference"),
         new ExpressionList(
           new InstanceCreationExpression(
-            new Name("GLPKHook"),
+            new Name(LBJ2.Configuration.GLPKLinked
+                     ? "GLPKHook" : "BranchAndBoundILPSolver"),
             new ExpressionList(),
             -1, -1)),
         -1, -1);
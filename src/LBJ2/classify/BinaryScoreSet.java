@@ -0,0 +1,138 @@
+package LBJ2.classify;
+
+import java.util.*;
+
+
+/**
+  * A score set holding exactly two scores, as returned by binary
+  * classifiers.  It stores its two {@link Score}s in fields instead of a map,
+  * so it is much cheaper to create than a general <code>ScoreSet</code>.
+  * Its two values are considered in the order they were given to the
+  * constructor, so when both have the same score,
+  * {@link #highScoreValue()} returns the first.
+  *
+  * @see ScoreSet
+ **/
+public class BinaryScoreSet extends ScoreSet
+{
+  /** The score of the first value. */
+  private Score first;
+  /** The score of the second value. */
+  private Score second;
+
+
+  /**
+    * Initializing constructor.
+    *
+    * @param v1 The first classification value.
+    * @param s1 The score of the first value.
+    * @param v2 The second classification value.
+    * @param s2 The score of the second value.
+   **/
+  public BinaryScoreSet(String v1, double s1, String v2, double s2)
+  {
+    super((HashMap) null);
+    first = new Score(v1, s1);
+    second = new Score(v2, s2);
+  }
+
+
+  /** Returns the number of scores in this set, which is always 2. */
+  public int size() { return 2; }
+
+
+  /**
+    * Sets the score for one of this set's two classification values.
+    *
+    * @param v  The classification value.
+    * @param s  The score.
+   **/
+  public void put(String v, double s)
+  {
+    if (v.equals(first.value)) first = new Score(v, s);
+    else if (v.equals(second.value)) second = new Score(v, s);
+    else
+      throw
+        new IllegalArgumentException(
+            "BinaryScoreSet: can't add a score for '" + v + "' to " + this);
+  }
+
+
+  /**
+    * Retrieves the set of values that have scores associated with them in
+    * this score set.
+    *
+    * @return A set of <code>String</code>s.
+   **/
+  public Set values()
+  {
+    LinkedHashSet result = new LinkedHashSet();
+    result.add(first.value);
+    result.add(second.value);
+    return result;
+  }
+
+
+  /**
+    * Returns the double precision score for a particular classification
+    * value.
+    *
+    * @param v  The classification value.
+    * @return   The associated score.
+   **/
+  public double get(String v) { return getScore(v).score; }
+
+
+  /**
+    * Retrieves the {@link Score} object associated with the given
+    * classification value.
+    *
+    * @param v  The classification value.
+    * @return   The associated {@link Score} object, or <code>null</code> if
+    *           there is none.
+   **/
+  public Score getScore(String v)
+  {
+    if (v.equals(first.value)) return first;
+    if (v.equals(second.value)) return second;
+    return null;
+  }
+
+
+  /** Retrieves the value with the highest score in this set. */
+  public String highScoreValue()
+  {
+    String result = null;
+    double highScore = Double.NEGATIVE_INFINITY;
+
+    if (first.score > highScore)
+    {
+      highScore = first.score;
+      result = first.value;
+    }
+
+    if (second.score > highScore) result = second.value;
+    return result;
+  }
+
+
+  /**
+    * Returns an array view of the <code>Score</code>s contained in this set.
+    *
+    * @return An array of <code>Score</code>s.
+   **/
+  public Score[] toArray() { return new Score[]{ first, second }; }
+
+
+  /**
+    * Produces a deep copy of this object.
+    *
+    * @return A deep copy of this object.
+   **/
+  public Object clone()
+  {
+    return
+      new BinaryScoreSet(first.value, first.score, second.value,
+                         second.score);
+  }
+}
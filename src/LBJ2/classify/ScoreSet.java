@@ -18,6 +18,14 @@ public class ScoreSet implements Cloneable
   /** Default constructor. */
   public ScoreSet() { this(null, null); }
 
+  /**
+    * Sets the backing map directly.  Subclasses that store their scores in
+    * their own fields pass <code>null</code> and override every method.
+    *
+    * @param s  The map from classification values to {@link Score}s.
+   **/
+  protected ScoreSet(HashMap s) { set = s; }
+
   /**
     * The elements of the two argument arrays are assumed to be pair-wise
     * associated with each other.
@@ -133,7 +141,7 @@ public class ScoreSet implements Cloneable
   {
     String result = "{";
 
-    if (set.size() > 0)
+    if (size() > 0)
     {
       Score[] scores = toArray();
       Arrays.sort(scores);
@@ -13,7 +13,7 @@ import java.util.Vector;
   * @see    LBJ2.infer.FirstOrderConstraint
   * @author Nick Rizzolo
  **/
-abstract public class ArgumentReplacer
+abstract public class ArgumentReplacer implements Cloneable
 {
   /**
     * The settings of non-quantification variables in context at the equality
@@ -45,5 +45,26 @@ abstract public class ArgumentReplacer
   {
     quantificationVariables = q;
   }
-}
 
+
+  /**
+    * This method returns a shallow clone, which shares this object's context
+    * but can be given its own quantification variable settings.
+    *
+    * @return A shallow clone.
+   **/
+  public Object clone()
+  {
+    Object clone = null;
+
+    try { clone = super.clone(); }
+    catch (Exception e)
+    {
+      System.err.println("Error cloning ArgumentReplacer:");
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+    return clone;
+  }
+}
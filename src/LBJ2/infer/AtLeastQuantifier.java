@@ -115,6 +115,26 @@ public class AtLeastQuantifier extends Quantifier
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    if (collection.size() < m) return f.constant(false);
+    if (m == 0) return f.constant(true);
+
+    PropositionalConstraint[] pc = ground(f);
+    if (pc.length == 1) return pc[0];
+
+    return f.atLeast(pc, m);
+  }
+
+
   /**
     * The hash code of a <code>AtLeastQuantifier</code> is the sum of the hash
     * codes of its children plus one.
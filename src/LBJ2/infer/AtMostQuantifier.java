@@ -101,6 +101,24 @@ public class AtMostQuantifier extends Quantifier
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    return
+      new AtLeastQuantifier(quantificationVariable, collection,
+                            new FirstOrderNegation(constraint),
+                            collection.size() - m)
+      .propositionalize(f);
+  }
+
+
   /**
     * The hash code of a <code>AtMostQuantifier</code> is the sum of the hash
     * codes of its children.
@@ -0,0 +1,1231 @@
+package LBJ2.infer;
+
+import java.util.*;
+
+
+/**
+  * A pure Java {@link ILPSolver} for problems over Boolean variables.  It
+  * needs no native library, so it can be used wherever LBJ itself runs.
+  * The linear programming relaxation of the problem, in which every
+  * variable may take any value between 0 and 1, is solved with a bounded
+  * dual simplex method, and a depth first branch and bound search over the
+  * fractional variables of the relaxation's solutions finds the optimal
+  * integer solution.
+  *
+  * <p> The constraint matrix is kept in sparse rows and columns, and the
+  * inverse of the simplex basis is kept in product form as a list of sparse
+  * elementary column transformations, so that the work done in each simplex
+  * iteration depends on the number of non-zero coefficients in the problem
+  * rather than on its dimensions.  Since every variable is bounded, the basis
+  * made of the constraints' slack variables is always dual feasible, and it
+  * remains dual feasible when the search changes a variable's bounds.  The
+  * search therefore starts every subproblem from the previous subproblem's
+  * optimal basis.
+  *
+  * <p> All the methods of this class are <code>synchronized</code>, and an
+  * instance keeps no state outside itself, so different instances can solve
+  * different problems in different threads at the same time.  If the thread
+  * running {@link #solve()} is interrupted, or the
+  * {@link #setDeadline(long) deadline} passes, the search stops and reports
+  * that no solution was found.
+ **/
+public class BranchAndBoundILPSolver implements TimeLimitedILPSolver
+{
+  /** Indicates a constraint of the form <code>x * a = b</code>. */
+  private static final byte EQUAL = 0;
+  /** Indicates a constraint of the form <code>x * a &gt;= b</code>. */
+  private static final byte GREATER = 1;
+  /** Indicates a constraint of the form <code>x * a &lt;= b</code>. */
+  private static final byte LESS = 2;
+
+  /** The result of a linear program that was solved to optimality. */
+  private static final int OPTIMAL = 0;
+  /** The result of a linear program with no feasible solution. */
+  private static final int INFEASIBLE = 1;
+  /** The result of a linear program the simplex method couldn't solve. */
+  private static final int FAILED = 2;
+
+  /** Variable values within this distance of their bounds are feasible. */
+  private static final double primalTolerance = 1e-7;
+  /** Reduced costs within this distance of zero are dual feasible. */
+  private static final double dualTolerance = 1e-7;
+  /** Smaller pivot elements are considered to be zero. */
+  private static final double pivotTolerance = 1e-9;
+  /** Values within this distance of 0 or 1 are considered integral. */
+  private static final double integralityTolerance = 1e-6;
+  /**
+    * Subproblems whose relaxations can't beat the best integer solution by
+    * this fraction of its objective value are pruned.
+   **/
+  private static final double objectiveTolerance = 1e-9;
+  /** Elementary transformations smaller than this are dropped. */
+  private static final double dropTolerance = 1e-12;
+  /** The basis inverse is recomputed after this many simplex iterations. */
+  private static final int refactorizationInterval = 100;
+  /**
+    * After this many consecutive simplex iterations that don't change the
+    * objective value, the pivoting rules switch to Bland's rule so that the
+    * simplex method can't cycle.
+   **/
+  private static final int degenerateIterations = 50;
+
+
+  /** Indicates whether this problem instance has been solved already. */
+  private boolean solved;
+  /**
+    * <code>true</code> if the ILP problem should be printed when invoking
+    * {@link #solve()}.
+   **/
+  private boolean printProblem;
+  /** Whether the objective function is to be maximized. */
+  private boolean maximize;
+  /** The number of variables in the optimization problem. */
+  private int variables;
+  /** The objective function coefficients of the variables. */
+  private double[] objective;
+  /** The number of constraints in the optimization problem. */
+  private int constraints;
+  /** The indexes of the variables in each constraint. */
+  private int[][] constraintIndexes;
+  /** The coefficients of the variables in each constraint. */
+  private double[][] constraintCoefficients;
+  /** The type of each constraint; one of {@link #EQUAL}, etc. */
+  private byte[] constraintTypes;
+  /** The constant on the right hand side of each constraint. */
+  private double[] constraintBounds;
+  /** The value of each variable in the optimal solution. */
+  private boolean[] solution;
+  /** When {@link #solve()} gives up, or 0. */
+  private long deadline;
+  /** Whether the last call to {@link #solve()} gave up at the deadline. */
+  private boolean timedOut;
+
+  // The remaining fields represent the linear program while solve() runs.
+  // Variables 0 through n - 1 are the problem's variables, and variable
+  // n + i is the slack variable of constraint i, defined so that constraint
+  // i reads a_i * x + s_i = 0.
+
+  /** The number of problem variables in the linear program. */
+  private int n;
+  /** The number of constraints in the linear program. */
+  private int m;
+  /** Where each column's entries begin in {@link #columnRows}. */
+  private int[] columnStart;
+  /** The row of each non-zero entry of the constraint matrix by column. */
+  private int[] columnRows;
+  /** The value of each non-zero entry of the constraint matrix by column. */
+  private double[] columnValues;
+  /** Where each row's entries begin in {@link #rowColumns}. */
+  private int[] rowStart;
+  /** The column of each non-zero entry of the constraint matrix by row. */
+  private int[] rowColumns;
+  /** The value of each non-zero entry of the constraint matrix by row. */
+  private double[] rowValues;
+  /** The cost of each variable, minimized by the linear program. */
+  private double[] cost;
+  /** The lower bound of each variable. */
+  private double[] lower;
+  /** The upper bound of each variable. */
+  private double[] upper;
+  /** The current value of each variable. */
+  private double[] value;
+  /** The current reduced cost of each non-basic variable. */
+  private double[] reducedCost;
+  /** Whether each non-basic variable is at its upper bound. */
+  private boolean[] atUpper;
+  /** The variable that is basic in each row of the basis. */
+  private int[] head;
+  /** The row of the basis of each variable, or -1 if it's non-basic. */
+  private int[] position;
+  /** The number of elementary transformations in the basis inverse. */
+  private int etas;
+  /** The number of simplex iterations since the basis was factored. */
+  private int updates;
+  /** The pivot row of each elementary transformation. */
+  private int[] etaPivot;
+  /** Where each transformation's entries begin in {@link #etaIndex}. */
+  private int[] etaStart;
+  /** The rows of the entries of the elementary transformations. */
+  private int[] etaIndex;
+  /** The values of the entries of the elementary transformations. */
+  private double[] etaValue;
+  /** Work space indexed by row. */
+  private double[] rowWork;
+  /** Work space indexed by row. */
+  private double[] columnWork;
+  /** Work space holding the pivot row, indexed by variable. */
+  private double[] pivotRow;
+  /** The variables with entries in {@link #pivotRow}. */
+  private int[] pivotRowIndexes;
+  /** Marks the variables in {@link #pivotRowIndexes}. */
+  private boolean[] inPivotRow;
+
+
+  /** Creates an empty problem. */
+  public BranchAndBoundILPSolver() { this(false); }
+
+  /**
+    * Creates an empty problem.
+    *
+    * @param p  Set <code>true</code> to cause a textual representation of the
+    *           problem to be printed to <code>STDOUT</code> when invoking the
+    *           {@link #solve()} method before the solution is carried out.
+   **/
+  public BranchAndBoundILPSolver(boolean p)
+  {
+    printProblem = p;
+    reset();
+  }
+
+
+  /**
+    * This method clears the all constraints and variables out of the ILP
+    * solver's problem representation, bringing the <code>ILPSolver</code>
+    * instance back to the state it was in when first constructed.
+   **/
+  public synchronized void reset()
+  {
+    variables = 0;
+    objective = new double[16];
+    constraints = 0;
+    constraintIndexes = new int[16][];
+    constraintCoefficients = new double[16][];
+    constraintTypes = new byte[16];
+    constraintBounds = new double[16];
+    solution = null;
+    solved = false;
+  }
+
+
+  /**
+    * Tests whether the problem represented by this <code>ILPSolver</code>
+    * instance has been solved already.
+   **/
+  public synchronized boolean isSolved() { return solved; }
+
+
+  /**
+    * Sets the time at which {@link #solve()} gives up.
+    *
+    * @param d  The deadline, as returned by
+    *           <code>System.currentTimeMillis()</code>, or 0 for no
+    *           deadline.
+    * @return   <code>true</code>.
+   **/
+  public synchronized boolean setDeadline(long d)
+  {
+    deadline = d;
+    return true;
+  }
+
+
+  /**
+    * Tests whether the most recent call to {@link #solve()} gave up because
+    * the deadline passed.
+   **/
+  public synchronized boolean isTimedOut() { return timedOut; }
+
+
+  /**
+    * Determines whether the deadline has passed, setting {@link #timedOut}
+    * if it has.
+   **/
+  private boolean pastDeadline()
+  {
+    if (deadline != 0 && System.currentTimeMillis() >= deadline)
+      timedOut = true;
+    return timedOut;
+  }
+
+
+  /**
+    * Sets the direction of the objective function.
+    *
+    * @param d  <code>true</code> if the objective function is to be
+    *           maximized.
+   **/
+  public synchronized void setMaximize(boolean d) { maximize = d; }
+
+
+  /**
+    * Adds a new Boolean variable (an integer variable constrained to take
+    * either the value 0 or the value 1) with the specified coefficient in the
+    * objective function to the problem.
+    *
+    * @param c  The objective function coefficient for the new Boolean
+    *           variable.
+    * @return   The index of the created variable.
+   **/
+  public synchronized int addBooleanVariable(double c)
+  {
+    if (variables == objective.length)
+    {
+      double[] t = new double[2 * variables];
+      System.arraycopy(objective, 0, t, 0, variables);
+      objective = t;
+    }
+
+    objective[variables] = c;
+    return variables++;
+  }
+
+
+  /**
+    * Adds a general, multi-valued discrete variable, which is implemented as
+    * a set of Boolean variables, one per value of the discrete variable, with
+    * exactly one of those variables set <code>true</code> at any given time.
+    * This method simply calls {@link #addBooleanVariable(double)} repeatedly
+    * and then adds an equality constraint.
+    *
+    * @param c  The objective function coefficients for the new Boolean
+    *           variables.
+    * @return   The indexes of the newly created variables.
+   **/
+  public synchronized int[] addDiscreteVariable(double[] c)
+  {
+    int[] result = new int[c.length];
+    for (int i = 0; i < c.length; ++i) result[i] = addBooleanVariable(c[i]);
+
+    double[] coefficients = new double[c.length];
+    Arrays.fill(coefficients, 1);
+    addEqualityConstraint(result, coefficients, 1);
+    return result;
+  }
+
+
+  /**
+    * Adds a general, multi-valued discrete variable, which is implemented as
+    * a set of Boolean variables, one per value of the discrete variable, with
+    * exactly one of those variables set <code>true</code> at any given time.
+    * This method simply calls {@link #addBooleanVariable(double)} repeatedly
+    * and then adds an equality constraint.
+    *
+    * @param c  An array of {@link LBJ2.classify.Score}s containing the
+    *           objective function coefficients for the new Boolean variables.
+    * @return   The indexes of the newly created variables.
+   **/
+  public synchronized int[] addDiscreteVariable(LBJ2.classify.Score[] c)
+  {
+    int[] result = new int[c.length];
+    for (int i = 0; i < c.length; ++i)
+      result[i] = addBooleanVariable(c[i].score);
+
+    double[] coefficients = new double[c.length];
+    Arrays.fill(coefficients, 1);
+    addEqualityConstraint(result, coefficients, 1);
+    return result;
+  }
+
+
+  /**
+    * Adds a new fixed constraint to the problem.  The two array arguments
+    * must be the same length, as their elements correspond to each other.
+    * Variables whose coefficients are zero need not be mentioned.  Variables
+    * that are mentioned must have previously been added via
+    * {@link #addBooleanVariable(double)} or
+    * {@link #addDiscreteVariable(double[])}.  The resulting constraint has
+    * the form:
+    * <blockquote> <code>x<sub>i</sub> * a = b</code> </blockquote>
+    * where <code>x<sub>i</sub></code> represents the inference variables
+    * whose indexes are contained in the array <code>i</code> and
+    * <code>*</code> represents dot product.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param b  The new constraint will enforce equality with this constant.
+   **/
+  public synchronized void addEqualityConstraint(int[] i, double[] a,
+                                                 double b)
+  {
+    addConstraint(i, a, EQUAL, b);
+  }
+
+
+  /**
+    * Adds a new lower bounded constraint to the problem.  The two array
+    * arguments must be the same length, as their elements correspond to each
+    * other.  Variables whose coefficients are zero need not be mentioned.
+    * Variables that are mentioned must have previously been added via
+    * {@link #addBooleanVariable(double)} or
+    * {@link #addDiscreteVariable(double[])}.  The resulting constraint has
+    * the form:
+    * <blockquote> <code>x<sub>i</sub> * a &gt;= b</code> </blockquote>
+    * where <code>x<sub>i</sub></code> represents the inference variables
+    * whose indexes are contained in the array <code>i</code> and
+    * <code>*</code> represents dot product.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param b  The lower bound for the new constraint.
+   **/
+  public synchronized void addGreaterThanConstraint(int[] i, double[] a,
+                                                    double b)
+  {
+    addConstraint(i, a, GREATER, b);
+  }
+
+
+  /**
+    * Adds a new upper bounded constraint to the problem.  The two array
+    * arguments must be the same length, as their elements correspond to each
+    * other.  Variables whose coefficients are zero need not be mentioned.
+    * Variables that are mentioned must have previously been added via
+    * {@link #addBooleanVariable(double)} or
+    * {@link #addDiscreteVariable(double[])}.  The resulting constraint has
+    * the form:
+    * <blockquote> <code>x<sub>i</sub> * a &lt;= b</code> </blockquote>
+    * where <code>x<sub>i</sub></code> represents the inference variables
+    * whose indexes are contained in the array <code>i</code> and
+    * <code>*</code> represents dot product.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param b  The upper bound for the new constraint.
+   **/
+  public synchronized void addLessThanConstraint(int[] i, double[] a,
+                                                 double b)
+  {
+    addConstraint(i, a, LESS, b);
+  }
+
+
+  /**
+    * Stores a new constraint.  The arrays are copied, so the caller may
+    * reuse them.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param t  The type of the constraint.
+    * @param b  The constant on the right hand side of the constraint.
+   **/
+  private void addConstraint(int[] i, double[] a, byte t, double b)
+  {
+    if (constraints == constraintTypes.length)
+    {
+      int length = 2 * constraints;
+      int[][] indexes = new int[length][];
+      System.arraycopy(constraintIndexes, 0, indexes, 0, constraints);
+      constraintIndexes = indexes;
+      double[][] coefficients = new double[length][];
+      System.arraycopy(constraintCoefficients, 0, coefficients, 0,
+                       constraints);
+      constraintCoefficients = coefficients;
+      byte[] types = new byte[length];
+      System.arraycopy(constraintTypes, 0, types, 0, constraints);
+      constraintTypes = types;
+      double[] bounds = new double[length];
+      System.arraycopy(constraintBounds, 0, bounds, 0, constraints);
+      constraintBounds = bounds;
+    }
+
+    constraintIndexes[constraints] = (int[]) i.clone();
+    constraintCoefficients[constraints] = (double[]) a.clone();
+    constraintTypes[constraints] = t;
+    constraintBounds[constraints] = b;
+    ++constraints;
+  }
+
+
+  /**
+    * Solves the problem with branch and bound over the linear programming
+    * relaxation.
+    *
+    * @return <code>true</code> iff an optimal integer solution was found.
+   **/
+  public synchronized boolean solve() throws Exception
+  {
+    if (printProblem)
+    {
+      StringBuffer buffer = new StringBuffer();
+      write(buffer);
+      System.out.print(buffer);
+    }
+
+    timedOut = false;
+    buildLinearProgram();
+
+    try { solved = branchAndBound(); }
+    finally { releaseLinearProgram(); }
+
+    return solved;
+  }
+
+
+  /**
+    * When the problem has been solved, use this method to retrieve the value
+    * of any Boolean inference variable.  The result of this method is
+    * undefined when the problem has not yet been solved.
+    *
+    * @param index  The index of the variable whose value is requested.
+    * @return       The value of the variable.
+   **/
+  public synchronized boolean getBooleanValue(int index)
+  {
+    return solution[index];
+  }
+
+
+  /**
+    * Writes the optimization problem that this solver represents into the
+    * specified buffer.
+    *
+    * @param buffer The buffer to write in.
+   **/
+  public synchronized void write(StringBuffer buffer)
+  {
+    if (maximize) buffer.append("max");
+    else buffer.append("min");
+
+    for (int j = 0; j < variables; ++j)
+    {
+      buffer.append(" ");
+      if (objective[j] >= 0) buffer.append("+");
+      buffer.append(objective[j] + " x_" + j);
+    }
+
+    buffer.append("\n");
+
+    for (int i = 0; i < constraints; ++i)
+    {
+      int[] indexes = constraintIndexes[i];
+      double[] coefficients = constraintCoefficients[i];
+
+      for (int j = 0; j < indexes.length; ++j)
+      {
+        buffer.append(" ");
+        if (coefficients[j] >= 0) buffer.append("+");
+        buffer.append(coefficients[j] + " x_" + indexes[j]);
+      }
+
+      if (constraintTypes[i] == EQUAL) buffer.append(" = ");
+      else if (constraintTypes[i] == GREATER) buffer.append(" >= ");
+      else buffer.append(" <= ");
+      buffer.append(constraintBounds[i]);
+      buffer.append("\n");
+    }
+  }
+
+
+  /**
+    * Builds the sparse representation of the linear programming relaxation
+    * and starts it from the slack basis.
+   **/
+  private void buildLinearProgram()
+  {
+    n = variables;
+    m = constraints;
+    int total = n + m;
+
+    rowStart = new int[m + 1];
+    int entries = 0;
+    for (int i = 0; i < m; ++i) entries += constraintIndexes[i].length;
+    rowColumns = new int[entries];
+    rowValues = new double[entries];
+
+    // A variable mentioned more than once in a constraint gets the sum of
+    // its coefficients.
+    int[] lastRow = new int[n];
+    Arrays.fill(lastRow, -1);
+    int[] last = new int[n];
+    int[] columnCounts = new int[n];
+    entries = 0;
+
+    for (int i = 0; i < m; ++i)
+    {
+      rowStart[i] = entries;
+      int[] indexes = constraintIndexes[i];
+      double[] coefficients = constraintCoefficients[i];
+
+      for (int k = 0; k < indexes.length; ++k)
+      {
+        int j = indexes[k];
+        if (lastRow[j] == i) rowValues[last[j]] += coefficients[k];
+        else
+        {
+          lastRow[j] = i;
+          last[j] = entries;
+          rowColumns[entries] = j;
+          rowValues[entries++] = coefficients[k];
+        }
+      }
+
+      int kept = rowStart[i];
+      for (int k = rowStart[i]; k < entries; ++k)
+        if (rowValues[k] != 0)
+        {
+          rowColumns[kept] = rowColumns[k];
+          rowValues[kept++] = rowValues[k];
+          ++columnCounts[rowColumns[k]];
+        }
+      entries = kept;
+    }
+
+    rowStart[m] = entries;
+
+    columnStart = new int[n + 1];
+    for (int j = 0; j < n; ++j)
+      columnStart[j + 1] = columnStart[j] + columnCounts[j];
+    columnRows = new int[entries];
+    columnValues = new double[entries];
+    int[] next = new int[n];
+    System.arraycopy(columnStart, 0, next, 0, n);
+
+    for (int i = 0; i < m; ++i)
+      for (int k = rowStart[i]; k < rowStart[i + 1]; ++k)
+      {
+        int j = rowColumns[k];
+        columnRows[next[j]] = i;
+        columnValues[next[j]++] = rowValues[k];
+      }
+
+    cost = new double[total];
+    lower = new double[total];
+    upper = new double[total];
+    for (int j = 0; j < n; ++j)
+    {
+      cost[j] = maximize ? -objective[j] : objective[j];
+      upper[j] = 1;
+    }
+
+    for (int i = 0; i < m; ++i)
+    {
+      double b = constraintBounds[i];
+      lower[n + i] =
+        constraintTypes[i] == GREATER ? Double.NEGATIVE_INFINITY : -b;
+      upper[n + i] =
+        constraintTypes[i] == LESS ? Double.POSITIVE_INFINITY : -b;
+    }
+
+    value = new double[total];
+    reducedCost = new double[total];
+    atUpper = new boolean[total];
+    head = new int[m];
+    position = new int[total];
+    etaPivot = new int[refactorizationInterval + 1];
+    etaStart = new int[refactorizationInterval + 2];
+    etaIndex = new int[Math.max(16, 4 * m)];
+    etaValue = new double[etaIndex.length];
+    rowWork = new double[m];
+    columnWork = new double[m];
+    pivotRow = new double[total];
+    pivotRowIndexes = new int[total];
+    inPivotRow = new boolean[total];
+
+    slackBasis();
+  }
+
+
+  /** Lets the garbage collector have the linear program. */
+  private void releaseLinearProgram()
+  {
+    columnStart = columnRows = rowStart = rowColumns = null;
+    columnValues = rowValues = cost = lower = upper = value = null;
+    reducedCost = null;
+    atUpper = null;
+    head = position = etaPivot = etaStart = etaIndex = null;
+    etaValue = rowWork = columnWork = pivotRow = null;
+    pivotRowIndexes = null;
+    inPivotRow = null;
+  }
+
+
+  /**
+    * Searches depth first for the best integer solution, branching on the
+    * most fractional variable of each subproblem's relaxation and trying the
+    * value it is closest to first.
+    *
+    * @return <code>true</code> iff an optimal integer solution was found.
+   **/
+  private boolean branchAndBound()
+  {
+    double best = Double.POSITIVE_INFINITY;
+    boolean[] incumbent = null;
+
+    // Each entry on the stack fixes one variable to one value after undoing
+    // the fixings made below the point where the entry was pushed.
+    int[] stackVariable = new int[16];
+    boolean[] stackValue = new boolean[16];
+    int[] stackTrail = new int[16];
+    int stackSize = 0;
+    int[] trail = new int[Math.max(1, n)];
+    int trailSize = 0;
+    boolean root = true;
+
+    while (root || stackSize > 0)
+    {
+      if (Thread.currentThread().isInterrupted() || pastDeadline())
+        return false;
+
+      if (!root)
+      {
+        --stackSize;
+        while (trailSize > stackTrail[stackSize])
+        {
+          int j = trail[--trailSize];
+          lower[j] = 0;
+          upper[j] = 1;
+        }
+
+        int j = stackVariable[stackSize];
+        lower[j] = upper[j] = stackValue[stackSize] ? 1 : 0;
+        trail[trailSize++] = j;
+      }
+
+      root = false;
+      int status = solveRelaxation();
+      if (status == FAILED) return false;
+      if (status == INFEASIBLE) continue;
+
+      double bound = 0;
+      for (int j = 0; j < n; ++j) bound += cost[j] * value[j];
+      if (incumbent != null
+          && bound >= best - objectiveTolerance * (1 + Math.abs(best)))
+        continue;
+
+      int branch = -1;
+      double fractionality = integralityTolerance;
+      for (int j = 0; j < n; ++j)
+      {
+        double f = Math.min(value[j], 1 - value[j]);
+        if (f > fractionality)
+        {
+          branch = j;
+          fractionality = f;
+        }
+      }
+
+      if (branch == -1)
+      {
+        best = bound;
+        if (incumbent == null) incumbent = new boolean[n];
+        for (int j = 0; j < n; ++j) incumbent[j] = value[j] > 0.5;
+        continue;
+      }
+
+      if (stackSize + 2 > stackVariable.length)
+      {
+        int length = 2 * stackVariable.length;
+        int[] v = new int[length];
+        System.arraycopy(stackVariable, 0, v, 0, stackSize);
+        stackVariable = v;
+        boolean[] b = new boolean[length];
+        System.arraycopy(stackValue, 0, b, 0, stackSize);
+        stackValue = b;
+        int[] t = new int[length];
+        System.arraycopy(stackTrail, 0, t, 0, stackSize);
+        stackTrail = t;
+      }
+
+      boolean first = value[branch] > 0.5;
+      stackVariable[stackSize] = branch;
+      stackValue[stackSize] = !first;
+      stackTrail[stackSize++] = trailSize;
+      stackVariable[stackSize] = branch;
+      stackValue[stackSize] = first;
+      stackTrail[stackSize++] = trailSize;
+    }
+
+    if (incumbent == null) return false;
+    solution = incumbent;
+    return true;
+  }
+
+
+  /**
+    * Solves the linear programming relaxation under the current bounds,
+    * starting from the current basis.
+    *
+    * @return One of {@link #OPTIMAL}, {@link #INFEASIBLE}, or
+    *         {@link #FAILED}.
+   **/
+  private int solveRelaxation()
+  {
+    placeNonbasicVariables();
+    computePrimalValues();
+    int status = dualSimplex();
+
+    if (status == FAILED)
+    {
+      slackBasis();
+      status = dualSimplex();
+    }
+
+    return status;
+  }
+
+
+  /**
+    * Moves every non-basic problem variable to the bound that keeps its
+    * reduced cost dual feasible, or to its value if it is fixed.
+   **/
+  private void placeNonbasicVariables()
+  {
+    for (int j = 0; j < n; ++j)
+      if (position[j] == -1)
+      {
+        atUpper[j] = lower[j] != upper[j] && reducedCost[j] < 0;
+        value[j] = atUpper[j] ? upper[j] : lower[j];
+      }
+  }
+
+
+  /**
+    * Discards the basis inverse and makes every slack variable basic.  This
+    * basis is dual feasible no matter what the bounds are.
+   **/
+  private void slackBasis()
+  {
+    etas = updates = 0;
+    etaStart[0] = 0;
+
+    for (int j = 0; j < n; ++j)
+    {
+      position[j] = -1;
+      reducedCost[j] = cost[j];
+    }
+
+    for (int i = 0; i < m; ++i)
+    {
+      head[i] = n + i;
+      position[n + i] = i;
+      reducedCost[n + i] = 0;
+    }
+
+    placeNonbasicVariables();
+    computePrimalValues();
+  }
+
+
+  /**
+    * Computes the values of the basic variables from the values of the
+    * non-basic variables.
+   **/
+  private void computePrimalValues()
+  {
+    double[] v = columnWork;
+    Arrays.fill(v, 0);
+
+    for (int j = 0; j < n; ++j)
+      if (position[j] == -1 && value[j] != 0)
+        for (int k = columnStart[j]; k < columnStart[j + 1]; ++k)
+          v[columnRows[k]] += columnValues[k] * value[j];
+
+    for (int i = 0; i < m; ++i)
+      if (position[n + i] == -1) v[i] += value[n + i];
+
+    ftran(v);
+    for (int p = 0; p < m; ++p) value[head[p]] = -v[p];
+  }
+
+
+  /** Computes the reduced costs of the non-basic variables. */
+  private void computeReducedCosts()
+  {
+    double[] y = rowWork;
+    for (int p = 0; p < m; ++p) y[p] = cost[head[p]];
+    btran(y);
+
+    for (int j = 0; j < n; ++j)
+    {
+      if (position[j] != -1)
+      {
+        reducedCost[j] = 0;
+        continue;
+      }
+
+      double d = cost[j];
+      for (int k = columnStart[j]; k < columnStart[j + 1]; ++k)
+        d -= y[columnRows[k]] * columnValues[k];
+      reducedCost[j] = d;
+    }
+
+    for (int i = 0; i < m; ++i)
+      reducedCost[n + i] = position[n + i] == -1 ? -y[i] : 0;
+  }
+
+
+  /**
+    * Multiplies the given vector by the basis inverse.
+    *
+    * @param v  The vector, which is overwritten with the result.
+   **/
+  private void ftran(double[] v)
+  {
+    for (int e = 0; e < etas; ++e)
+    {
+      int r = etaPivot[e];
+      double t = v[r];
+      if (t == 0) continue;
+      v[r] = 0;
+      for (int k = etaStart[e]; k < etaStart[e + 1]; ++k)
+        v[etaIndex[k]] += etaValue[k] * t;
+    }
+  }
+
+
+  /**
+    * Multiplies the given row vector by the basis inverse.
+    *
+    * @param v  The vector, which is overwritten with the result.
+   **/
+  private void btran(double[] v)
+  {
+    for (int e = etas - 1; e >= 0; --e)
+    {
+      double s = 0;
+      for (int k = etaStart[e]; k < etaStart[e + 1]; ++k)
+        s += etaValue[k] * v[etaIndex[k]];
+      v[etaPivot[e]] = s;
+    }
+  }
+
+
+  /**
+    * Appends the elementary transformation that pivots the given column
+    * into the basis at the given row.
+    *
+    * @param column The entering column multiplied by the basis inverse.
+    * @param r      The pivot row.
+   **/
+  private void addEta(double[] column, int r)
+  {
+    if (etas + 1 == etaPivot.length)
+    {
+      int[] p = new int[2 * etaPivot.length];
+      System.arraycopy(etaPivot, 0, p, 0, etas);
+      etaPivot = p;
+      int[] s = new int[2 * etaStart.length];
+      System.arraycopy(etaStart, 0, s, 0, etas + 1);
+      etaStart = s;
+    }
+
+    int start = etaStart[etas];
+    int needed = start + m;
+    if (needed > etaIndex.length)
+    {
+      int length = Math.max(needed, 2 * etaIndex.length);
+      int[] i = new int[length];
+      System.arraycopy(etaIndex, 0, i, 0, start);
+      etaIndex = i;
+      double[] v = new double[length];
+      System.arraycopy(etaValue, 0, v, 0, start);
+      etaValue = v;
+    }
+
+    double pivot = column[r];
+    int k = start;
+    etaIndex[k] = r;
+    etaValue[k++] = 1 / pivot;
+
+    for (int i = 0; i < m; ++i)
+      if (i != r && Math.abs(column[i]) > dropTolerance)
+      {
+        etaIndex[k] = i;
+        etaValue[k++] = -column[i] / pivot;
+      }
+
+    etaPivot[etas++] = r;
+    etaStart[etas] = k;
+  }
+
+
+  /**
+    * Recomputes the basis inverse from scratch, along with the reduced costs
+    * and basic variable values, which accumulate rounding errors as the
+    * simplex method runs.
+    *
+    * @return <code>false</code> iff the basis was found to be numerically
+    *         singular or dual infeasible, in which case the caller should
+    *         fall back on the slack basis.
+   **/
+  private boolean refactor()
+  {
+    boolean[] basic = new boolean[n + m];
+    int structurals = 0;
+    for (int p = 0; p < m; ++p)
+    {
+      basic[head[p]] = true;
+      if (head[p] < n) ++structurals;
+    }
+
+    int[] entering = new int[structurals];
+    structurals = 0;
+    for (int j = 0; j < n; ++j) if (basic[j]) entering[structurals++] = j;
+
+    etas = updates = 0;
+    etaStart[0] = 0;
+    for (int j = 0; j < n; ++j) position[j] = -1;
+    for (int i = 0; i < m; ++i)
+    {
+      head[i] = n + i;
+      position[n + i] = i;
+    }
+
+    // Pivoting the sparsest columns in first keeps the inverse sparse.
+    for (int a = 1; a < structurals; ++a)
+    {
+      int j = entering[a];
+      int count = columnStart[j + 1] - columnStart[j];
+      int b = a;
+      for (; b > 0; --b)
+      {
+        int o = entering[b - 1];
+        if (columnStart[o + 1] - columnStart[o] <= count) break;
+        entering[b] = o;
+      }
+      entering[b] = j;
+    }
+
+    boolean singular = false;
+
+    for (int a = 0; a < structurals; ++a)
+    {
+      int j = entering[a];
+      double[] column = loadColumn(j);
+      int r = -1;
+      double largest = pivotTolerance;
+
+      for (int i = 0; i < m; ++i)
+      {
+        int h = head[i];
+        if (h >= n && !basic[h] && Math.abs(column[i]) > largest)
+          largest = Math.abs(column[i]);
+      }
+
+      // Among the acceptably large pivots, the one in the row with the
+      // fewest entries spreads the least fill into later columns.
+      int fewest = Integer.MAX_VALUE;
+      for (int i = 0; i < m; ++i)
+      {
+        int h = head[i];
+        if (h >= n && !basic[h] && Math.abs(column[i]) >= 0.1 * largest
+            && rowStart[i + 1] - rowStart[i] < fewest)
+        {
+          r = i;
+          fewest = rowStart[i + 1] - rowStart[i];
+        }
+      }
+
+      if (largest == pivotTolerance) r = -1;
+      if (r == -1) singular = true;
+      else
+      {
+        addEta(column, r);
+        position[head[r]] = -1;
+        head[r] = j;
+        position[j] = r;
+      }
+    }
+
+    if (singular) return false;
+
+    computeReducedCosts();
+
+    for (int j = n; j < n + m; ++j)
+      if (position[j] == -1
+          && (atUpper[j] ? reducedCost[j] > dualTolerance
+                         : reducedCost[j] < -dualTolerance)
+          && lower[j] != upper[j])
+        return false;
+
+    placeNonbasicVariables();
+    computePrimalValues();
+    return true;
+  }
+
+
+  /**
+    * Loads a column of the constraint matrix multiplied by the basis
+    * inverse into {@link #columnWork}.
+    *
+    * @param j  The variable whose column is loaded.
+    * @return   {@link #columnWork}.
+   **/
+  private double[] loadColumn(int j)
+  {
+    double[] column = columnWork;
+    Arrays.fill(column, 0);
+    if (j < n)
+      for (int k = columnStart[j]; k < columnStart[j + 1]; ++k)
+        column[columnRows[k]] = columnValues[k];
+    else column[j - n] = 1;
+    ftran(column);
+    return column;
+  }
+
+
+  /**
+    * Runs the bounded dual simplex method from the current basis, which
+    * must be dual feasible.
+    *
+    * @return One of {@link #OPTIMAL}, {@link #INFEASIBLE}, or
+    *         {@link #FAILED}.
+   **/
+  private int dualSimplex()
+  {
+    int limit = 50 * (n + m) + 1000;
+    int degenerate = 0;
+    boolean refactored = false;
+
+    for (int iteration = 0; iteration < limit; ++iteration)
+    {
+      if ((iteration & 63) == 63 && pastDeadline()) return FAILED;
+
+      if (updates >= refactorizationInterval)
+      {
+        if (!refactor()) return FAILED;
+        refactored = true;
+      }
+
+      boolean bland = degenerate > degenerateIterations;
+
+      // Choose the leaving variable.
+      int r = -1;
+      double worst = primalTolerance;
+      for (int p = 0; p < m; ++p)
+      {
+        int b = head[p];
+        double infeasibility = Math.max(lower[b] - value[b],
+                                        value[b] - upper[b]);
+        if (infeasibility > worst
+            && (!bland || r == -1 || b < head[r]))
+        {
+          r = p;
+          if (!bland) worst = infeasibility;
+        }
+      }
+
+      if (r == -1) return OPTIMAL;
+      int leaving = head[r];
+      boolean toLower = value[leaving] < lower[leaving];
+
+      // Compute the pivot row.
+      double[] rho = rowWork;
+      Arrays.fill(rho, 0);
+      rho[r] = 1;
+      btran(rho);
+      int size = 0;
+
+      for (int i = 0; i < m; ++i)
+      {
+        double ri = rho[i];
+        if (ri == 0) continue;
+
+        for (int k = rowStart[i]; k < rowStart[i + 1]; ++k)
+        {
+          int j = rowColumns[k];
+          if (position[j] != -1) continue;
+          if (!inPivotRow[j])
+          {
+            inPivotRow[j] = true;
+            pivotRowIndexes[size++] = j;
+          }
+          pivotRow[j] += ri * rowValues[k];
+        }
+
+        if (position[n + i] == -1)
+        {
+          inPivotRow[n + i] = true;
+          pivotRowIndexes[size++] = n + i;
+          pivotRow[n + i] = ri;
+        }
+      }
+
+      // Choose the entering variable.
+      int q = -1;
+      double ratio = Double.POSITIVE_INFINITY;
+      double qAlpha = 0;
+
+      for (int s = 0; s < size; ++s)
+      {
+        int j = pivotRowIndexes[s];
+        double alpha = pivotRow[j];
+        if (lower[j] == upper[j] || Math.abs(alpha) < pivotTolerance)
+          continue;
+        if (toLower == atUpper[j] ? alpha < 0 : alpha > 0) continue;
+
+        double d = atUpper[j] ? Math.max(0, -reducedCost[j])
+                              : Math.max(0, reducedCost[j]);
+        double t = d / Math.abs(alpha);
+
+        if (t < ratio - dropTolerance
+            || t <= ratio + dropTolerance
+               && (bland ? j < q : Math.abs(alpha) > Math.abs(qAlpha)))
+        {
+          q = j;
+          ratio = Math.min(t, ratio);
+          qAlpha = alpha;
+        }
+      }
+
+      if (q == -1)
+      {
+        clearPivotRow(size);
+        return INFEASIBLE;
+      }
+
+      double[] column = loadColumn(q);
+      double pivot = column[r];
+
+      if (Math.abs(pivot) < pivotTolerance
+          || Math.abs(pivot - qAlpha) > 1e-6 * (1 + Math.abs(pivot)))
+      {
+        clearPivotRow(size);
+        if (refactored || updates == 0) return FAILED;
+        if (!refactor()) return FAILED;
+        refactored = true;
+        continue;
+      }
+
+      // Update the reduced costs.
+      double theta = reducedCost[q] / qAlpha;
+      if (theta == 0) ++degenerate;
+      else degenerate = 0;
+
+      for (int s = 0; s < size; ++s)
+      {
+        int j = pivotRowIndexes[s];
+        reducedCost[j] -= theta * pivotRow[j];
+      }
+
+      reducedCost[q] = 0;
+      reducedCost[leaving] = -theta;
+      clearPivotRow(size);
+
+      // Update the primal values.
+      double bound = toLower ? lower[leaving] : upper[leaving];
+      double delta = (value[leaving] - bound) / pivot;
+      for (int p = 0; p < m; ++p)
+        if (column[p] != 0) value[head[p]] -= column[p] * delta;
+      value[q] += delta;
+      value[leaving] = bound;
+
+      // Update the basis.
+      addEta(column, r);
+      head[r] = q;
+      position[q] = r;
+      position[leaving] = -1;
+      atUpper[leaving] = !toLower;
+      refactored = false;
+      ++updates;
+    }
+
+    return FAILED;
+  }
+
+
+  /**
+    * Clears the pivot row work space.
+    *
+    * @param size The number of variables in the pivot row.
+   **/
+  private void clearPivotRow(int size)
+  {
+    for (int s = 0; s < size; ++s)
+    {
+      int j = pivotRowIndexes[s];
+      pivotRow[j] = 0;
+      inPivotRow[j] = false;
+    }
+  }
+}
@@ -0,0 +1,913 @@
+package LBJ2.infer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.*;
+import java.util.*;
+
+
+/**
+  * An {@link ILPSolver} that remembers the solutions of the problems it has
+  * solved, so that a problem seen before is answered without calling another
+  * <code>ILPSolver</code> at all.  Evaluating the same classifiers over the
+  * same test set produces exactly the same inference problems every time,
+  * and this class lets all but the first evaluation skip integer linear
+  * programming entirely.
+  *
+  * <p> The problem given to this solver is recorded rather than passed on.
+  * When {@link #solve()} is called, the recorded problem is summarized by a
+  * SHA-1 fingerprint of the objective function's direction, the number of
+  * variables, their objective function coefficients, and the constraints.
+  * The constraints are put in a canonical form first: variables mentioned
+  * more than once in a constraint have their coefficients summed, variables
+  * with zero coefficients are dropped, each constraint's variables are
+  * sorted by index, the constraints themselves are sorted, and duplicate
+  * constraints are dropped.  So, two problems that differ only in the order
+  * in which their constraints were added have the same fingerprint.  If the
+  * fingerprint has been seen before, the solution stored with it is
+  * returned.  Otherwise, the problem is handed to the underlying solver,
+  * whose problem is {@link ILPSolver#reset() reset} first, and its solution
+  * is stored.  Problems found to be infeasible are remembered as well.
+  *
+  * <p> Solutions are kept in a {@link Store}.  All the
+  * <code>CachingILPSolver</code>s constructed with the same file name share
+  * the same store, as do all those constructed without one.  A store with a
+  * file reads the solutions saved in it when it is first used and appends
+  * each new solution to it, so the cache survives from one run of a program
+  * to the next.  Several processes must not write the same file at once.
+  * Since the objective function coefficients are part of the fingerprint,
+  * retraining the classifiers makes old solutions unreachable rather than
+  * wrong, but nothing is ever removed from a store, so its file should be
+  * deleted when that happens.
+  *
+  * <p> For example, the following makes an inference reuse the solutions
+  * found by previous runs of the program:
+  *
+  * <blockquote>
+  *   <code>new ILPInference(new CachingILPSolver(new
+  *   BranchAndBoundILPSolver(), "solutions.cache"))</code>
+  * </blockquote>
+  *
+  * <p> All the methods of this class are <code>synchronized</code>, and so
+  * are those of {@link Store}.  Since the underlying solver is used only
+  * from within {@link #solve()}, an instance is safe to use from several
+  * threads as long as its underlying solver isn't shared with anything else.
+  *
+  * @author Nick Rizzolo
+ **/
+public class CachingILPSolver implements TimeLimitedILPSolver
+{
+  /** Identifies a solution cache file. */
+  private static final int magic = 0x4c424a43;
+  /** The version of the file format written by this class. */
+  private static final int version = 1;
+  /** The number of bytes in a fingerprint. */
+  private static final int fingerprintLength = 20;
+  /** The stores shared by all instances, keyed by file name. */
+  private static final HashMap<String, Store> stores =
+    new HashMap<String, Store>();
+
+
+  /**
+    * Retrieves the store of solutions kept in the specified file, reading it
+    * the first time it is requested.
+    *
+    * @param file The name of the file, or <code>null</code> for the store
+    *             kept only in memory.
+    * @return     The store.
+   **/
+  public static Store getStore(String file)
+  {
+    if (file != null) file = new File(file).getAbsolutePath();
+
+    synchronized (stores)
+    {
+      Store result = stores.get(file);
+      if (result == null)
+      {
+        result = new Store(file);
+        stores.put(file, result);
+      }
+
+      return result;
+    }
+  }
+
+
+  /** The solver that solves problems not found in the cache. */
+  protected ILPSolver solver;
+  /** The solutions of previously solved problems. */
+  protected Store store;
+  /** Indicates whether this problem instance has been solved already. */
+  private boolean solved;
+  /**
+    * Whether the last call to {@link #solve()} gave up because the
+    * underlying solver's deadline passed.
+   **/
+  private boolean timedOut;
+  /** Whether the objective function is to be maximized. */
+  private boolean maximize;
+  /** The number of variables in the optimization problem. */
+  private int variables;
+  /** The objective function coefficients of the variables. */
+  private double[] objective;
+  /** The number of constraints in the optimization problem. */
+  private int constraints;
+  /** The indexes of the variables in each constraint, in increasing order. */
+  private int[][] constraintIndexes;
+  /** The coefficients of the variables in each constraint. */
+  private double[][] constraintCoefficients;
+  /** The lower bound of each constraint's left hand side. */
+  private double[] constraintLower;
+  /** The upper bound of each constraint's left hand side. */
+  private double[] constraintUpper;
+  /** The value of each variable in the optimal solution, packed in bytes. */
+  private byte[] solution;
+
+
+  /**
+    * Creates a solver whose solutions are kept only in memory, in the store
+    * shared by all such solvers.
+    *
+    * @param s  The solver that solves problems not found in the cache.
+   **/
+  public CachingILPSolver(ILPSolver s) { this(s, null); }
+
+  /**
+    * Creates a solver whose solutions are also saved in the specified file.
+    *
+    * @param s  The solver that solves problems not found in the cache.
+    * @param f  The name of the file, or <code>null</code> to keep solutions
+    *           only in memory.
+   **/
+  public CachingILPSolver(ILPSolver s, String f)
+  {
+    solver = s;
+    store = getStore(f);
+    reset();
+  }
+
+
+  /** Returns the store in which this solver keeps its solutions. */
+  public Store getStore() { return store; }
+
+
+  /**
+    * This method clears the all constraints and variables out of the ILP
+    * solver's problem representation, bringing the <code>ILPSolver</code>
+    * instance back to the state it was in when first constructed.  The
+    * stored solutions are not affected.
+   **/
+  public synchronized void reset()
+  {
+    variables = 0;
+    objective = new double[16];
+    constraints = 0;
+    constraintIndexes = new int[16][];
+    constraintCoefficients = new double[16][];
+    constraintLower = new double[16];
+    constraintUpper = new double[16];
+    solution = null;
+    solved = false;
+    solver.reset();
+  }
+
+
+  /**
+    * Tests whether the problem represented by this <code>ILPSolver</code>
+    * instance has been solved already.
+   **/
+  public synchronized boolean isSolved() { return solved; }
+
+
+  /**
+    * Passes the deadline on to the underlying solver, if it honors
+    * deadlines.
+    *
+    * @param d  The deadline, as returned by
+    *           <code>System.currentTimeMillis()</code>, or 0 for no
+    *           deadline.
+    * @return   <code>true</code> iff the underlying solver honors deadlines.
+   **/
+  public synchronized boolean setDeadline(long d)
+  {
+    return solver instanceof TimeLimitedILPSolver
+           && ((TimeLimitedILPSolver) solver).setDeadline(d);
+  }
+
+
+  /**
+    * Tests whether the most recent call to {@link #solve()} gave up because
+    * the deadline passed.
+   **/
+  public synchronized boolean isTimedOut() { return timedOut; }
+
+
+  /**
+    * Sets the direction of the objective function.
+    *
+    * @param d  <code>true</code> if the objective function is to be
+    *           maximized.
+   **/
+  public synchronized void setMaximize(boolean d) { maximize = d; }
+
+
+  /**
+    * Adds a new Boolean variable (an integer variable constrained to take
+    * either the value 0 or the value 1) with the specified coefficient in the
+    * objective function to the problem.
+    *
+    * @param c  The objective function coefficient for the new Boolean
+    *           variable.
+    * @return   The index of the created variable.
+   **/
+  public synchronized int addBooleanVariable(double c)
+  {
+    if (variables == objective.length)
+    {
+      double[] t = new double[2 * variables];
+      System.arraycopy(objective, 0, t, 0, variables);
+      objective = t;
+    }
+
+    objective[variables] = c;
+    return variables++;
+  }
+
+
+  /**
+    * Adds a general, multi-valued discrete variable, which is implemented as
+    * a set of Boolean variables, one per value of the discrete variable, with
+    * exactly one of those variables set <code>true</code> at any given time.
+    * This method simply calls {@link #addBooleanVariable(double)} repeatedly
+    * and then adds an equality constraint.
+    *
+    * @param c  The objective function coefficients for the new Boolean
+    *           variables.
+    * @return   The indexes of the newly created variables.
+   **/
+  public synchronized int[] addDiscreteVariable(double[] c)
+  {
+    int[] result = new int[c.length];
+    for (int i = 0; i < c.length; ++i) result[i] = addBooleanVariable(c[i]);
+
+    double[] coefficients = new double[c.length];
+    Arrays.fill(coefficients, 1);
+    addEqualityConstraint(result, coefficients, 1);
+    return result;
+  }
+
+
+  /**
+    * Adds a general, multi-valued discrete variable, which is implemented as
+    * a set of Boolean variables, one per value of the discrete variable, with
+    * exactly one of those variables set <code>true</code> at any given time.
+    * This method simply calls {@link #addBooleanVariable(double)} repeatedly
+    * and then adds an equality constraint.
+    *
+    * @param c  An array of {@link LBJ2.classify.Score}s containing the
+    *           objective function coefficients for the new Boolean variables.
+    * @return   The indexes of the newly created variables.
+   **/
+  public synchronized int[] addDiscreteVariable(LBJ2.classify.Score[] c)
+  {
+    int[] result = new int[c.length];
+    for (int i = 0; i < c.length; ++i)
+      result[i] = addBooleanVariable(c[i].score);
+
+    double[] coefficients = new double[c.length];
+    Arrays.fill(coefficients, 1);
+    addEqualityConstraint(result, coefficients, 1);
+    return result;
+  }
+
+
+  /**
+    * Adds a new fixed constraint to the problem.  The two array arguments
+    * must be the same length, as their elements correspond to each other.
+    * Variables whose coefficients are zero need not be mentioned.  Variables
+    * that are mentioned must have previously been added via
+    * {@link #addBooleanVariable(double)} or
+    * {@link #addDiscreteVariable(double[])}.  The resulting constraint has
+    * the form:
+    * <blockquote> <code>x<sub>i</sub> * a = b</code> </blockquote>
+    * where <code>x<sub>i</sub></code> represents the inference variables
+    * whose indexes are contained in the array <code>i</code> and
+    * <code>*</code> represents dot product.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param b  The new constraint will enforce equality with this constant.
+   **/
+  public synchronized void addEqualityConstraint(int[] i, double[] a,
+                                                 double b)
+  {
+    addConstraint(i, a, b, b);
+  }
+
+
+  /**
+    * Adds a new lower bounded constraint to the problem.  The two array
+    * arguments must be the same length, as their elements correspond to each
+    * other.  Variables whose coefficients are zero need not be mentioned.
+    * Variables that are mentioned must have previously been added via
+    * {@link #addBooleanVariable(double)} or
+    * {@link #addDiscreteVariable(double[])}.  The resulting constraint has
+    * the form:
+    * <blockquote> <code>x<sub>i</sub> * a &gt;= b</code> </blockquote>
+    * where <code>x<sub>i</sub></code> represents the inference variables
+    * whose indexes are contained in the array <code>i</code> and
+    * <code>*</code> represents dot product.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param b  The lower bound for the new constraint.
+   **/
+  public synchronized void addGreaterThanConstraint(int[] i, double[] a,
+                                                    double b)
+  {
+    addConstraint(i, a, b, Double.POSITIVE_INFINITY);
+  }
+
+
+  /**
+    * Adds a new upper bounded constraint to the problem.  The two array
+    * arguments must be the same length, as their elements correspond to each
+    * other.  Variables whose coefficients are zero need not be mentioned.
+    * Variables that are mentioned must have previously been added via
+    * {@link #addBooleanVariable(double)} or
+    * {@link #addDiscreteVariable(double[])}.  The resulting constraint has
+    * the form:
+    * <blockquote> <code>x<sub>i</sub> * a &lt;= b</code> </blockquote>
+    * where <code>x<sub>i</sub></code> represents the inference variables
+    * whose indexes are contained in the array <code>i</code> and
+    * <code>*</code> represents dot product.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param b  The upper bound for the new constraint.
+   **/
+  public synchronized void addLessThanConstraint(int[] i, double[] a,
+                                                 double b)
+  {
+    addConstraint(i, a, Double.NEGATIVE_INFINITY, b);
+  }
+
+
+  /**
+    * Stores a new constraint of the form
+    * <code>l &lt;= x<sub>i</sub> * a &lt;= u</code> in canonical form.
+    * Variables mentioned more than once have their coefficients summed,
+    * variables whose coefficients are zero are dropped, and the rest are
+    * sorted by index.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param l  The lower bound of the constraint.
+    * @param u  The upper bound of the constraint.
+   **/
+  private void addConstraint(int[] i, double[] a, double l, double u)
+  {
+    if (constraints == constraintLower.length)
+    {
+      int length = 2 * constraints;
+      int[][] indexes = new int[length][];
+      System.arraycopy(constraintIndexes, 0, indexes, 0, constraints);
+      constraintIndexes = indexes;
+      double[][] coefficients = new double[length][];
+      System.arraycopy(constraintCoefficients, 0, coefficients, 0,
+                       constraints);
+      constraintCoefficients = coefficients;
+      double[] bounds = new double[length];
+      System.arraycopy(constraintLower, 0, bounds, 0, constraints);
+      constraintLower = bounds;
+      bounds = new double[length];
+      System.arraycopy(constraintUpper, 0, bounds, 0, constraints);
+      constraintUpper = bounds;
+    }
+
+    int[] indexes = (int[]) i.clone();
+    double[] coefficients = (double[]) a.clone();
+
+    // Insertion sort; constraints rarely mention more than a few variables,
+    // and they usually arrive nearly sorted.
+    for (int j = 1; j < indexes.length; ++j)
+    {
+      int index = indexes[j];
+      double coefficient = coefficients[j];
+      int k = j;
+      for (; k > 0 && indexes[k - 1] > index; --k)
+      {
+        indexes[k] = indexes[k - 1];
+        coefficients[k] = coefficients[k - 1];
+      }
+
+      indexes[k] = index;
+      coefficients[k] = coefficient;
+    }
+
+    int size = 0;
+    for (int j = 0; j < indexes.length; ++j)
+    {
+      if (size > 0 && indexes[size - 1] == indexes[j])
+        coefficients[size - 1] += coefficients[j];
+      else
+      {
+        indexes[size] = indexes[j];
+        coefficients[size++] = coefficients[j];
+      }
+    }
+
+    int kept = 0;
+    for (int j = 0; j < size; ++j)
+      if (coefficients[j] != 0)
+      {
+        indexes[kept] = indexes[j];
+        coefficients[kept++] = coefficients[j];
+      }
+
+    if (kept < indexes.length)
+    {
+      int[] t = new int[kept];
+      System.arraycopy(indexes, 0, t, 0, kept);
+      indexes = t;
+      double[] c = new double[kept];
+      System.arraycopy(coefficients, 0, c, 0, kept);
+      coefficients = c;
+    }
+
+    constraintIndexes[constraints] = indexes;
+    constraintCoefficients[constraints] = coefficients;
+    // Adding zero turns -0.0 into 0.0, which would otherwise fingerprint
+    // differently.
+    constraintLower[constraints] = l + 0.0;
+    constraintUpper[constraints] = u + 0.0;
+    ++constraints;
+  }
+
+
+  /**
+    * Looks up the problem's fingerprint in the store, and solves the problem
+    * with the underlying solver if it isn't found there.
+    *
+    * @return <code>true</code> iff an optimal integer solution was found.
+   **/
+  public synchronized boolean solve() throws Exception
+  {
+    timedOut = false;
+    Integer[] order = canonicalOrder();
+    ByteBuffer key = fingerprint(order);
+    byte[] stored = store.get(key, variables);
+
+    if (stored == null)
+    {
+      solver.reset();
+      solver.setMaximize(maximize);
+      for (int j = 0; j < variables; ++j)
+        solver.addBooleanVariable(objective[j]);
+      for (int i = 0; i < constraints; ++i) passConstraint(i);
+
+      if (solver.solve())
+      {
+        stored = new byte[(variables + 7) / 8];
+        for (int j = 0; j < variables; ++j)
+          if (solver.getBooleanValue(j)) stored[j >> 3] |= 1 << (j & 7);
+      }
+      else
+      {
+        timedOut = solver instanceof TimeLimitedILPSolver
+                   && ((TimeLimitedILPSolver) solver).isTimedOut();
+        if (!timedOut && !Thread.currentThread().isInterrupted())
+          stored = Store.infeasible;
+      }
+
+      if (stored == null)
+      {
+        // The solver was cut short, so its failure says nothing about the
+        // problem.
+        solved = false;
+        solution = null;
+        return false;
+      }
+
+      store.put(key, variables, stored);
+    }
+
+    solved = stored != Store.infeasible;
+    solution = solved ? stored : null;
+    return solved;
+  }
+
+
+  /**
+    * Returns the fingerprint under which the problem specified so far would
+    * be stored.
+    *
+    * @return The fingerprint's bytes.
+   **/
+  public synchronized byte[] getFingerprint()
+  {
+    return fingerprint(canonicalOrder()).array();
+  }
+
+
+  /**
+    * Passes the specified constraint to the underlying solver.
+    *
+    * @param i  The index of the constraint.
+   **/
+  private void passConstraint(int i)
+  {
+    int[] indexes = constraintIndexes[i];
+    double[] coefficients = constraintCoefficients[i];
+    double l = constraintLower[i], u = constraintUpper[i];
+
+    if (l == u) solver.addEqualityConstraint(indexes, coefficients, l);
+    else
+    {
+      if (l != Double.NEGATIVE_INFINITY)
+        solver.addGreaterThanConstraint(indexes, coefficients, l);
+      if (u != Double.POSITIVE_INFINITY)
+        solver.addLessThanConstraint(indexes, coefficients, u);
+    }
+  }
+
+
+  /**
+    * Sorts the indexes of the constraints so that the same set of
+    * constraints comes out in the same order however it was added.
+    *
+    * @return The constraint indexes in canonical order.
+   **/
+  private Integer[] canonicalOrder()
+  {
+    Integer[] result = new Integer[constraints];
+    for (int i = 0; i < constraints; ++i) result[i] = Integer.valueOf(i);
+
+    Arrays.sort(result,
+        new Comparator<Integer>()
+        {
+          public int compare(Integer i1, Integer i2)
+          {
+            return compareConstraints(i1.intValue(), i2.intValue());
+          }
+        });
+
+    return result;
+  }
+
+
+  /**
+    * Compares two constraints by their bounds, their lengths, the indexes
+    * of their variables, and finally their coefficients.
+    *
+    * @param i1 The index of one constraint.
+    * @param i2 The index of the other.
+    * @return   A negative number, zero, or a positive number as the first
+    *           constraint comes before, is identical to, or comes after the
+    *           second.
+   **/
+  private int compareConstraints(int i1, int i2)
+  {
+    int c = Double.compare(constraintLower[i1], constraintLower[i2]);
+    if (c != 0) return c;
+    c = Double.compare(constraintUpper[i1], constraintUpper[i2]);
+    if (c != 0) return c;
+
+    int[] x1 = constraintIndexes[i1], x2 = constraintIndexes[i2];
+    if (x1.length != x2.length) return x1.length - x2.length;
+    for (int j = 0; j < x1.length; ++j)
+      if (x1[j] != x2[j]) return x1[j] < x2[j] ? -1 : 1;
+
+    double[] a1 = constraintCoefficients[i1], a2 = constraintCoefficients[i2];
+    for (int j = 0; j < a1.length; ++j)
+    {
+      c = Double.compare(a1[j], a2[j]);
+      if (c != 0) return c;
+    }
+
+    return 0;
+  }
+
+
+  /**
+    * Computes the fingerprint of the problem.
+    *
+    * @param order  The constraint indexes in canonical order.
+    * @return       The fingerprint.
+   **/
+  private ByteBuffer fingerprint(Integer[] order)
+  {
+    MessageDigest digest = null;
+    try { digest = MessageDigest.getInstance("SHA-1"); }
+    catch (NoSuchAlgorithmException e)
+    {
+      System.err.println("Can't compute ILP problem fingerprints:");
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+    OutputStream discard =
+      new OutputStream()
+      {
+        public void write(int b) { }
+        public void write(byte[] b, int o, int l) { }
+      };
+    DataOutputStream out =
+      new DataOutputStream(
+          new BufferedOutputStream(new DigestOutputStream(discard, digest)));
+
+    try
+    {
+      out.writeBoolean(maximize);
+      out.writeInt(variables);
+      for (int j = 0; j < variables; ++j)
+        out.writeLong(Double.doubleToLongBits(objective[j] + 0.0));
+
+      int previous = -1;
+      for (int k = 0; k < order.length; ++k)
+      {
+        int i = order[k].intValue();
+        if (previous != -1 && compareConstraints(previous, i) == 0)
+          continue;
+        previous = i;
+
+        int[] indexes = constraintIndexes[i];
+        double[] coefficients = constraintCoefficients[i];
+        out.writeLong(Double.doubleToLongBits(constraintLower[i]));
+        out.writeLong(Double.doubleToLongBits(constraintUpper[i]));
+        out.writeInt(indexes.length);
+        for (int j = 0; j < indexes.length; ++j)
+        {
+          out.writeInt(indexes[j]);
+          out.writeLong(Double.doubleToLongBits(coefficients[j]));
+        }
+      }
+
+      out.close();
+    }
+    catch (IOException e)
+    {
+      // The stream writes to nowhere, so this can't happen.
+      throw new RuntimeException(e);
+    }
+
+    return ByteBuffer.wrap(digest.digest());
+  }
+
+
+  /**
+    * When the problem has been solved, use this method to retrieve the value
+    * of any Boolean inference variable.  The result of this method is
+    * undefined when the problem has not yet been solved.
+    *
+    * @param index  The index of the variable whose value is requested.
+    * @return       The value of the variable.
+   **/
+  public synchronized boolean getBooleanValue(int index)
+  {
+    return (solution[index >> 3] & (1 << (index & 7))) != 0;
+  }
+
+
+  /**
+    * Writes the optimization problem that this solver represents into the
+    * specified buffer.
+    *
+    * @param buffer The buffer to write in.
+   **/
+  public synchronized void write(StringBuffer buffer)
+  {
+    if (maximize) buffer.append("max");
+    else buffer.append("min");
+
+    for (int j = 0; j < variables; ++j)
+    {
+      buffer.append(" ");
+      if (objective[j] >= 0) buffer.append("+");
+      buffer.append(objective[j] + " x_" + j);
+    }
+
+    buffer.append("\n");
+
+    for (int i = 0; i < constraints; ++i)
+    {
+      double l = constraintLower[i], u = constraintUpper[i];
+      if (l == u) writeConstraint(buffer, i, " = ", l);
+      else
+      {
+        if (l != Double.NEGATIVE_INFINITY)
+          writeConstraint(buffer, i, " >= ", l);
+        if (u != Double.POSITIVE_INFINITY)
+          writeConstraint(buffer, i, " <= ", u);
+      }
+    }
+  }
+
+
+  /**
+    * Writes one side of a constraint into the specified buffer.
+    *
+    * @param buffer     The buffer to write in.
+    * @param i          The index of the constraint.
+    * @param relation   The relation between the two sides.
+    * @param b          The constant on the right hand side.
+   **/
+  private void writeConstraint(StringBuffer buffer, int i, String relation,
+                               double b)
+  {
+    int[] indexes = constraintIndexes[i];
+    double[] coefficients = constraintCoefficients[i];
+
+    for (int j = 0; j < indexes.length; ++j)
+    {
+      buffer.append(" ");
+      if (coefficients[j] >= 0) buffer.append("+");
+      buffer.append(coefficients[j] + " x_" + indexes[j]);
+    }
+
+    buffer.append(relation);
+    buffer.append(b);
+    buffer.append("\n");
+  }
+
+
+  /**
+    * A collection of ILP solutions indexed by the fingerprints of the
+    * problems they solve, optionally backed by a file.  The file starts with
+    * a header identifying it, and each solution follows in the order it was
+    * found as a record containing the fingerprint, the number of variables,
+    * or -1 if the problem was infeasible, and the variables' values packed
+    * eight to a byte.  An incomplete record at the end of the file, left by
+    * a program that was interrupted while writing it, is discarded.
+    *
+    * @author Nick Rizzolo
+   **/
+  public static class Store
+  {
+    /** Stands in for the solution of an infeasible problem. */
+    private static final byte[] infeasible = new byte[0];
+
+
+    /** The name of the file, or <code>null</code> if there isn't one. */
+    protected String fileName;
+    /** The packed solutions, indexed by fingerprint. */
+    private HashMap<ByteBuffer, byte[]> solutions;
+    /** The number of variables in each solution, indexed by fingerprint. */
+    private HashMap<ByteBuffer, Integer> sizes;
+    /** The number of lookups that found a solution. */
+    private int hits;
+    /** The number of lookups that didn't. */
+    private int misses;
+
+
+    /**
+      * Creates a store, reading the solutions in the specified file if it
+      * exists.
+      *
+      * @param file The name of the file, or <code>null</code> if there
+      *             isn't one.
+     **/
+    private Store(String file)
+    {
+      fileName = file;
+      solutions = new HashMap<ByteBuffer, byte[]>();
+      sizes = new HashMap<ByteBuffer, Integer>();
+      if (fileName != null && new File(fileName).length() > 0) read();
+    }
+
+
+    /** Reads the solutions in the file. */
+    private void read()
+    {
+      long complete = 0;
+
+      try
+      {
+        DataInputStream in =
+          new DataInputStream(
+              new BufferedInputStream(new FileInputStream(fileName)));
+
+        try
+        {
+          if (in.readInt() != magic || in.readInt() != version)
+          {
+            System.err.println("'" + fileName + "' is not a version "
+                               + version + " ILP solution cache.");
+            System.exit(1);
+          }
+
+          complete = 8;
+
+          while (true)
+          {
+            byte[] fingerprint = new byte[fingerprintLength];
+            in.readFully(fingerprint);
+            int n = in.readInt();
+            byte[] packed = n < 0 ? infeasible : new byte[(n + 7) / 8];
+            in.readFully(packed);
+
+            ByteBuffer key = ByteBuffer.wrap(fingerprint);
+            solutions.put(key, packed);
+            sizes.put(key, Integer.valueOf(n));
+            complete += fingerprintLength + 4 + packed.length;
+          }
+        }
+        catch (EOFException e) { }
+        finally { in.close(); }
+
+        if (complete < new File(fileName).length())
+        {
+          RandomAccessFile out = new RandomAccessFile(fileName, "rw");
+          out.setLength(complete);
+          out.close();
+        }
+      }
+      catch (IOException e)
+      {
+        System.err.println("Can't open '" + fileName + "' for input:");
+        e.printStackTrace();
+        System.exit(1);
+      }
+    }
+
+
+    /**
+      * Looks up the solution of a problem.
+      *
+      * @param key  The problem's fingerprint.
+      * @param n    The number of variables in the problem.
+      * @return     The packed solution, {@link #infeasible}, or
+      *             <code>null</code> if the problem hasn't been solved.
+     **/
+    private synchronized byte[] get(ByteBuffer key, int n)
+    {
+      byte[] result = solutions.get(key);
+      Integer size = sizes.get(key);
+
+      if (result != null
+          && (result == infeasible || size.intValue() == n))
+      {
+        ++hits;
+        return result;
+      }
+
+      ++misses;
+      return null;
+    }
+
+
+    /**
+      * Adds the solution of a problem, appending it to the file if there is
+      * one.
+      *
+      * @param key    The problem's fingerprint.
+      * @param n      The number of variables in the problem.
+      * @param packed The packed solution, or {@link #infeasible}.
+     **/
+    private synchronized void put(ByteBuffer key, int n, byte[] packed)
+    {
+      solutions.put(key, packed);
+      sizes.put(key, Integer.valueOf(n));
+      if (fileName == null) return;
+
+      try
+      {
+        boolean empty = new File(fileName).length() == 0;
+        DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(
+                  new FileOutputStream(fileName, true)));
+
+        if (empty)
+        {
+          out.writeInt(magic);
+          out.writeInt(version);
+        }
+
+        out.write(key.array());
+        out.writeInt(packed == infeasible ? -1 : n);
+        out.write(packed);
+        out.close();
+      }
+      catch (IOException e)
+      {
+        System.err.println("Can't write to '" + fileName + "':");
+        e.printStackTrace();
+        System.exit(1);
+      }
+    }
+
+
+    /** Returns the number of solutions in the store. */
+    public synchronized int size() { return solutions.size(); }
+
+
+    /** Returns the number of lookups that found a solution. */
+    public synchronized int getHits() { return hits; }
+
+
+    /** Returns the number of lookups that didn't find a solution. */
+    public synchronized int getMisses() { return misses; }
+  }
+}
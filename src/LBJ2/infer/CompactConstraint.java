@@ -0,0 +1,782 @@
+package LBJ2.infer;
+
+import java.util.*;
+import LBJ2.learn.Learner;
+
+
+/**
+  * A compact integer representation of a propositional constraint, from
+  * which an ILP algorithm can generate its linear inequalities without
+  * walking the constraint's object tree.  Variables are numbered densely
+  * from 0, and a literal is a signed integer:  variable <code>v</code> is
+  * represented by <code>v + 1</code> and its negation by
+  * <code>-(v + 1)</code>.  The variables of the inference problem are added
+  * with {@link #addVariable(Learner,Object,String)}, and the others are
+  * defined by the constraint's rows.
+  *
+  * <p> Each row is a cardinality constraint over literals, stating that the
+  * sum of their values is at least <code>m</code>.  The first few literals
+  * of an {@link #ASSERT} row may be weighted by <code>m</code> instead of 1,
+  * in which case the row states that one of those literals is true or at
+  * least <code>m</code> of the others are.  A row's kind says what it states
+  * about its cardinality constraint and its <i>head</i>:
+  *
+  * <ul>
+  *   <li> {@link #ASSERT}: the cardinality constraint is satisfied.
+  *   <li> {@link #DEFINE}: the head, a new variable, is true iff the
+  *        cardinality constraint is satisfied.
+  *   <li> {@link #IMPLY}: the head, a new variable, is true only if the
+  *        cardinality constraint is satisfied.
+  *   <li> {@link #EQUATE}: the head, a literal over a variable defined
+  *        earlier, is true iff the cardinality constraint is satisfied.
+  * </ul>
+  *
+  * Every variable is defined by a row before any later row uses it.
+  *
+  * <p> Constraints are added with {@link #add(PropositionalConstraint)}
+  * after they have been simplified by the same
+  * {@link PropositionalConstraintFactory} that created this object's
+  * variables.  Each subterm shared by several constraints is lowered into
+  * rows only once.  Conjunctions, disjunctions, and at-leasts become
+  * cardinality constraints over the literals representing their children.
+  * When they appear as terms of the top level conjunction, no variable
+  * represents them; disjunctions and at-leasts then only need their terms
+  * to imply them, and a double implication between a literal and a
+  * cardinality constraint over other literals simply equates the two.
+  *
+  * @author Nick Rizzolo
+ **/
+public class CompactConstraint
+{
+  /** A row kind stating that the row's cardinality constraint holds. */
+  public static final int ASSERT = 0;
+  /** A row kind defining a new variable equivalent to the row. */
+  public static final int DEFINE = 1;
+  /** A row kind defining a new variable that implies the row. */
+  public static final int IMPLY = 2;
+  /** A row kind stating that a literal is equivalent to the row. */
+  public static final int EQUATE = 3;
+
+
+  /** The factory whose constraints are lowered into this object. */
+  private PropositionalConstraintFactory factory;
+  /** The literal representing each variable and lowered subterm. */
+  private IdentityHashMap<PropositionalConstraint, Integer> lowered;
+  /** The literal implying each subterm lowered as a top level term. */
+  private IdentityHashMap<PropositionalConstraint, Integer> implying;
+  /** The number of variables. */
+  private int variables;
+  /** The number of rows. */
+  private int rows;
+  /** The kind of each row. */
+  private int[] kinds;
+  /** The head of each row, or 0 for an {@link #ASSERT} row. */
+  private int[] heads;
+  /** The <code>m</code> of each row's cardinality constraint. */
+  private int[] bounds;
+  /** The number of literals of each row that are weighted by its m. */
+  private int[] weighted;
+  /** The index in {@link #literals} of each row's first literal. */
+  private int[] starts;
+  /** The literals of all rows, one row after another. */
+  private int[] literals;
+  /** The number of elements of {@link #literals} in use. */
+  private int size;
+  /**
+    * The variables added with {@link #addVariable(Learner,Object,String)},
+    * indexed by their indexes.
+   **/
+  private PropositionalVariable[] inputs;
+
+
+  /**
+    * Creates an empty constraint over the variables of the given factory.
+    *
+    * @param f  The factory that creates the constraints to be added.
+   **/
+  public CompactConstraint(PropositionalConstraintFactory f)
+  {
+    factory = f;
+    lowered = new IdentityHashMap<PropositionalConstraint, Integer>();
+    implying = new IdentityHashMap<PropositionalConstraint, Integer>();
+    kinds = new int[16];
+    heads = new int[16];
+    bounds = new int[16];
+    weighted = new int[16];
+    starts = new int[16];
+    literals = new int[64];
+    inputs = new PropositionalVariable[16];
+  }
+
+
+  /**
+    * Returns the literal representing the given variable.
+    *
+    * @param v  A variable.
+    * @return   <code>v + 1</code>.
+   **/
+  public static int literal(int v) { return v + 1; }
+
+
+  /**
+    * Returns the variable of the given literal.
+    *
+    * @param l  A literal.
+    * @return   The variable whose value determines the literal's value.
+   **/
+  public static int variable(int l) { return (l < 0 ? -l : l) - 1; }
+
+
+  /** Returns the factory whose constraints are lowered into this object. */
+  public PropositionalConstraintFactory getFactory() { return factory; }
+  /** Returns the number of variables. */
+  public int getVariables() { return variables; }
+  /** Returns the number of rows. */
+  public int getRows() { return rows; }
+
+
+  /**
+    * Returns the kind of a row.
+    *
+    * @param r  The index of the row.
+    * @return   {@link #ASSERT}, {@link #DEFINE}, {@link #IMPLY}, or
+    *           {@link #EQUATE}.
+   **/
+  public int getKind(int r) { return kinds[r]; }
+
+
+  /**
+    * Returns the head of a row, which is the literal of the variable it
+    * defines or equates to itself.
+    *
+    * @param r  The index of the row.
+    * @return   The head, or 0 for an {@link #ASSERT} row.
+   **/
+  public int getHead(int r) { return heads[r]; }
+
+
+  /**
+    * Returns the number of literals that must be true for a row's
+    * cardinality constraint to be satisfied.
+    *
+    * @param r  The index of the row.
+    * @return   The row's <code>m</code>.
+   **/
+  public int getM(int r) { return bounds[r]; }
+
+
+  /**
+    * Returns the number of a row's first literals that are weighted by its
+    * <code>m</code>.
+    *
+    * @param r  The index of the row.
+    * @return   The number of weighted literals, which is 0 except in some
+    *           {@link #ASSERT} rows.
+   **/
+  public int getWeighted(int r) { return weighted[r]; }
+
+
+  /**
+    * Returns the index of a row's first literal.
+    *
+    * @param r  The index of the row.
+    * @return   The index of the row's first literal.
+   **/
+  public int getStart(int r) { return starts[r]; }
+
+
+  /**
+    * Returns the index just past a row's last literal.
+    *
+    * @param r  The index of the row.
+    * @return   The index just past the row's last literal.
+   **/
+  public int getEnd(int r) { return r + 1 < rows ? starts[r + 1] : size; }
+
+
+  /**
+    * Returns one of the literals of the rows.
+    *
+    * @param i  An index between {@link #getStart(int)} and
+    *           {@link #getEnd(int)} of some row.
+    * @return   The literal.
+   **/
+  public int getLiteral(int i) { return literals[i]; }
+
+
+  /**
+    * Adds a variable of the inference problem, unless it has been added
+    * already.
+    *
+    * @param c  The classifier.
+    * @param e  The example.
+    * @param p  The prediction.
+    * @return   The variable's index.
+   **/
+  public int addVariable(Learner c, Object e, String p)
+  {
+    PropositionalVariable v = factory.variable(c, e, p);
+    Integer I = lowered.get(v);
+    if (I != null) return variable(I.intValue());
+    lowered.put(v, Integer.valueOf(literal(variables)));
+    if (variables >= inputs.length)
+      inputs = grow(inputs, Math.max(inputs.length, variables + 1));
+    inputs[variables] = v;
+    return variables++;
+  }
+
+
+  /**
+    * Returns the variable of the inference problem with the given index.
+    * Setting its {@link PropositionalVariable#value value} affects the
+    * evaluation of the constraints returned by this object's factory.
+    *
+    * @param v  The index of a variable added with
+    *           {@link #addVariable(Learner,Object,String)}.
+    * @return   The variable, or <code>null</code> if <code>v</code> is the
+    *           index of a variable defined by a row.
+   **/
+  public PropositionalVariable getVariable(int v)
+  {
+    return v < inputs.length ? inputs[v] : null;
+  }
+
+
+  /**
+    * Creates the array that {@link #translate(ILPSolver,int[])} takes,
+    * filling in the variables added with
+    * {@link #addVariable(Learner,Object,String)}.
+    *
+    * @param c  The indexes in the ILP of the variables added with
+    *           {@link #addVariable(Learner,Object,String)}, in the order
+    *           they were added, split into as many arrays as convenient.
+    * @return   An array with an element for every variable.
+   **/
+  public int[] index(int[][] c)
+  {
+    int[] result = new int[variables];
+    int k = 0;
+    for (int i = 0; i < c.length; ++i)
+      for (int j = 0; j < c[i].length; ++j) result[k++] = c[i][j];
+    return result;
+  }
+
+
+  /**
+    * Adds rows stating that the given constraint is satisfied.
+    *
+    * @param c  A constraint simplified by this object's factory, whose only
+    *           double implications are terms of its top level
+    *           conjunction.
+   **/
+  public void add(PropositionalConstraint c)
+  {
+    if (c instanceof PropositionalConjunction)
+    {
+      PropositionalConstraint[] children =
+        (PropositionalConstraint[]) c.getChildren();
+      int[] terms = new int[children.length];
+      int n = 0;
+
+      for (int i = 0; i < children.length; ++i)
+      {
+        if (isLiteral(children[i])) terms[n++] = lower(children[i]);
+        else add(children[i]);
+      }
+
+      if (n > 0) addRow(ASSERT, 0, n, 0, terms, n);
+    }
+    else if (c instanceof PropositionalDisjunction) addDisjunction(c);
+    else if (c instanceof PropositionalAtLeast)
+    {
+      int[] terms = implyingLiterals(c.getChildren());
+      addRow(ASSERT, 0, ((PropositionalAtLeast) c).getM(), 0, terms,
+             terms.length);
+    }
+    else if (c instanceof PropositionalDoubleImplication)
+    {
+      PropositionalDoubleImplication d = (PropositionalDoubleImplication) c;
+      if (isLiteral(d.left) && equate(d.left, d.right)
+          || isLiteral(d.right) && equate(d.right, d.left))
+        return;
+      int left = lower(d.left);
+      addRow(EQUATE, left, 1, 0, new int[]{ lower(d.right) }, 1);
+    }
+    else if (isLiteral(c)) addRow(ASSERT, 0, 1, 0, new int[]{ lower(c) }, 1);
+    else
+      assert false
+        : "CompactConstraint: " + c.getClass().getName() + " encountered.";
+  }
+
+
+  /**
+    * Adds the row stating that the given top level disjunction is
+    * satisfied.  If one of its terms is a conjunction or an at-least, that
+    * term's children are summed directly in the row, and the other terms are
+    * weighted so that any one of them satisfies it.
+    *
+    * @param c  The disjunction.
+   **/
+  private void addDisjunction(PropositionalConstraint c)
+  {
+    PropositionalConstraint[] children =
+      (PropositionalConstraint[]) c.getChildren();
+    int sub = -1;
+
+    for (int i = 0; i < children.length && sub == -1; ++i)
+      if (children[i] instanceof PropositionalConjunction
+          || children[i] instanceof PropositionalAtLeast)
+        sub = i;
+
+    if (sub == -1)
+    {
+      int[] terms = implyingLiterals(children);
+      addRow(ASSERT, 0, 1, 0, terms, terms.length);
+      return;
+    }
+
+    PropositionalConstraint[] subChildren =
+      (PropositionalConstraint[]) children[sub].getChildren();
+    int m = bound(children[sub]);
+    int[] terms = new int[children.length - 1 + subChildren.length];
+    int j = 0;
+
+    for (int i = 0; i < children.length; ++i)
+      if (i != sub) terms[j++] = implyingLiteral(children[i]);
+    for (int i = 0; i < subChildren.length; ++i)
+      terms[j++] = lower(subChildren[i]);
+
+    addRow(ASSERT, 0, m, children.length - 1, terms, terms.length);
+  }
+
+
+  /**
+    * Adds the row stating that the given literal is equivalent to the given
+    * cardinality constraint over literals, so that the literal also
+    * represents the cardinality constraint from now on.  Nothing is added if
+    * the constraint is not such a cardinality constraint, if it has already
+    * been lowered, or if the literal's variable appears in it.
+    *
+    * @param l  A literal.
+    * @param c  A constraint.
+    * @return   <code>true</code> iff the row was added.
+   **/
+  private boolean equate(PropositionalConstraint l, PropositionalConstraint c)
+  {
+    int m = cardinality(c);
+    if (m == 0 || lowered.containsKey(c)) return false;
+
+    int head = lower(l);
+    int[] terms = lowerAll(c.getChildren());
+    for (int i = 0; i < terms.length; ++i)
+      if (variable(terms[i]) == variable(head)) return false;
+
+    addRow(EQUATE, head, m, 0, terms, terms.length);
+    lowered.put(c, Integer.valueOf(head));
+    return true;
+  }
+
+
+  /**
+    * Returns the literal representing the given constraint, adding the rows
+    * that define it if necessary.
+    *
+    * @param c  A constraint that is neither a constant nor an implication.
+    * @return   The literal.
+   **/
+  private int lower(PropositionalConstraint c)
+  {
+    Integer I = lowered.get(c);
+    if (I != null) return I.intValue();
+    int result;
+
+    if (c instanceof PropositionalNegation)
+      result = -lower((PropositionalConstraint) c.getChildren()[0]);
+    else if (c instanceof PropositionalVariable)
+    {
+      PropositionalVariable v = (PropositionalVariable) c;
+      I =
+        lowered.get(
+            factory.variable(v.getClassifier(), v.getExample(),
+                             v.getPrediction()));
+
+      if (I == null)
+      {
+        System.err.println(
+            "LBJ ERROR: The constraints refer to variable " + v
+            + ", which is not part of the inference problem.");
+        System.exit(1);
+      }
+
+      result = I.intValue();
+    }
+    else
+    {
+      int m = bound(c);
+      assert m > 0
+        : "CompactConstraint: " + c.getClass().getName() + " encountered.";
+      int[] terms = lowerAll(c.getChildren());
+      result = literal(variables++);
+      addRow(DEFINE, result, m, 0, terms, terms.length);
+    }
+
+    lowered.put(c, Integer.valueOf(result));
+    return result;
+  }
+
+
+  /**
+    * Returns the literals representing the given constraints.
+    *
+    * @param c  The constraints.
+    * @return   Their literals.
+   **/
+  private int[] lowerAll(Constraint[] c)
+  {
+    int[] result = new int[c.length];
+    for (int i = 0; i < c.length; ++i)
+      result[i] = lower((PropositionalConstraint) c[i]);
+    return result;
+  }
+
+
+  /**
+    * Returns a literal that can only be true when the given constraint is
+    * satisfied.  Such a literal can stand in for the constraint wherever
+    * satisfying it can never violate anything, as in the terms of a top
+    * level disjunction or at-least.  A cardinality constraint over literals
+    * that hasn't been lowered yet gets a new variable defined by an
+    * {@link #IMPLY} row.  Otherwise, this method returns the constraint's
+    * equivalent literal.
+    *
+    * @param c  The constraint.
+    * @return   The literal.
+   **/
+  private int implyingLiteral(PropositionalConstraint c)
+  {
+    Integer I = lowered.get(c);
+    if (I != null) return I.intValue();
+    int m = cardinality(c);
+    if (m == 0 || isLiteral(c)) return lower(c);
+    I = implying.get(c);
+    if (I != null) return I.intValue();
+
+    int[] terms = lowerAll(c.getChildren());
+    int result = literal(variables++);
+    addRow(IMPLY, result, m, 0, terms, terms.length);
+    implying.put(c, Integer.valueOf(result));
+    return result;
+  }
+
+
+  /**
+    * Returns literals that can only be true when the corresponding given
+    * constraints are satisfied.
+    *
+    * @param c  The constraints.
+    * @return   The literals.
+   **/
+  private int[] implyingLiterals(Constraint[] c)
+  {
+    int[] result = new int[c.length];
+    for (int i = 0; i < c.length; ++i)
+      result[i] = implyingLiteral((PropositionalConstraint) c[i]);
+    return result;
+  }
+
+
+  /**
+    * Appends a row.
+    *
+    * @param k  The row's kind.
+    * @param h  Its head.
+    * @param m  The <code>m</code> of its cardinality constraint.
+    * @param w  The number of its literals weighted by <code>m</code>.
+    * @param l  An array whose first <code>n</code> elements are its
+    *           literals.
+    * @param n  The number of literals.
+   **/
+  private void addRow(int k, int h, int m, int w, int[] l, int n)
+  {
+    if (rows == kinds.length)
+    {
+      kinds = grow(kinds, rows);
+      heads = grow(heads, rows);
+      bounds = grow(bounds, rows);
+      weighted = grow(weighted, rows);
+      starts = grow(starts, rows);
+    }
+
+    if (size + n > literals.length)
+      literals = grow(literals, Math.max(literals.length, n));
+
+    kinds[rows] = k;
+    heads[rows] = h;
+    bounds[rows] = m;
+    weighted[rows] = w;
+    starts[rows] = size;
+    System.arraycopy(l, 0, literals, size, n);
+    size += n;
+    ++rows;
+  }
+
+
+  /**
+    * Returns a copy of the given array with room for more elements.
+    *
+    * @param a  The array.
+    * @param e  The number of elements to add to its length.
+    * @return   The longer copy.
+   **/
+  private static int[] grow(int[] a, int e)
+  {
+    int[] result = new int[a.length + e];
+    System.arraycopy(a, 0, result, 0, a.length);
+    return result;
+  }
+
+
+  /**
+    * Returns a copy of the given array with room for more elements.
+    *
+    * @param a  The array.
+    * @param e  The number of elements to add to its length.
+    * @return   The longer copy.
+   **/
+  private static PropositionalVariable[] grow(PropositionalVariable[] a,
+                                              int e)
+  {
+    PropositionalVariable[] result = new PropositionalVariable[a.length + e];
+    System.arraycopy(a, 0, result, 0, a.length);
+    return result;
+  }
+
+
+  /**
+    * Determines whether the given constraint is a variable or a negated
+    * variable.
+    *
+    * @param c  The constraint.
+    * @return   <code>true</code> iff <code>c</code> is a literal.
+   **/
+  private static boolean isLiteral(PropositionalConstraint c)
+  {
+    return c instanceof PropositionalVariable
+           || c instanceof PropositionalNegation;
+  }
+
+
+  /**
+    * Determines whether the given constraint states that at least some
+    * number of literals are true.  Conjunctions, disjunctions, and at-leasts
+    * whose children are all literals are such cardinality constraints.
+    *
+    * @param c  The constraint.
+    * @return   The number of literals that must be true, or 0 if
+    *           <code>c</code> is not a cardinality constraint over literals.
+   **/
+  private static int cardinality(PropositionalConstraint c)
+  {
+    Constraint[] children = c.getChildren();
+    for (int i = 0; i < children.length; ++i)
+      if (!isLiteral((PropositionalConstraint) children[i])) return 0;
+    return bound(c);
+  }
+
+
+  /**
+    * Returns the number of children of the given conjunction, disjunction,
+    * or at-least that must be satisfied for it to be satisfied.
+    *
+    * @param c  The constraint.
+    * @return   That number, or 0 if <code>c</code> is none of those.
+   **/
+  private static int bound(PropositionalConstraint c)
+  {
+    if (c instanceof PropositionalConjunction)
+      return c.getChildren().length;
+    if (c instanceof PropositionalDisjunction) return 1;
+    if (c instanceof PropositionalAtLeast)
+      return ((PropositionalAtLeast) c).getM();
+    return 0;
+  }
+
+
+  /**
+    * Adds linear inequalities equivalent to the rows to the given ILP
+    * algorithm, creating a Boolean variable with coefficient 0 in the
+    * objective function for each variable defined by a row.  Each row's
+    * cardinality constraint is the linear inequality stating that its
+    * literals' values sum to at least <code>m</code>, where a negated
+    * literal's value is 1 minus its variable's.  A head is tied to the
+    * inequality by adding it to the sum with a coefficient just large enough
+    * to satisfy the inequality when the head is false, and, for
+    * {@link #DEFINE} and {@link #EQUATE} rows, by a second inequality stating
+    * that the literals sum to at most <code>m - 1</code> when it's false.
+    *
+    * @param solver The ILP algorithm.
+    * @param index  Maps each variable to its index in <code>solver</code>.
+    *               The variables added with
+    *               {@link #addVariable(Learner,Object,String)} must be
+    *               filled in already, and this method fills in the others.
+   **/
+  public void translate(ILPSolver solver, int[] index)
+  {
+    translate(solver, index, 0);
+  }
+
+
+  /**
+    * Adds the linear inequalities equivalent to the rows starting with the
+    * given row to the given ILP algorithm, as described in
+    * {@link #translate(ILPSolver,int[])}.  Rows added after a previous
+    * translation can thus be translated on their own.
+    *
+    * @param solver The ILP algorithm.
+    * @param index  Maps each variable to its index in <code>solver</code>.
+    *               The variables used by the rows before <code>first</code>
+    *               must be filled in already.
+    * @param first  The index of the first row to translate.
+   **/
+  public void translate(ILPSolver solver, int[] index, int first)
+  {
+    for (int r = first; r < rows; ++r)
+    {
+      int n = getEnd(r) - starts[r];
+      int m = bounds[r];
+      boolean head = kinds[r] != ASSERT;
+      int[] indexes = new int[head ? n + 1 : n];
+      double[] coefficients = new double[indexes.length];
+      int negated = 0;
+
+      for (int i = 0; i < n; ++i)
+      {
+        int l = literals[starts[r] + i];
+        int w = i < weighted[r] ? m : 1;
+        indexes[i] = index[variable(l)];
+        if (l < 0)
+        {
+          coefficients[i] = -w;
+          negated += w;
+        }
+        else coefficients[i] = w;
+      }
+
+      if (!head)
+      {
+        if (weighted[r] == 0 && m == n)
+          solver.addEqualityConstraint(indexes, coefficients, n - negated);
+        else
+          solver.addGreaterThanConstraint(indexes, coefficients,
+                                          m - negated);
+        continue;
+      }
+
+      if (kinds[r] != EQUATE)
+        index[variable(heads[r])] = solver.addBooleanVariable(0);
+      indexes[n] = index[variable(heads[r])];
+
+      if (kinds[r] == EQUATE && n == 1)
+      {
+        if (heads[r] < 0)
+        {
+          coefficients[n] = 1;
+          solver.addEqualityConstraint(indexes, coefficients, 1 - negated);
+        }
+        else
+        {
+          coefficients[n] = -1;
+          solver.addEqualityConstraint(indexes, coefficients, -negated);
+        }
+      }
+      else if (heads[r] < 0)
+      {
+        coefficients[n] = m;
+        solver.addGreaterThanConstraint(indexes, coefficients, m - negated);
+        coefficients[n] = n - m + 1;
+        solver.addLessThanConstraint(indexes, coefficients, n - negated);
+      }
+      else
+      {
+        coefficients[n] = -m;
+        solver.addGreaterThanConstraint(indexes, coefficients, -negated);
+
+        if (kinds[r] != IMPLY)
+        {
+          coefficients[n] = -(n - m + 1);
+          solver.addLessThanConstraint(indexes, coefficients,
+                                       m - 1 - negated);
+        }
+      }
+    }
+  }
+
+
+  /**
+    * Returns a textual representation of a row.
+    *
+    * @param r  The index of the row.
+    * @return   The row as text.
+   **/
+  public String rowToString(int r)
+  {
+    StringBuffer result = new StringBuffer();
+    if (kinds[r] != ASSERT)
+      result.append(literalToString(heads[r]))
+            .append(kinds[r] == IMPLY ? " => " : " <=> ");
+    int n = getEnd(r) - starts[r];
+    int w = weighted[r];
+
+    if (w > 0)
+    {
+      result.append("any of (");
+      appendLiterals(result, starts[r], w);
+      result.append(") or ");
+    }
+
+    if (bounds[r] == n - w) result.append("all of (");
+    else if (bounds[r] == 1) result.append("any of (");
+    else result.append("at least ").append(bounds[r]).append(" of (");
+    appendLiterals(result, starts[r] + w, n - w);
+    return result.append(")").toString();
+  }
+
+
+  /**
+    * Appends a comma separated list of literals to the given buffer.
+    *
+    * @param b  The buffer.
+    * @param i  The index of the first literal.
+    * @param n  The number of literals.
+   **/
+  private void appendLiterals(StringBuffer b, int i, int n)
+  {
+    for (int j = 0; j < n; ++j)
+    {
+      if (j > 0) b.append(", ");
+      b.append(literalToString(literals[i + j]));
+    }
+  }
+
+
+  /**
+    * Returns a textual representation of a literal.
+    *
+    * @param l  The literal.
+    * @return   The literal as text.
+   **/
+  private static String literalToString(int l)
+  {
+    return (l < 0 ? "!x_" : "x_") + variable(l);
+  }
+
+
+  /** Returns the rows as text, one per line. */
+  public String toString()
+  {
+    StringBuffer result = new StringBuffer();
+    for (int r = 0; r < rows; ++r)
+      result.append(rowToString(r)).append("\n");
+    return result.toString();
+  }
+}
@@ -110,6 +110,20 @@ public class ExistentialQuantifier extends Quantifier
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    return f.disjunction(ground(f));
+  }
+
+
   /**
     * The hash code of a <code>ExistentialQuantifier</code> is the sum of the
     * hash codes of its children plus one.
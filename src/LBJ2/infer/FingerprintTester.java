@@ -0,0 +1,109 @@
+package LBJ2.infer;
+
+import java.util.*;
+import LBJ2.learn.Learner;
+import LBJ2.learn.SparsePerceptron;
+
+
+/**
+  * This class is a program that checks that an inference problem grounded
+  * twice over different example objects gets the same
+  * {@link CachingILPSolver} fingerprint both times.  Propositional variables
+  * hash by the identities of their examples, so any step between grounding
+  * and the solver that iterates over a hash set in hash order shows up here
+  * as a mismatch.
+  *
+  * <p> Usage:
+  * <blockquote>
+  *   <code>
+  *     java LBJ2.infer.FingerprintTester [&lt;runs=20&gt;]
+  *   </code>
+  * </blockquote>
+  *
+  * <p> <b>Output:</b> The constraint
+  * <code>((a &amp; b) | (c &amp; d)) &amp; ((e &amp; f) | (g &amp; h))</code>
+  * is grounded <code>&lt;runs&gt;</code> times, each time over freshly
+  * allocated examples, and lowered into an ILP the same way
+  * {@link ILPInference} lowers its constraints.  The number of distinct
+  * fingerprints is printed to <code>STDOUT</code>, and the program exits with
+  * status 1 if there is more than one.
+  *
+  * @author Nick Rizzolo
+ **/
+public class FingerprintTester
+{
+  /** The number of examples in the constraint. */
+  private static final int examples = 8;
+
+
+  public static void main(String[] args)
+  {
+    int runs = 20;
+
+    try
+    {
+      if (args.length > 0) runs = Integer.parseInt(args[0]);
+      if (args.length > 1 || runs < 1) throw new Exception();
+    }
+    catch (Exception e)
+    {
+      System.err.println("usage: java LBJ2.infer.FingerprintTester "
+                         + "[<runs=20>]");
+      System.exit(1);
+    }
+
+    Learner classifier = new SparsePerceptron("FingerprintTester");
+    HashSet<String> fingerprints = new HashSet<String>();
+    for (int i = 0; i < runs; ++i)
+      fingerprints.add(Arrays.toString(ground(classifier)));
+
+    System.out.println(fingerprints.size() + " distinct fingerprint"
+                       + (fingerprints.size() == 1 ? "" : "s") + " in "
+                       + runs + " runs.");
+    if (fingerprints.size() > 1) System.exit(1);
+  }
+
+
+  /**
+    * Grounds the constraint over new examples and lowers it into a
+    * {@link CachingILPSolver}.
+    *
+    * @param c  The classifier whose predictions are the variables.
+    * @return   The fingerprint of the resulting ILP.
+   **/
+  private static byte[] ground(Learner c)
+  {
+    PropositionalConstraintFactory factory =
+      new PropositionalConstraintFactory();
+    CompactConstraint compact = new CompactConstraint(factory);
+    CachingILPSolver solver =
+      new CachingILPSolver(new BranchAndBoundILPSolver());
+    solver.setMaximize(true);
+
+    Object[] e = new Object[examples];
+    PropositionalVariable[] v = new PropositionalVariable[examples];
+    int[][] columns = new int[examples][];
+
+    for (int i = 0; i < examples; ++i)
+    {
+      e[i] = new Object();
+      v[i] = new PropositionalVariable(c, e[i], "true");
+      columns[i] = solver.addDiscreteVariable(new double[]{ i, -i });
+      compact.addVariable(c, e[i], "true");
+      compact.addVariable(c, e[i], "false");
+    }
+
+    PropositionalConstraint constraint =
+      new PropositionalConjunction(
+          new PropositionalDisjunction(
+              new PropositionalConjunction(v[0], v[1]),
+              new PropositionalConjunction(v[2], v[3])),
+          new PropositionalDisjunction(
+              new PropositionalConjunction(v[4], v[5]),
+              new PropositionalConjunction(v[6], v[7])));
+
+    compact.add(factory.simplify(factory.intern(constraint), true));
+    compact.translate(solver, compact.index(columns));
+    return solver.getFingerprint();
+  }
+}
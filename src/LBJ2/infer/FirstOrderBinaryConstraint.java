@@ -68,5 +68,19 @@ public abstract class FirstOrderBinaryConstraint extends FirstOrderConstraint
   {
     return new FirstOrderConstraint[]{ left, right };
   }
-}
 
+
+  /**
+    * Returns a copy of this constraint applied to copies of its operands.
+    *
+    * @return A copy of this constraint.
+   **/
+  public Object clone()
+  {
+    FirstOrderBinaryConstraint clone =
+      (FirstOrderBinaryConstraint) super.clone();
+    clone.left = (FirstOrderConstraint) left.clone();
+    clone.right = (FirstOrderConstraint) right.clone();
+    return clone;
+  }
+}
@@ -75,6 +75,20 @@ public class FirstOrderConjunction extends FirstOrderNAryConstraint
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    return f.conjunction(groundChildren(f));
+  }
+
+
   /**
     * The hash code of a <code>FirstOrderConjunction</code> is the sum of
     * the hash codes of its children plus one.
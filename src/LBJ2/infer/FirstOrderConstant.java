@@ -66,6 +66,20 @@ public class FirstOrderConstant extends FirstOrderConstraint
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    return f.constant(constant);
+  }
+
+
   /**
     * The hash code of a <code>FirstOrderConstant</code> is the hash code of
     * the <code>Boolean</code> object formed from the constant.
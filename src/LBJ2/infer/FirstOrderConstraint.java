@@ -54,6 +54,7 @@ import java.util.Vector;
   * </ul>
  **/
 public abstract class FirstOrderConstraint extends Constraint
+  implements Cloneable
 {
   /**
     * This method sets the given quantification variables to the given object
@@ -72,5 +73,43 @@ public abstract class FirstOrderConstraint extends Constraint
     * @return The propositionalized constraint.
    **/
   abstract public PropositionalConstraint propositionalize();
-}
 
+
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory, so that every subterm it shares with other
+    * constraints built by the same factory is stored only once.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    return f.intern(propositionalize());
+  }
+
+
+  /**
+    * Returns a copy of this constraint whose quantification variables can be
+    * set without affecting this constraint.  This implementation returns a
+    * shallow clone, which suffices for constraints that have neither
+    * children nor argument replacers.
+    *
+    * @return A copy of this constraint.
+   **/
+  public Object clone()
+  {
+    Object clone = null;
+
+    try { clone = super.clone(); }
+    catch (Exception e)
+    {
+      System.err.println("Error cloning " + getClass().getName() + ":");
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+    return clone;
+  }
+}
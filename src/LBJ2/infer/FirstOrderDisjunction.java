@@ -75,6 +75,22 @@ public class FirstOrderDisjunction extends FirstOrderNAryConstraint
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    if (children.size() == 0) return f.constant(true);
+
+    return f.disjunction(groundChildren(f));
+  }
+
+
   /**
     * The hash code of a <code>FirstOrderDisjunction</code> is the sum of
     * the hash codes of its children.
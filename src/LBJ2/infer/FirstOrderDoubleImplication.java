@@ -37,6 +37,21 @@ public class FirstOrderDoubleImplication extends FirstOrderBinaryConstraint
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    return f.doubleImplication(left.propositionalize(f),
+                               right.propositionalize(f));
+  }
+
+
   /**
     * The hash code of a <code>FirstOrderDoubleImplication</code> is the sum
     * of the hash codes of its children plus three.
@@ -54,5 +54,19 @@ public abstract class FirstOrderEquality extends FirstOrderConstraint
     * @return The children of this constraint in an array.
    **/
   public Constraint[] getChildren() { return new FirstOrderConstraint[0]; }
-}
 
+
+  /**
+    * Returns a copy of this equality with its own copy of the argument
+    * replacer.
+    *
+    * @return A copy of this constraint.
+   **/
+  public Object clone()
+  {
+    FirstOrderEquality clone = (FirstOrderEquality) super.clone();
+    if (replacer != null)
+      clone.replacer = (EqualityArgumentReplacer) replacer.clone();
+    return clone;
+  }
+}
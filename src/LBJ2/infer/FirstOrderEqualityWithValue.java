@@ -126,6 +126,31 @@ public class FirstOrderEqualityWithValue extends FirstOrderEquality
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    Score[] leftScores = left.getScores().toArray();
+    boolean found = false;
+    for (int i = 0; i < leftScores.length && !found; ++i)
+      found = leftScores[i].value.equals(right);
+
+    PropositionalConstraint result = null;
+    if (!found) result = f.constant(false);
+    else
+      result = f.variable(left.getClassifier(), left.getExample(), right);
+
+    if (!equality) result = f.negation(result);
+    return result;
+  }
+
+
   /**
     * The hash code of a <code>FirstOrderEqualityWithValue</code> is the sum
     * of the hash codes of its children plus 1.
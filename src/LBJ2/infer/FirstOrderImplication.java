@@ -36,6 +36,20 @@ public class FirstOrderImplication extends FirstOrderBinaryConstraint
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    return f.implication(left.propositionalize(f), right.propositionalize(f));
+  }
+
+
   /**
     * The hash code of a <code>FirstOrderImplication</code> is the sum of the
     * hash codes of its children plus two.
@@ -11,12 +11,16 @@ import java.util.*;
  **/
 public abstract class FirstOrderNAryConstraint extends FirstOrderConstraint
 {
-  /** The children of the operator. */
+  /**
+    * The children of the operator, kept in the order they were added so
+    * that the variables of an inference problem are always numbered the
+    * same way.
+   **/
   protected HashSet children;
 
 
   /** Default constructor. */
-  public FirstOrderNAryConstraint() { children = new HashSet(); }
+  public FirstOrderNAryConstraint() { children = new LinkedHashSet(); }
 
 
   /**
@@ -88,5 +92,89 @@ public abstract class FirstOrderNAryConstraint extends FirstOrderConstraint
     * @param c  The constraint to add.
    **/
   abstract public void add(FirstOrderConstraint c);
+
+
+  /**
+    * Propositionalizes each child with a {@link ParallelGrounder}.
+    *
+    * @param f  The factory that builds the propositional constraints.
+    * @return   The propositionalized children, in order.
+   **/
+  protected PropositionalConstraint[]
+    groundChildren(PropositionalConstraintFactory f)
+  {
+    FirstOrderConstraint[] c =
+      (FirstOrderConstraint[])
+      children.toArray(new FirstOrderConstraint[children.size()]);
+    return new Grounder(c, false).propositionalize(f);
+  }
+
+
+  /**
+    * Returns a copy of this constraint whose children are copies of this
+    * constraint's children.
+    *
+    * @return A copy of this constraint.
+   **/
+  public Object clone()
+  {
+    FirstOrderNAryConstraint clone = (FirstOrderNAryConstraint) super.clone();
+    clone.children = new LinkedHashSet();
+    for (Iterator I = children.iterator(); I.hasNext(); )
+      clone.children.add(((FirstOrderConstraint) I.next()).clone());
+    return clone;
+  }
+
+
+  /**
+    * Propositionalizes the children of an n-ary constraint.
+    *
+    * @author Nick Rizzolo
+   **/
+  private static class Grounder extends ParallelGrounder
+  {
+    /** The children. */
+    private FirstOrderConstraint[] children;
+    /** Whether each child is copied before it is propositionalized. */
+    private boolean copied;
+
+
+    /**
+      * Initializing constructor.
+      *
+      * @param c  The children.
+      * @param o  Whether each child is copied before it is
+      *           propositionalized.
+     **/
+    public Grounder(FirstOrderConstraint[] c, boolean o)
+    {
+      super(c.length);
+      children = c;
+      copied = o;
+    }
+
+
+    /**
+      * Returns a grounder that copies each child, in case children share
+      * subconstraints.
+     **/
+    protected ParallelGrounder copy() { return new Grounder(children, true); }
+
+
+    /**
+      * Propositionalizes a child.
+      *
+      * @param i  The index of the child.
+      * @param f  The factory that builds the propositional constraint.
+      * @return   The propositionalized child.
+     **/
+    protected PropositionalConstraint
+      ground(int i, PropositionalConstraintFactory f)
+    {
+      FirstOrderConstraint c = children[i];
+      if (copied) c = (FirstOrderConstraint) c.clone();
+      return c.propositionalize(f);
+    }
+  }
 }
 
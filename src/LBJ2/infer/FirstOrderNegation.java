@@ -72,6 +72,20 @@ public class FirstOrderNegation extends FirstOrderConstraint
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    return f.negation(constraint.propositionalize(f));
+  }
+
+
   /**
     * The hash code of a <code>FirstOrderNegation</code> is the hash code of
     * its child constraint plus 1.
@@ -104,5 +118,17 @@ public class FirstOrderNegation extends FirstOrderConstraint
     * @param infer  The inference visiting this constraint.
    **/
   public void runVisit(Inference infer) { infer.visit(this); }
-}
 
+
+  /**
+    * Returns a copy of this constraint that negates a copy of its child.
+    *
+    * @return A copy of this constraint.
+   **/
+  public Object clone()
+  {
+    FirstOrderNegation clone = (FirstOrderNegation) super.clone();
+    clone.constraint = (FirstOrderConstraint) constraint.clone();
+    return clone;
+  }
+}
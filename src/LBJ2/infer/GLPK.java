@@ -15,7 +15,8 @@ import LBJ2.jni.GLPKHook;
   * logic subexpressions into as few constraints as possible.  For example,
   * negated variables never need to be converted to positive variables with
   * the addition of a new variable and constraint, like <code>NaiveGLPK</code>
-  * would generate.
+  * would generate.  The constraints are lowered to a
+  * {@link CompactConstraint}, which generates the inequalities.
   *
   * <p> This class assumes that the <code>constraint</code> variable inherited
   * from class <code>Inference</code> is of type
@@ -43,35 +44,6 @@ public class GLPK extends Inference
   /** Debugging variable. */
   private boolean PRINT_ILP = false;
 
-  /**
-    * Used during ILP constraint generation.  When a propositional constraint
-    * finishes generating any ILP constraints that may be associated with it,
-    * it sets this variable to its own index.
-   **/
-  protected int returnIndex;
-  /**
-    * Used during ILP constraint generation.  This flag is set iff the
-    * variable corresponding to <code>returnIndex</code> is negated in its
-    * current context.
-   **/
-  protected boolean returnNegation;
-  /**
-    * Used during ILP constraint generation.  This map associates each
-    * variable index with a representation of the expression whose value is
-    * represented by the variable.  The keys associated with indexes of
-    * variables that were originally part of the inference problem are
-    * <code>PropositionalVariable</code> objects.  The keys associated with
-    * indexes of temporary variables created during constraint translation are
-    * strings.
-   **/
-  protected HashMap indexMap;
-  /**
-    * Used during ILP constraint generation.  Constraints are treated
-    * differently if they are part of another constraint expression than if
-    * they are a term in the top level conjunction.
-   **/
-  protected boolean topLevel;
-
 
   /**
     * This constructor is invoked by simply supplying any integer argument;
@@ -174,7 +146,11 @@ public class GLPK extends Inference
     if (solver != null) return;
 
     constraint.consolidateVariables(variables);
-    indexMap = new HashMap();
+    PropositionalConstraintFactory factory =
+      new PropositionalConstraintFactory();
+    CompactConstraint compact = new CompactConstraint(factory);
+    int[][] columns = new int[variables.size()][];
+    int k = 0;
 
     if (writeStatusFiles)
       solver = new GLPKHook("GLPKInference" + ID, generateCuts, PRINT_ILP);
@@ -204,10 +180,8 @@ public class GLPK extends Inference
       for (int j = 0; j < scores.length; ++j)
       {
         indexes[j] = solver.addBooleanVariable(scores[j].score);
-        indexMap.put(
-            new PropositionalVariable(v.getClassifier(), v.getExample(),
-                                      scores[j].value),
-            new Integer(indexes[j]));
+        compact.addVariable(v.getClassifier(), v.getExample(),
+                            scores[j].value);
 
         if (PRINT_ILP)
           System.out.println(
@@ -216,25 +190,22 @@ public class GLPK extends Inference
       }
 
       solver.addEqualityConstraint(indexes, coefficients, 1);
+      columns[k++] = indexes;
     }
 
     PropositionalConstraint propositional =
-      ((FirstOrderConstraint) constraint).propositionalize();
+      ((FirstOrderConstraint) constraint).propositionalize(factory);
+    propositional = factory.simplify(propositional, true);
 
-    if (propositional instanceof PropositionalConjunction)
-      propositional =
-        ((PropositionalConjunction) propositional).simplify(true);
-    else propositional = propositional.simplify();
-
-    if (propositional instanceof PropositionalConstant
-        && !propositional.evaluate())
+    if (!(propositional instanceof PropositionalConstant))
+      compact.add(propositional);
+    else if (!propositional.evaluate())
     {
       System.err.println("GLPK ERROR: Unsatisfiable constraints!");
       solver.addEqualityConstraint(new int[]{ 0 }, new double[]{ 1 }, 2);
     }
 
-    topLevel = true;
-    propositional.runVisit(this);
+    translate(compact, compact.index(columns));
 
     if (!solver.solve()) throw new InferenceNotOptimalException(solver, head);
     int variableIndex = 0;
@@ -303,406 +274,24 @@ public class GLPK extends Inference
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalDoubleImplication c)
-  {
-    assert topLevel : "GLPK: PropositionalDoubleImplication encountered.";
-    topLevel = false;
-
-    int[] indexes = new int[2];
-    double[] coefficients = new double[2];
-    double bound = 0;
-
-    c.left.runVisit(this);
-    indexes[0] = returnIndex;
-    if (returnNegation)
-    {
-      coefficients[0] = -1;
-      --bound;
-    }
-    else coefficients[0] = 1;
-
-    c.right.runVisit(this);
-    indexes[1] = returnIndex;
-    if (returnNegation)
-    {
-      coefficients[1] = 1;
-      ++bound;
-    }
-    else coefficients[1] = -1;
-
-    solver.addEqualityConstraint(indexes, coefficients, bound);
-
-    topLevel = true;
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalImplication c)
-  {
-    assert false : "GLPK: PropositionalImplication encountered.";
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalConjunction c)
-  {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
-
-    int[] indexes = null;
-    double[] coefficients = null;
-    double bound;
-
-    if (topLevel)
-    {
-      PropositionalConstraint[] variables =
-        new PropositionalConstraint[children.length];
-      int size = 0;
-      for (int i = 0; i < children.length; ++i)
-      {
-        if (children[i] instanceof PropositionalVariable
-            || children[i] instanceof PropositionalNegation)
-          variables[size++] = children[i];
-        else children[i].runVisit(this);
-      }
-
-      if (size > 0)
-      {
-        indexes = new int[size];
-        coefficients = new double[size];
-        bound = size;
-
-        for (int i = 0; i < size; ++i)
-        {
-          variables[i].runVisit(this);
-          indexes[i] = returnIndex;
-          if (returnNegation)
-          {
-            coefficients[i] = -1;
-            --bound;
-          }
-          else coefficients[i] = 1;
-        }
-
-        solver.addEqualityConstraint(indexes, coefficients, bound);
-      }
-    }
-    else
-    {
-      indexes = new int[children.length + 1];
-      coefficients = new double[children.length + 1];
-      bound = 0;
-
-      for (int i = 0; i < children.length; ++i)
-      {
-        children[i].runVisit(this);
-        indexes[i] = returnIndex;
-        if (returnNegation)
-        {
-          coefficients[i] = -1;
-          --bound;
-        }
-        else coefficients[i] = 1;
-      }
-
-      String[] stringIndexes = new String[children.length];
-      for (int i = 0; i < children.length; ++i)
-        stringIndexes[i] = (coefficients[i] < 0 ? "!" : "") + indexes[i];
-      Arrays.sort(stringIndexes);
-      String key = stringIndexes[0];
-      for (int i = 1; i < stringIndexes.length; ++i)
-        key += "&" + stringIndexes[i];
-      Integer I = (Integer) indexMap.get(key);
-
-      if (I == null)
-      {
-        I = new Integer(createNewVariable(key));
-        indexMap.put(key, I);
-
-        indexes[children.length] = I.intValue();
-        coefficients[children.length] = -children.length;
-        solver.addGreaterThanConstraint(indexes, coefficients, bound);
-
-        coefficients[children.length] = -1;
-        solver.addLessThanConstraint(indexes, coefficients,
-                                     bound + children.length - 1);
-      }
-
-      returnIndex = I.intValue();
-      returnNegation = false;
-    }
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalDisjunction c)
-  {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
-
-    int[] indexes = null;
-    double[] coefficients = null;
-    double bound = 0;
-
-    if (topLevel)
-    {
-      int subConstraintIndex = -1;
-
-      for (int i = 0; i < children.length && subConstraintIndex == -1; ++i)
-      {
-        if (children[i] instanceof PropositionalVariable
-            || children[i] instanceof PropositionalNegation)
-          continue;
-        if (children[i] instanceof PropositionalConjunction)
-          subConstraintIndex = i;
-        else if (children[i] instanceof PropositionalAtLeast)
-          subConstraintIndex = i;
-      }
-
-      if (subConstraintIndex > -1)
-      {
-        PropositionalConstraint[] subChildren =
-          (PropositionalConstraint[])
-          children[subConstraintIndex].getChildren();
-        int multiplier =
-          children[subConstraintIndex] instanceof PropositionalConjunction
-          ? subChildren.length
-          : ((PropositionalAtLeast) children[subConstraintIndex]).getM();
-
-        indexes = new int[subChildren.length + children.length - 1];
-        coefficients = new double[subChildren.length + children.length - 1];
-        bound = multiplier;
-
-        topLevel = false;
-
-        int j = 0;
-        for (int i = 0; i < children.length; ++i)
-        {
-          if (i == subConstraintIndex) continue;
-
-          children[i].runVisit(this);
-          indexes[j] = returnIndex;
-          if (returnNegation)
-          {
-            coefficients[j] = -multiplier;
-            bound -= multiplier;
-          }
-          else coefficients[j] = multiplier;
-
-          ++j;
-        }
-
-        for (int i = 0; i < subChildren.length; ++i, ++j)
-        {
-          subChildren[i].runVisit(this);
-          indexes[j] = returnIndex;
-          if (returnNegation)
-          {
-            coefficients[j] = -1;
-            --bound;
-          }
-          else coefficients[j] = 1;
-        }
-
-        topLevel = true;
-
-        solver.addGreaterThanConstraint(indexes, coefficients, bound);
-        return;
-      }
-    }
-
-    if (topLevel)
-    {
-      indexes = new int[children.length];
-      coefficients = new double[children.length];
-      bound = 1;
-    }
-    else
-    {
-      indexes = new int[children.length + 1];
-      coefficients = new double[children.length + 1];
-    }
-
-    boolean saveTopLevel = topLevel;
-    topLevel = false;
-    for (int i = 0; i < children.length; ++i)
-    {
-      children[i].runVisit(this);
-      indexes[i] = returnIndex;
-      if (returnNegation)
-      {
-        coefficients[i] = -1;
-        --bound;
-      }
-      else coefficients[i] = 1;
-    }
-
-    topLevel = saveTopLevel;
-    if (topLevel)
-      solver.addGreaterThanConstraint(indexes, coefficients, bound);
-    else
-    {
-      String[] stringIndexes = new String[children.length];
-      for (int i = 0; i < children.length; ++i)
-        stringIndexes[i] = (coefficients[i] < 0 ? "!" : "") + indexes[i];
-      Arrays.sort(stringIndexes);
-      String key = stringIndexes[0];
-      for (int i = 1; i < stringIndexes.length; ++i)
-        key += "|" + stringIndexes[i];
-      Integer I = (Integer) indexMap.get(key);
-
-      if (I == null)
-      {
-        I = new Integer(createNewVariable(key));
-        indexMap.put(key, I);
-
-        indexes[children.length] = I.intValue();
-        coefficients[children.length] = -1;
-        solver.addGreaterThanConstraint(indexes, coefficients, bound);
-
-        coefficients[children.length] = -children.length;
-        solver.addLessThanConstraint(indexes, coefficients, bound);
-      }
-
-      returnIndex = I.intValue();
-      returnNegation = false;
-    }
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
+    * Adds the linear inequalities equivalent to the given constraint to the
+    * solver.
     *
-    * @param c  The constraint to process.
+    * @param c      The constraint.
+    * @param index  Maps each of the constraint's variables to its index in
+    *               the solver, as described in
+    *               {@link CompactConstraint#translate(ILPSolver,int[])}.
    **/
-  public void visit(PropositionalAtLeast c)
+  protected void translate(CompactConstraint c, int[] index)
   {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
-
-    int[] indexes = null;
-    double[] coefficients = null;
-    double bound = 0;
+    c.translate(solver, index);
 
-    if (topLevel)
-    {
-      indexes = new int[children.length];
-      coefficients = new double[children.length];
-      bound = c.getM();
-    }
-    else
-    {
-      indexes = new int[children.length + 1];
-      coefficients = new double[children.length + 1];
-    }
-
-    boolean saveTopLevel = topLevel;
-    topLevel = false;
-    for (int i = 0; i < children.length; ++i)
-    {
-      children[i].runVisit(this);
-      indexes[i] = returnIndex;
-      if (returnNegation)
-      {
-        coefficients[i] = -1;
-        --bound;
-      }
-      else coefficients[i] = 1;
-    }
-
-    topLevel = saveTopLevel;
-    if (topLevel)
-      solver.addGreaterThanConstraint(indexes, coefficients, bound);
-    else
-    {
-      String[] stringIndexes = new String[children.length];
-      for (int i = 0; i < children.length; ++i)
-        stringIndexes[i] = (coefficients[i] < 0 ? "!" : "") + indexes[i];
-      Arrays.sort(stringIndexes);
-      String key = "atl" + c.getM() + "of" + stringIndexes[0];
-      for (int i = 1; i < stringIndexes.length; ++i)
-        key += "&" + stringIndexes[i];
-      Integer I = (Integer) indexMap.get(key);
-
-      if (I == null)
-      {
-        I = new Integer(createNewVariable(key));
-        indexMap.put(key, I);
-
-        indexes[children.length] = I.intValue();
-        coefficients[children.length] = -c.getM();
-        solver.addGreaterThanConstraint(indexes, coefficients, bound);
-
-        coefficients[children.length] = -children.length;
-        solver.addLessThanConstraint(indexes, coefficients,
-                                     bound + c.getM() - 1);
-      }
-
-      returnIndex = I.intValue();
-      returnNegation = false;
-    }
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalNegation c)
-  {
-    assert c.constraint instanceof PropositionalVariable
-      : "GLPK: Negation of a " + c.constraint.getClass().getName()
-        + " encountered.";
-    c.constraint.runVisit(this);
-    returnNegation = true;
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalVariable c)
-  {
-    returnIndex = ((Integer) indexMap.get(c)).intValue();
-    returnNegation = false;
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalConstant c)
-  {
-    assert false : "GLPK: Constant encountered. (" + c.evaluate() + ")";
+    if (PRINT_ILP)
+      for (int r = 0; r < c.getRows(); ++r)
+        if (c.getKind(r) == CompactConstraint.DEFINE
+            || c.getKind(r) == CompactConstraint.IMPLY)
+          System.out.println(
+              index[CompactConstraint.variable(c.getHead(r))] + ": "
+              + c.rowToString(r));
   }
 }
-
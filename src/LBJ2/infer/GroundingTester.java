@@ -0,0 +1,209 @@
+package LBJ2.infer;
+
+import java.util.*;
+import LBJ2.classify.ScoreSet;
+import LBJ2.learn.Learner;
+import LBJ2.learn.SparsePerceptron;
+
+
+/**
+  * This class is a program that checks that {@link ParallelGrounder} gives
+  * the same propositionalization with several threads as with one.  The
+  * constraint it grounds nests existential quantifiers in a conjunction
+  * inside a universal quantifier, and the argument replacers of the
+  * innermost equalities read the settings of both enclosing quantification
+  * variables.  The conjunction has more children than
+  * {@link ParallelGrounder#chunkSize}, so its children are grounded in
+  * parallel on copies of themselves.
+  *
+  * <p> Usage:
+  * <blockquote>
+  *   <code>
+  *     java LBJ2.infer.GroundingTester [&lt;threads=4&gt;
+  *                                     [&lt;assignments=100&gt;]]
+  *   </code>
+  * </blockquote>
+  *
+  * <p> <b>Output:</b> The constraint is propositionalized once with a single
+  * thread and once with <code>&lt;threads&gt;</code> threads.  The two
+  * results need not be structured identically, so they are compared by
+  * evaluating them both under <code>&lt;assignments&gt;</code> random
+  * assignments of their variables.  The number of assignments on which they
+  * disagree is printed to <code>STDOUT</code>, and the program exits with
+  * status 1 if there are any, or if the two results don't have the same
+  * variables.
+  *
+  * @author Nick Rizzolo
+ **/
+public class GroundingTester
+{
+  /** The number of objects the universal quantifier iterates over. */
+  private static final int outer = 3;
+  /** The number of objects each existential quantifier iterates over. */
+  private static final int inner = 3;
+  /** The number of existential quantifiers in the conjunction. */
+  private static final int terms = 70;
+
+
+  public static void main(String[] args)
+  {
+    int threads = 4;
+    int assignments = 100;
+
+    try
+    {
+      if (args.length > 0) threads = Integer.parseInt(args[0]);
+      if (args.length > 1) assignments = Integer.parseInt(args[1]);
+      if (args.length > 2 || threads < 2 || assignments < 1)
+        throw new Exception();
+    }
+    catch (Exception e)
+    {
+      System.err.println(
+  "usage: java LBJ2.infer.GroundingTester [<threads=4> \\\n"
++ "                                        [<assignments=100>]]");
+      System.exit(1);
+    }
+
+    Learner classifier =
+      new SparsePerceptron("GroundingTester")
+      {
+        public ScoreSet scores(Object example)
+        {
+          return
+            new ScoreSet(new String[]{ "true", "false" },
+                         new double[]{ 1, 0 });
+        }
+      };
+
+    final Object[][][] examples = new Object[outer][inner][terms];
+    for (int i = 0; i < outer; ++i)
+      for (int j = 0; j < inner; ++j)
+        for (int k = 0; k < terms; ++k)
+          examples[i][j][k] = i + "," + j + "," + k;
+
+    Integer[] objects = new Integer[Math.max(outer, inner)];
+    for (int i = 0; i < objects.length; ++i) objects[i] = Integer.valueOf(i);
+    List outerObjects = Arrays.asList(objects).subList(0, outer);
+    List innerObjects = Arrays.asList(objects).subList(0, inner);
+
+    FirstOrderConstraint conjunction = null;
+    for (int k = 0; k < terms; ++k)
+    {
+      final int term = k;
+      EqualityArgumentReplacer replacer =
+        new EqualityArgumentReplacer(new Object[0], true)
+        {
+          public Object getLeftObject()
+          {
+            int i = ((Integer) quantificationVariables.get(0)).intValue();
+            int j = ((Integer) quantificationVariables.get(1)).intValue();
+            return examples[i][j][term];
+          }
+        };
+
+      FirstOrderConstraint existential =
+        new ExistentialQuantifier(
+            "y", innerObjects,
+            new FirstOrderEqualityWithValue(
+                true, new FirstOrderVariable(classifier, null), "true",
+                replacer));
+      conjunction =
+        conjunction == null
+        ? existential : new FirstOrderConjunction(conjunction, existential);
+    }
+
+    FirstOrderConstraint constraint =
+      new UniversalQuantifier("x", outerObjects, conjunction);
+
+    int savedThreads = ParallelGrounder.threads;
+    ParallelGrounder.threads = 1;
+    PropositionalConstraint sequential =
+      constraint.propositionalize(new PropositionalConstraintFactory());
+    ParallelGrounder.threads = threads;
+    PropositionalConstraint parallel =
+      constraint.propositionalize(new PropositionalConstraintFactory());
+    ParallelGrounder.threads = savedThreads;
+
+    HashMap<String, LinkedList<PropositionalVariable>> variables =
+      new HashMap<String, LinkedList<PropositionalVariable>>();
+    int sequentialVariables = collect(sequential, variables);
+    int parallelVariables = collect(parallel, variables);
+
+    if (sequentialVariables != parallelVariables
+        || variables.size() != sequentialVariables)
+    {
+      System.out.println("The groundings have different variables: "
+                         + sequentialVariables + " and " + parallelVariables
+                         + " of " + variables.size() + ".");
+      System.exit(1);
+    }
+
+    Random random = new Random(0);
+    int disagreements = 0;
+
+    for (int a = 0; a < assignments; ++a)
+    {
+      for (Iterator<LinkedList<PropositionalVariable>> I =
+             variables.values().iterator();
+           I.hasNext(); )
+      {
+        boolean value = random.nextBoolean();
+        for (Iterator<PropositionalVariable> J = I.next().iterator();
+             J.hasNext(); )
+          J.next().value = value;
+      }
+
+      if (sequential.evaluate() != parallel.evaluate()) ++disagreements;
+    }
+
+    System.out.println(disagreements + " of " + assignments
+                       + " assignments evaluated differently.");
+    if (disagreements > 0) System.exit(1);
+  }
+
+
+  /**
+    * Adds the distinct variables in a constraint to a map from their
+    * examples and predictions to the variables with those examples and
+    * predictions.
+    *
+    * @param c  The constraint.
+    * @param m  The map.
+    * @return   The number of distinct variables in the constraint.
+   **/
+  private static int collect(PropositionalConstraint c,
+                             HashMap<String, LinkedList<PropositionalVariable>>
+                               m)
+  {
+    IdentityHashMap<Constraint, Boolean> seen =
+      new IdentityHashMap<Constraint, Boolean>();
+    LinkedList<Constraint> stack = new LinkedList<Constraint>();
+    stack.add(c);
+    int result = 0;
+
+    while (!stack.isEmpty())
+    {
+      Constraint next = stack.removeLast();
+      if (seen.put(next, Boolean.TRUE) != null) continue;
+
+      if (next instanceof PropositionalVariable)
+      {
+        PropositionalVariable v = (PropositionalVariable) next;
+        String key = v.getExample() + "=" + v.getPrediction();
+        LinkedList<PropositionalVariable> list = m.get(key);
+        if (list == null)
+        {
+          list = new LinkedList<PropositionalVariable>();
+          m.put(key, list);
+        }
+
+        list.add(v);
+        ++result;
+      }
+      else stack.addAll(Arrays.asList(next.getChildren()));
+    }
+
+    return result;
+  }
+}
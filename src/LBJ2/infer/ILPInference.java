@@ -14,6 +14,17 @@ import LBJ2.classify.*;
   * Textual output of the ILP problem itself is controlled by the
   * {@link ILPSolver}.
   *
+  * <p> The constraints are propositionalized and simplified with a
+  * {@link PropositionalConstraintFactory} and lowered to a
+  * {@link CompactConstraint}, which generates the linear inequalities.
+  *
+  * <p> An inference can be given a {@link #timeLimit time limit}, so that a
+  * pathological problem can't hold up a program that performs inference on
+  * many head objects.  When the ILP algorithm doesn't finish in time, the
+  * variables are assigned by a {@link #search(CompactConstraint,
+  * PropositionalConstraint,double[][]) local search} instead, and
+  * {@link #isOptimal()} returns <code>false</code>.
+  *
   * @author Nick Rizzolo
  **/
 public class ILPInference extends Inference
@@ -27,6 +38,22 @@ public class ILPInference extends Inference
 
   /** Keeps the next ID number for objects of this class. */
   protected static int nextID = 0;
+  /** The {@link #timeLimit} of newly constructed objects. */
+  private static volatile long defaultTimeLimit = 0;
+
+
+  /** Returns the {@link #timeLimit} of newly constructed objects. */
+  public static long getDefaultTimeLimit() { return defaultTimeLimit; }
+
+
+  /**
+    * Sets the {@link #timeLimit} of objects constructed from now on.  Since
+    * the inferences declared in LBJ source files are constructed by the
+    * generated code, this is the way to limit their running time.
+    *
+    * @param t  The time limit in milliseconds, or 0 for no limit.
+   **/
+  public static void setDefaultTimeLimit(long t) { defaultTimeLimit = t; }
 
 
   /** The identification number for this object, used in debug file names. */
@@ -37,42 +64,53 @@ public class ILPInference extends Inference
   /** This flag is set if the constraints turn out to be true in all cases. */
   protected boolean tautology;
   /**
-    * Used during ILP constraint generation.  When a propositional constraint
-    * finishes generating any ILP constraints that may be associated with it,
-    * it sets this variable to its own index.
+    * {@link #verbosity Verbosity level}.  {@link #VERBOSITY_NONE} produces no
+    * incidental output.  If set to {@link #VERBOSITY_LOW}, only timing
+    * information is printed on <code>STDOUT</code>.  If set to
+    * {@link #VERBOSITY_HIGH}, information mapping the generated ILP variables
+    * to the first order variables they were generated from and their settings
+    * in the ILP problem's solution is printed to <code>STDOUT</code>.
    **/
-  protected int returnIndex;
+  protected int verbosity;
   /**
-    * Used during ILP constraint generation.  This flag is set iff the
-    * variable corresponding to <code>returnIndex</code> is negated in its
-    * current context.
+    * When this flag is set, the ILP starts out with no constraints other
+    * than those making each first order variable take exactly one value, so
+    * that its solution is the classifiers' unconstrained predictions.  Each
+    * term of the propositionalized constraints' top level conjunction that
+    * the solution violates is then added to the ILP, and the ILP is solved
+    * again, until a solution violates none of them.  Each ILP solved along
+    * the way is a relaxation of the complete ILP, so the last solution, being
+    * feasible in the complete ILP, is optimal in it as well.  When most of
+    * the constraints are satisfied by the unconstrained predictions, as is
+    * typical, this saves building and solving most of the ILP.  The ILP
+    * algorithm must allow constraints to be added after it has solved the
+    * problem.
    **/
-  protected boolean returnNegation;
+  protected boolean lazy;
   /**
-    * Used during ILP constraint generation.  This map associates each
-    * variable index with a representation of the expression whose value is
-    * represented by the variable.  The keys associated with indexes of
-    * variables that were originally part of the inference problem are
-    * <code>PropositionalVariable</code> objects.  The keys associated with
-    * indexes of temporary variables created during constraint translation are
-    * strings.
+    * The number of milliseconds {@link #infer()} may take before it gives up
+    * on the ILP algorithm, or 0 if there is no limit.  A
+    * {@link TimeLimitedILPSolver} that honors deadlines, such as
+    * {@link BranchAndBoundILPSolver}, is given the deadline and run in the
+    * calling thread.  Any other ILP algorithm is run in a separate thread,
+    * which is interrupted and abandoned if it hasn't finished by the
+    * deadline.  Such an algorithm may ignore the interruption and keep
+    * running, so the next call that uses it waits for it to finish.
    **/
-  protected HashMap indexMap;
+  protected long timeLimit;
   /**
-    * Used during ILP constraint generation.  Constraints are treated
-    * differently if they are part of another constraint expression than if
-    * they are a term in the top level conjunction.
+    * Set when the ILP algorithm ran out of time and the variables were
+    * assigned by {@link #search(CompactConstraint,PropositionalConstraint,
+    * double[][])} instead.
    **/
-  protected boolean topLevel;
+  protected boolean timedOut;
+  /** When the current call to {@link #infer()} must finish, or 0. */
+  private long deadline;
   /**
-    * {@link #verbosity Verbosity level}.  {@link #VERBOSITY_NONE} produces no
-    * incidental output.  If set to {@link #VERBOSITY_LOW}, only timing
-    * information is printed on <code>STDOUT</code>.  If set to
-    * {@link #VERBOSITY_HIGH}, information mapping the generated ILP variables
-    * to the first order variables they were generated from and their settings
-    * in the ILP problem's solution is printed to <code>STDOUT</code>.
+    * The thread running an abandoned call to the ILP algorithm's
+    * <code>solve()</code> method, or <code>null</code>.
    **/
-  protected int verbosity;
+  private Thread abandoned;
 
 
   /** Don't use this constructor, since it doesn't set an ILP algorithm. */
@@ -93,6 +131,25 @@ public class ILPInference extends Inference
    **/
   public ILPInference(ILPSolver a, int v) { this(null, a, v); }
 
+  /**
+    * Initializes the ILP algorithm and whether constraints are
+    * {@link #lazy added lazily}, but not the head object.
+    *
+    * @param a  The ILP algorithm.
+    * @param l  Sets the value of {@link #lazy}.
+   **/
+  public ILPInference(ILPSolver a, boolean l) { this(null, a, l); }
+
+  /**
+    * Initializes the ILP algorithm, the verbosity, and whether constraints
+    * are {@link #lazy added lazily}, but not the head object.
+    *
+    * @param a  The ILP algorithm.
+    * @param v  Sets the value of {@link #verbosity}.
+    * @param l  Sets the value of {@link #lazy}.
+   **/
+  public ILPInference(ILPSolver a, int v, boolean l) { this(null, a, v, l); }
+
   /** Don't use this constructor, since it doesn't set an ILP algorithm. */
   public ILPInference(Object h) { this(h, null); }
 
@@ -111,15 +168,61 @@ public class ILPInference extends Inference
     * @param a  The ILP algorithm.
     * @param v  Sets the value of {@link #verbosity}.
    **/
-  public ILPInference(Object h, ILPSolver a, int v)
+  public ILPInference(Object h, ILPSolver a, int v) { this(h, a, v, false); }
+
+  /**
+    * Sets the head object, the ILP algorithm, and whether constraints are
+    * {@link #lazy added lazily}.
+    *
+    * @param h  The head object.
+    * @param a  The ILP algorithm.
+    * @param l  Sets the value of {@link #lazy}.
+   **/
+  public ILPInference(Object h, ILPSolver a, boolean l)
+  {
+    this(h, a, VERBOSITY_NONE, l);
+  }
+
+  /**
+    * Sets the head object, the ILP algorithm, the verbosity, and whether
+    * constraints are {@link #lazy added lazily}.
+    *
+    * @param h  The head object.
+    * @param a  The ILP algorithm.
+    * @param v  Sets the value of {@link #verbosity}.
+    * @param l  Sets the value of {@link #lazy}.
+   **/
+  public ILPInference(Object h, ILPSolver a, int v, boolean l)
   {
     super(h);
     solver = a;
     verbosity = v;
+    lazy = l;
+    timeLimit = defaultTimeLimit;
     ID = nextID++;
   }
 
 
+  /** Returns the value of {@link #timeLimit}. */
+  public long getTimeLimit() { return timeLimit; }
+
+
+  /**
+    * Sets the value of {@link #timeLimit}.
+    *
+    * @param t  The time limit in milliseconds, or 0 for no limit.
+   **/
+  public void setTimeLimit(long t) { timeLimit = t; }
+
+
+  /**
+    * Returns <code>false</code> if the ILP algorithm ran out of time, so
+    * that the variables' values came from a local search and may not be
+    * optimal or even satisfy the constraints.
+   **/
+  public boolean isOptimal() { return !timedOut; }
+
+
   /**
     * Adds a constraint to the inference.
     *
@@ -127,6 +230,8 @@ public class ILPInference extends Inference
    **/
   public void addConstraint(FirstOrderConstraint c)
   {
+    awaitAbandoned();
+    timedOut = false;
     solver.reset();
     if (constraint == null) constraint = c;
     else
@@ -141,11 +246,17 @@ public class ILPInference extends Inference
    **/
   protected void infer() throws Exception
   {
-    if (tautology || solver.isSolved()) return;
+    if (tautology || timedOut || solver.isSolved()) return;
 
+    deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : 0;
     solver.setMaximize(true);
     constraint.consolidateVariables(variables);
-    indexMap = new HashMap();
+    PropositionalConstraintFactory factory =
+      new PropositionalConstraintFactory();
+    CompactConstraint compact = new CompactConstraint(factory);
+    int[][] columns = new int[variables.size()][];
+    double[][] weights = new double[variables.size()][];
+    int k = 0;
 
     if (verbosity > VERBOSITY_NONE)
       System.out.println("variables: (" + new Date() + ")");
@@ -167,13 +278,14 @@ public class ILPInference extends Inference
       }
 
       int[] indexes = solver.addDiscreteVariable(scores);
+      columns[k] = indexes;
+      weights[k] = new double[scores.length];
 
       for (int j = 0; j < scores.length; ++j)
       {
-        indexMap.put(
-            new PropositionalVariable(v.getClassifier(), v.getExample(),
-                                      scores[j].value),
-            new Integer(indexes[j]));
+        compact.addVariable(v.getClassifier(), v.getExample(),
+                            scores[j].value);
+        weights[k][j] = scores[j].score;
 
         if (verbosity >= VERBOSITY_HIGH)
         {
@@ -185,19 +297,18 @@ public class ILPInference extends Inference
           System.out.println(toPrint);
         }
       }
+
+      ++k;
     }
 
     if (verbosity > VERBOSITY_NONE)
       System.out.println("propositionalization: (" + new Date() + ")");
     PropositionalConstraint propositional =
-      ((FirstOrderConstraint) constraint).propositionalize();
+      ((FirstOrderConstraint) constraint).propositionalize(factory);
 
     if (verbosity > VERBOSITY_NONE)
       System.out.println("simplification: (" + new Date() + ")");
-    if (propositional instanceof PropositionalConjunction)
-      propositional =
-        ((PropositionalConjunction) propositional).simplify(true);
-    else propositional = propositional.simplify();
+    propositional = factory.simplify(propositional, true);
 
     if (propositional instanceof PropositionalConstant)
     {
@@ -213,14 +324,35 @@ public class ILPInference extends Inference
       }
     }
 
-    if (verbosity > VERBOSITY_NONE)
-      System.out.println("translation: (" + new Date() + ")");
-    topLevel = true;
-    propositional.runVisit(this);
+    if (lazy && !(propositional instanceof PropositionalConstant))
+      solveLazily(compact, compact.index(columns), propositional);
+    else
+    {
+      if (!(propositional instanceof PropositionalConstant))
+      {
+        if (verbosity > VERBOSITY_NONE)
+          System.out.println("lowering: (" + new Date() + ")");
+        compact.add(propositional);
+      }
+
+      if (verbosity > VERBOSITY_NONE)
+        System.out.println("translation: (" + new Date() + ")");
+      translate(compact, compact.index(columns), 0);
+
+      if (verbosity > VERBOSITY_NONE)
+        System.out.println("solution: (" + new Date() + ")");
+      if (!solveInTime() && !timedOut)
+        throw new InferenceNotOptimalException(solver, head);
+    }
+
+    if (timedOut)
+    {
+      System.err.println("ILP WARNING: No solution within " + timeLimit
+                         + " ms; using local search.");
+      search(compact, propositional, weights);
+      return;
+    }
 
-    if (verbosity > VERBOSITY_NONE)
-      System.out.println("solution: (" + new Date() + ")");
-    if (!solver.solve()) throw new InferenceNotOptimalException(solver, head);
     int variableIndex = 0;
     if (verbosity > VERBOSITY_NONE)
       System.out.println("variables set true in solution: (" + new Date()
@@ -247,457 +379,530 @@ public class ILPInference extends Inference
 
 
   /**
-    * Retrieves the value of the specified variable as identified by the
-    * classifier and the object that produce that variable.
+    * Adds the linear inequalities equivalent to some of the given
+    * constraint's rows to the ILP, describing the new variables they define
+    * on <code>STDOUT</code> if the verbosity is high enough.
     *
-    * @param c  The classifier producing the variable.
-    * @param o  The object from which the variable is produced.
-    * @return   The current value of the requested variable.  If the variable
-    *           does not exist in this inference, the result of the
-    *           <code>Learner</code>'s <code>discreteValue(Object)</code>
-    *           method applied to the <code>Object</code> is returned.
+    * @param c      The constraint.
+    * @param index  Maps each of the constraint's variables to its index in
+    *               the ILP, as described in
+    *               {@link CompactConstraint#translate(ILPSolver,int[],int)}.
+    * @param first  The index of the first row to translate.
    **/
-  public String valueOf(LBJ2.learn.Learner c, Object o) throws Exception
+  protected void translate(CompactConstraint c, int[] index, int first)
   {
-    infer();
-    return getVariable(new FirstOrderVariable(c, o)).getValue();
+    c.translate(solver, index, first);
+
+    if (verbosity >= VERBOSITY_HIGH)
+      for (int r = first; r < c.getRows(); ++r)
+        if (c.getKind(r) == CompactConstraint.DEFINE
+            || c.getKind(r) == CompactConstraint.IMPLY)
+        {
+          int variable = CompactConstraint.variable(c.getHead(r));
+          System.out.println(index[variable] + ": " + c.rowToString(r));
+        }
   }
 
 
   /**
-    * Two <code>Inference</code> objects are equal when they have the same
-    * run-time type and store the same head object.  I.e., the <code>==</code>
-    * operator must return <code>true</code> when comparing the two head
-    * objects for this method to return <code>true</code>.
+    * Solves the ILP as described in {@link #lazy}, adding the terms of the
+    * given constraint's top level conjunction to the ILP only once a
+    * solution violates them.  If the ILP algorithm runs out of time,
+    * {@link #timedOut} is set and this method returns without a solution.
     *
-    * @param o  The object to compare to this object.
-    * @return   <code>true</code> iff this object equals the argument object
-    *           as defined above.
+    * @param c      The constraint the terms will be lowered into, to which
+    *               only the inference problem's variables have been added.
+    * @param index  Maps each of those variables to its index in the ILP.
+    * @param p      The simplified propositional constraint.
    **/
-  public boolean equals(Object o)
+  protected void solveLazily(CompactConstraint c, int[] index,
+                             PropositionalConstraint p) throws Exception
   {
-    if (!(o instanceof ILPInference)) return false;
-    return head == ((ILPInference) o).head;
-  }
+    PropositionalConstraint[] terms =
+      p instanceof PropositionalConjunction
+      ? (PropositionalConstraint[]) p.getChildren()
+      : new PropositionalConstraint[]{ p };
+    boolean[] added = new boolean[terms.length];
+    int inputs = c.getVariables();
+    int remaining = terms.length;
+    int round = 0;
+
+    while (true)
+    {
+      if (verbosity > VERBOSITY_NONE)
+        System.out.println("solution " + round + ": (" + new Date() + ")");
+      if (!solveInTime())
+      {
+        if (timedOut) return;
+        throw new InferenceNotOptimalException(solver, head);
+      }
 
+      if (remaining == 0) return;
 
-  /**
-    * Creates a new Boolean variable to represent the value of a subexpression
-    * of some constraint.
-    *
-    * @param d  A textual description of the subexpression whose value is
-    *           represented by the new variable.
-    * @return   The index of the new variable.
-   **/
-  protected int createVariable(String d)
-  {
-    int result = solver.addBooleanVariable(0);
-    if (verbosity >= VERBOSITY_HIGH) System.out.println(result + ": " + d);
-    return result;
+      for (int v = 0; v < inputs; ++v)
+        c.getVariable(v).value = solver.getBooleanValue(index[v]);
+
+      int first = c.getRows();
+      int violated = 0;
+
+      for (int i = 0; i < terms.length; ++i)
+        if (!added[i] && !terms[i].evaluate())
+        {
+          c.add(terms[i]);
+          added[i] = true;
+          ++violated;
+        }
+
+      if (verbosity > VERBOSITY_NONE)
+        System.out.println("  " + violated + " of " + remaining
+                           + " remaining constraints violated");
+      if (violated == 0) return;
+      remaining -= violated;
+
+      if (index.length < c.getVariables())
+      {
+        int[] longer = new int[c.getVariables()];
+        System.arraycopy(index, 0, longer, 0, index.length);
+        index = longer;
+      }
+
+      translate(c, index, first);
+      ++round;
+    }
   }
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
+    * Calls the ILP algorithm's <code>solve()</code> method, giving up at the
+    * deadline set by {@link #timeLimit}, if any.
     *
-    * @param c  The constraint to process.
+    * @return <code>true</code> iff the ILP algorithm found an optimal
+    *         solution in time.  If it didn't finish in time,
+    *         {@link #timedOut} is set.
    **/
-  public void visit(PropositionalDoubleImplication c)
+  private boolean solveInTime() throws Exception
   {
-    assert topLevel : "ILP: PropositionalDoubleImplication encountered.";
-    topLevel = false;
-
-    int[] indexes = new int[2];
-    double[] coefficients = new double[2];
-    double bound = 0;
+    if (deadline == 0)
+    {
+      if (solver instanceof TimeLimitedILPSolver)
+        ((TimeLimitedILPSolver) solver).setDeadline(0);
+      return solver.solve();
+    }
 
-    c.left.runVisit(this);
-    indexes[0] = returnIndex;
-    if (returnNegation)
+    long remaining = deadline - System.currentTimeMillis();
+    if (remaining <= 0)
     {
-      coefficients[0] = -1;
-      --bound;
+      timedOut = true;
+      return false;
     }
-    else coefficients[0] = 1;
 
-    c.right.runVisit(this);
-    indexes[1] = returnIndex;
-    if (returnNegation)
+    if (solver instanceof TimeLimitedILPSolver
+        && ((TimeLimitedILPSolver) solver).setDeadline(deadline))
     {
-      coefficients[1] = 1;
-      ++bound;
+      if (solver.solve()) return true;
+      timedOut = ((TimeLimitedILPSolver) solver).isTimedOut();
+      return false;
     }
-    else coefficients[1] = -1;
 
-    solver.addEqualityConstraint(indexes, coefficients, bound);
+    final ILPSolver s = solver;
+    final Object[] outcome = new Object[1];
+    Thread worker =
+      new Thread("ILPInference" + ID)
+      {
+        public void run()
+        {
+          Object result = null;
+          try { result = s.solve() ? Boolean.TRUE : Boolean.FALSE; }
+          catch (Throwable t) { result = t; }
+          synchronized (outcome) { outcome[0] = result; }
+        }
+      };
+    worker.setDaemon(true);
+    worker.start();
+    worker.join(remaining);
+
+    Object result = null;
+    synchronized (outcome) { result = outcome[0]; }
 
-    topLevel = true;
+    if (result == null)
+    {
+      worker.interrupt();
+      abandoned = worker;
+      timedOut = true;
+      return false;
+    }
+
+    if (result instanceof Exception) throw (Exception) result;
+    if (result instanceof Error) throw (Error) result;
+    return ((Boolean) result).booleanValue();
   }
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
+    * Waits for the thread running an abandoned call to the ILP algorithm's
+    * <code>solve()</code> method to finish, so that the algorithm isn't used
+    * by two threads at once.
    **/
-  public void visit(PropositionalImplication c)
+  private void awaitAbandoned()
   {
-    assert false : "ILP: PropositionalImplication encountered.";
+    if (abandoned == null) return;
+    boolean interrupted = false;
+
+    while (abandoned.isAlive())
+    {
+      try { abandoned.join(); }
+      catch (InterruptedException e) { interrupted = true; }
+    }
+
+    abandoned = null;
+    if (interrupted) Thread.currentThread().interrupt();
   }
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
+    * Assigns values to the first order variables without the ILP algorithm,
+    * which ran out of time.  The search starts from the classifiers'
+    * unconstrained predictions and works on the terms of the constraint's
+    * top level conjunction that are violated, one at a time.  For each such
+    * term, it finds the new values of the variables the term mentions that
+    * would reduce the terms' total {@link #distance(PropositionalConstraint,
+    * boolean) distance} from being satisfied, and then makes those changes,
+    * those losing the least score first, for as long as each still reduces
+    * the total distance and the term is still violated.  Since the total
+    * distance only decreases, the search ends, but it stops when no term
+    * admits such a change or when it has taken another {@link #timeLimit}
+    * milliseconds, and so the assignment may still violate the constraints.
     *
-    * @param c  The constraint to process.
+    * @param c        The constraint whose first variables are those of the
+    *                 inference problem, in the order of {@link #variables}.
+    * @param p        The simplified propositional constraint.
+    * @param weights  The normalized score of each value of each first order
+    *                 variable, in the same order.
    **/
-  public void visit(PropositionalConjunction c)
+  protected void search(CompactConstraint c, PropositionalConstraint p,
+                        double[][] weights)
   {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
-
-    int[] indexes = null;
-    double[] coefficients = null;
-    double bound;
-
-    if (topLevel)
+    PropositionalConstraint[] terms =
+      p instanceof PropositionalConjunction
+      ? (PropositionalConstraint[]) p.getChildren()
+      : new PropositionalConstraint[]{ p };
+    int n = weights.length;
+    int[] offsets = new int[n + 1];
+    for (int k = 0; k < n; ++k)
+      offsets[k + 1] = offsets[k] + weights[k].length;
+
+    IdentityHashMap<Constraint, Integer> owners =
+      new IdentityHashMap<Constraint, Integer>();
+    for (int k = 0; k < n; ++k)
+      for (int v = offsets[k]; v < offsets[k + 1]; ++v)
+        owners.put(c.getVariable(v), Integer.valueOf(k));
+
+    // The first order variables each term mentions, and the terms each
+    // first order variable is mentioned in.
+    int[][] mentioned = new int[terms.length][];
+    int[] counts = new int[n];
+
+    for (int t = 0; t < terms.length; ++t)
     {
-      PropositionalConstraint[] variables =
-        new PropositionalConstraint[children.length];
-      int size = 0;
-      for (int i = 0; i < children.length; ++i)
-      {
-        if (children[i] instanceof PropositionalVariable
-            || children[i] instanceof PropositionalNegation)
-          variables[size++] = children[i];
-        else children[i].runVisit(this);
-      }
+      LinkedHashSet<Integer> found = new LinkedHashSet<Integer>();
+      collect(terms[t], owners, found,
+              new IdentityHashMap<Constraint, Boolean>());
+      mentioned[t] = new int[found.size()];
+      int i = 0;
 
-      if (size > 0)
+      for (Iterator<Integer> I = found.iterator(); I.hasNext(); ++i)
       {
-        indexes = new int[size];
-        coefficients = new double[size];
-        bound = size;
-
-        for (int i = 0; i < size; ++i)
-        {
-          variables[i].runVisit(this);
-          indexes[i] = returnIndex;
-          if (returnNegation)
-          {
-            coefficients[i] = -1;
-            --bound;
-          }
-          else coefficients[i] = 1;
-        }
-
-        solver.addEqualityConstraint(indexes, coefficients, bound);
+        mentioned[t][i] = I.next().intValue();
+        ++counts[mentioned[t][i]];
       }
     }
-    else
-    {
-      indexes = new int[children.length + 1];
-      coefficients = new double[children.length + 1];
-      bound = 0;
-
-      for (int i = 0; i < children.length; ++i)
-      {
-        children[i].runVisit(this);
-        indexes[i] = returnIndex;
-        if (returnNegation)
-        {
-          coefficients[i] = -1;
-          --bound;
-        }
-        else coefficients[i] = 1;
-      }
 
-      String[] stringIndexes = new String[children.length];
-      for (int i = 0; i < children.length; ++i)
-        stringIndexes[i] = (coefficients[i] < 0 ? "!" : "") + indexes[i];
-      Arrays.sort(stringIndexes);
-      String key = stringIndexes[0];
-      for (int i = 1; i < stringIndexes.length; ++i)
-        key += "&" + stringIndexes[i];
-      Integer I = (Integer) indexMap.get(key);
-
-      if (I == null)
+    int[][] occurrences = new int[n][];
+    for (int k = 0; k < n; ++k) occurrences[k] = new int[counts[k]];
+    Arrays.fill(counts, 0);
+    for (int t = 0; t < terms.length; ++t)
+      for (int i = 0; i < mentioned[t].length; ++i)
       {
-        I = new Integer(createVariable(key));
-        indexMap.put(key, I);
-
-        indexes[children.length] = I.intValue();
-        coefficients[children.length] = -children.length;
-        solver.addGreaterThanConstraint(indexes, coefficients, bound);
-
-        coefficients[children.length] = -1;
-        solver.addLessThanConstraint(indexes, coefficients,
-                                     bound + children.length - 1);
+        int k = mentioned[t][i];
+        occurrences[k][counts[k]++] = t;
       }
 
-      returnIndex = I.intValue();
-      returnNegation = false;
+    int[] assignment = new int[n];
+    for (int k = 0; k < n; ++k)
+    {
+      for (int j = 1; j < weights[k].length; ++j)
+        if (weights[k][j] > weights[k][assignment[k]]) assignment[k] = j;
+      assign(c, offsets, k, assignment[k]);
     }
-  }
 
+    int[] distances = new int[terms.length];
+    int total = 0;
+    for (int t = 0; t < terms.length; ++t)
+      total += distances[t] = distance(terms[t], true);
 
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalDisjunction c)
-  {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
-
-    int[] indexes = null;
-    double[] coefficients = null;
-    double bound = 0;
-
-    if (topLevel)
+    long stop =
+      timeLimit > 0 ? System.currentTimeMillis() + timeLimit : Long.MAX_VALUE;
+    boolean changed = true;
+    while (total > 0 && changed && System.currentTimeMillis() < stop)
     {
-      int subConstraintIndex = -1;
+      changed = false;
 
-      for (int i = 0; i < children.length && subConstraintIndex == -1; ++i)
+      for (int t = 0;
+           t < terms.length && System.currentTimeMillis() < stop; ++t)
       {
-        if (children[i] instanceof PropositionalVariable
-            || children[i] instanceof PropositionalNegation)
-          continue;
-        if (children[i] instanceof PropositionalConjunction)
-          subConstraintIndex = i;
-        else if (children[i] instanceof PropositionalAtLeast)
-          subConstraintIndex = i;
-      }
-
-      if (subConstraintIndex > -1)
-      {
-        PropositionalConstraint[] subChildren =
-          (PropositionalConstraint[])
-          children[subConstraintIndex].getChildren();
-        int multiplier =
-          children[subConstraintIndex] instanceof PropositionalConjunction
-          ? subChildren.length
-          : ((PropositionalAtLeast) children[subConstraintIndex]).getM();
-
-        indexes = new int[subChildren.length + children.length - 1];
-        coefficients = new double[subChildren.length + children.length - 1];
-        bound = multiplier;
-
-        topLevel = false;
-
-        int j = 0;
-        for (int i = 0; i < children.length; ++i)
+        if (distances[t] == 0) continue;
+
+        // Find the term's changes that would reduce the total distance.
+        int size = 0;
+        for (int i = 0; i < mentioned[t].length; ++i)
+          size += weights[mentioned[t][i]].length - 1;
+        int[] changeVariable = new int[size];
+        int[] changeValue = new int[size];
+        final double[] loss = new double[size];
+        size = 0;
+
+        for (int i = 0; i < mentioned[t].length; ++i)
         {
-          if (i == subConstraintIndex) continue;
-
-          children[i].runVisit(this);
-          indexes[j] = returnIndex;
-          if (returnNegation)
-          {
-            coefficients[j] = -multiplier;
-            bound -= multiplier;
-          }
-          else coefficients[j] = multiplier;
-
-          ++j;
+          int k = mentioned[t][i];
+          int old = assignment[k];
+
+          for (int j = 0; j < weights[k].length; ++j)
+            if (j != old && change(c, offsets, terms, distances,
+                                   occurrences[k], k, j) < 0)
+            {
+              changeVariable[size] = k;
+              changeValue[size] = j;
+              loss[size] = weights[k][old] - weights[k][j];
+              ++size;
+            }
+
+          assign(c, offsets, k, old);
         }
 
-        for (int i = 0; i < subChildren.length; ++i, ++j)
+        // Make them cheapest first, as long as they still help.
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) order[i] = Integer.valueOf(i);
+        Arrays.sort(order,
+            new Comparator<Integer>()
+            {
+              public int compare(Integer i1, Integer i2)
+              {
+                return Double.compare(loss[i1.intValue()],
+                                      loss[i2.intValue()]);
+              }
+            });
+
+        for (int i = 0; i < size && distances[t] > 0; ++i)
         {
-          subChildren[i].runVisit(this);
-          indexes[j] = returnIndex;
-          if (returnNegation)
+          int k = changeVariable[order[i].intValue()];
+          int j = changeValue[order[i].intValue()];
+          int old = assignment[k];
+          if (old == j) continue;
+          int change =
+            change(c, offsets, terms, distances, occurrences[k], k, j);
+
+          if (change < 0)
           {
-            coefficients[j] = -1;
-            --bound;
+            assignment[k] = j;
+            for (int o = 0; o < occurrences[k].length; ++o)
+            {
+              int u = occurrences[k][o];
+              distances[u] = distance(terms[u], true);
+            }
+
+            total += change;
+            changed = true;
           }
-          else coefficients[j] = 1;
+          else assign(c, offsets, k, old);
         }
-
-        topLevel = true;
-
-        solver.addGreaterThanConstraint(indexes, coefficients, bound);
-        return;
       }
     }
 
-    if (topLevel)
-    {
-      indexes = new int[children.length];
-      coefficients = new double[children.length];
-      bound = 1;
-    }
-    else
-    {
-      indexes = new int[children.length + 1];
-      coefficients = new double[children.length + 1];
-    }
-
-    boolean saveTopLevel = topLevel;
-    topLevel = false;
-    for (int i = 0; i < children.length; ++i)
+    int k = 0;
+    for (Iterator I = variables.values().iterator(); I.hasNext(); ++k)
     {
-      children[i].runVisit(this);
-      indexes[i] = returnIndex;
-      if (returnNegation)
-      {
-        coefficients[i] = -1;
-        --bound;
-      }
-      else coefficients[i] = 1;
+      FirstOrderVariable v = (FirstOrderVariable) I.next();
+      v.setValue(v.getScores().toArray()[assignment[k]].value);
     }
+  }
 
-    topLevel = saveTopLevel;
-    if (topLevel)
-      solver.addGreaterThanConstraint(indexes, coefficients, bound);
-    else
-    {
-      String[] stringIndexes = new String[children.length];
-      for (int i = 0; i < children.length; ++i)
-        stringIndexes[i] = (coefficients[i] < 0 ? "!" : "") + indexes[i];
-      Arrays.sort(stringIndexes);
-      String key = stringIndexes[0];
-      for (int i = 1; i < stringIndexes.length; ++i)
-        key += "|" + stringIndexes[i];
-      Integer I = (Integer) indexMap.get(key);
-
-      if (I == null)
-      {
-        I = new Integer(createVariable(key));
-        indexMap.put(key, I);
 
-        indexes[children.length] = I.intValue();
-        coefficients[children.length] = -1;
-        solver.addGreaterThanConstraint(indexes, coefficients, bound);
+  /**
+    * Sets the propositional variables representing one first order variable
+    * so that it takes the specified value.
+    *
+    * @param c        The constraint holding the propositional variables.
+    * @param offsets  The index of each first order variable's first
+    *                 propositional variable in <code>c</code>.
+    * @param k        The index of the first order variable.
+    * @param j        The index of its new value.
+   **/
+  private static void assign(CompactConstraint c, int[] offsets, int k,
+                             int j)
+  {
+    for (int v = offsets[k]; v < offsets[k + 1]; ++v)
+      c.getVariable(v).value = v - offsets[k] == j;
+  }
 
-        coefficients[children.length] = -children.length;
-        solver.addLessThanConstraint(indexes, coefficients, bound);
-      }
 
-      returnIndex = I.intValue();
-      returnNegation = false;
+  /**
+    * Gives a first order variable a new value and computes the resulting
+    * change in the total distance of the terms that mention it.  The
+    * variable keeps its new value.
+    *
+    * @param c            The constraint holding the propositional variables.
+    * @param offsets      The index of each first order variable's first
+    *                     propositional variable in <code>c</code>.
+    * @param terms        The terms.
+    * @param distances    The terms' distances under the old value.
+    * @param occurrences  The terms that mention the variable.
+    * @param k            The index of the first order variable.
+    * @param j            The index of its new value.
+    * @return             The change in the total distance.
+   **/
+  private static int change(CompactConstraint c, int[] offsets,
+                            PropositionalConstraint[] terms, int[] distances,
+                            int[] occurrences, int k, int j)
+  {
+    assign(c, offsets, k, j);
+    int result = 0;
+    for (int o = 0; o < occurrences.length; ++o)
+    {
+      int u = occurrences[o];
+      result += distance(terms[u], true) - distances[u];
     }
+
+    return result;
   }
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
+    * Estimates how many propositional variables would have to change their
+    * values for the given constraint to take the given value, as if no
+    * variable appeared more than once in it.  The estimate is 0 exactly
+    * when the constraint already has that value, and it is used by
+    * {@link #search(CompactConstraint,PropositionalConstraint,double[][])}
+    * to measure progress towards satisfying a constraint that no single
+    * change can satisfy, such as one allowing at most one of many variables
+    * to be true.
     *
-    * @param c  The constraint to process.
+    * @param c  The constraint.
+    * @param b  The value the constraint should take.
+    * @return   The estimated number of changes.
    **/
-  public void visit(PropositionalAtLeast c)
+  private static int distance(PropositionalConstraint c, boolean b)
   {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
+    if (c instanceof PropositionalVariable)
+      return ((PropositionalVariable) c).value == b ? 0 : 1;
+    if (c instanceof PropositionalConstant)
+      return c.evaluate() == b ? 0 : 1 << 20;
 
-    int[] indexes = null;
-    double[] coefficients = null;
-    double bound = 0;
+    Constraint[] children = c.getChildren();
+    if (c instanceof PropositionalNegation)
+      return distance((PropositionalConstraint) children[0], !b);
 
-    if (topLevel)
+    if (c instanceof PropositionalImplication)
     {
-      indexes = new int[children.length];
-      coefficients = new double[children.length];
-      bound = c.getM();
+      PropositionalConstraint l = (PropositionalConstraint) children[0];
+      PropositionalConstraint r = (PropositionalConstraint) children[1];
+      return b ? Math.min(distance(l, false), distance(r, true))
+               : distance(l, true) + distance(r, false);
     }
-    else
+
+    if (c instanceof PropositionalDoubleImplication)
     {
-      indexes = new int[children.length + 1];
-      coefficients = new double[children.length + 1];
+      PropositionalConstraint l = (PropositionalConstraint) children[0];
+      PropositionalConstraint r = (PropositionalConstraint) children[1];
+      return Math.min(distance(l, true) + distance(r, b),
+                      distance(l, false) + distance(r, !b));
     }
 
-    boolean saveTopLevel = topLevel;
-    topLevel = false;
-    for (int i = 0; i < children.length; ++i)
+    // A conjunction is true when all of its children are true, a
+    // disjunction when one of them is, and an at-least when m of them are.
+    // They are false when, respectively, one, all, or n - m + 1 of their
+    // children are false.
+    int needed = children.length;
+    if (c instanceof PropositionalAtLeast)
     {
-      children[i].runVisit(this);
-      indexes[i] = returnIndex;
-      if (returnNegation)
-      {
-        coefficients[i] = -1;
-        --bound;
-      }
-      else coefficients[i] = 1;
+      int m = ((PropositionalAtLeast) c).getM();
+      needed = b ? m : children.length - m + 1;
     }
+    else if (c instanceof PropositionalDisjunction == b) needed = 1;
+    if (needed > children.length) return 1 << 20;
 
-    topLevel = saveTopLevel;
-    if (topLevel)
-      solver.addGreaterThanConstraint(indexes, coefficients, bound);
-    else
+    int[] d = new int[children.length];
+    int zeros = 0, max = 0;
+    for (int i = 0; i < children.length; ++i)
     {
-      String[] stringIndexes = new String[children.length];
-      for (int i = 0; i < children.length; ++i)
-        stringIndexes[i] = (coefficients[i] < 0 ? "!" : "") + indexes[i];
-      Arrays.sort(stringIndexes);
-      String key = "atl" + c.getM() + "of" + stringIndexes[0];
-      for (int i = 1; i < stringIndexes.length; ++i)
-        key += "&" + stringIndexes[i];
-      Integer I = (Integer) indexMap.get(key);
-
-      if (I == null)
-      {
-        I = new Integer(createVariable(key));
-        indexMap.put(key, I);
-
-        indexes[children.length] = I.intValue();
-        coefficients[children.length] = -c.getM();
-        solver.addGreaterThanConstraint(indexes, coefficients, bound);
-
-        coefficients[children.length] = -children.length;
-        solver.addLessThanConstraint(indexes, coefficients,
-                                     bound + c.getM() - 1);
-      }
-
-      returnIndex = I.intValue();
-      returnNegation = false;
+      d[i] = distance((PropositionalConstraint) children[i], b);
+      if (d[i] == 0) ++zeros;
+      else if (d[i] > max) max = d[i];
     }
+
+    // Children are usually literals, whose distances are 0 or 1.
+    if (max <= 1) return Math.max(0, needed - zeros);
+    Arrays.sort(d);
+    int result = 0;
+    for (int i = 0; i < needed; ++i) result += d[i];
+    return result;
   }
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
+    * Collects the indexes of the first order variables mentioned by a
+    * propositional constraint.
     *
-    * @param c  The constraint to process.
+    * @param c      The propositional constraint.
+    * @param owners Maps each propositional variable to the index of the
+    *               first order variable it represents.
+    * @param result Receives the indexes.
+    * @param seen   The subconstraints already visited.
    **/
-  public void visit(PropositionalNegation c)
+  static void collect(Constraint c,
+                      IdentityHashMap<Constraint, Integer> owners,
+                      LinkedHashSet<Integer> result,
+                      IdentityHashMap<Constraint, Boolean> seen)
   {
-    assert c.constraint instanceof PropositionalVariable
-      : "ILP: Negation of a " + c.constraint.getClass().getName()
-        + " encountered.";
-    c.constraint.runVisit(this);
-    returnNegation = true;
+    if (seen.put(c, Boolean.TRUE) != null) return;
+    Integer owner = owners.get(c);
+    if (owner != null) result.add(owner);
+    Constraint[] children = c.getChildren();
+    for (int i = 0; i < children.length; ++i)
+      collect(children[i], owners, result, seen);
   }
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
+    * Retrieves the value of the specified variable as identified by the
+    * classifier and the object that produce that variable.
     *
-    * @param c  The constraint to process.
+    * @param c  The classifier producing the variable.
+    * @param o  The object from which the variable is produced.
+    * @return   The current value of the requested variable.  If the variable
+    *           does not exist in this inference, the result of the
+    *           <code>Learner</code>'s <code>discreteValue(Object)</code>
+    *           method applied to the <code>Object</code> is returned.
    **/
-  public void visit(PropositionalVariable c)
+  public String valueOf(LBJ2.learn.Learner c, Object o) throws Exception
   {
-    returnIndex = ((Integer) indexMap.get(c)).intValue();
-    returnNegation = false;
+    infer();
+    return getVariable(new FirstOrderVariable(c, o)).getValue();
   }
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
+    * Two <code>Inference</code> objects are equal when they have the same
+    * run-time type and store the same head object.  I.e., the <code>==</code>
+    * operator must return <code>true</code> when comparing the two head
+    * objects for this method to return <code>true</code>.
     *
-    * @param c  The constraint to process.
+    * @param o  The object to compare to this object.
+    * @return   <code>true</code> iff this object equals the argument object
+    *           as defined above.
    **/
-  public void visit(PropositionalConstant c)
+  public boolean equals(Object o)
   {
-    assert false : "ILP: Constant encountered. (" + c.evaluate() + ")";
+    if (!(o instanceof ILPInference)) return false;
+    return head == ((ILPInference) o).head;
   }
 }
-
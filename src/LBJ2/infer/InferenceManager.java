@@ -5,39 +5,136 @@ import java.util.*;
 
 /**
   * The inference manager is a cache of <code>Inference</code> objects
-  * accessed via their names and head objects.  However, only one
-  * <code>Inference</code> object is stored per <code>Inference</code> class.
-  * For example, if the LBJ source file contains the following two
-  * <code>inference</code>s:
+  * accessed via their names and head objects.  An <code>Inference</code>
+  * object is stored for each combination of <code>Inference</code> class and
+  * head object, up to a maximum of {@link #getCapacity()} objects, beyond
+  * which the least recently used object is discarded.  For example, if the
+  * LBJ source file contains the following two <code>inference</code>s:
   *
   * <blockquote>
   *   <code>inference Foo head MyClass { ... }</code> <br>
   *   <code>inference Bar head MyClass { ... }</code>
   * </blockquote>
   *
-  * then this <code>InferenceManager</code> will store a maximum of one
-  * <code>Foo</code> object and one <code>Bar</code> object.
+  * then this <code>InferenceManager</code> will store a <code>Foo</code>
+  * object and a <code>Bar</code> object for each of the most recently used
+  * <code>MyClass</code> objects.  Head objects are compared with
+  * <code>==</code>.
+  *
+  * <p> All the methods of this class may be called from several threads at
+  * once, so that several head objects can be inferred in parallel.  By
+  * default, all threads share a single cache.  Since an
+  * <code>Inference</code> object is not necessarily safe to use from more
+  * than one thread, programs that may infer the same head object in several
+  * threads at once can call {@link #setThreadScoped(boolean)} to give each
+  * thread its own cache.
   *
   * @author Nick Rizzolo
  **/
 public class InferenceManager
 {
+  /** The default value of {@link #capacity}. */
+  public static final int defaultCapacity = 16;
+
+  /** The maximum number of <code>Inference</code> objects in a cache. */
+  private static volatile int capacity = defaultCapacity;
+  /** Whether each thread has its own cache. */
+  private static volatile boolean threadScoped;
+  /**
+    * The cache of <code>Inference</code> objects shared by all threads,
+    * indexed by <code>Key</code>s and kept in least recently used order.
+    * Guarded by its own monitor.
+   **/
+  private static final LinkedHashMap<Key, Inference> cache =
+    new LinkedHashMap<Key, Inference>(16, 0.75f, true);
+  /** Each thread's own cache, used when {@link #threadScoped} is set. */
+  private static final ThreadLocal<LinkedHashMap<Key, Inference>>
+    threadCaches =
+      new ThreadLocal<LinkedHashMap<Key, Inference>>()
+      {
+        protected LinkedHashMap<Key, Inference> initialValue()
+        {
+          return new LinkedHashMap<Key, Inference>(16, 0.75f, true);
+        }
+      };
+
+
+  /** Returns the cache used by the calling thread. */
+  private static LinkedHashMap<Key, Inference> cache()
+  {
+    return threadScoped ? threadCaches.get() : cache;
+  }
+
+
+  /**
+    * Discards the least recently used entries of the given cache until it
+    * holds no more than {@link #capacity} entries.  The caller must hold the
+    * cache's monitor.
+    *
+    * @param c  The cache.
+   **/
+  private static void trim(LinkedHashMap<Key, Inference> c)
+  {
+    Iterator<Key> I = c.keySet().iterator();
+    while (c.size() > capacity)
+    {
+      I.next();
+      I.remove();
+    }
+  }
+
+
+  /** Returns the maximum number of objects a cache holds. */
+  public static int getCapacity() { return capacity; }
+
+
   /**
-    * The cache of <code>Inference</code> objects, indexed by
-    * <code>Key</code>s.
+    * Sets the maximum number of objects a cache holds, discarding the least
+    * recently used objects of the calling thread's cache if it now holds too
+    * many.  Other caches are trimmed the next time something is added to
+    * them.
+    *
+    * @param c  The new capacity, at least 1.
    **/
-  private static final LinkedHashMap cache = new LinkedHashMap();
+  public static void setCapacity(int c)
+  {
+    if (c < 1)
+      throw new IllegalArgumentException(
+          "InferenceManager: capacity must be positive, not " + c);
+    capacity = c;
+    LinkedHashMap<Key, Inference> current = cache();
+    synchronized (current) { trim(current); }
+  }
+
+
+  /** Returns whether each thread has its own cache. */
+  public static boolean isThreadScoped() { return threadScoped; }
 
 
   /**
-    * Adds the given <code>Inference</code> object to the cache, indexed its
-    * fully qualified name.
+    * Determines whether each thread has its own cache or all threads share
+    * one.  Objects already cached are not moved from one cache to another.
+    *
+    * @param s  <code>true</code> to give each thread its own cache.
+   **/
+  public static void setThreadScoped(boolean s) { threadScoped = s; }
+
+
+  /**
+    * Adds the given <code>Inference</code> object to the cache, indexed by
+    * its fully qualified name and its head object.
     *
     * @param i  The inference object.
    **/
   public static void put(Inference i)
   {
-    cache.put(i.getClass().getName(), i);
+    LinkedHashMap<Key, Inference> c = cache();
+
+    synchronized (c)
+    {
+      c.put(new Key(i.getClass().getName(), i.getHead()), i);
+      trim(c);
+    }
   }
 
 
@@ -53,18 +150,48 @@ public class InferenceManager
    **/
   public static Inference get(String n, Object h)
   {
-    Inference result = (Inference) cache.get(n);
-    if (result != null && result.getHead() == h) return result;
-    return null;
+    LinkedHashMap<Key, Inference> c = cache();
+    synchronized (c) { return c.get(new Key(n, h)); }
   }
 
 
   /**
-    * Removes the inference object with the given name.
+    * Removes the inference objects with the given name, whatever their head
+    * objects.
     *
     * @param n  The name of the unwanted inference.
    **/
-  public static void remove(String n) { cache.remove(n); }
+  public static void remove(String n)
+  {
+    LinkedHashMap<Key, Inference> c = cache();
+
+    synchronized (c)
+    {
+      for (Iterator<Key> I = c.keySet().iterator(); I.hasNext(); )
+        if (I.next().name.equals(n)) I.remove();
+    }
+  }
+
+
+  /**
+    * Removes the inference object with the given name and head object.
+    *
+    * @param n  The name of the unwanted inference.
+    * @param h  Its head object.
+   **/
+  public static void remove(String n, Object h)
+  {
+    LinkedHashMap<Key, Inference> c = cache();
+    synchronized (c) { c.remove(new Key(n, h)); }
+  }
+
+
+  /** Removes every inference object from the calling thread's cache. */
+  public static void clear()
+  {
+    LinkedHashMap<Key, Inference> c = cache();
+    synchronized (c) { c.clear(); }
+  }
 
 
   /**
@@ -75,12 +202,12 @@ public class InferenceManager
     * to be equivalent.
     *
     * @author Nick Rizzolo
-   ** /
+   **/
   private static class Key
   {
-    /** The name of the inference. * /
+    /** The name of the inference. */
     public String name;
-    /** The inference's head object. * /
+    /** The inference's head object. */
     public Object head;
 
 
@@ -89,7 +216,7 @@ public class InferenceManager
       *
       * @param n  The name of the inference.
       * @param h  The inference's head object.
-     ** /
+     **/
     public Key(String n, Object h)
     {
       name = n;
@@ -100,20 +227,18 @@ public class InferenceManager
     /**
       * The hash code of a <code>Key</code> is the hash code of its name plus
       * the system's hash code for the head object.
-     ** /
+     **/
     public int hashCode()
     {
       return name.hashCode() + System.identityHashCode(head);
     }
 
 
-    /** Two <code>Key</code>s are equivalent as described above. * /
+    /** Two <code>Key</code>s are equivalent as described above. */
     public boolean equals(Object o)
     {
       Key k = (Key) o;
       return name.equals(k.name) && head == k.head;
     }
   }
-  */
 }
-
@@ -0,0 +1,834 @@
+package LBJ2.infer;
+
+import java.util.*;
+import java.util.concurrent.*;
+import LBJ2.classify.*;
+
+
+/**
+  * This class solves a constrained inference problem by Lagrangian
+  * relaxation, also known as dual decomposition.  It accepts the same
+  * constraints as {@link ILPInference}, and when constructing an instance of
+  * this class in an LBJ source file, use one of the constructors that does
+  * <i>not</i> specify a head object.
+  *
+  * <p> The constraints are propositionalized and simplified, and each term
+  * of the resulting top level conjunction becomes a subproblem over the
+  * first order variables it mentions.  A variable mentioned by a single term
+  * is left to that term's subproblem, and a variable mentioned by none of
+  * them simply takes its highest scoring value.  A variable mentioned by
+  * several terms is shared:  every one of those terms gets a copy of it, and
+  * the requirement that the copies agree with the variable is relaxed with
+  * a Lagrange multiplier for each value of each copy.  The relaxed problem
+  * then falls apart into subproblems that are solved independently, in
+  * parallel when there are many of them.  A term that is a cardinality
+  * constraint over literals of distinct variables, which covers
+  * conjunctions, disjunctions, and {@link PropositionalAtLeast}, is solved
+  * in closed form.  Any other term is solved as a small ILP by a
+  * {@link BranchAndBoundILPSolver}.
+  *
+  * <p> The sum of the subproblems' optimal scores bounds the score of the
+  * best assignment satisfying the constraints from above.  After each round,
+  * the multipliers take a subgradient step that lowers this bound, until
+  * the copies agree or the {@link #rounds round limit} is reached.  The
+  * assignment assembled from the subproblems' solutions is checked against
+  * the constraints after every round, and the best one that satisfies them
+  * is kept.  If its score reaches the bound, it is optimal, and
+  * {@link #isOptimal()} returns <code>true</code>;
+  * {@link #getPrimalValue()} and {@link #getDualBound()} report the scores
+  * that certify it.
+  *
+  * @author Nick Rizzolo
+ **/
+public class LagrangianInference extends Inference
+{
+  /** The default value of {@link #rounds}. */
+  public static final int defaultRounds = 200;
+  /** Scores this close relative to their magnitude are considered equal. */
+  private static final double tolerance = 1e-9;
+  /** The fewest subproblems worth handing to a thread of their own. */
+  private static final int grain = 16;
+  /** Solves subproblems for every object of this class. */
+  private static ExecutorService pool;
+
+
+  /** Returns {@link #pool}, creating it if necessary. */
+  private static synchronized ExecutorService getPool()
+  {
+    if (pool == null)
+      pool =
+        Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactory()
+            {
+              public Thread newThread(Runnable r)
+              {
+                Thread result = new Thread(r, "LagrangianInference");
+                result.setDaemon(true);
+                return result;
+              }
+            });
+    return pool;
+  }
+
+
+  /** The maximum number of subgradient steps. */
+  protected int rounds;
+  /** Set when the variables have been assigned their values. */
+  protected boolean solved;
+  /** Set when the assignment was proved optimal. */
+  protected boolean optimal;
+  /** The lowest upper bound on the optimal score found. */
+  protected double dualBound;
+  /** The score of the assignment. */
+  protected double primalValue;
+  /** The number of rounds the last inference took. */
+  protected int roundsTaken;
+
+
+  /** Default constructor. */
+  public LagrangianInference() { this(null); }
+
+  /**
+    * Initializes the round limit, but not the head object.
+    *
+    * @param r  Sets the value of {@link #rounds}.
+   **/
+  public LagrangianInference(int r) { this(null, r); }
+
+  /**
+    * Sets the head object.
+    *
+    * @param h  The head object.
+   **/
+  public LagrangianInference(Object h) { this(h, defaultRounds); }
+
+  /**
+    * Sets the head object and the round limit.
+    *
+    * @param h  The head object.
+    * @param r  Sets the value of {@link #rounds}.
+   **/
+  public LagrangianInference(Object h, int r)
+  {
+    super(h);
+    rounds = r;
+  }
+
+
+  /**
+    * Returns <code>true</code> if the copies of the shared variables came to
+    * agree, or if the score of the assignment reached the
+    * {@link #getDualBound() bound}.  Either way, the assignment satisfies the
+    * constraints and no other assignment scores higher.
+   **/
+  public boolean isOptimal() { return optimal; }
+
+  /**
+    * Returns the lowest upper bound on the score of any assignment
+    * satisfying the constraints found by the last inference.
+   **/
+  public double getDualBound() { return dualBound; }
+
+  /**
+    * Returns the score of the assignment, i.e., the sum of the normalized
+    * scores of the variables' values.
+   **/
+  public double getPrimalValue() { return primalValue; }
+
+  /** Returns the number of rounds the last inference took. */
+  public int getRoundsTaken() { return roundsTaken; }
+
+
+  /**
+    * Adds a constraint to the inference.
+    *
+    * @param c  The constraint to add.
+   **/
+  public void addConstraint(FirstOrderConstraint c)
+  {
+    solved = false;
+    if (constraint == null) constraint = c;
+    else
+      constraint =
+        new FirstOrderConjunction((FirstOrderConstraint) constraint, c);
+  }
+
+
+  /** Assigns the variables their values if they haven't been already. */
+  protected void infer() throws Exception
+  {
+    if (solved) return;
+
+    if (constraint != null) constraint.consolidateVariables(variables);
+    PropositionalConstraintFactory factory =
+      new PropositionalConstraintFactory();
+    FirstOrderVariable[] firstOrder =
+      new FirstOrderVariable[variables.size()];
+    double[][] weights = new double[firstOrder.length][];
+    PropositionalVariable[][] inputs =
+      new PropositionalVariable[firstOrder.length][];
+    int k = 0;
+
+    for (Iterator I = variables.values().iterator(); I.hasNext(); ++k)
+    {
+      FirstOrderVariable v = (FirstOrderVariable) I.next();
+      ScoreSet ss = getNormalizer(v.getClassifier()).normalize(v.getScores());
+      Score[] scores = null;
+      if (ss != null) scores = ss.toArray();
+
+      if (scores == null || scores.length == 0)
+      {
+        System.err.println(
+            "LBJ ERROR: Classifier " + v.getClassifier()
+            + " did not return any scores.  Lagrangian inference cannot be "
+            + "performed.");
+        System.exit(1);
+      }
+
+      firstOrder[k] = v;
+      weights[k] = new double[scores.length];
+      inputs[k] = new PropositionalVariable[scores.length];
+
+      for (int j = 0; j < scores.length; ++j)
+      {
+        weights[k][j] = scores[j].score;
+        inputs[k][j] =
+          factory.variable(v.getClassifier(), v.getExample(),
+                           scores[j].value);
+      }
+    }
+
+    PropositionalConstraint propositional = PropositionalConstant.True;
+    if (constraint != null)
+      propositional =
+        factory.simplify(
+            ((FirstOrderConstraint) constraint).propositionalize(factory),
+            true);
+
+    int[] assignment = decompose(factory, propositional, weights, inputs);
+    for (k = 0; k < firstOrder.length; ++k)
+      firstOrder[k].setValue(inputs[k][assignment[k]].getPrediction());
+    solved = true;
+  }
+
+
+  /**
+    * Finds the highest scoring assignment satisfying the given constraint,
+    * and sets {@link #optimal}, {@link #dualBound}, {@link #primalValue}, and
+    * {@link #roundsTaken}.  The {@link PropositionalVariable#value values}
+    * of the propositional variables are used as scratch space.
+    *
+    * @param factory  The factory that simplified the constraint.
+    * @param p        The constraint.
+    * @param weights  The score of every value of every first order
+    *                 variable.
+    * @param inputs   The propositional variable representing every value of
+    *                 every first order variable, as returned by the
+    *                 factory.
+    * @return         The index of every first order variable's value.
+   **/
+  protected int[] decompose(PropositionalConstraintFactory factory,
+                            PropositionalConstraint p, double[][] weights,
+                            PropositionalVariable[][] inputs)
+    throws Exception
+  {
+    int n = weights.length;
+    int[] result = new int[n];
+    for (int k = 0; k < n; ++k) result[k] = argmax(weights[k], null);
+    optimal = false;
+    roundsTaken = 0;
+    primalValue = dualBound = score(weights, result);
+
+    if (p instanceof PropositionalConstant)
+    {
+      if (p.evaluate()) optimal = true;
+      else
+      {
+        System.err.println("LBJ ERROR: Unsatisfiable constraints!");
+        dualBound = Double.NEGATIVE_INFINITY;
+      }
+
+      return result;
+    }
+
+    PropositionalConstraint[] terms = { p };
+    if (p instanceof PropositionalConjunction)
+      terms = (PropositionalConstraint[]) p.getChildren();
+
+    IdentityHashMap<Constraint, Integer> owners =
+      new IdentityHashMap<Constraint, Integer>();
+    for (int k = 0; k < n; ++k)
+      for (int j = 0; j < inputs[k].length; ++j)
+        owners.put(inputs[k][j], Integer.valueOf(k));
+
+    int[][] mentioned = new int[terms.length][];
+    int[] count = new int[n];
+
+    for (int t = 0; t < terms.length; ++t)
+    {
+      LinkedHashSet<Integer> s = new LinkedHashSet<Integer>();
+      ILPInference.collect(terms[t], owners, s,
+                           new IdentityHashMap<Constraint, Boolean>());
+      mentioned[t] = new int[s.size()];
+      int i = 0;
+
+      for (Iterator<Integer> I = s.iterator(); I.hasNext(); ++i)
+      {
+        mentioned[t][i] = I.next().intValue();
+        ++count[mentioned[t][i]];
+      }
+    }
+
+    // The factory isn't thread safe, so the subproblems are set up here.
+    Subproblem[] subproblems = new Subproblem[terms.length];
+    for (int t = 0; t < terms.length; ++t)
+      subproblems[t] =
+        new Subproblem(factory, terms[t], mentioned[t], count, weights,
+                       inputs, owners);
+
+    // Where the owned variables are in their subproblems, and where the
+    // copies of the shared variables are.
+    int[] ownerTerm = new int[n];
+    int[] ownerPosition = new int[n];
+    int[][] copyTerm = new int[n][];
+    int[][] copyPosition = new int[n][];
+    double step = 0;
+
+    for (int k = 0; k < n; ++k)
+    {
+      ownerTerm[k] = -1;
+      if (count[k] < 2) continue;
+      copyTerm[k] = new int[count[k]];
+      copyPosition[k] = new int[count[k]];
+      double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+      for (int j = 0; j < weights[k].length; ++j)
+      {
+        min = Math.min(min, weights[k][j]);
+        max = Math.max(max, weights[k][j]);
+      }
+
+      step = Math.max(step, max - min);
+      count[k] = 0;
+    }
+
+    if (step == 0) step = 1;
+
+    for (int t = 0; t < terms.length; ++t)
+    {
+      int[] v = subproblems[t].variables;
+
+      for (int i = 0; i < v.length; ++i)
+      {
+        if (copyTerm[v[i]] == null)
+        {
+          ownerTerm[v[i]] = t;
+          ownerPosition[v[i]] = i;
+        }
+        else
+        {
+          copyTerm[v[i]][count[v[i]]] = t;
+          copyPosition[v[i]][count[v[i]]++] = i;
+        }
+      }
+    }
+
+    int[] candidate = new int[n];
+    int[] best = null;
+    double bestValue = Double.NEGATIVE_INFINITY;
+    double previous = Double.POSITIVE_INFINITY;
+    int increases = 0;
+    double[] adjusted = new double[0];
+    dualBound = Double.POSITIVE_INFINITY;
+
+    for (roundsTaken = 1; ; ++roundsTaken)
+    {
+      solve(subproblems);
+      double dual = 0;
+      int disagreements = 0;
+
+      for (int t = 0; t < subproblems.length; ++t)
+      {
+        if (!subproblems[t].feasible)
+        {
+          System.err.println("LBJ ERROR: Unsatisfiable constraints!");
+          primalValue = score(weights, result);
+          dualBound = Double.NEGATIVE_INFINITY;
+          return result;
+        }
+
+        dual += subproblems[t].value;
+      }
+
+      for (int k = 0; k < n; ++k)
+      {
+        if (copyTerm[k] != null)
+        {
+          // The shared variable's own subproblem:  its score less the
+          // multipliers of its copies.
+          if (adjusted.length < weights[k].length)
+            adjusted = new double[weights[k].length];
+          for (int j = 0; j < weights[k].length; ++j)
+          {
+            adjusted[j] = weights[k][j];
+            for (int c = 0; c < copyTerm[k].length; ++c)
+              adjusted[j] -=
+                subproblems[copyTerm[k][c]].multipliers[copyPosition[k][c]][j];
+          }
+
+          candidate[k] = argmax(weights[k], adjusted);
+          dual += adjusted[candidate[k]];
+
+          for (int c = 0; c < copyTerm[k].length; ++c)
+            if (subproblems[copyTerm[k][c]].assignment[copyPosition[k][c]]
+                != candidate[k])
+              ++disagreements;
+        }
+        else if (ownerTerm[k] != -1)
+        {
+          candidate[k] =
+            subproblems[ownerTerm[k]].assignment[ownerPosition[k]];
+        }
+        else
+        {
+          candidate[k] = result[k];
+          dual += weights[k][result[k]];
+        }
+      }
+
+      dualBound = Math.min(dualBound, dual);
+      double primal = score(weights, candidate);
+
+      if (primal > bestValue && satisfies(terms, inputs, candidate))
+      {
+        bestValue = primal;
+        best = (int[]) candidate.clone();
+      }
+
+      if (best != null
+          && (disagreements == 0
+              || bestValue
+                 >= dualBound - tolerance * (1 + Math.abs(dualBound))))
+      {
+        optimal = true;
+        break;
+      }
+
+      if (roundsTaken >= rounds) break;
+
+      if (dual > previous) ++increases;
+      previous = dual;
+      double alpha = step / (1 + increases);
+
+      for (int k = 0; k < n; ++k)
+      {
+        if (copyTerm[k] == null) continue;
+
+        for (int c = 0; c < copyTerm[k].length; ++c)
+        {
+          Subproblem s = subproblems[copyTerm[k][c]];
+          int i = copyPosition[k][c];
+          if (s.assignment[i] == candidate[k]) continue;
+          s.multipliers[i][s.assignment[i]] -= alpha;
+          s.multipliers[i][candidate[k]] += alpha;
+        }
+      }
+    }
+
+    if (best == null)
+    {
+      System.err.println(
+          "LBJ WARNING: No assignment satisfying the constraints found in "
+          + roundsTaken + " rounds of Lagrangian relaxation.");
+      primalValue = score(weights, candidate);
+      return candidate;
+    }
+
+    primalValue = bestValue;
+    return best;
+  }
+
+
+  /**
+    * Solves the given subproblems, in parallel if there are enough of them.
+    *
+    * @param s  The subproblems.
+   **/
+  private static void solve(final Subproblem[] s) throws Exception
+  {
+    int chunks =
+      Math.min(Runtime.getRuntime().availableProcessors(), s.length / grain);
+
+    if (chunks < 2)
+    {
+      for (int t = 0; t < s.length; ++t) s[t].solve();
+      return;
+    }
+
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(chunks);
+
+    for (int c = 0; c < chunks; ++c)
+    {
+      final int from = (int) ((long) c * s.length / chunks);
+      final int to = (int) ((long) (c + 1) * s.length / chunks);
+      tasks.add(
+          new Callable<Object>()
+          {
+            public Object call() throws Exception
+            {
+              for (int t = from; t < to; ++t) s[t].solve();
+              return null;
+            }
+          });
+    }
+
+    for (Future<Object> f : getPool().invokeAll(tasks))
+    {
+      try { f.get(); }
+      catch (ExecutionException e)
+      {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) throw (Exception) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw e;
+      }
+    }
+  }
+
+
+  /**
+    * Returns the index of the highest of the given scores, breaking ties in
+    * favor of the first.
+    *
+    * @param w  The scores of a variable's values.
+    * @param a  If not <code>null</code>, the scores to maximize instead, in
+    *           an array that may be longer than <code>w</code>.
+   **/
+  private static int argmax(double[] w, double[] a)
+  {
+    if (a == null) a = w;
+    int result = 0;
+    for (int j = 1; j < w.length; ++j) if (a[j] > a[result]) result = j;
+    return result;
+  }
+
+
+  /**
+    * Returns the score of an assignment.
+    *
+    * @param weights    The scores of the variables' values.
+    * @param assignment The index of each variable's value.
+   **/
+  private static double score(double[][] weights, int[] assignment)
+  {
+    double result = 0;
+    for (int k = 0; k < weights.length; ++k)
+      result += weights[k][assignment[k]];
+    return result;
+  }
+
+
+  /**
+    * Determines whether an assignment satisfies every term.
+    *
+    * @param terms      The terms of the constraint's top level conjunction.
+    * @param inputs     The propositional variables representing the first
+    *                   order variables' values.
+    * @param assignment The index of each variable's value.
+   **/
+  private static boolean satisfies(PropositionalConstraint[] terms,
+                                   PropositionalVariable[][] inputs,
+                                   int[] assignment)
+  {
+    for (int k = 0; k < inputs.length; ++k)
+      for (int j = 0; j < inputs[k].length; ++j)
+        inputs[k][j].value = assignment[k] == j;
+    for (int t = 0; t < terms.length; ++t)
+      if (!terms[t].evaluate()) return false;
+    return true;
+  }
+
+
+  /**
+    * Retrieves the value of the specified variable as identified by the
+    * classifier and the object that produce that variable.
+    *
+    * @param c  The classifier producing the variable.
+    * @param o  The object from which the variable is produced.
+    * @return   The current value of the requested variable.  If the variable
+    *           does not exist in this inference, the result of the
+    *           <code>Learner</code>'s <code>discreteValue(Object)</code>
+    *           method applied to the <code>Object</code> is returned.
+   **/
+  public String valueOf(LBJ2.learn.Learner c, Object o) throws Exception
+  {
+    infer();
+    return getVariable(new FirstOrderVariable(c, o)).getValue();
+  }
+
+
+  /**
+    * Two <code>Inference</code> objects are equal when they have the same
+    * run-time type and store the same head object.  I.e., the <code>==</code>
+    * operator must return <code>true</code> when comparing the two head
+    * objects for this method to return <code>true</code>.
+    *
+    * @param o  The object to compare to this object.
+    * @return   <code>true</code> iff this object equals the argument object
+    *           as defined above.
+   **/
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof LagrangianInference)) return false;
+    return head == ((LagrangianInference) o).head;
+  }
+
+
+  /**
+    * The hash code of an <code>Inference</code> object is the identity hash
+    * code of its head object, which is consistent with
+    * {@link #equals(Object)}.
+    *
+    * @return The hash code of this object.
+   **/
+  public int hashCode() { return System.identityHashCode(head); }
+
+
+  /**
+    * The subproblem of a single term of the constraint's top level
+    * conjunction.  Its variables are scored by their own scores when the term
+    * owns them and by the multipliers of their copies when they are shared.
+    *
+    * @author Nick Rizzolo
+   **/
+  private static class Subproblem
+  {
+    /** The first order variables mentioned by the term. */
+    int[] variables;
+    /** The multipliers of each shared variable's copy, or null. */
+    double[][] multipliers;
+    /** The scores each variable's values are given in this subproblem. */
+    double[][] scores;
+    /**
+      * When the term is solved in closed form, the index of the value each
+      * of its literals refers to; otherwise <code>null</code>.
+     **/
+    int[] literals;
+    /** Whether each of the literals is positive. */
+    boolean[] positive;
+    /** How many of the literals must be satisfied. */
+    int needed;
+    /** The term lowered for the ILP, when it isn't solved in closed form. */
+    CompactConstraint compact;
+    /** The index of each variable's value in the last solution. */
+    int[] assignment;
+    /** The score of the last solution. */
+    double value;
+    /** Whether the term could be satisfied at all. */
+    boolean feasible;
+
+
+    /**
+      * Sets up the subproblem.
+      *
+      * @param factory    The factory that simplified the term.
+      * @param term       The term.
+      * @param mentioned  The first order variables mentioned by the term.
+      * @param count      How many terms mention each first order variable.
+      * @param weights    The scores of the first order variables' values.
+      * @param inputs     The propositional variables representing them.
+      * @param owners     Maps each of those propositional variables to the
+      *                   index of its first order variable.
+     **/
+    Subproblem(PropositionalConstraintFactory factory,
+               PropositionalConstraint term, int[] mentioned, int[] count,
+               double[][] weights, PropositionalVariable[][] inputs,
+               IdentityHashMap<Constraint, Integer> owners)
+    {
+      variables = mentioned;
+      cardinality(term, inputs, owners);
+
+      if (literals == null)
+      {
+        compact = new CompactConstraint(factory);
+        for (int i = 0; i < variables.length; ++i)
+        {
+          PropositionalVariable[] v = inputs[variables[i]];
+          for (int j = 0; j < v.length; ++j)
+            compact.addVariable(v[j].getClassifier(), v[j].getExample(),
+                                v[j].getPrediction());
+        }
+
+        compact.add(term);
+      }
+
+      multipliers = new double[variables.length][];
+      scores = new double[variables.length][];
+      assignment = new int[variables.length];
+
+      for (int i = 0; i < variables.length; ++i)
+      {
+        int k = variables[i];
+        if (count[k] > 1)
+          scores[i] = multipliers[i] = new double[weights[k].length];
+        else scores[i] = weights[k];
+      }
+    }
+
+
+    /**
+      * Sets up {@link #literals}, {@link #positive}, {@link #needed}, and
+      * {@link #variables} if the term is a cardinality constraint over
+      * literals of distinct first order variables.
+      *
+      * @param term     The term.
+      * @param inputs   The propositional variables representing the first
+      *                 order variables' values.
+      * @param owners   Maps each of those propositional variables to the
+      *                 index of its first order variable.
+     **/
+    private void cardinality(PropositionalConstraint term,
+                             PropositionalVariable[][] inputs,
+                             IdentityHashMap<Constraint, Integer> owners)
+    {
+      Constraint[] children = { term };
+      int m = 1;
+
+      if (term instanceof PropositionalAtLeast)
+      {
+        children = term.getChildren();
+        m = ((PropositionalAtLeast) term).getM();
+      }
+      else if (term instanceof PropositionalConjunction)
+      {
+        children = term.getChildren();
+        m = children.length;
+      }
+      else if (term instanceof PropositionalDisjunction)
+        children = term.getChildren();
+
+      int[] k = new int[children.length];
+      int[] j = new int[children.length];
+      boolean[] p = new boolean[children.length];
+      HashSet<Integer> distinct = new HashSet<Integer>();
+
+      for (int i = 0; i < children.length; ++i)
+      {
+        Constraint c = children[i];
+        p[i] = !(c instanceof PropositionalNegation);
+        if (!p[i]) c = c.getChildren()[0];
+        Integer owner = owners.get(c);
+        if (!(c instanceof PropositionalVariable) || owner == null
+            || !distinct.add(owner))
+          return;
+        k[i] = owner.intValue();
+        PropositionalVariable[] v = inputs[k[i]];
+        while (v[j[i]] != c) ++j[i];
+      }
+
+      variables = k;
+      literals = j;
+      positive = p;
+      needed = m;
+    }
+
+
+    /** Solves the subproblem with the current scores. */
+    void solve() throws Exception
+    {
+      if (literals == null)
+      {
+        solveILP();
+        return;
+      }
+
+      int n = literals.length;
+      int[] whenTrue = new int[n];
+      int[] whenFalse = new int[n];
+      final double[] gains = new double[n];
+      int satisfied = 0;
+
+      for (int i = 0; i < n; ++i)
+      {
+        double[] s = scores[i];
+        int other = -1;
+        for (int j = 0; j < s.length; ++j)
+          if (j != literals[i] && (other == -1 || s[j] > s[other]))
+            other = j;
+
+        whenTrue[i] = positive[i] ? literals[i] : other;
+        whenFalse[i] = positive[i] ? other : literals[i];
+        if (whenTrue[i] == -1) gains[i] = Double.NEGATIVE_INFINITY;
+        else if (whenFalse[i] == -1) gains[i] = Double.POSITIVE_INFINITY;
+        else gains[i] = s[whenTrue[i]] - s[whenFalse[i]];
+
+        if (gains[i] > 0)
+        {
+          assignment[i] = whenTrue[i];
+          ++satisfied;
+        }
+        else assignment[i] = whenFalse[i];
+      }
+
+      feasible = true;
+
+      if (satisfied < needed)
+      {
+        // Satisfy the literals that cost the least to satisfy.
+        Integer[] order = new Integer[n - satisfied];
+        int u = 0;
+        for (int i = 0; i < n; ++i)
+          if (!(gains[i] > 0) && whenTrue[i] != -1)
+            order[u++] = Integer.valueOf(i);
+
+        if (u < needed - satisfied)
+        {
+          feasible = false;
+          return;
+        }
+
+        Arrays.sort(order, 0, u,
+            new Comparator<Integer>()
+            {
+              public int compare(Integer a, Integer b)
+              {
+                return Double.compare(gains[b.intValue()],
+                                      gains[a.intValue()]);
+              }
+            });
+
+        for (int i = 0; i < needed - satisfied; ++i)
+        {
+          int l = order[i].intValue();
+          assignment[l] = whenTrue[l];
+        }
+      }
+
+      value = 0;
+      for (int i = 0; i < n; ++i) value += scores[i][assignment[i]];
+    }
+
+
+    /** Solves the subproblem with a {@link BranchAndBoundILPSolver}. */
+    private void solveILP() throws Exception
+    {
+      ILPSolver solver = new BranchAndBoundILPSolver();
+      solver.setMaximize(true);
+      int[][] columns = new int[variables.length][];
+      for (int i = 0; i < variables.length; ++i)
+        columns[i] = solver.addDiscreteVariable(scores[i]);
+      compact.translate(solver, compact.index(columns));
+      feasible = solver.solve();
+      if (!feasible) return;
+      value = 0;
+
+      for (int i = 0; i < variables.length; ++i)
+      {
+        for (int j = 0; j < columns[i].length; ++j)
+          if (solver.getBooleanValue(columns[i][j])) assignment[i] = j;
+        value += scores[i][assignment[i]];
+      }
+    }
+  }
+}
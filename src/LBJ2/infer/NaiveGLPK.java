@@ -12,10 +12,12 @@ import LBJ2.jni.GLPKHook;
   * This code implements the most straight-forward algorithm for translating
   * FOL constraints to linear inequalities.  First, the FOL constraints are
   * propositionalized and conjuncted together to arrive at a single
-  * propositional expression representing all the constraints.  Then, each
-  * type of propositional subexpression recursively translates its children,
-  * replacing each with an unnegated variable before translating itself into
-  * two (or one, in the case of negation) linear inequalities.
+  * propositional expression representing all the constraints, which is
+  * lowered to a {@link CompactConstraint}.  Then, each of its cardinality
+  * constraints is replaced with a new, unnegated variable tied to its
+  * literals by the inequalities of a conjunction, disjunction, or at-least,
+  * and each negated literal is replaced with a new variable constrained to
+  * take the opposite value.
   *
   * <p> This class assumes that the <code>constraint</code> variable inherited
   * from class <code>Inference</code> is of type
@@ -84,7 +86,11 @@ public class NaiveGLPK extends GLPK
     if (solver != null) return;
 
     constraint.consolidateVariables(variables);
-    indexMap = new HashMap();
+    PropositionalConstraintFactory factory =
+      new PropositionalConstraintFactory();
+    CompactConstraint compact = new CompactConstraint(factory);
+    int[][] columns = new int[variables.size()][];
+    int k = 0;
 
     if (writeStatusFiles)
       solver =
@@ -115,10 +121,8 @@ public class NaiveGLPK extends GLPK
       for (int j = 0; j < scores.length; ++j)
       {
         indexes[j] = solver.addBooleanVariable(scores[j].score);
-        indexMap.put(
-            new PropositionalVariable(v.getClassifier(), v.getExample(),
-                                      scores[j].value),
-            new Integer(indexes[j]));
+        compact.addVariable(v.getClassifier(), v.getExample(),
+                            scores[j].value);
 
         if (PRINT_ILP)
         {
@@ -129,14 +133,22 @@ public class NaiveGLPK extends GLPK
       }
 
       solver.addEqualityConstraint(indexes, coefficients, 1);
+      columns[k++] = indexes;
     }
 
     PropositionalConstraint propositional =
-      ((FirstOrderConstraint) constraint).propositionalize();
-    propositional = propositional.simplify();
-    propositional.runVisit(this);
-    solver.addEqualityConstraint(
-        new int[]{ returnIndex }, new double[]{ 1 }, 1);
+      ((FirstOrderConstraint) constraint).propositionalize(factory);
+    propositional = factory.simplify(propositional, true);
+
+    if (!(propositional instanceof PropositionalConstant))
+      compact.add(propositional);
+    else if (!propositional.evaluate())
+    {
+      System.err.println("GLPK ERROR: Unsatisfiable constraints!");
+      solver.addEqualityConstraint(new int[]{ 0 }, new double[]{ 1 }, 2);
+    }
+
+    translate(compact, compact.index(columns));
 
     if (PRINT_ILP)
     {
@@ -177,229 +189,137 @@ public class NaiveGLPK extends GLPK
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
+    * Adds linear inequalities equivalent to the given constraint to the
+    * solver.  Each row's cardinality constraint is represented by a new
+    * variable tied to it with the inequalities for a conjunction, a
+    * disjunction, or an at-least, and a negated literal is replaced by a new
+    * variable constrained to take the opposite value.  An {@link
+    * CompactConstraint#ASSERT} row's variable is then constrained to be
+    * true, and an {@link CompactConstraint#EQUATE} row's variable is
+    * constrained to equal the row's head.
     *
-    * @param c  The constraint to process.
+    * @param c      The constraint.
+    * @param index  Maps each of the constraint's variables to its index in
+    *               the solver, as described in
+    *               {@link CompactConstraint#translate(ILPSolver,int[])}.
    **/
-  public void visit(PropositionalDoubleImplication c)
+  protected void translate(CompactConstraint c, int[] index)
   {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
-    visit(
-        new PropositionalConjunction(
-          new PropositionalImplication(children[0], children[1]),
-          new PropositionalImplication(children[1], children[0])));
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalImplication c)
-  {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
-    visit(
-        new PropositionalDisjunction(
-          new PropositionalNegation(children[0]), children[1]));
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalConjunction c)
-  {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
-
-    int[] indexes = new int[children.length + 1];
-    double[] coefficients = new double[children.length + 1];
+    int[] negations = new int[c.getVariables()];
+    Arrays.fill(negations, -1);
 
-    for (int i = 0; i < children.length; ++i)
+    for (int r = 0; r < c.getRows(); ++r)
     {
-      children[i].runVisit(this);
-      indexes[i] = returnIndex;
-      coefficients[i] = 1;
-    }
-
-    indexes[children.length] = Integer.MAX_VALUE;
-    Arrays.sort(indexes);
-    String key = "" + indexes[0];
-    for (int i = 1; i < children.length; ++i) key += "&" + indexes[i];
-    Integer I = (Integer) indexMap.get(key);
-
-    if (I == null)
-    {
-      I = new Integer(createNewVariable(key));
-      indexMap.put(key, I);
-
-      indexes[children.length] = I.intValue();
-      coefficients[children.length] = -1;
-      solver.addLessThanConstraint(indexes, coefficients,
-                                   children.length - 1);
+      int start = c.getStart(r);
+      int n = c.getEnd(r) - start;
+      int w = c.getWeighted(r);
+      int[] indexes = new int[n - w];
+      for (int i = 0; i < n - w; ++i)
+        indexes[i] = positive(c.getLiteral(start + w + i), index, negations);
+      int result = createVariable(c.getM(r), indexes);
+
+      if (w > 0)
+      {
+        indexes = new int[w + 1];
+        for (int i = 0; i < w; ++i)
+          indexes[i] = positive(c.getLiteral(start + i), index, negations);
+        indexes[w] = result;
+        result = createVariable(1, indexes);
+      }
 
-      coefficients = new double[]{ 1, -1 };
-      for (int i = 0; i < children.length; ++i)
-        solver.addGreaterThanConstraint(
-            new int[]{ indexes[i], indexes[children.length] },
-            coefficients, 0);
+      if (c.getKind(r) == CompactConstraint.ASSERT)
+        solver.addEqualityConstraint(
+            new int[]{ result }, new double[]{ 1 }, 1);
+      else if (c.getKind(r) == CompactConstraint.EQUATE)
+        solver.addEqualityConstraint(
+            new int[]{ positive(c.getHead(r), index, negations), result },
+            new double[]{ 1, -1 }, 0);
+      else index[CompactConstraint.variable(c.getHead(r))] = result;
     }
-
-    returnIndex = I.intValue();
   }
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
+    * Returns the index of a variable whose value is the value of the given
+    * literal, creating a new variable for a negated literal if there isn't
+    * one already.
     *
-    * @param c  The constraint to process.
+    * @param l          The literal.
+    * @param index      Maps each variable to its index in the solver.
+    * @param negations  Maps each variable to the index of its negation in
+    *                   the solver, or -1 if it has none yet.
+    * @return           The index of the variable.
    **/
-  public void visit(PropositionalDisjunction c)
+  private int positive(int l, int[] index, int[] negations)
   {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
+    int v = CompactConstraint.variable(l);
+    if (l > 0) return index[v];
 
-    int[] indexes = new int[children.length + 1];
-    double[] coefficients = new double[children.length + 1];
-
-    for (int i = 0; i < children.length; ++i)
-    {
-      children[i].runVisit(this);
-      indexes[i] = returnIndex;
-      coefficients[i] = 1;
-    }
-
-    indexes[children.length] = Integer.MAX_VALUE;
-    Arrays.sort(indexes);
-    String key = "" + indexes[0];
-    for (int i = 1; i < children.length; ++i) key += "|" + indexes[i];
-    Integer I = (Integer) indexMap.get(key);
-
-    if (I == null)
+    if (negations[v] == -1)
     {
-      I = new Integer(createNewVariable(key));
-      indexMap.put(key, I);
-
-      indexes[children.length] = I.intValue();
-      coefficients[children.length] = -1;
-      solver.addGreaterThanConstraint(indexes, coefficients, 0);
-
-      coefficients = new double[]{ 1, -1 };
-      for (int i = 0; i < children.length; ++i)
-        solver.addLessThanConstraint(
-            new int[]{ indexes[i], indexes[children.length] },
-            coefficients, 0);
+      negations[v] = createNewVariable("!" + index[v]);
+      solver.addEqualityConstraint(
+          new int[]{ index[v], negations[v] }, new double[]{ 1, 1 }, 1);
     }
 
-    returnIndex = I.intValue();
+    return negations[v];
   }
 
 
   /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
+    * Creates a new variable that is true iff at least <code>m</code> of the
+    * given variables are true.  The inequalities tying it to them are those
+    * of a conjunction if <code>m</code> is the number of variables, those of
+    * a disjunction if <code>m</code> is 1, and those of an at-least
+    * otherwise.
     *
-    * @param c  The constraint to process.
+    * @param m        The number of variables that must be true.
+    * @param indexes  The indexes of the variables.
+    * @return         The index of the new variable.
    **/
-  public void visit(PropositionalAtLeast c)
+  private int createVariable(int m, int[] indexes)
   {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
-
-    int[] indexes = new int[children.length + 1];
-    double[] coefficients = new double[children.length + 1];
-
-    for (int i = 0; i < children.length; ++i)
+    int n = indexes.length;
+    int[] sorted = (int[]) indexes.clone();
+    Arrays.sort(sorted);
+    String key = m == n || m == 1 ? "" : "atl" + m + "of";
+    String separator = m == 1 ? "|" : "&";
+    key += sorted[0];
+    for (int i = 1; i < n; ++i) key += separator + sorted[i];
+
+    int result = createNewVariable(key);
+    int[] sum = new int[n + 1];
+    double[] coefficients = new double[n + 1];
+    System.arraycopy(indexes, 0, sum, 0, n);
+    Arrays.fill(coefficients, 1);
+    sum[n] = result;
+
+    if (m == n)
     {
-      children[i].runVisit(this);
-      indexes[i] = returnIndex;
-      coefficients[i] = 1;
+      coefficients[n] = -1;
+      solver.addLessThanConstraint(sum, coefficients, n - 1);
+      coefficients = new double[]{ 1, -1 };
+      for (int i = 0; i < n; ++i)
+        solver.addGreaterThanConstraint(
+            new int[]{ indexes[i], result }, coefficients, 0);
     }
-
-    indexes[children.length] = Integer.MAX_VALUE;
-    Arrays.sort(indexes);
-    String key = "atl" + c.getM() + "of" + indexes[0];
-    for (int i = 1; i < children.length; ++i)
-      key += "&" + indexes[i];
-    Integer I = (Integer) indexMap.get(key);
-
-    if (I == null)
+    else if (m == 1)
     {
-      I = new Integer(createNewVariable(key));
-      indexMap.put(key, I);
-
-      indexes[children.length] = I.intValue();
-      coefficients[children.length] = -c.getM();
-      solver.addGreaterThanConstraint(indexes, coefficients, 0);
-
-      coefficients[children.length] = -children.length;
-      solver.addLessThanConstraint(indexes, coefficients, c.getM() - 1);
+      coefficients[n] = -1;
+      solver.addGreaterThanConstraint(sum, coefficients, 0);
+      coefficients = new double[]{ 1, -1 };
+      for (int i = 0; i < n; ++i)
+        solver.addLessThanConstraint(
+            new int[]{ indexes[i], result }, coefficients, 0);
     }
-
-    returnIndex = I.intValue();
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalNegation c)
-  {
-    PropositionalConstraint[] children =
-      (PropositionalConstraint[]) c.getChildren();
-    children[0].runVisit(this);
-
-    int index = returnIndex;
-    String key = "!" + index;
-    Integer I = (Integer) indexMap.get(key);
-
-    if (I == null)
+    else
     {
-      I = new Integer(createNewVariable(key));
-      indexMap.put(key, I);
-
-      int[] indexes = new int[]{ index, I.intValue() };
-      double[] coefficients = new double[]{ 1, 1 };
-      solver.addEqualityConstraint(indexes, coefficients, 1);
+      coefficients[n] = -m;
+      solver.addGreaterThanConstraint(sum, coefficients, 0);
+      coefficients[n] = -n;
+      solver.addLessThanConstraint(sum, coefficients, m - 1);
     }
 
-    returnIndex = I.intValue();
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalVariable c)
-  {
-    returnIndex = ((Integer) indexMap.get(c)).intValue();
-  }
-
-
-  /**
-    * Derived classes override this method to do some type of processing on
-    * constraints of the parameter's type.
-    *
-    * @param c  The constraint to process.
-   **/
-  public void visit(PropositionalConstant c)
-  {
-    assert false : "NaiveGLPK: Constraint contains a constant.";
+    return result;
   }
 }
-
@@ -0,0 +1,177 @@
+package LBJ2.infer;
+
+import java.util.concurrent.*;
+
+
+/**
+  * Propositionalizes a sequence of independent groundings of first order
+  * constraints, such as the groundings of a quantifier's constraint over
+  * the objects in its collection, or the children of a conjunction.  When
+  * {@link #threads} is greater than 1 and there are more groundings than
+  * {@link #chunkSize}, the groundings are split into consecutive chunks of
+  * {@link #chunkSize} groundings, and the chunks are propositionalized on a
+  * fork/join pool.  First order constraints keep the settings of their
+  * quantification variables in their own fields, so each chunk works on its
+  * own {@link #copy() copy} of the constraints and builds its constraints
+  * with its own {@link PropositionalConstraintFactory}.  Once every chunk is
+  * finished, the results are interned by the caller's factory in the order
+  * of the groundings.
+  *
+  * <p> The chunks depend only on the number of groundings and
+  * {@link #chunkSize}, and a factory keeps the children of the constraints
+  * it builds in the order it created them, so interning a chunk's results
+  * numbers their subterms the same way every time.  The result therefore
+  * doesn't depend on the number of threads, the order in which the chunks
+  * finish, or the hash codes of the examples.  It is logically equivalent to,
+  * but not necessarily structured exactly like, the result of
+  * propositionalizing the groundings one at a time with the caller's
+  * factory.  The classifiers involved must be safe to call from several
+  * threads at once, unless the scores of every variable have already been
+  * computed, as they have been by {@link ILPInference} and
+  * {@link LagrangianInference} when they propositionalize their
+  * constraints.
+  *
+  * @author Nick Rizzolo
+ **/
+public abstract class ParallelGrounder
+{
+  /**
+    * The number of threads that propositionalize groundings.  When this is
+    * 1, the default, groundings are propositionalized one at a time by the
+    * calling thread.
+   **/
+  public static int threads = 1;
+  /** The number of consecutive groundings in a chunk. */
+  public static int chunkSize = 64;
+  /** Propositionalizes chunks of groundings. */
+  private static ForkJoinPool pool;
+
+
+  /** Returns {@link #pool}, creating it if necessary. */
+  private static synchronized ForkJoinPool getPool(int t)
+  {
+    if (pool == null || pool.getParallelism() != t)
+    {
+      if (pool != null) pool.shutdown();
+      pool = new ForkJoinPool(t);
+    }
+
+    return pool;
+  }
+
+
+  /** The number of groundings. */
+  protected int size;
+
+
+  /**
+    * Initializing constructor.
+    *
+    * @param n  The number of groundings.
+   **/
+  public ParallelGrounder(int n) { size = n; }
+
+
+  /**
+    * Returns an object that propositionalizes the same groundings as this
+    * one, but shares none of the mutable state this one uses to do it.
+   **/
+  protected abstract ParallelGrounder copy();
+
+
+  /**
+    * Propositionalizes a grounding.
+    *
+    * @param i  The index of the grounding.
+    * @param f  The factory that builds the propositional constraint.
+    * @return   The propositionalized grounding.
+   **/
+  protected abstract PropositionalConstraint
+    ground(int i, PropositionalConstraintFactory f);
+
+
+  /**
+    * Propositionalizes every grounding.
+    *
+    * @param f  The factory that builds the propositional constraints.
+    * @return   The propositionalized groundings, in order.
+   **/
+  public PropositionalConstraint[]
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    PropositionalConstraint[] result = new PropositionalConstraint[size];
+    int t = threads, c = chunkSize;
+
+    if (t <= 1 || size <= c)
+    {
+      for (int i = 0; i < size; ++i) result[i] = ground(i, f);
+      return result;
+    }
+
+    Chunks task = new Chunks(result, 0, size, c);
+    if (ForkJoinTask.inForkJoinPool()) task.invoke();
+    else getPool(t).invoke(task);
+
+    for (int i = 0; i < size; ++i) result[i] = f.intern(result[i]);
+    return result;
+  }
+
+
+  /**
+    * Propositionalizes a range of groundings, splitting it at a chunk
+    * boundary if it contains more than one chunk.
+    *
+    * @author Nick Rizzolo
+   **/
+  private class Chunks extends RecursiveAction
+  {
+    private static final long serialVersionUID = -4432275564979664294L;
+
+    /** Receives the propositionalized groundings. */
+    private PropositionalConstraint[] result;
+    /** The index of the first grounding in the range. */
+    private int from;
+    /** One more than the index of the last grounding in the range. */
+    private int to;
+    /** The number of groundings in a chunk. */
+    private int chunk;
+
+
+    /**
+      * Initializing constructor.
+      *
+      * @param r  Receives the propositionalized groundings.
+      * @param f  The index of the first grounding in the range.
+      * @param t  One more than the index of the last grounding.
+      * @param c  The number of groundings in a chunk.
+     **/
+    public Chunks(PropositionalConstraint[] r, int f, int t, int c)
+    {
+      result = r;
+      from = f;
+      to = t;
+      chunk = c;
+    }
+
+
+    /** Propositionalizes the range. */
+    protected void compute()
+    {
+      int chunks = (to - from + chunk - 1) / chunk;
+
+      if (chunks > 1)
+      {
+        int middle = from + chunks / 2 * chunk;
+        invokeAll(new Chunks(result, from, middle, chunk),
+                  new Chunks(result, middle, to, chunk));
+        return;
+      }
+
+      ParallelGrounder grounder = copy();
+      PropositionalConstraintFactory factory =
+        new PropositionalConstraintFactory();
+      for (int i = from; i < to; ++i)
+        result[i] = grounder.ground(i, factory);
+    }
+  }
+}
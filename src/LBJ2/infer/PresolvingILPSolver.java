@@ -0,0 +1,1076 @@
+package LBJ2.infer;
+
+import java.util.*;
+
+
+/**
+  * An {@link ILPSolver} that records the problem it is given, simplifies it,
+  * and then passes what remains to another <code>ILPSolver</code>.  The
+  * translation of propositional constraints into linear inequalities
+  * produces many constraints that are satisfied by any assignment to their
+  * variables, that force their variables to particular values, or that
+  * repeat other constraints, and the problem often falls apart into many
+  * independent pieces.  This class handles all of those cases itself, so the
+  * underlying solver sees only small, independent subproblems.
+  *
+  * <p> The simplification, or presolve, repeats the following steps until
+  * none of them changes the problem.
+  * <ul>
+  *   <li> Variables are fixed when one of their values would make some
+  *        constraint impossible to satisfy, given the range of values the
+  *        constraint's other variables can produce.
+  *   <li> Constraints that are satisfied however their remaining variables
+  *        are set are removed.
+  *   <li> A variable is fixed when moving it towards the better objective
+  *        function value can't violate any constraint.  Variables in no
+  *        constraint fall into this category.
+  *   <li> Constraints over the same variables whose coefficients are
+  *        multiples of each other are merged.
+  * </ul>
+  * The variables that remain are then split into connected components,
+  * where two variables are connected when some remaining constraint mentions
+  * both, and each component is solved separately by the underlying solver,
+  * whose problem is {@link ILPSolver#reset() reset} before each one.  The
+  * bounds of the constraints passed on are tightened to the range of values
+  * their variables can actually produce, and bounds that can't be violated
+  * are left out.  Finally, the components' solutions are mapped back to the
+  * original variable indexes.
+  *
+  * <p> All the methods of this class are <code>synchronized</code>.  Since
+  * the underlying solver is used only from within {@link #solve()}, an
+  * instance is safe to use from several threads as long as its underlying
+  * solver isn't shared with anything else.
+ **/
+public class PresolvingILPSolver implements TimeLimitedILPSolver
+{
+  /** Two values this close together are considered equal. */
+  private static final double tolerance = 1e-9;
+
+
+  /** The solver that solves the presolved subproblems. */
+  protected ILPSolver solver;
+  /** Indicates whether this problem instance has been solved already. */
+  private boolean solved;
+  /**
+    * Whether the last call to {@link #solve()} gave up because the
+    * underlying solver's deadline passed.
+   **/
+  private boolean timedOut;
+  /** Whether the objective function is to be maximized. */
+  private boolean maximize;
+  /** The number of variables in the optimization problem. */
+  private int variables;
+  /** The objective function coefficients of the variables. */
+  private double[] objective;
+  /** The number of constraints in the optimization problem. */
+  private int constraints;
+  /** The indexes of the variables in each constraint. */
+  private int[][] constraintIndexes;
+  /** The coefficients of the variables in each constraint. */
+  private double[][] constraintCoefficients;
+  /** The lower bound of each constraint's left hand side. */
+  private double[] constraintLower;
+  /** The upper bound of each constraint's left hand side. */
+  private double[] constraintUpper;
+  /** The value of each variable in the optimal solution. */
+  private boolean[] solution;
+
+  // The remaining fields represent the problem while solve() runs.
+
+  /**
+    * The value each variable has been fixed to, or -1 if it hasn't been
+    * fixed.
+   **/
+  private byte[] fixed;
+  /** The remaining lower bound of each constraint. */
+  private double[] lower;
+  /** The remaining upper bound of each constraint. */
+  private double[] upper;
+  /** Whether each constraint is still part of the problem. */
+  private boolean[] active;
+  /** The constraints each variable appears in. */
+  private int[][] occurrences;
+  /** The constraints waiting to be examined. */
+  private int[] pending;
+  /** The number of constraints waiting to be examined. */
+  private int pendingSize;
+  /** Marks the constraints in {@link #pending}. */
+  private boolean[] queued;
+  /** Set when the presolve discovers that the problem is infeasible. */
+  private boolean infeasible;
+
+
+  /**
+    * Initializing constructor.
+    *
+    * @param s  The solver that solves the presolved subproblems.
+   **/
+  public PresolvingILPSolver(ILPSolver s)
+  {
+    solver = s;
+    reset();
+  }
+
+
+  /**
+    * This method clears the all constraints and variables out of the ILP
+    * solver's problem representation, bringing the <code>ILPSolver</code>
+    * instance back to the state it was in when first constructed.
+   **/
+  public synchronized void reset()
+  {
+    variables = 0;
+    objective = new double[16];
+    constraints = 0;
+    constraintIndexes = new int[16][];
+    constraintCoefficients = new double[16][];
+    constraintLower = new double[16];
+    constraintUpper = new double[16];
+    solution = null;
+    solved = false;
+    solver.reset();
+  }
+
+
+  /**
+    * Tests whether the problem represented by this <code>ILPSolver</code>
+    * instance has been solved already.
+   **/
+  public synchronized boolean isSolved() { return solved; }
+
+
+  /**
+    * Passes the deadline on to the underlying solver, if it honors
+    * deadlines.
+    *
+    * @param d  The deadline, as returned by
+    *           <code>System.currentTimeMillis()</code>, or 0 for no
+    *           deadline.
+    * @return   <code>true</code> iff the underlying solver honors deadlines.
+   **/
+  public synchronized boolean setDeadline(long d)
+  {
+    return solver instanceof TimeLimitedILPSolver
+           && ((TimeLimitedILPSolver) solver).setDeadline(d);
+  }
+
+
+  /**
+    * Tests whether the most recent call to {@link #solve()} gave up because
+    * the deadline passed.
+   **/
+  public synchronized boolean isTimedOut() { return timedOut; }
+
+
+  /**
+    * Sets the direction of the objective function.
+    *
+    * @param d  <code>true</code> if the objective function is to be
+    *           maximized.
+   **/
+  public synchronized void setMaximize(boolean d) { maximize = d; }
+
+
+  /**
+    * Adds a new Boolean variable (an integer variable constrained to take
+    * either the value 0 or the value 1) with the specified coefficient in the
+    * objective function to the problem.
+    *
+    * @param c  The objective function coefficient for the new Boolean
+    *           variable.
+    * @return   The index of the created variable.
+   **/
+  public synchronized int addBooleanVariable(double c)
+  {
+    if (variables == objective.length)
+    {
+      double[] t = new double[2 * variables];
+      System.arraycopy(objective, 0, t, 0, variables);
+      objective = t;
+    }
+
+    objective[variables] = c;
+    return variables++;
+  }
+
+
+  /**
+    * Adds a general, multi-valued discrete variable, which is implemented as
+    * a set of Boolean variables, one per value of the discrete variable, with
+    * exactly one of those variables set <code>true</code> at any given time.
+    * This method simply calls {@link #addBooleanVariable(double)} repeatedly
+    * and then adds an equality constraint.
+    *
+    * @param c  The objective function coefficients for the new Boolean
+    *           variables.
+    * @return   The indexes of the newly created variables.
+   **/
+  public synchronized int[] addDiscreteVariable(double[] c)
+  {
+    int[] result = new int[c.length];
+    for (int i = 0; i < c.length; ++i) result[i] = addBooleanVariable(c[i]);
+
+    double[] coefficients = new double[c.length];
+    Arrays.fill(coefficients, 1);
+    addEqualityConstraint(result, coefficients, 1);
+    return result;
+  }
+
+
+  /**
+    * Adds a general, multi-valued discrete variable, which is implemented as
+    * a set of Boolean variables, one per value of the discrete variable, with
+    * exactly one of those variables set <code>true</code> at any given time.
+    * This method simply calls {@link #addBooleanVariable(double)} repeatedly
+    * and then adds an equality constraint.
+    *
+    * @param c  An array of {@link LBJ2.classify.Score}s containing the
+    *           objective function coefficients for the new Boolean variables.
+    * @return   The indexes of the newly created variables.
+   **/
+  public synchronized int[] addDiscreteVariable(LBJ2.classify.Score[] c)
+  {
+    int[] result = new int[c.length];
+    for (int i = 0; i < c.length; ++i)
+      result[i] = addBooleanVariable(c[i].score);
+
+    double[] coefficients = new double[c.length];
+    Arrays.fill(coefficients, 1);
+    addEqualityConstraint(result, coefficients, 1);
+    return result;
+  }
+
+
+  /**
+    * Adds a new fixed constraint to the problem.  The two array arguments
+    * must be the same length, as their elements correspond to each other.
+    * Variables whose coefficients are zero need not be mentioned.  Variables
+    * that are mentioned must have previously been added via
+    * {@link #addBooleanVariable(double)} or
+    * {@link #addDiscreteVariable(double[])}.  The resulting constraint has
+    * the form:
+    * <blockquote> <code>x<sub>i</sub> * a = b</code> </blockquote>
+    * where <code>x<sub>i</sub></code> represents the inference variables
+    * whose indexes are contained in the array <code>i</code> and
+    * <code>*</code> represents dot product.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param b  The new constraint will enforce equality with this constant.
+   **/
+  public synchronized void addEqualityConstraint(int[] i, double[] a,
+                                                 double b)
+  {
+    addConstraint(i, a, b, b);
+  }
+
+
+  /**
+    * Adds a new lower bounded constraint to the problem.  The two array
+    * arguments must be the same length, as their elements correspond to each
+    * other.  Variables whose coefficients are zero need not be mentioned.
+    * Variables that are mentioned must have previously been added via
+    * {@link #addBooleanVariable(double)} or
+    * {@link #addDiscreteVariable(double[])}.  The resulting constraint has
+    * the form:
+    * <blockquote> <code>x<sub>i</sub> * a &gt;= b</code> </blockquote>
+    * where <code>x<sub>i</sub></code> represents the inference variables
+    * whose indexes are contained in the array <code>i</code> and
+    * <code>*</code> represents dot product.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param b  The lower bound for the new constraint.
+   **/
+  public synchronized void addGreaterThanConstraint(int[] i, double[] a,
+                                                    double b)
+  {
+    addConstraint(i, a, b, Double.POSITIVE_INFINITY);
+  }
+
+
+  /**
+    * Adds a new upper bounded constraint to the problem.  The two array
+    * arguments must be the same length, as their elements correspond to each
+    * other.  Variables whose coefficients are zero need not be mentioned.
+    * Variables that are mentioned must have previously been added via
+    * {@link #addBooleanVariable(double)} or
+    * {@link #addDiscreteVariable(double[])}.  The resulting constraint has
+    * the form:
+    * <blockquote> <code>x<sub>i</sub> * a &lt;= b</code> </blockquote>
+    * where <code>x<sub>i</sub></code> represents the inference variables
+    * whose indexes are contained in the array <code>i</code> and
+    * <code>*</code> represents dot product.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param b  The upper bound for the new constraint.
+   **/
+  public synchronized void addLessThanConstraint(int[] i, double[] a,
+                                                 double b)
+  {
+    addConstraint(i, a, Double.NEGATIVE_INFINITY, b);
+  }
+
+
+  /**
+    * Stores a new constraint of the form
+    * <code>l &lt;= x<sub>i</sub> * a &lt;= u</code>.  Variables mentioned
+    * more than once have their coefficients summed, and variables whose
+    * coefficients are zero are dropped.
+    *
+    * @param i  The indexes of the variables with non-zero coefficients.
+    * @param a  The coefficients of the variables with the given indexes.
+    * @param l  The lower bound of the constraint.
+    * @param u  The upper bound of the constraint.
+   **/
+  private void addConstraint(int[] i, double[] a, double l, double u)
+  {
+    if (constraints == constraintLower.length)
+    {
+      int length = 2 * constraints;
+      int[][] indexes = new int[length][];
+      System.arraycopy(constraintIndexes, 0, indexes, 0, constraints);
+      constraintIndexes = indexes;
+      double[][] coefficients = new double[length][];
+      System.arraycopy(constraintCoefficients, 0, coefficients, 0,
+                       constraints);
+      constraintCoefficients = coefficients;
+      double[] bounds = new double[length];
+      System.arraycopy(constraintLower, 0, bounds, 0, constraints);
+      constraintLower = bounds;
+      bounds = new double[length];
+      System.arraycopy(constraintUpper, 0, bounds, 0, constraints);
+      constraintUpper = bounds;
+    }
+
+    int[] indexes = (int[]) i.clone();
+    double[] coefficients = (double[]) a.clone();
+    int size = 0;
+
+    for (int j = 0; j < indexes.length; ++j)
+    {
+      int k = 0;
+      while (k < size && indexes[k] != indexes[j]) ++k;
+      if (k < size) coefficients[k] += coefficients[j];
+      else
+      {
+        indexes[size] = indexes[j];
+        coefficients[size++] = coefficients[j];
+      }
+    }
+
+    int kept = 0;
+    for (int j = 0; j < size; ++j)
+      if (coefficients[j] != 0)
+      {
+        indexes[kept] = indexes[j];
+        coefficients[kept++] = coefficients[j];
+      }
+
+    if (kept < indexes.length)
+    {
+      int[] t = new int[kept];
+      System.arraycopy(indexes, 0, t, 0, kept);
+      indexes = t;
+      double[] c = new double[kept];
+      System.arraycopy(coefficients, 0, c, 0, kept);
+      coefficients = c;
+    }
+
+    constraintIndexes[constraints] = indexes;
+    constraintCoefficients[constraints] = coefficients;
+    constraintLower[constraints] = l;
+    constraintUpper[constraints] = u;
+    ++constraints;
+  }
+
+
+  /**
+    * Presolves the problem and solves each of the resulting subproblems with
+    * the underlying solver.
+    *
+    * @return <code>true</code> iff an optimal integer solution was found.
+   **/
+  public synchronized boolean solve() throws Exception
+  {
+    timedOut = false;
+
+    try
+    {
+      presolve();
+      solved = !infeasible && solveComponents();
+    }
+    finally
+    {
+      fixed = null;
+      lower = upper = null;
+      active = queued = null;
+      occurrences = null;
+      pending = null;
+    }
+
+    return solved;
+  }
+
+
+  /**
+    * When the problem has been solved, use this method to retrieve the value
+    * of any Boolean inference variable.  The result of this method is
+    * undefined when the problem has not yet been solved.
+    *
+    * @param index  The index of the variable whose value is requested.
+    * @return       The value of the variable.
+   **/
+  public synchronized boolean getBooleanValue(int index)
+  {
+    return solution[index];
+  }
+
+
+  /**
+    * Writes the optimization problem that this solver represents, before
+    * presolving, into the specified buffer.
+    *
+    * @param buffer The buffer to write in.
+   **/
+  public synchronized void write(StringBuffer buffer)
+  {
+    if (maximize) buffer.append("max");
+    else buffer.append("min");
+
+    for (int j = 0; j < variables; ++j)
+    {
+      buffer.append(" ");
+      if (objective[j] >= 0) buffer.append("+");
+      buffer.append(objective[j] + " x_" + j);
+    }
+
+    buffer.append("\n");
+
+    for (int i = 0; i < constraints; ++i)
+    {
+      double l = constraintLower[i], u = constraintUpper[i];
+      if (l == u) writeConstraint(buffer, i, " = ", l);
+      else
+      {
+        if (l != Double.NEGATIVE_INFINITY)
+          writeConstraint(buffer, i, " >= ", l);
+        if (u != Double.POSITIVE_INFINITY)
+          writeConstraint(buffer, i, " <= ", u);
+      }
+    }
+  }
+
+
+  /**
+    * Writes one side of a constraint into the specified buffer.
+    *
+    * @param buffer     The buffer to write in.
+    * @param i          The index of the constraint.
+    * @param relation   The relation between the two sides.
+    * @param b          The constant on the right hand side.
+   **/
+  private void writeConstraint(StringBuffer buffer, int i, String relation,
+                               double b)
+  {
+    int[] indexes = constraintIndexes[i];
+    double[] coefficients = constraintCoefficients[i];
+
+    for (int j = 0; j < indexes.length; ++j)
+    {
+      buffer.append(" ");
+      if (coefficients[j] >= 0) buffer.append("+");
+      buffer.append(coefficients[j] + " x_" + indexes[j]);
+    }
+
+    buffer.append(relation);
+    buffer.append(b);
+    buffer.append("\n");
+  }
+
+
+  /**
+    * Simplifies the problem, fixing variables and deactivating constraints,
+    * until no more simplifications apply or the problem is found to be
+    * infeasible.
+   **/
+  private void presolve()
+  {
+    fixed = new byte[variables];
+    Arrays.fill(fixed, (byte) -1);
+    lower = new double[constraints];
+    upper = new double[constraints];
+    System.arraycopy(constraintLower, 0, lower, 0, constraints);
+    System.arraycopy(constraintUpper, 0, upper, 0, constraints);
+    active = new boolean[constraints];
+    Arrays.fill(active, true);
+    infeasible = false;
+
+    int[] counts = new int[variables];
+    for (int i = 0; i < constraints; ++i)
+      for (int k = 0; k < constraintIndexes[i].length; ++k)
+        ++counts[constraintIndexes[i][k]];
+    occurrences = new int[variables][];
+    for (int j = 0; j < variables; ++j) occurrences[j] = new int[counts[j]];
+    Arrays.fill(counts, 0);
+    for (int i = 0; i < constraints; ++i)
+      for (int k = 0; k < constraintIndexes[i].length; ++k)
+      {
+        int j = constraintIndexes[i][k];
+        occurrences[j][counts[j]++] = i;
+      }
+
+    pending = new int[constraints];
+    queued = new boolean[constraints];
+    pendingSize = 0;
+    for (int i = 0; i < constraints; ++i) enqueue(i);
+
+    boolean changed = true;
+    while (changed && !infeasible)
+    {
+      while (pendingSize > 0 && !infeasible)
+      {
+        int i = pending[--pendingSize];
+        queued[i] = false;
+        if (active[i]) examineConstraint(i);
+      }
+
+      if (infeasible) break;
+      changed = fixDominatedVariables();
+      if (!changed) changed = mergeDuplicateConstraints();
+    }
+  }
+
+
+  /**
+    * Adds a constraint to the list of constraints waiting to be examined.
+    *
+    * @param i  The constraint.
+   **/
+  private void enqueue(int i)
+  {
+    if (active[i] && !queued[i])
+    {
+      queued[i] = true;
+      pending[pendingSize++] = i;
+    }
+  }
+
+
+  /**
+    * Fixes a variable, moves its contribution to the bounds of the
+    * constraints it appears in, and queues those constraints for
+    * examination.
+    *
+    * @param j  The variable.
+    * @param v  Its value.
+   **/
+  private void fix(int j, int v)
+  {
+    fixed[j] = (byte) v;
+    int[] rows = occurrences[j];
+
+    for (int r = 0; r < rows.length; ++r)
+    {
+      int i = rows[r];
+      if (!active[i]) continue;
+
+      if (v == 1)
+      {
+        double a = coefficient(i, j);
+        lower[i] -= a;
+        upper[i] -= a;
+      }
+
+      enqueue(i);
+    }
+  }
+
+
+  /**
+    * Returns the coefficient of a variable in a constraint.
+    *
+    * @param i  The constraint.
+    * @param j  The variable.
+    * @return   Its coefficient, or 0 if the constraint doesn't mention it.
+   **/
+  private double coefficient(int i, int j)
+  {
+    int[] indexes = constraintIndexes[i];
+    for (int k = 0; k < indexes.length; ++k)
+      if (indexes[k] == j) return constraintCoefficients[i][k];
+    return 0;
+  }
+
+
+  /**
+    * Returns the smallest value the unfixed variables of a constraint can
+    * produce.
+    *
+    * @param i  The constraint.
+    * @return   The smallest possible activity of the constraint.
+   **/
+  private double minimumActivity(int i)
+  {
+    int[] indexes = constraintIndexes[i];
+    double[] coefficients = constraintCoefficients[i];
+    double result = 0;
+    for (int k = 0; k < indexes.length; ++k)
+      if (fixed[indexes[k]] == -1 && coefficients[k] < 0)
+        result += coefficients[k];
+    return result;
+  }
+
+
+  /**
+    * Returns the largest value the unfixed variables of a constraint can
+    * produce.
+    *
+    * @param i  The constraint.
+    * @return   The largest possible activity of the constraint.
+   **/
+  private double maximumActivity(int i)
+  {
+    int[] indexes = constraintIndexes[i];
+    double[] coefficients = constraintCoefficients[i];
+    double result = 0;
+    for (int k = 0; k < indexes.length; ++k)
+      if (fixed[indexes[k]] == -1 && coefficients[k] > 0)
+        result += coefficients[k];
+    return result;
+  }
+
+
+  /**
+    * Determines whether the lower bound of a constraint can ever be
+    * violated.
+    *
+    * @param i  The constraint.
+    * @return   <code>true</code> iff some assignment to the unfixed variables
+    *           falls below the lower bound.
+   **/
+  private boolean lowerBinds(int i)
+  {
+    return lower[i] > minimumActivity(i) + tolerance;
+  }
+
+
+  /**
+    * Determines whether the upper bound of a constraint can ever be
+    * violated.
+    *
+    * @param i  The constraint.
+    * @return   <code>true</code> iff some assignment to the unfixed variables
+    *           exceeds the upper bound.
+   **/
+  private boolean upperBinds(int i)
+  {
+    return upper[i] < maximumActivity(i) - tolerance;
+  }
+
+
+  /**
+    * Checks a constraint for infeasibility and redundancy, and fixes each of
+    * its variables that has a value no assignment to the others can
+    * accommodate.
+    *
+    * @param i  The constraint.
+   **/
+  private void examineConstraint(int i)
+  {
+    int[] indexes = constraintIndexes[i];
+    double[] coefficients = constraintCoefficients[i];
+    boolean changed = true;
+
+    while (changed)
+    {
+      changed = false;
+      double minimum = minimumActivity(i);
+      double maximum = maximumActivity(i);
+
+      if (minimum > upper[i] + tolerance || maximum < lower[i] - tolerance)
+      {
+        infeasible = true;
+        return;
+      }
+
+      if (lower[i] <= minimum + tolerance && maximum <= upper[i] + tolerance)
+      {
+        active[i] = false;
+        return;
+      }
+
+      for (int k = 0; k < indexes.length; ++k)
+      {
+        int j = indexes[k];
+        if (fixed[j] != -1) continue;
+        double a = coefficients[k];
+        double others = minimum - Math.min(0, a);
+        double othersMaximum = maximum - Math.max(0, a);
+        boolean zero =
+          others > upper[i] + tolerance
+          || othersMaximum < lower[i] - tolerance;
+        boolean one =
+          others + a > upper[i] + tolerance
+          || othersMaximum + a < lower[i] - tolerance;
+
+        if (zero && one)
+        {
+          infeasible = true;
+          return;
+        }
+
+        if (zero || one)
+        {
+          fix(j, zero ? 1 : 0);
+          changed = true;
+          break;
+        }
+      }
+    }
+  }
+
+
+  /**
+    * Fixes every variable that can be moved towards the better objective
+    * function value without violating any constraint, including the
+    * variables that appear in no active constraint.
+    *
+    * @return <code>true</code> iff any variable was fixed.
+   **/
+  private boolean fixDominatedVariables()
+  {
+    boolean result = false;
+
+    for (int j = 0; j < variables; ++j)
+    {
+      if (fixed[j] != -1) continue;
+      double c = maximize ? objective[j] : -objective[j];
+      boolean decrease = c <= 0, increase = c >= 0;
+      int[] rows = occurrences[j];
+
+      for (int r = 0; r < rows.length && (decrease || increase); ++r)
+      {
+        int i = rows[r];
+        if (!active[i]) continue;
+        boolean positive = coefficient(i, j) > 0;
+        if (positive ? lowerBinds(i) : upperBinds(i)) decrease = false;
+        if (positive ? upperBinds(i) : lowerBinds(i)) increase = false;
+      }
+
+      if (decrease || increase)
+      {
+        fix(j, increase && (!decrease || c > 0) ? 1 : 0);
+        result = true;
+      }
+    }
+
+    return result;
+  }
+
+
+  /**
+    * Merges active constraints over the same unfixed variables whose
+    * coefficients are multiples of each other, keeping the tightest bounds.
+    *
+    * @return <code>true</code> iff any constraints were merged.
+   **/
+  private boolean mergeDuplicateConstraints()
+  {
+    HashMap<Row, Integer> seen = new HashMap<Row, Integer>();
+    boolean result = false;
+
+    for (int i = 0; i < constraints; ++i)
+    {
+      if (!active[i]) continue;
+      Row row = new Row(i);
+      Integer first = seen.get(row);
+
+      if (first == null)
+      {
+        seen.put(row, i);
+        continue;
+      }
+
+      int f = first.intValue();
+      double ratio = scaleOf(f) / row.scale;
+      double l = lower[i] * ratio, u = upper[i] * ratio;
+      if (ratio < 0)
+      {
+        double t = l;
+        l = u;
+        u = t;
+      }
+
+      lower[f] = Math.max(lower[f], l);
+      upper[f] = Math.min(upper[f], u);
+      active[i] = false;
+      if (lower[f] > upper[f] + tolerance) infeasible = true;
+      enqueue(f);
+      result = true;
+    }
+
+    return result;
+  }
+
+
+  /**
+    * Returns the coefficient of the unfixed variable with the smallest index
+    * in a constraint, by which {@link Row} divides the constraint's
+    * coefficients.
+    *
+    * @param i  The constraint.
+    * @return   The constraint's scale.
+   **/
+  private double scaleOf(int i)
+  {
+    int[] indexes = constraintIndexes[i];
+    int first = -1;
+    for (int k = 0; k < indexes.length; ++k)
+      if (fixed[indexes[k]] == -1
+          && (first == -1 || indexes[k] < indexes[first]))
+        first = k;
+    return first == -1 ? 1 : constraintCoefficients[i][first];
+  }
+
+
+  /**
+    * Solves each connected component of the presolved problem with the
+    * underlying solver and assembles the solution.
+    *
+    * @return <code>true</code> iff every component was solved.
+   **/
+  private boolean solveComponents() throws Exception
+  {
+    int[] parent = new int[variables];
+    for (int j = 0; j < variables; ++j) parent[j] = j;
+
+    for (int i = 0; i < constraints; ++i)
+    {
+      if (!active[i]) continue;
+      int[] indexes = constraintIndexes[i];
+      int root = -1;
+
+      for (int k = 0; k < indexes.length; ++k)
+      {
+        int j = indexes[k];
+        if (fixed[j] != -1) continue;
+        j = find(parent, j);
+        if (root == -1) root = j;
+        else if (j != root) parent[j] = root;
+      }
+    }
+
+    boolean[] result = new boolean[variables];
+    int[] local = new int[variables];
+    HashMap<Integer, ArrayList<Integer>> componentVariables =
+      new LinkedHashMap<Integer, ArrayList<Integer>>();
+
+    for (int j = 0; j < variables; ++j)
+    {
+      if (fixed[j] != -1)
+      {
+        result[j] = fixed[j] == 1;
+        continue;
+      }
+
+      Integer root = find(parent, j);
+      ArrayList<Integer> members = componentVariables.get(root);
+      if (members == null)
+      {
+        members = new ArrayList<Integer>();
+        componentVariables.put(root, members);
+      }
+
+      members.add(j);
+    }
+
+    HashMap<Integer, ArrayList<Integer>> componentConstraints =
+      new HashMap<Integer, ArrayList<Integer>>();
+    for (int i = 0; i < constraints; ++i)
+    {
+      if (!active[i]) continue;
+      int[] indexes = constraintIndexes[i];
+      int k = 0;
+      while (fixed[indexes[k]] != -1) ++k;
+      Integer root = find(parent, indexes[k]);
+      ArrayList<Integer> rows = componentConstraints.get(root);
+      if (rows == null)
+      {
+        rows = new ArrayList<Integer>();
+        componentConstraints.put(root, rows);
+      }
+
+      rows.add(i);
+    }
+
+    for (Iterator<Map.Entry<Integer, ArrayList<Integer>>> I =
+           componentVariables.entrySet().iterator();
+         I.hasNext(); )
+    {
+      Map.Entry<Integer, ArrayList<Integer>> e = I.next();
+      ArrayList<Integer> members = e.getValue();
+      solver.reset();
+      solver.setMaximize(maximize);
+
+      for (int v = 0; v < members.size(); ++v)
+      {
+        int j = members.get(v);
+        local[j] = solver.addBooleanVariable(objective[j]);
+      }
+
+      ArrayList<Integer> rows = componentConstraints.get(e.getKey());
+      for (int r = 0; rows != null && r < rows.size(); ++r)
+        passConstraint(rows.get(r), local);
+
+      if (!solver.solve())
+      {
+        timedOut = solver instanceof TimeLimitedILPSolver
+                   && ((TimeLimitedILPSolver) solver).isTimedOut();
+        return false;
+      }
+      for (int v = 0; v < members.size(); ++v)
+      {
+        int j = members.get(v);
+        result[j] = solver.getBooleanValue(local[j]);
+      }
+    }
+
+    solution = result;
+    return true;
+  }
+
+
+  /**
+    * Passes a presolved constraint to the underlying solver, leaving out
+    * bounds that can't be violated.
+    *
+    * @param i      The constraint.
+    * @param local  The underlying solver's index of each variable.
+   **/
+  private void passConstraint(int i, int[] local)
+  {
+    int[] indexes = constraintIndexes[i];
+    double[] coefficients = constraintCoefficients[i];
+    int size = 0;
+    for (int k = 0; k < indexes.length; ++k)
+      if (fixed[indexes[k]] == -1) ++size;
+
+    int[] x = new int[size];
+    double[] a = new double[size];
+    size = 0;
+    for (int k = 0; k < indexes.length; ++k)
+      if (fixed[indexes[k]] == -1)
+      {
+        x[size] = local[indexes[k]];
+        a[size++] = coefficients[k];
+      }
+
+    boolean lowerBinds = lowerBinds(i), upperBinds = upperBinds(i);
+    if (lowerBinds && upperBinds
+        && Math.abs(upper[i] - lower[i]) <= tolerance)
+      solver.addEqualityConstraint(x, a, lower[i]);
+    else
+    {
+      if (lowerBinds) solver.addGreaterThanConstraint(x, a, lower[i]);
+      if (upperBinds) solver.addLessThanConstraint(x, a, upper[i]);
+    }
+  }
+
+
+  /**
+    * Finds the representative of a variable's component, compressing the
+    * path as it goes.
+    *
+    * @param parent The union-find forest.
+    * @param j      The variable.
+    * @return       The representative of its component.
+   **/
+  private static int find(int[] parent, int j)
+  {
+    int root = j;
+    while (parent[root] != root) root = parent[root];
+    while (parent[j] != root)
+    {
+      int next = parent[j];
+      parent[j] = root;
+      j = next;
+    }
+    return root;
+  }
+
+
+  /**
+    * The unfixed variables of a constraint and their coefficients divided by
+    * the coefficient of the first of them, used to find constraints that are
+    * multiples of each other.
+   **/
+  private class Row
+  {
+    /** The unfixed variables, in increasing order. */
+    private int[] indexes;
+    /** The scaled coefficients of the unfixed variables. */
+    private double[] coefficients;
+    /** The coefficient the constraint's coefficients were divided by. */
+    double scale;
+    /** The hash code of this row. */
+    private int hashCode;
+
+
+    /**
+      * Initializing constructor.
+      *
+      * @param i  The constraint.
+     **/
+    Row(int i)
+    {
+      scale = scaleOf(i);
+      int[] all = constraintIndexes[i];
+      double[] allCoefficients = constraintCoefficients[i];
+      int size = 0;
+      for (int k = 0; k < all.length; ++k) if (fixed[all[k]] == -1) ++size;
+
+      indexes = new int[size];
+      coefficients = new double[size];
+      size = 0;
+      for (int k = 0; k < all.length; ++k)
+        if (fixed[all[k]] == -1)
+        {
+          int j = all[k];
+          double a = allCoefficients[k] / scale;
+          int p = size++;
+          for (; p > 0 && indexes[p - 1] > j; --p)
+          {
+            indexes[p] = indexes[p - 1];
+            coefficients[p] = coefficients[p - 1];
+          }
+          indexes[p] = j;
+          coefficients[p] = a;
+        }
+
+      hashCode =
+        Arrays.hashCode(indexes) * 31 + Arrays.hashCode(coefficients);
+    }
+
+
+    /** Returns the hash code of this row. */
+    public int hashCode() { return hashCode; }
+
+
+    /**
+      * Two rows are equal when they have the same variables with the same
+      * scaled coefficients.
+      *
+      * @param o  The object to compare with.
+      * @return   <code>true</code> iff the rows are equal.
+     **/
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Row)) return false;
+      Row r = (Row) o;
+      return Arrays.equals(indexes, r.indexes)
+             && Arrays.equals(coefficients, r.coefficients);
+    }
+  }
+}
@@ -184,8 +184,7 @@ public class PropositionalAtLeast extends PropositionalNAryConstraint
       PropositionalDisjunction disjunction =
         new PropositionalDisjunction(result.children[0], result.children[1]);
       for (int i = 2; i < result.children.length; ++i)
-        disjunction =
-          new PropositionalDisjunction(disjunction, result.children[i]);
+        disjunction.add(result.children[i]);
       return disjunction.simplify();
     }
 
@@ -445,8 +444,9 @@ public class PropositionalAtLeast extends PropositionalNAryConstraint
 
   /**
     * Two <code>PropositionalAtLeast</code>s are equivalent when they are
-    * topologically equivalent; this implementation currently does not respect
-    * the associativity and commutativity of at-least.
+    * topologically equivalent and require the same number of true children;
+    * this implementation currently does not respect the associativity and
+    * commutativity of at-least.
     *
     * @return <code>true</code> iff the argument is an equivalent
     *         <code>PropositionalAtLeast</code>.
@@ -455,7 +455,7 @@ public class PropositionalAtLeast extends PropositionalNAryConstraint
   {
     if (!(o instanceof PropositionalAtLeast)) return false;
     PropositionalAtLeast a = (PropositionalAtLeast) o;
-    if (children.length != a.children.length) return false;
+    if (m != a.m || children.length != a.children.length) return false;
     for (int i = 0; i < children.length; ++i)
       if (!children[i].equals(a.children[i])) return false;
     return true;
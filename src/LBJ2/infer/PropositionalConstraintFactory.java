@@ -0,0 +1,715 @@
+package LBJ2.infer;
+
+import java.util.*;
+import LBJ2.learn.Learner;
+
+
+/**
+  * A factory that hash-conses {@link PropositionalConstraint}s, so that any
+  * two structurally equivalent constraints it returns are the same object.
+  * Subterms shared by many constraints are thus stored once, no matter how
+  * many times a first order constraint's propositionalization generates
+  * them, and comparing two constraints returned by the same factory amounts
+  * to comparing references.  The factory also remembers the results of
+  * {@link #simplify(PropositionalConstraint)} and
+  * {@link #negate(PropositionalConstraint)} for each constraint, so that
+  * each shared subterm is simplified and negated only once.
+  *
+  * <p> The results of these methods are logically equivalent to the results
+  * of the corresponding methods of the constraints themselves.  Structure is
+  * canonicalized a little further: conjunctions and disjunctions are
+  * flattened, duplicate children are removed, and a conjunction or
+  * disjunction of a single child is that child.  The children of commutative
+  * constraints are stored in serial number order, i.e., the order in which
+  * the factory first created them, so they are visited in the same order no
+  * matter what their hash codes are.  Constraints returned by a factory are
+  * shared, so they must not be modified.  A factory is not safe to use from
+  * more than one thread at once.
+  *
+  * @author Nick Rizzolo
+ **/
+public class PropositionalConstraintFactory
+{
+  /** A possible value of {@link Key#type}. */
+  private static final int NEGATION = 0;
+  /** A possible value of {@link Key#type}. */
+  private static final int CONJUNCTION = 1;
+  /** A possible value of {@link Key#type}. */
+  private static final int DISJUNCTION = 2;
+  /** A possible value of {@link Key#type}. */
+  private static final int AT_LEAST = 3;
+  /** A possible value of {@link Key#type}. */
+  private static final int IMPLICATION = 4;
+  /** A possible value of {@link Key#type}. */
+  private static final int DOUBLE_IMPLICATION = 5;
+
+
+  /** The unique copy of each variable, indexed by itself. */
+  private HashMap<PropositionalVariable, PropositionalVariable> variables;
+  /** The unique copy of every other kind of constraint. */
+  private HashMap<Key, PropositionalConstraint> constraints;
+  /**
+    * The order in which each unique constraint was created, used to sort the
+    * children of commutative constraints.
+   **/
+  private IdentityHashMap<PropositionalConstraint, Integer> serialNumbers;
+  /** The unique copy of each constraint passed to {@link #intern}. */
+  private IdentityHashMap<PropositionalConstraint, PropositionalConstraint>
+    interned;
+  /** The result of {@link #simplify(PropositionalConstraint)}. */
+  private IdentityHashMap<PropositionalConstraint, PropositionalConstraint>
+    simplified;
+  /** The result of {@link #negate(PropositionalConstraint)}. */
+  private IdentityHashMap<PropositionalConstraint, PropositionalConstraint>
+    negated;
+
+
+  /** Creates an empty factory. */
+  public PropositionalConstraintFactory()
+  {
+    variables = new HashMap<PropositionalVariable, PropositionalVariable>();
+    constraints = new HashMap<Key, PropositionalConstraint>();
+    serialNumbers = new IdentityHashMap<PropositionalConstraint, Integer>();
+    interned =
+      new IdentityHashMap<PropositionalConstraint, PropositionalConstraint>();
+    simplified =
+      new IdentityHashMap<PropositionalConstraint, PropositionalConstraint>();
+    negated =
+      new IdentityHashMap<PropositionalConstraint, PropositionalConstraint>();
+    serialNumbers.put(PropositionalConstant.False, Integer.valueOf(0));
+    serialNumbers.put(PropositionalConstant.True, Integer.valueOf(1));
+  }
+
+
+  /** Returns the number of unique constraints this factory has created. */
+  public int size() { return serialNumbers.size(); }
+
+
+  /**
+    * Returns the unique constant with the given value.
+    *
+    * @param v  The value of the constant.
+    * @return   {@link PropositionalConstant#True} or
+    *           {@link PropositionalConstant#False}.
+   **/
+  public PropositionalConstraint constant(boolean v)
+  {
+    return v ? PropositionalConstant.True : PropositionalConstant.False;
+  }
+
+
+  /**
+    * Returns the unique variable representing the given classifier's
+    * prediction on the given example.
+    *
+    * @param c  The classifier.
+    * @param e  The example.
+    * @param p  The prediction.
+    * @return   The unique variable.
+   **/
+  public PropositionalVariable variable(Learner c, Object e, String p)
+  {
+    return variable(new PropositionalVariable(c, e, p));
+  }
+
+
+  /**
+    * Returns the unique variable equivalent to the given variable.
+    *
+    * @param v  The variable.
+    * @return   The unique variable.
+   **/
+  private PropositionalVariable variable(PropositionalVariable v)
+  {
+    PropositionalVariable result = variables.get(v);
+
+    if (result == null)
+    {
+      result = v;
+      variables.put(v, v);
+      serialNumbers.put(v, Integer.valueOf(serialNumbers.size()));
+    }
+
+    return result;
+  }
+
+
+  /**
+    * Returns the unique negation of the given constraint.
+    *
+    * @param c  A constraint returned by this factory.
+    * @return   The unique negation.
+   **/
+  public PropositionalConstraint negation(PropositionalConstraint c)
+  {
+    Key key = new Key(NEGATION, 0, new PropositionalConstraint[]{ c });
+    PropositionalConstraint result = constraints.get(key);
+    if (result == null) result = add(key, new PropositionalNegation(c));
+    return result;
+  }
+
+
+  /**
+    * Returns the unique conjunction of the given constraints.  Children that
+    * are conjunctions are flattened into the result, and duplicate children
+    * are removed.
+    *
+    * @param c  Constraints returned by this factory.
+    * @return   The unique conjunction, or its only child if it has only one,
+    *           or {@link PropositionalConstant#True} if it has none.
+   **/
+  public PropositionalConstraint conjunction(PropositionalConstraint[] c)
+  {
+    PropositionalConstraint[] children = flatten(c, CONJUNCTION);
+    if (children.length == 0) return PropositionalConstant.True;
+    if (children.length == 1) return children[0];
+
+    Key key = new Key(CONJUNCTION, 0, children);
+    PropositionalConstraint result = constraints.get(key);
+
+    if (result == null)
+    {
+      PropositionalConjunction conjunction =
+        new PropositionalConjunction(children[0], children[1]);
+      for (int i = 2; i < children.length; ++i) conjunction.add(children[i]);
+      result = add(key, conjunction);
+    }
+
+    return result;
+  }
+
+
+  /**
+    * Returns the unique disjunction of the given constraints.  Children that
+    * are disjunctions are flattened into the result, and duplicate children
+    * are removed.
+    *
+    * @param c  Constraints returned by this factory.
+    * @return   The unique disjunction, or its only child if it has only one,
+    *           or {@link PropositionalConstant#False} if it has none.
+   **/
+  public PropositionalConstraint disjunction(PropositionalConstraint[] c)
+  {
+    PropositionalConstraint[] children = flatten(c, DISJUNCTION);
+    if (children.length == 0) return PropositionalConstant.False;
+    if (children.length == 1) return children[0];
+
+    Key key = new Key(DISJUNCTION, 0, children);
+    PropositionalConstraint result = constraints.get(key);
+
+    if (result == null)
+    {
+      PropositionalDisjunction disjunction =
+        new PropositionalDisjunction(children[0], children[1]);
+      for (int i = 2; i < children.length; ++i) disjunction.add(children[i]);
+      result = add(key, disjunction);
+    }
+
+    return result;
+  }
+
+
+  /**
+    * Returns the unique constraint stating that at least <code>m</code> of
+    * the given constraints are satisfied.
+    *
+    * @param c  Constraints returned by this factory.
+    * @param m  The number of them that must be satisfied.
+    * @return   The unique at-least.
+   **/
+  public PropositionalConstraint atLeast(PropositionalConstraint[] c, int m)
+  {
+    PropositionalConstraint[] children = (PropositionalConstraint[]) c.clone();
+    sort(children);
+    Key key = new Key(AT_LEAST, m, children);
+    PropositionalConstraint result = constraints.get(key);
+    if (result == null)
+      result = add(key, new PropositionalAtLeast(children, m));
+    return result;
+  }
+
+
+  /**
+    * Returns the unique implication with the given sides.
+    *
+    * @param l  The left side, returned by this factory.
+    * @param r  The right side, returned by this factory.
+    * @return   The unique implication.
+   **/
+  public PropositionalConstraint implication(PropositionalConstraint l,
+                                             PropositionalConstraint r)
+  {
+    Key key = new Key(IMPLICATION, 0, new PropositionalConstraint[]{ l, r });
+    PropositionalConstraint result = constraints.get(key);
+    if (result == null) result = add(key, new PropositionalImplication(l, r));
+    return result;
+  }
+
+
+  /**
+    * Returns the unique double implication with the given sides.
+    *
+    * @param l  The left side, returned by this factory.
+    * @param r  The right side, returned by this factory.
+    * @return   The unique double implication.
+   **/
+  public PropositionalConstraint doubleImplication(PropositionalConstraint l,
+                                                   PropositionalConstraint r)
+  {
+    Key key =
+      new Key(DOUBLE_IMPLICATION, 0, new PropositionalConstraint[]{ l, r });
+    PropositionalConstraint result = constraints.get(key);
+    if (result == null)
+      result = add(key, new PropositionalDoubleImplication(l, r));
+    return result;
+  }
+
+
+  /**
+    * Records a newly created unique constraint.
+    *
+    * @param k  The constraint's key.
+    * @param c  The constraint.
+    * @return   <code>c</code>.
+   **/
+  private PropositionalConstraint add(Key k, PropositionalConstraint c)
+  {
+    constraints.put(k, c);
+    serialNumbers.put(c, Integer.valueOf(serialNumbers.size()));
+    return c;
+  }
+
+
+  /**
+    * Collects the children of a new conjunction or disjunction, replacing
+    * any child of the same type with its children, removing duplicates, and
+    * sorting them by serial number.
+    *
+    * @param c    The children.
+    * @param type {@link #CONJUNCTION} or {@link #DISJUNCTION}.
+    * @return     The collected children.
+   **/
+  private PropositionalConstraint[] flatten(PropositionalConstraint[] c,
+                                            int type)
+  {
+    IdentityHashMap<PropositionalConstraint, Boolean> seen =
+      new IdentityHashMap<PropositionalConstraint, Boolean>();
+    LinkedList<PropositionalConstraint> result =
+      new LinkedList<PropositionalConstraint>();
+
+    for (int i = 0; i < c.length; ++i)
+    {
+      if (type == CONJUNCTION && c[i] instanceof PropositionalConjunction
+          || type == DISJUNCTION && c[i] instanceof PropositionalDisjunction)
+      {
+        PropositionalConstraint[] grandchildren =
+          (PropositionalConstraint[]) c[i].getChildren();
+        for (int j = 0; j < grandchildren.length; ++j)
+          if (seen.put(grandchildren[j], Boolean.TRUE) == null)
+            result.add(grandchildren[j]);
+      }
+      else if (seen.put(c[i], Boolean.TRUE) == null) result.add(c[i]);
+    }
+
+    PropositionalConstraint[] array =
+      result.toArray(new PropositionalConstraint[result.size()]);
+    sort(array);
+    return array;
+  }
+
+
+  /**
+    * Sorts the given constraints by serial number.
+    *
+    * @param c  Constraints returned by this factory.
+   **/
+  private void sort(PropositionalConstraint[] c)
+  {
+    Arrays.sort(c,
+        new Comparator<PropositionalConstraint>()
+        {
+          public int compare(PropositionalConstraint a,
+                             PropositionalConstraint b)
+          {
+            return serialNumber(a) - serialNumber(b);
+          }
+        });
+  }
+
+
+  /**
+    * Returns the serial number of the given constraint.
+    *
+    * @param c  A constraint returned by this factory.
+    * @return   Its serial number.
+   **/
+  private int serialNumber(PropositionalConstraint c)
+  {
+    Integer result = serialNumbers.get(c);
+
+    if (result == null)
+    {
+      System.err.println(
+          "LBJ ERROR: PropositionalConstraintFactory: constraint " + c
+          + " was not returned by this factory.");
+      new Exception().printStackTrace();
+      System.exit(1);
+    }
+
+    return result.intValue();
+  }
+
+
+  /**
+    * Returns the unique constraint structurally equivalent to the given
+    * constraint.  Each subterm of the argument is processed only once, even
+    * if it is referenced many times, and the result is remembered, so the
+    * argument must not be modified afterward.
+    *
+    * @param c  Any propositional constraint.
+    * @return   The unique equivalent constraint.
+   **/
+  public PropositionalConstraint intern(PropositionalConstraint c)
+  {
+    if (c instanceof PropositionalConstant) return constant(c.evaluate());
+    if (c instanceof PropositionalVariable)
+      return variable((PropositionalVariable) c);
+
+    PropositionalConstraint result = interned.get(c);
+    if (result != null) return result;
+
+    Constraint[] children = c.getChildren();
+    PropositionalConstraint[] internedChildren =
+      new PropositionalConstraint[children.length];
+    for (int i = 0; i < children.length; ++i)
+      internedChildren[i] = intern((PropositionalConstraint) children[i]);
+
+    if (c instanceof PropositionalNegation)
+      result = negation(internedChildren[0]);
+    else if (c instanceof PropositionalConjunction)
+      result = conjunction(internedChildren);
+    else if (c instanceof PropositionalDisjunction)
+      result = disjunction(internedChildren);
+    else if (c instanceof PropositionalAtLeast)
+      result = atLeast(internedChildren, ((PropositionalAtLeast) c).getM());
+    else if (c instanceof PropositionalImplication)
+      result = implication(internedChildren[0], internedChildren[1]);
+    else if (c instanceof PropositionalDoubleImplication)
+      result = doubleImplication(internedChildren[0], internedChildren[1]);
+    else
+    {
+      System.err.println(
+          "LBJ ERROR: PropositionalConstraintFactory can't intern a "
+          + c.getClass().getName() + ".");
+      System.exit(1);
+    }
+
+    interned.put(c, result);
+    return result;
+  }
+
+
+  /**
+    * Produces a logically simplified version of the given constraint as
+    * described by {@link PropositionalConstraint#simplify()}.
+    *
+    * @param c  A constraint returned by this factory.
+    * @return   The unique simplified constraint.
+   **/
+  public PropositionalConstraint simplify(PropositionalConstraint c)
+  {
+    if (c instanceof PropositionalConstant
+        || c instanceof PropositionalVariable)
+      return c;
+
+    PropositionalConstraint result = simplified.get(c);
+    if (result != null) return result;
+
+    if (c instanceof PropositionalNegation)
+    {
+      PropositionalConstraint child =
+        (PropositionalConstraint) c.getChildren()[0];
+      if (child instanceof PropositionalVariable) result = c;
+      else result = simplify(negate(child));
+    }
+    else if (c instanceof PropositionalConjunction)
+      result = simplifyConjunction(c.getChildren(), false);
+    else if (c instanceof PropositionalDisjunction)
+    {
+      Constraint[] children = c.getChildren();
+      LinkedList<PropositionalConstraint> terms =
+        new LinkedList<PropositionalConstraint>();
+
+      for (int i = 0; i < children.length && result == null; ++i)
+      {
+        PropositionalConstraint s =
+          simplify((PropositionalConstraint) children[i]);
+        if (s == PropositionalConstant.True) result = s;
+        else if (s != PropositionalConstant.False) terms.add(s);
+      }
+
+      if (result == null)
+        result =
+          disjunction(
+              terms.toArray(new PropositionalConstraint[terms.size()]));
+    }
+    else if (c instanceof PropositionalAtLeast)
+      result = simplifyAtLeast((PropositionalAtLeast) c);
+    else if (c instanceof PropositionalImplication)
+    {
+      Constraint[] sides = c.getChildren();
+      result =
+        simplify(
+            disjunction(
+              new PropositionalConstraint[]
+              {
+                negate((PropositionalConstraint) sides[0]),
+                (PropositionalConstraint) sides[1]
+              }));
+    }
+    else
+    {
+      Constraint[] sides = c.getChildren();
+      PropositionalConstraint l = (PropositionalConstraint) sides[0];
+      PropositionalConstraint r = (PropositionalConstraint) sides[1];
+      result =
+        simplify(
+            conjunction(
+              new PropositionalConstraint[]
+              {
+                disjunction(new PropositionalConstraint[]{ negate(l), r }),
+                disjunction(new PropositionalConstraint[]{ negate(r), l })
+              }));
+    }
+
+    simplified.put(c, result);
+    return result;
+  }
+
+
+  /**
+    * Same as {@link #simplify(PropositionalConstraint)}, except that double
+    * implications that are immediate children of a conjunction can
+    * optionally be left intact, as in
+    * {@link PropositionalConjunction#simplify(boolean)}.
+    *
+    * @param c  A constraint returned by this factory.
+    * @param d  <code>true</code> iff double implications that are immediate
+    *           children of <code>c</code> are to be left intact.
+    * @return   A logically simplified version of <code>c</code>.
+   **/
+  public PropositionalConstraint simplify(PropositionalConstraint c,
+                                          boolean d)
+  {
+    if (!d || !(c instanceof PropositionalConjunction)) return simplify(c);
+    return simplifyConjunction(c.getChildren(), true);
+  }
+
+
+  /**
+    * Simplifies a conjunction of the given children.
+    *
+    * @param children The children.
+    * @param d        <code>true</code> iff double implications among the
+    *                 children are to be left intact.
+    * @return         The simplified conjunction.
+   **/
+  private PropositionalConstraint simplifyConjunction(Constraint[] children,
+                                                      boolean d)
+  {
+    LinkedList<PropositionalConstraint> terms =
+      new LinkedList<PropositionalConstraint>();
+
+    for (int i = 0; i < children.length; ++i)
+    {
+      PropositionalConstraint child = (PropositionalConstraint) children[i];
+      PropositionalConstraint s = null;
+
+      if (d && child instanceof PropositionalDoubleImplication)
+      {
+        Constraint[] sides = child.getChildren();
+        PropositionalConstraint l =
+          simplify((PropositionalConstraint) sides[0]);
+        PropositionalConstraint r =
+          simplify((PropositionalConstraint) sides[1]);
+
+        if (l == r) s = PropositionalConstant.True;
+        else if (l == PropositionalConstant.False) s = simplify(negate(r));
+        else if (l == PropositionalConstant.True) s = r;
+        else if (r == PropositionalConstant.False) s = simplify(negate(l));
+        else if (r == PropositionalConstant.True) s = l;
+        else s = doubleImplication(l, r);
+      }
+      else s = simplify(child);
+
+      if (s == PropositionalConstant.False) return s;
+      if (s != PropositionalConstant.True) terms.add(s);
+    }
+
+    return
+      conjunction(terms.toArray(new PropositionalConstraint[terms.size()]));
+  }
+
+
+  /**
+    * Simplifies an at-least as described by
+    * {@link PropositionalAtLeast#simplify()}.
+    *
+    * @param c  An at-least returned by this factory.
+    * @return   The simplified constraint.
+   **/
+  private PropositionalConstraint simplifyAtLeast(PropositionalAtLeast c)
+  {
+    Constraint[] children = c.getChildren();
+    int m = c.getM();
+    if (m <= 0) return PropositionalConstant.True;
+    if (m > children.length) return PropositionalConstant.False;
+
+    LinkedList<PropositionalConstraint> terms =
+      new LinkedList<PropositionalConstraint>();
+    for (int i = 0; i < children.length; ++i)
+    {
+      PropositionalConstraint s =
+        simplify((PropositionalConstraint) children[i]);
+      if (s == PropositionalConstant.True) --m;
+      else if (s != PropositionalConstant.False) terms.add(s);
+    }
+
+    if (m <= 0) return PropositionalConstant.True;
+    if (m > terms.size()) return PropositionalConstant.False;
+    if (terms.size() == 1) return terms.getFirst();
+
+    PropositionalConstraint[] array =
+      terms.toArray(new PropositionalConstraint[terms.size()]);
+    if (m == 1) return simplify(disjunction(array));
+    return atLeast(array, m);
+  }
+
+
+  /**
+    * Computes the negation of the given constraint as described by
+    * {@link PropositionalConstraint#negate()}.
+    *
+    * @param c  A constraint returned by this factory.
+    * @return   The unique negation.
+   **/
+  public PropositionalConstraint negate(PropositionalConstraint c)
+  {
+    if (c instanceof PropositionalConstant)
+      return constant(!c.evaluate());
+    if (c instanceof PropositionalNegation)
+      return (PropositionalConstraint) c.getChildren()[0];
+
+    PropositionalConstraint result = negated.get(c);
+    if (result != null) return result;
+
+    if (c instanceof PropositionalVariable) result = negation(c);
+    else if (c instanceof PropositionalImplication)
+    {
+      Constraint[] sides = c.getChildren();
+      result =
+        conjunction(
+            new PropositionalConstraint[]
+            {
+              (PropositionalConstraint) sides[0],
+              negate((PropositionalConstraint) sides[1])
+            });
+    }
+    else if (c instanceof PropositionalDoubleImplication)
+    {
+      Constraint[] sides = c.getChildren();
+      PropositionalConstraint l = (PropositionalConstraint) sides[0];
+      PropositionalConstraint r = (PropositionalConstraint) sides[1];
+      result =
+        conjunction(
+            new PropositionalConstraint[]
+            {
+              disjunction(
+                  new PropositionalConstraint[]{ negate(l), negate(r) }),
+              disjunction(new PropositionalConstraint[]{ l, r })
+            });
+    }
+    else
+    {
+      Constraint[] children = c.getChildren();
+      PropositionalConstraint[] negatedChildren =
+        new PropositionalConstraint[children.length];
+      for (int i = 0; i < children.length; ++i)
+        negatedChildren[i] = negate((PropositionalConstraint) children[i]);
+
+      if (c instanceof PropositionalConjunction)
+        result = disjunction(negatedChildren);
+      else if (c instanceof PropositionalDisjunction)
+        result = conjunction(negatedChildren);
+      else
+        result =
+          atLeast(negatedChildren,
+                  children.length - ((PropositionalAtLeast) c).getM() + 1);
+    }
+
+    negated.put(c, result);
+    return result;
+  }
+
+
+  /**
+    * Identifies a unique constraint other than a variable or a constant by
+    * its type and the identities of its children, so that hashing and
+    * comparing keys never recurses through the children.
+    *
+    * @author Nick Rizzolo
+   **/
+  private static class Key
+  {
+    /** The type of the constraint. */
+    public int type;
+    /** The <code>m</code> of an at-least, or 0. */
+    public int m;
+    /** The constraint's unique children, in a canonical order. */
+    public PropositionalConstraint[] children;
+
+
+    /**
+      * Initializing constructor.
+      *
+      * @param t  The type of the constraint.
+      * @param m  The <code>m</code> of an at-least, or 0.
+      * @param c  The constraint's unique children, in a canonical order.
+     **/
+    public Key(int t, int m, PropositionalConstraint[] c)
+    {
+      type = t;
+      this.m = m;
+      children = c;
+    }
+
+
+    /**
+      * The hash code combines the type, <code>m</code>, and the system's
+      * hash codes for the children.
+     **/
+    public int hashCode()
+    {
+      int result = 31 * type + m;
+      for (int i = 0; i < children.length; ++i)
+        result = 31 * result + System.identityHashCode(children[i]);
+      return result;
+    }
+
+
+    /**
+      * Two <code>Key</code>s are equivalent when their types and
+      * <code>m</code>s are equal and their children are the same objects in
+      * the same order.
+     **/
+    public boolean equals(Object o)
+    {
+      Key k = (Key) o;
+      if (type != k.type || m != k.m || children.length != k.children.length)
+        return false;
+      for (int i = 0; i < children.length; ++i)
+        if (children[i] != k.children[i]) return false;
+      return true;
+    }
+  }
+}
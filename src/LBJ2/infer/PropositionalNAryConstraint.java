@@ -12,12 +12,17 @@ import java.util.*;
 public abstract class PropositionalNAryConstraint
                 extends PropositionalConstraint
 {
-  /** The children of the operator. */
+  /**
+    * The children of the operator, kept in the order they were added.  A
+    * {@link PropositionalConstraintFactory} adds them in serial number
+    * order, so the rows lowered from its constraints don't depend on
+    * identity hash codes.
+   **/
   protected HashSet children;
 
 
   /** Default constructor. */
-  public PropositionalNAryConstraint() { children = new HashSet(); }
+  public PropositionalNAryConstraint() { children = new LinkedHashSet(); }
 
 
   /**
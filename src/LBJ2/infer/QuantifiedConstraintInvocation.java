@@ -103,6 +103,21 @@ public class QuantifiedConstraintInvocation extends FirstOrderConstraint
   }
 
 
+  /**
+    * Transforms this first order constraint into a propositional constraint
+    * built by the given factory.
+    *
+    * @param f  The factory.
+    * @return   The propositionalized constraint.
+   **/
+  public PropositionalConstraint
+    propositionalize(PropositionalConstraintFactory f)
+  {
+    if (constraint == null) return f.constant(false);
+    return constraint.propositionalize(f);
+  }
+
+
   /**
     * The hash code of a <code>QuantifiedConstraintInvocation</code> is the
     * sum of the hash codes of its children.
@@ -139,5 +154,22 @@ public class QuantifiedConstraintInvocation extends FirstOrderConstraint
     * @param infer  The inference visiting this constraint.
    **/
   public void runVisit(Inference infer) { infer.visit(this); }
-}
 
+
+  /**
+    * Returns a copy of this invocation with its own copies of the argument
+    * replacer and of the latest result of the invocation.
+    *
+    * @return A copy of this constraint.
+   **/
+  public Object clone()
+  {
+    QuantifiedConstraintInvocation clone =
+      (QuantifiedConstraintInvocation) super.clone();
+    if (replacer != null)
+      clone.replacer = (InvocationArgumentReplacer) replacer.clone();
+    if (constraint != null)
+      clone.constraint = (FirstOrderConstraint) constraint.clone();
+    return clone;
+  }
+}
@@ -87,6 +87,26 @@ public abstract class Quantifier extends FirstOrderConstraint
   }
 
 
+  /**
+    * Propositionalizes this quantifier's constraint once for each object in
+    * its collection, with a {@link ParallelGrounder}.
+    *
+    * @param f  The factory that builds the propositional constraints.
+    * @return   The propositionalized groundings, in the collection's order.
+   **/
+  protected PropositionalConstraint[]
+    ground(PropositionalConstraintFactory f)
+  {
+    int index = initialize();
+    PropositionalConstraint[] result =
+      new Grounder(constraint, enclosingQuantificationSettings, index,
+                   collection.toArray())
+      .propositionalize(f);
+    enclosingQuantificationSettings.removeElementAt(index);
+    return result;
+  }
+
+
   /**
     * Sets the variable map object stored in this object to the given
     * argument; also instantiates all quantified variables and stores them in
@@ -140,5 +160,88 @@ public abstract class Quantifier extends FirstOrderConstraint
                || replacer == null && collection.equals(q.collection))
            && constraint.equals(q.constraint);
   }
-}
 
+
+  /**
+    * Returns a copy of this quantifier with its own copies of the quantified
+    * constraint, the argument replacer, and the settings of the enclosing
+    * quantification variables.  A copy made while an enclosing quantifier
+    * is being propositionalized thus keeps that quantifier's setting, and
+    * its own quantification variable is added to its own vector.
+    *
+    * @return A copy of this constraint.
+   **/
+  public Object clone()
+  {
+    Quantifier clone = (Quantifier) super.clone();
+    clone.constraint = (FirstOrderConstraint) constraint.clone();
+    if (replacer != null)
+      clone.replacer = (QuantifierArgumentReplacer) replacer.clone();
+    if (enclosingQuantificationSettings != null)
+      clone.enclosingQuantificationSettings =
+        new Vector(enclosingQuantificationSettings);
+    return clone;
+  }
+
+
+  /**
+    * Grounds a quantified constraint with each object in a collection.
+    *
+    * @author Nick Rizzolo
+   **/
+  private static class Grounder extends ParallelGrounder
+  {
+    /** The quantified constraint. */
+    private FirstOrderConstraint constraint;
+    /** The settings of the quantification variables. */
+    private Vector settings;
+    /** The index of the setting that varies. */
+    private int index;
+    /** The objects the varying setting takes. */
+    private Object[] objects;
+
+
+    /**
+      * Initializing constructor.
+      *
+      * @param c  The quantified constraint.
+      * @param s  The settings of the quantification variables.
+      * @param i  The index of the setting that varies.
+      * @param o  The objects the varying setting takes.
+     **/
+    public Grounder(FirstOrderConstraint c, Vector s, int i, Object[] o)
+    {
+      super(o.length);
+      constraint = c;
+      settings = s;
+      index = i;
+      objects = o;
+    }
+
+
+    /** Copies the constraint and the settings. */
+    protected ParallelGrounder copy()
+    {
+      return
+        new Grounder((FirstOrderConstraint) constraint.clone(),
+                     new Vector(settings), index, objects);
+    }
+
+
+    /**
+      * Sets the varying setting to an object and propositionalizes the
+      * constraint.
+      *
+      * @param i  The index of the object.
+      * @param f  The factory that builds the propositional constraint.
+      * @return   The propositionalized constraint.
+     **/
+    protected PropositionalConstraint
+      ground(int i, PropositionalConstraintFactory f)
+    {
+      settings.set(index, objects[i]);
+      constraint.setQuantificationVariables(settings);
+      return constraint.propositionalize(f);
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package LBJ2.infer;
+
+
+/**
+  * An {@link ILPSolver} that can give up on its own when a deadline passes.
+  * {@link ILPInference} gives a solver that honors deadlines its time limit
+  * this way and runs it in the calling thread.  Any other solver must be
+  * run in a separate thread and abandoned when the time limit passes.
+  *
+  * @author Nick Rizzolo
+ **/
+public interface TimeLimitedILPSolver extends ILPSolver
+{
+  /**
+    * Sets the time at which {@link #solve()} gives up and returns
+    * <code>false</code>.  The deadline applies to every later call to
+    * {@link #solve()}, and {@link #reset()} doesn't clear it.
+    *
+    * @param d  The deadline, as returned by
+    *           <code>System.currentTimeMillis()</code>, or 0 for no
+    *           deadline.
+    * @return   <code>true</code> iff this solver will honor the deadline.
+   **/
+  public boolean setDeadline(long d);
+
+
+  /**
+    * Tests whether the most recent call to {@link #solve()} gave up because
+    * the deadline passed.
+   **/
+  public boolean isTimedOut();
+}
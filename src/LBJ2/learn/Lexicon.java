@@ -0,0 +1,286 @@
+package LBJ2.learn;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import LBJ2.classify.*;
+
+
+/**
+  * Assigns each feature a dense integer index the first time it is seen, so
+  * that weight vectors can store their weights in arrays instead of in maps
+  * keyed by {@link Feature}s.  Features that share a weight, such as the
+  * different values of a boolean feature or the elements of an array
+  * feature, share an index; see {@link #lookup(Feature)} for the details.
+  *
+  * <p> Lookups of features that have already been indexed neither lock nor
+  * allocate memory, and they may be made by any number of threads while
+  * another thread adds new features.  Indexes are never reused or removed,
+  * so a lexicon only grows; each {@link SparseWeightVector} keeps its own,
+  * which is discarded along with the vectors that use it.
+  *
+  * @author Nick Rizzolo
+ **/
+public class Lexicon
+{
+  /** Key kind of discrete features keyed by package, name, and value. */
+  private static final int DISCRETE = 0;
+  /**
+    * Key kind of discrete array features keyed by package, name, value, and
+    * array index.
+   **/
+  private static final int DISCRETE_ARRAY = 1;
+  /** Key kind of real features keyed by package and name. */
+  private static final int REAL = 2;
+
+
+  /**
+    * The hash table of entries.  A new table replaces this one when it
+    * becomes half full.
+   **/
+  private volatile AtomicReferenceArray<Entry> table =
+    new AtomicReferenceArray<Entry>(64);
+  /** The key feature of each index. */
+  private Feature[] keys = new Feature[32];
+  /** The number of indexes assigned so far. */
+  private int size;
+
+
+  /**
+    * Returns the index of the given feature's key, or -1 if the key hasn't
+    * been indexed.  Keys are chosen the same way {@link SparseWeightVector}
+    * has always chosen them: <br>
+    * a real feature or element of a real array feature is keyed by its
+    * package and name; <br>
+    * a discrete feature or element of a discrete array feature with at
+    * least 2 allowable values is keyed by its package and name; <br>
+    * any other discrete feature is keyed by its package, name, and value,
+    * and its array index if it's an array element.
+    *
+    * <p> The feature returned by {@link #getKey(int)} for an index always
+    * looks up that same index.
+    *
+    * @param f  The feature to look up.
+    * @return The index of the feature's key, or -1.
+   **/
+  public int lookup(Feature f)
+  {
+    Entry e = find(table, f);
+    return e == null ? -1 : e.index;
+  }
+
+
+  /**
+    * Returns the index of the given feature's key, assigning it the next
+    * index if it hasn't been indexed yet.
+    *
+    * @param f  The feature to look up.
+    * @return The index of the feature's key.
+    * @see #lookup(Feature)
+   **/
+  public int lookupOrAdd(Feature f)
+  {
+    Entry e = find(table, f);
+    if (e != null) return e.index;
+
+    synchronized (this)
+    {
+      e = find(table, f);
+      if (e != null) return e.index;
+
+      if (2 * (size + 1) > table.length())
+      {
+        AtomicReferenceArray<Entry> bigger =
+          new AtomicReferenceArray<Entry>(2 * table.length());
+        for (int i = 0; i < table.length(); ++i)
+          if (table.get(i) != null) insert(bigger, table.get(i));
+        table = bigger;
+      }
+
+      if (size == keys.length)
+      {
+        Feature[] k = new Feature[2 * size];
+        System.arraycopy(keys, 0, k, 0, size);
+        keys = k;
+      }
+
+      int kind = kindOf(f);
+      Feature key = null;
+
+      if (kind == REAL)
+        key = new RealFeature(f.getPackage(), f.getIdentifier(), 0);
+      else if (kind == DISCRETE && f.totalValues() >= 2)
+        key = new DiscreteFeature(f.getPackage(), f.getIdentifier(), "");
+      else key = (Feature) f.clone();
+      key.intern();
+
+      keys[size] = key;
+      insert(table,
+             new Entry(kind, key.getPackage(), key.getIdentifier(),
+                       valueOf(f), arrayIndexOf(f), size));
+      return size++;
+    }
+  }
+
+
+  /**
+    * Returns a feature that represents every feature with the given index.
+    *
+    * @param i  An index returned by this lexicon.
+    * @return The key feature of the index.
+   **/
+  public synchronized Feature getKey(int i) { return keys[i]; }
+
+
+  /** Returns the number of indexes assigned so far. */
+  public synchronized int size() { return size; }
+
+
+  /**
+    * Determines which kind of key a feature has.
+    *
+    * @param f  The feature.
+    * @return The feature's key kind.
+   **/
+  private static int kindOf(Feature f)
+  {
+    if (!(f instanceof DiscreteFeature)) return REAL;
+    if (f.totalValues() < 2 && f.fromArray()) return DISCRETE_ARRAY;
+    return DISCRETE;
+  }
+
+
+  /**
+    * Returns the value that is part of a feature's key, or
+    * <code>null</code> if its key has no value.
+    *
+    * @param f  The feature.
+    * @return The value in the feature's key.
+   **/
+  private static String valueOf(Feature f)
+  {
+    if (!(f instanceof DiscreteFeature)) return null;
+    if (f.totalValues() >= 2) return "";
+    return f.getStringValue();
+  }
+
+
+  /**
+    * Returns the array index that is part of a feature's key, or 0 if its
+    * key has no array index.
+    *
+    * @param f  The feature.
+    * @return The array index in the feature's key.
+   **/
+  private static int arrayIndexOf(Feature f)
+  {
+    if (kindOf(f) != DISCRETE_ARRAY) return 0;
+    return ((DiscreteArrayFeature) f).getArrayIndex();
+  }
+
+
+  /**
+    * Computes the hash code of a key.
+    *
+    * @param k  The key kind.
+    * @param p  The package.
+    * @param i  The identifier.
+    * @param v  The value, or <code>null</code>.
+    * @param a  The array index.
+    * @return The hash code.
+   **/
+  private static int hash(int k, String p, String i, String v, int a)
+  {
+    int h = 31 * (31 * (31 * k + p.hashCode()) + i.hashCode()) + a;
+    if (v != null) h = 31 * h + v.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+
+  /**
+    * Finds the entry of a feature's key in the given table.
+    *
+    * @param t  The table to search.
+    * @param f  The feature.
+    * @return The entry, or <code>null</code> if there is none.
+   **/
+  private static Entry find(AtomicReferenceArray<Entry> t, Feature f)
+  {
+    int k = kindOf(f);
+    String p = f.getPackage();
+    String i = f.getIdentifier();
+    String v = valueOf(f);
+    int a = arrayIndexOf(f);
+    int h = hash(k, p, i, v, a);
+    int mask = t.length() - 1;
+
+    for (int s = h & mask; ; s = (s + 1) & mask)
+    {
+      Entry e = t.get(s);
+      if (e == null) return null;
+      if (e.hash == h && e.kind == k && e.arrayIndex == a
+          && e.identifier.equals(i) && e.containingPackage.equals(p)
+          && (v == null ? e.value == null : v.equals(e.value)))
+        return e;
+    }
+  }
+
+
+  /**
+    * Adds an entry to a table with room for it.
+    *
+    * @param t  The table.
+    * @param e  The entry.
+   **/
+  private static void insert(AtomicReferenceArray<Entry> t, Entry e)
+  {
+    int mask = t.length() - 1;
+    int s = e.hash & mask;
+    while (t.get(s) != null) s = (s + 1) & mask;
+    t.set(s, e);
+  }
+
+
+  /**
+    * An immutable association of a key with its index.
+    *
+    * @author Nick Rizzolo
+   **/
+  private static class Entry
+  {
+    /** The key kind. */
+    final int kind;
+    /** The package in the key. */
+    final String containingPackage;
+    /** The identifier in the key. */
+    final String identifier;
+    /** The value in the key, or <code>null</code>. */
+    final String value;
+    /** The array index in the key. */
+    final int arrayIndex;
+    /** The hash code of the key. */
+    final int hash;
+    /** The index of the key. */
+    final int index;
+
+
+    /**
+      * Initializing constructor.
+      *
+      * @param k  The key kind.
+      * @param p  The package in the key.
+      * @param i  The identifier in the key.
+      * @param v  The value in the key, or <code>null</code>.
+      * @param a  The array index in the key.
+      * @param x  The index of the key.
+     **/
+    Entry(int k, String p, String i, String v, int a, int x)
+    {
+      kind = k;
+      containingPackage = p;
+      identifier = i;
+      value = v;
+      arrayIndex = a;
+      hash = hash(k, p, i, v, a);
+      index = x;
+    }
+  }
+}
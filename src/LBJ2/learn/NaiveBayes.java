@@ -440,24 +440,34 @@ public class NaiveBayes extends Learner
    **/
   protected class NaiveBayesVector extends SparseWeightVector
   {
+    /**
+      * Unchanged from before the counts were kept in their own map, so that
+      * vectors written then can still be read.
+     **/
+    private static final long serialVersionUID = 5368078510982366346L;
     /**
       * The prior count is the number of times either <code>scaledAdd</code>
       * method has been called.
      **/
     protected Count priorCount;
+    /**
+      * The {@link NaiveBayes.Count}s, or arrays of them, indexed by
+      * {@link Feature}.
+     **/
+    protected HashMap counts;
 
 
-    /** Simply instantiates {@link SparseWeightVector#weights}. */
+    /** Simply instantiates {@link #counts}. */
     public NaiveBayesVector() { this(new HashMap()); }
 
     /**
-      * Simply initializes {@link SparseWeightVector#weights}.
+      * Simply initializes {@link #counts}.
       *
-      * @param w  A map of weights.
+      * @param c  A map of counts.
      **/
-    public NaiveBayesVector(HashMap w)
+    public NaiveBayesVector(HashMap c)
     {
-      super(w);
+      counts = c;
       priorCount = new Count();
     }
 
@@ -469,6 +479,10 @@ public class NaiveBayes extends Learner
     public Count getPrior() { return priorCount; }
 
 
+    /** Empties the map of counts. */
+    public void clear() { counts.clear(); }
+
+
     /**
       * Produces an iterator that accesses the data in this vector associated
       * with the features in the given vector.
@@ -562,7 +576,7 @@ public class NaiveBayes extends Learner
     public String toString()
     {
       Map.Entry[] entries =
-        (Map.Entry[]) weights.entrySet().toArray(new Map.Entry[0]);
+        (Map.Entry[]) counts.entrySet().toArray(new Map.Entry[0]);
       Arrays.sort(entries,
                   new Comparator()
                   {
@@ -616,7 +630,7 @@ public class NaiveBayes extends Learner
 
     /**
       * Returns a copy of this <code>NaiveBayesVector</code> in which the
-      * {@link SparseWeightVector#weights} variable has been cloned deeply.
+      * {@link #counts} variable has been cloned deeply.
       *
       * @return A copy of this <code>NaiveBayesVector</code>.
      **/
@@ -625,19 +639,32 @@ public class NaiveBayes extends Learner
       NaiveBayesVector clone = new NaiveBayesVector();
       clone.priorCount = (Count) priorCount.clone();
 
-      for (Iterator I = weights.entrySet().iterator(); I.hasNext(); )
+      for (Iterator I = counts.entrySet().iterator(); I.hasNext(); )
       {
         Map.Entry e = (Map.Entry) I.next();
         Object value = e.getValue();
         if (value instanceof Count)
-          clone.weights.put(e.getKey(), ((Count) value).clone());
-        else clone.weights.put(e.getKey(), ((Count[]) value).clone());
+          clone.counts.put(e.getKey(), ((Count) value).clone());
+        else clone.counts.put(e.getKey(), ((Count[]) value).clone());
       }
 
       return clone;
     }
 
 
+    /**
+      * Vectors written before the counts were kept in their own map kept
+      * them in the map of weights, which becomes {@link #counts}.
+      *
+      * @param w  The map of weights read from the stream.
+     **/
+    protected void readLegacyWeights(HashMap w)
+    {
+      readLegacyWeights(new HashMap(), 1);
+      counts = w;
+    }
+
+
     /**
       * This class simultaneously iterates over the features in a given vector
       * and their corresponding weights from a
@@ -725,7 +752,7 @@ public class NaiveBayes extends Learner
             DiscreteFeature key =
               new DiscreteFeature(currentFeature.getPackage(),
                                   currentFeature.getIdentifier(), "");
-            countArray = (Count[]) weights.get(key);
+            countArray = (Count[]) counts.get(key);
           }
         }
         else
@@ -797,7 +824,7 @@ public class NaiveBayes extends Learner
         }
         else
         {
-          Count c = (Count) weights.get(currentFeature);
+          Count c = (Count) counts.get(currentFeature);
           if (c == null) return null;
           return new Integer(c.getCount());
         }
@@ -831,7 +858,7 @@ public class NaiveBayes extends Learner
         }
         else
         {
-          Count c = (Count) weights.get(currentFeature);
+          Count c = (Count) counts.get(currentFeature);
           if (c == null) return null;
           return new Double(c.getLog());
         }
@@ -871,7 +898,7 @@ public class NaiveBayes extends Learner
                 new DiscreteFeature(daf.getPackage(), daf.getIdentifier(),
                                     "");
               key.intern();
-              weights.put(key, countArray);
+              counts.put(key, countArray);
             }
 
             countArray[arrayIndex * daf.totalValues() + daf.getValueIndex()]
@@ -889,7 +916,7 @@ public class NaiveBayes extends Learner
                 new DiscreteFeature(currentFeature.getPackage(),
                                     currentFeature.getIdentifier(), "");
               key.intern();
-              weights.put(key, countArray);
+              counts.put(key, countArray);
             }
 
             countArray[currentFeature.getValueIndex()].increment();
@@ -897,13 +924,13 @@ public class NaiveBayes extends Learner
         }
         else
         {
-          Count c = (Count) weights.get(currentFeature);
+          Count c = (Count) counts.get(currentFeature);
 
           if (c == null)
           {
             c = new Count();
             currentFeature.intern();
-            weights.put(currentFeature, c);
+            counts.put(currentFeature, c);
           }
 
           c.increment();
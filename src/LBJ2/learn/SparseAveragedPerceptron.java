@@ -334,19 +334,17 @@ public class SparseAveragedPerceptron extends SparsePerceptron
    **/
   public static class AveragedWeightVector extends SparseWeightVector
   {
+    /**
+      * Unchanged from before weights were stored in arrays, so that vectors
+      * written then can still be read.
+     **/
+    private static final long serialVersionUID = 618882640659675371L;
     /** Counts the total number of training examples this vector has seen. */
     protected int examples;
 
 
-    /** Simply instantiates {@link SparseWeightVector#weights}. */
-    public AveragedWeightVector() { super(new HashMap()); }
-
-    /**
-      * Simply initializes {@link SparseWeightVector#weights}.
-      *
-      * @param w  A map of weights.
-     **/
-    public AveragedWeightVector(HashMap w) { super(w); }
+    /** Creates an empty vector that stores two elements per weight. */
+    public AveragedWeightVector() { super(2); }
 
 
     /** Increments the {@link #examples} variable. */
@@ -392,15 +390,14 @@ public class SparseAveragedPerceptron extends SparsePerceptron
      **/
     public double simpleDot(FeatureVector example, double defaultW)
     {
-      WeightIterator I = weightIterator(example);
+      AveragedWeightIterator I =
+        (AveragedWeightIterator) weightIterator(example);
       double sum = 0;
 
       while (I.hasNext())
       {
         I.next();
-        Double dw = ((AveragedWeightIterator) I).getSimpleWeight();
-        double w = dw == null ? defaultW : dw.doubleValue();
-        sum += w * I.getCurrentFeatureStrength();
+        sum += I.getSimpleWeight(defaultW) * I.getCurrentFeatureStrength();
       }
 
       return sum;
@@ -420,41 +417,21 @@ public class SparseAveragedPerceptron extends SparsePerceptron
     public void scaledAdd(FeatureVector example, double factor,
                           double defaultW)
     {
-      WeightIterator I = weightIterator(example);
+      AveragedWeightIterator I =
+        (AveragedWeightIterator) weightIterator(example);
 
       while (I.hasNext())
       {
         I.next();
-        Double dw = ((AveragedWeightIterator) I).getSimpleWeight();
-        double w = dw == null ? defaultW : dw.doubleValue();
-        I.setWeight(w + I.getCurrentFeatureStrength() * factor, defaultW);
+        I.setWeight(I.getSimpleWeight(defaultW)
+                    + I.getCurrentFeatureStrength() * factor,
+                    defaultW);
       }
 
       ++examples;
     }
 
 
-    /**
-      * Returns a copy of this <code>AveragedWeightVector</code> in which the
-      * {@link SparseWeightVector#weights} variable has been cloned deeply.
-      *
-      * @return A copy of this <code>AveragedWeightVector</code>.
-     **/
-    public Object clone()
-    {
-      AveragedWeightVector clone = new AveragedWeightVector();
-
-      for (Iterator I = weights.entrySet().iterator(); I.hasNext(); )
-      {
-        Map.Entry e = (Map.Entry) I.next();
-        double[] value = (double[]) e.getValue();
-        clone.weights.put(e.getKey(), value.clone());
-      }
-
-      return clone;
-    }
-
-
     /**
       * Converts this <code>AveragedWeightVector</code> into a
       * <code>String</code>.
@@ -465,6 +442,16 @@ public class SparseAveragedPerceptron extends SparsePerceptron
     public String toString() { return examples + "\n" + super.toString(); }
 
 
+    /**
+      * Vectors written before weights were stored in arrays mapped each
+      * feature to a <code>double[]</code> holding both elements of each of
+      * its weights, just as a block of weights holds them now.
+      *
+      * @param w  The map of weights read from the stream.
+     **/
+    protected void readLegacyWeights(HashMap w) { readLegacyWeights(w, 2); }
+
+
     /**
       * This class simultaneously iterates over the features in a given vector
       * and their corresponding weights from an
@@ -490,7 +477,23 @@ public class SparseAveragedPerceptron extends SparsePerceptron
 
 
       /**
-        * Returns the double precision value pointed to by this iterator.
+        * Returns the regular, non-averaged weight pointed to by this
+        * iterator.
+        *
+        * @param d  The value to return if the location in the weight vector
+        *           pointed to by this iterator is empty.
+        * @return The double precision value pointed to by this iterator.
+       **/
+      public double getSimpleWeight(double d)
+      {
+        int i = weightIndex();
+        return i == -1 ? d : weights[i];
+      }
+
+
+      /**
+        * Returns the regular, non-averaged weight pointed to by this
+        * iterator.
         *
         * @return The double precision value pointed to by this iterator, or
         *         <code>null</code> if the location in the weight vector
@@ -498,142 +501,23 @@ public class SparseAveragedPerceptron extends SparsePerceptron
        **/
       public Double getSimpleWeight()
       {
-        if (isDiscrete)
-        {
-          if (currentFeature.totalValues() >= 2)
-          {
-            if (currentFeature.fromArray())
-            {
-              if (weightArray != null)
-              {
-                if (currentFeature.totalValues() == 2)
-                  return new Double(weightArray[2 * arrayIndex]);
-                else
-                {
-                  DiscreteFeature df = (DiscreteFeature) currentFeature;
-                  return
-                    new Double(weightArray[2 * (arrayIndex * df.totalValues()
-                                                + df.getValueIndex())]);
-                }
-              }
-            }
-            else if (currentFeature.totalValues() == 2)
-            {
-              DiscreteFeature key =
-                new DiscreteFeature(currentFeature.getPackage(),
-                                    currentFeature.getIdentifier(), "");
-              double[] w = (double[]) weights.get(key);
-              if (w != null) return new Double(w[0]);
-            }
-            else if (weightArray != null)
-            {
-              DiscreteFeature df = (DiscreteFeature) currentFeature;
-              return new Double(weightArray[2 * df.getValueIndex()]);
-            }
-          }
-          else
-          {
-            double[] w = (double[]) weights.get(currentFeature);
-            if (w != null) return new Double(w[0]);
-          }
-        }
-        else if (currentFeature.fromArray())
-        {
-          if (weightArray != null)
-            return new Double(weightArray[2 * arrayIndex]);
-        }
-        else
-        {
-          RealFeature key =
-            new RealFeature(currentFeature.getPackage(),
-                            currentFeature.getIdentifier(), 0);
-          double[] w = (double[]) weights.get(key);
-          if (w != null) return new Double(w[0]);
-        }
-
-        return null;
+        int i = weightIndex();
+        return i == -1 ? null : Double.valueOf(weights[i]);
       }
 
 
       /**
         * Returns the weighted average value pointed to by this iterator.
         *
-        * @return The weighted average value pointed to by this iterator, or
-        *         <code>null</code> if the location in the weight vector
-        *         pointed to by this iterator is empty.
+        * @param d  The value to return if the location in the weight vector
+        *           pointed to by this iterator is empty.
+        * @return The weighted average value pointed to by this iterator.
        **/
-      public Double getWeight()
+      public double getWeight(double d)
       {
-        if (isDiscrete)
-        {
-          if (currentFeature.totalValues() >= 2)
-          {
-            if (currentFeature.fromArray())
-            {
-              if (weightArray != null)
-              {
-                int i = 0;
-
-                if (currentFeature.totalValues() == 2) i = 2 * arrayIndex;
-                else
-                {
-                  DiscreteFeature df = (DiscreteFeature) currentFeature;
-                  i = 2 * (arrayIndex * df.totalValues()
-                           + df.getValueIndex());
-                }
-
-                return
-                  new Double((examples * weightArray[i] - weightArray[i + 1])
-                             / (double) examples);
-              }
-            }
-            else if (currentFeature.totalValues() == 2)
-            {
-              DiscreteFeature key =
-                new DiscreteFeature(currentFeature.getPackage(),
-                                    currentFeature.getIdentifier(), "");
-              double[] w = (double[]) weights.get(key);
-              if (w != null)
-                return
-                  new Double((examples * w[0] - w[1]) / (double) examples);
-            }
-            else if (weightArray != null)
-            {
-              DiscreteFeature df = (DiscreteFeature) currentFeature;
-              int i = 2 * df.getValueIndex();
-              return
-                new Double((examples * weightArray[i] - weightArray[i + 1])
-                           / (double) examples);
-            }
-          }
-          else
-          {
-            double[] w = (double[]) weights.get(currentFeature);
-            if (w != null)
-              return new Double((examples * w[0] - w[1]) / (double) examples);
-          }
-        }
-        else if (currentFeature.fromArray())
-        {
-          if (weightArray != null)
-          {
-            int i = 2 * arrayIndex;
-            return
-              new Double((examples * weightArray[i] - weightArray[i + 1])
-                         / (double) examples);
-          }
-        }
-        else
-        {
-          RealFeature key =
-            new RealFeature(currentFeature.getPackage(),
-                            currentFeature.getIdentifier(), 0);
-          double[] w = (double[]) weights.get(key);
-          if (w != null)
-            return new Double((examples * w[0] - w[1]) / (double) examples);
-        }
-
-        return null;
+        int i = weightIndex();
+        if (i == -1) return d;
+        return (examples * weights[i] - weights[i + 1]) / (double) examples;
       }
 
 
@@ -656,161 +540,11 @@ public class SparseAveragedPerceptron extends SparsePerceptron
        **/
       public void setWeight(double w, double d)
       {
-        if (isDiscrete)
-        {
-          if (currentFeature.totalValues() >= 2)
-          {
-            if (currentFeature.fromArray())
-            {
-              if (currentFeature.totalValues() == 2)
-              {
-                if (weightArray == null)
-                {
-                  DiscreteArrayFeature daf =
-                    (DiscreteArrayFeature) currentFeature;
-                  weightArray = new double[2 * daf.getArrayLength()];
-                  DiscreteFeature key =
-                    new DiscreteFeature(daf.getPackage(), daf.getIdentifier(),
-                                        "");
-                  key.intern();
-                  weights.put(key, weightArray);
-
-                  if (d != 0)
-                    for (int i = 0; i < weightArray.length; i += 2)
-                      weightArray[i] = d;
-                }
-
-                int i = 2 * arrayIndex;
-                double difference = w - weightArray[i];
-                weightArray[i] = w;
-                weightArray[i + 1] += examples * difference;
-              }
-              else
-              {
-                DiscreteArrayFeature daf =
-                  (DiscreteArrayFeature) currentFeature;
-                if (weightArray == null)
-                {
-                  weightArray =
-                    new double[2 * daf.getArrayLength() * daf.totalValues()];
-                  DiscreteFeature key =
-                    new DiscreteFeature(daf.getPackage(), daf.getIdentifier(),
-                                        "");
-                  key.intern();
-                  weights.put(key, weightArray);
-
-                  if (d != 0)
-                    for (int i = 0; i < weightArray.length; i += 2)
-                      weightArray[i] = d;
-                }
-
-                int i = 2 * (arrayIndex * daf.totalValues()
-                             + daf.getValueIndex());
-                double difference = w - weightArray[i];
-                weightArray[i] = w;
-                weightArray[i + 1] += examples * difference;
-              }
-            }
-            else if (currentFeature.totalValues() == 2)
-            {
-              DiscreteFeature key =
-                new DiscreteFeature(currentFeature.getPackage(),
-                                    currentFeature.getIdentifier(), "");
-              double[] a = (double[]) weights.get(key);
-
-              if (a == null)
-              {
-                a = new double[2];
-                key.intern();
-                weights.put(key, a);
-                a[0] = d;
-              }
-
-              double difference = w - a[0];
-              a[0] = w;
-              a[1] += examples * difference;
-            }
-            else
-            {
-              if (weightArray == null)
-              {
-                weightArray = new double[2 * currentFeature.totalValues()];
-                DiscreteFeature key =
-                  new DiscreteFeature(currentFeature.getPackage(),
-                                      currentFeature.getIdentifier(), "");
-                key.intern();
-                weights.put(key, weightArray);
-
-                if (d != 0)
-                  for (int i = 0; i < weightArray.length; i += 2)
-                    weightArray[i] = d;
-              }
-
-              int i = 2 * ((DiscreteFeature) currentFeature).getValueIndex();
-              double difference = w - weightArray[i];
-              weightArray[i] = w;
-              weightArray[i + 1] += examples * difference;
-            }
-          }
-          else
-          {
-            double[] a = (double[]) weights.get(currentFeature);
-
-            if (a == null)
-            {
-              a = new double[2];
-              currentFeature.intern();
-              weights.put(currentFeature, a);
-              a[0] = d;
-            }
-
-            double difference = w - a[0];
-            a[0] = w;
-            a[1] += examples * difference;
-          }
-        }
-        else if (currentFeature.fromArray())
-        {
-          if (weightArray == null)
-          {
-            RealArrayFeature raf = (RealArrayFeature) currentFeature;
-            weightArray = new double[2 * raf.getArrayLength()];
-            RealFeature key =
-              new RealFeature(raf.getPackage(), raf.getIdentifier(), 0);
-            key.intern();
-            weights.put(key, weightArray);
-
-            if (d != 0)
-              for (int i = 0; i < weightArray.length; i += 2)
-                weightArray[i] = d;
-          }
-
-          int i = 2 * arrayIndex;
-          double difference = w - weightArray[i];
-          weightArray[i] = w;
-          weightArray[i + 1] += examples * difference;
-        }
-        else
-        {
-          RealFeature key =
-            new RealFeature(currentFeature.getPackage(),
-                            currentFeature.getIdentifier(), 0);
-          double[] a = (double[]) weights.get(key);
-
-          if (a == null)
-          {
-            a = new double[2];
-            key.intern();
-            weights.put(key, a);
-            a[0] = d;
-          }
-
-          double difference = w - a[0];
-          a[0] = w;
-          a[1] += examples * difference;
-        }
+        int i = createWeight(d);
+        double difference = w - weights[i];
+        weights[i] = w;
+        weights[i + 1] += examples * difference;
       }
     }
   }
 }
-
@@ -7,11 +7,21 @@ import LBJ2.classify.*;
 
 /**
   * This class is used as a weight vector in sparse learning algorithms.
-  * {@link Feature}s are associated with <code>Double</code>s and/or with
-  * <code>double[]</code>s representing the weights of the features they
-  * produce.  Features not appearing in the vector are assumed to have the
+  * {@link Feature}s are associated with one weight, or with an array of
+  * weights representing the weights of the features they produce.  Features
+  * not appearing in the vector are assumed to have the
   * {@link #defaultWeight}.
   *
+  * <p> Each feature is mapped to a dense integer by a {@link Lexicon}, and
+  * the weights themselves are stored in blocks of consecutive elements
+  * of a single <code>double[]</code>.  A small open addressing hash table
+  * maps the index of each feature in the lexicon to the offset of its
+  * block, so looking up a weight creates no objects.  When this vector is
+  * serialized, the features themselves are written in place of their
+  * indexes, since the indexes are only meaningful within a single lexicon.
+  * Vectors written before weights were stored this way can still be read;
+  * see {@link #readLegacyWeights(HashMap)}.
+  *
   * @author Nick Rizzolo
  **/
 public class SparseWeightVector implements Cloneable, Serializable
@@ -21,21 +31,56 @@ public class SparseWeightVector implements Cloneable, Serializable
     * assumed to have this weight.
    **/
   protected static final double defaultWeight = 0;
+  /**
+    * Unchanged from before weights were stored in arrays, so that vectors
+    * written then can still be read.
+   **/
+  private static final long serialVersionUID = -8307607624860173060L;
 
 
-  /** The weights in the vector indexed by {@link Feature}. */
-  protected HashMap weights;
-
-
-  /** Simply instantiates {@link #weights}. */
-  public SparseWeightVector() { this(new HashMap()); }
+  /**
+    * The number of consecutive elements of {@link #weights} used to store
+    * each weight.  Only the first holds the weight itself; derived classes
+    * may keep whatever they like in the others.
+   **/
+  protected int width;
+  /**
+    * Indexes the features in this vector.  Clones of this vector share its
+    * lexicon, and {@link #clear()} replaces it with an empty one, so the
+    * features indexed by a lexicon are kept only as long as some vector
+    * that uses it.
+   **/
+  protected transient Lexicon lexicon;
+  /**
+    * The hash table's slots, each holding 1 plus the lexicon index of a
+    * feature in this vector, or 0 if the slot is empty.
+   **/
+  protected transient int[] keys;
+  /** The offset in {@link #weights} of each slot's block of weights. */
+  protected transient int[] offsets;
+  /** The number of elements of {@link #weights} in each slot's block. */
+  protected transient int[] lengths;
+  /** The number of features in this vector. */
+  protected transient int size;
+  /** The weights of every feature in this vector. */
+  protected transient double[] weights;
+  /** The number of elements of {@link #weights} in use. */
+  protected transient int used;
+
+
+  /** Creates an empty vector that stores one element per weight. */
+  public SparseWeightVector() { this(1); }
 
   /**
-    * Simply initializes {@link #weights}.
+    * Creates an empty vector.
     *
-    * @param w  A map of weights.
+    * @param w  The value for {@link #width}.
    **/
-  public SparseWeightVector(HashMap w) { weights = w; }
+  protected SparseWeightVector(int w)
+  {
+    width = w;
+    initialize();
+  }
 
 
   /**
@@ -81,9 +126,7 @@ public class SparseWeightVector implements Cloneable, Serializable
     while (I.hasNext())
     {
       I.next();
-      Double dw = I.getWeight();
-      double w = dw == null ? defaultW : dw.doubleValue();
-      sum += w * I.getCurrentFeatureStrength();
+      sum += I.getWeight(defaultW) * I.getCurrentFeatureStrength();
     }
 
     return sum;
@@ -130,43 +173,188 @@ public class SparseWeightVector implements Cloneable, Serializable
     while (I.hasNext())
     {
       I.next();
-      Double dw = I.getWeight();
-      double w = dw == null ? defaultW : dw.doubleValue();
-      I.setWeight(w + I.getCurrentFeatureStrength() * factor, defaultW);
+      int i = I.createWeight(defaultW);
+      weights[i] += I.getCurrentFeatureStrength() * factor;
     }
   }
 
 
-  /** Empties the weight map. */
-  public void clear() { weights.clear(); }
+  /** Empties the weight vector. */
+  public void clear() { initialize(); }
 
 
   /**
-    * Converts this <code>SparseWeightVector</code> into a
-    * <code>String</code>.
+    * Allocates an empty lexicon, an empty hash table, and an empty array of
+    * weights.
+   **/
+  private void initialize()
+  {
+    lexicon = new Lexicon();
+    keys = new int[16];
+    offsets = new int[16];
+    lengths = new int[16];
+    size = 0;
+    weights = new double[16 * width];
+    used = 0;
+  }
+
+
+  /**
+    * Finds the block of weights of a feature.
     *
-    * @return A <code>String</code> holding a textual representation of this
-    *         vector.
+    * @param key  The lexicon index of the feature.
+    * @return The offset of the feature's block in {@link #weights}, or -1 if
+    *         the feature isn't in this vector.
    **/
-  public String toString()
+  protected int find(int key)
+  {
+    int mask = keys.length - 1;
+
+    for (int s = hash(key) & mask; keys[s] != 0; s = (s + 1) & mask)
+      if (keys[s] == key + 1) return offsets[s];
+
+    return -1;
+  }
+
+
+  /**
+    * Adds a block of weights for a feature that isn't in this vector yet.
+    * The first element of each weight is set to the given default weight,
+    * and the others are set to 0.
+    *
+    * @param key  The lexicon index of the feature.
+    * @param n    The number of weights in the block.
+    * @param d    The default weight.
+    * @return The offset of the new block in {@link #weights}.
+   **/
+  protected int allocate(int key, int n, double d)
+  {
+    if (2 * (size + 1) > keys.length)
+    {
+      int[] oldKeys = keys, oldOffsets = offsets, oldLengths = lengths;
+      keys = new int[2 * oldKeys.length];
+      offsets = new int[keys.length];
+      lengths = new int[keys.length];
+
+      for (int s = 0; s < oldKeys.length; ++s)
+        if (oldKeys[s] != 0)
+          insert(oldKeys[s], oldOffsets[s], oldLengths[s]);
+    }
+
+    int length = n * width;
+    if (used + length > weights.length)
+    {
+      double[] w = new double[Math.max(2 * weights.length, used + length)];
+      System.arraycopy(weights, 0, w, 0, used);
+      weights = w;
+    }
+
+    int offset = used;
+    if (d != 0)
+      for (int i = 0; i < length; i += width) weights[offset + i] = d;
+    used += length;
+    insert(key + 1, offset, length);
+    ++size;
+    return offset;
+  }
+
+
+  /**
+    * Puts an entry in an empty slot of the hash table.
+    *
+    * @param k  1 plus the lexicon index of the feature.
+    * @param o  The offset of the feature's block.
+    * @param l  The length of the feature's block.
+   **/
+  private void insert(int k, int o, int l)
+  {
+    int mask = keys.length - 1;
+    int s = hash(k - 1) & mask;
+    while (keys[s] != 0) s = (s + 1) & mask;
+    keys[s] = k;
+    offsets[s] = o;
+    lengths[s] = l;
+  }
+
+
+  /**
+    * Scrambles a lexicon index so that consecutive indexes don't fill
+    * consecutive slots of the hash table.
+    *
+    * @param key  The lexicon index.
+    * @return The scrambled index.
+   **/
+  private static int hash(int key)
+  {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+
+  /**
+    * Determines how many weights a feature's block needs.
+    *
+    * @param f  The feature.
+    * @return The number of weights in the feature's block.
+   **/
+  protected static int blockSize(Feature f)
   {
-    Map.Entry[] entries =
-      (Map.Entry[]) weights.entrySet().toArray(new Map.Entry[weights.size()]);
-    Arrays.sort(entries,
+    int values = f.totalValues();
+    if (f instanceof DiscreteFeature && values < 2) return 1;
+    int result = values > 2 ? values : 1;
+    if (f instanceof DiscreteArrayFeature)
+      result *= ((DiscreteArrayFeature) f).getArrayLength();
+    else if (f instanceof RealArrayFeature)
+      result *= ((RealArrayFeature) f).getArrayLength();
+    return result;
+  }
+
+
+  /**
+    * Returns the hash table slots that hold features, sorted by feature.
+    *
+    * @return The occupied slots.
+   **/
+  protected int[] sortedSlots()
+  {
+    Integer[] slots = new Integer[size];
+    for (int s = 0, i = 0; s < keys.length; ++s)
+      if (keys[s] != 0) slots[i++] = Integer.valueOf(s);
+
+    Arrays.sort(slots,
                 new Comparator()
                 {
                   public int compare(Object o1, Object o2)
                   {
-                    Map.Entry e1 = (Map.Entry) o1;
-                    Map.Entry e2 = (Map.Entry) o2;
-                    return ((Feature) e1.getKey()).compareTo(e2.getKey());
+                    Feature f1 =
+                      lexicon.getKey(keys[((Integer) o1).intValue()] - 1);
+                    Feature f2 =
+                      lexicon.getKey(keys[((Integer) o2).intValue()] - 1);
+                    return f1.compareTo(f2);
                   }
                 });
 
+    int[] result = new int[size];
+    for (int i = 0; i < size; ++i) result[i] = slots[i].intValue();
+    return result;
+  }
+
+
+  /**
+    * Converts this <code>SparseWeightVector</code> into a
+    * <code>String</code>.
+    *
+    * @return A <code>String</code> holding a textual representation of this
+    *         vector.
+   **/
+  public String toString()
+  {
+    int[] slots = sortedSlots();
+
     int i, biggest = 0;
-    for (i = 0; i < entries.length; ++i)
+    for (i = 0; i < slots.length; ++i)
     {
-      String key = entries[i].getKey().toString();
+      String key = lexicon.getKey(keys[slots[i]] - 1).toString();
       if (key.length() > biggest) biggest = key.length();
     }
 
@@ -174,23 +362,18 @@ public class SparseWeightVector implements Cloneable, Serializable
     else ++biggest;
 
     StringBuffer result = new StringBuffer();
-    for (i = 0; i < entries.length; ++i)
+    for (i = 0; i < slots.length; ++i)
     {
-      String key = entries[i].getKey().toString();
+      String key = lexicon.getKey(keys[slots[i]] - 1).toString();
       result.append(key);
       for (int j = 0; key.length() + j < biggest; ++j) result.append(" ");
 
-      Object weight = entries[i].getValue();
-      if (weight instanceof Double) result.append(weight + "\n");
-      else
+      int offset = offsets[slots[i]];
+      result.append(weights[offset] + "\n");
+      for (int j = 1; j < lengths[slots[i]]; ++j)
       {
-        double[] w = (double[]) weight;
-        result.append(w[0] + "\n");
-        for (int j = 1; j < w.length; ++j)
-        {
-          for (int k = 0; k < biggest; ++k) result.append(" ");
-          result.append(w[j] + "\n");
-        }
+        for (int k = 0; k < biggest; ++k) result.append(" ");
+        result.append(weights[offset + j] + "\n");
       }
     }
 
@@ -211,26 +394,123 @@ public class SparseWeightVector implements Cloneable, Serializable
 
   /**
     * Returns a copy of this <code>SparseWeightVector</code> in which the
-    * {@link #weights} variable has been cloned deeply.
+    * weights have been cloned deeply.
     *
     * @return A copy of this <code>SparseWeightVector</code>.
    **/
   public Object clone()
   {
-    SparseWeightVector clone = new SparseWeightVector();
+    SparseWeightVector clone = null;
 
-    for (Iterator I = weights.entrySet().iterator(); I.hasNext(); )
+    try { clone = (SparseWeightVector) super.clone(); }
+    catch (Exception e)
     {
-      Map.Entry e = (Map.Entry) I.next();
-      Object value = e.getValue();
-      if (value instanceof Double) clone.weights.put(e.getKey(), value);
-      else clone.weights.put(e.getKey(), ((double[]) value).clone());
+      System.err.println("Error cloning SparseWeightVector: " + e);
+      e.printStackTrace();
+      System.exit(1);
     }
 
+    clone.keys = (int[]) keys.clone();
+    clone.offsets = (int[]) offsets.clone();
+    clone.lengths = (int[]) lengths.clone();
+    clone.weights = (double[]) weights.clone();
     return clone;
   }
 
 
+  /**
+    * Writes each feature in this vector followed by its block of weights.
+    *
+    * @param out  The stream to serialize to.
+   **/
+  private void writeObject(ObjectOutputStream out) throws IOException
+  {
+    out.defaultWriteObject();
+    out.writeInt(size);
+
+    for (int s = 0; s < keys.length; ++s)
+      if (keys[s] != 0)
+      {
+        out.writeObject(lexicon.getKey(keys[s] - 1));
+        out.writeInt(lengths[s]);
+        for (int i = 0; i < lengths[s]; ++i)
+          out.writeDouble(weights[offsets[s] + i]);
+      }
+  }
+
+
+  /**
+    * Reads the features written by {@link #writeObject(ObjectOutputStream)}
+    * and indexes them in a new lexicon.  A vector written before weights
+    * were stored in arrays has no {@link #width}; its map of weights is
+    * handed to {@link #readLegacyWeights(HashMap)} instead.
+    *
+    * @param in The stream to deserialize from.
+   **/
+  private void readObject(ObjectInputStream in)
+          throws IOException, ClassNotFoundException
+  {
+    ObjectInputStream.GetField fields = in.readFields();
+    if (fields.defaulted("width"))
+    {
+      readLegacyWeights((HashMap) fields.get("weights", null));
+      return;
+    }
+
+    width = fields.get("width", 0);
+    initialize();
+
+    for (int features = in.readInt(); features > 0; --features)
+    {
+      Feature key = (Feature) in.readObject();
+      int length = in.readInt();
+      int offset = allocate(lexicon.lookupOrAdd(key), length / width, 0);
+      for (int i = 0; i < length; ++i)
+        weights[offset + i] = in.readDouble();
+    }
+  }
+
+
+  /**
+    * Fills this vector from the map of weights of a vector written before
+    * weights were stored in arrays.  That map associated each feature with
+    * either a <code>Double</code> or a <code>double[]</code>, which become
+    * the feature's block of weights.  Derived classes that stored something
+    * else in the map override this method.
+    *
+    * @param w  The map of weights read from the stream.
+   **/
+  protected void readLegacyWeights(HashMap w) { readLegacyWeights(w, 1); }
+
+
+  /**
+    * Fills this vector from the map of weights of a vector written before
+    * weights were stored in arrays, in which each weight took up the given
+    * number of elements of every <code>double[]</code>.
+    *
+    * @param w  The map of weights read from the stream.
+    * @param n  The value for {@link #width}.
+   **/
+  protected void readLegacyWeights(HashMap w, int n)
+  {
+    width = n;
+    initialize();
+
+    for (Iterator I = w.entrySet().iterator(); I.hasNext(); )
+    {
+      Map.Entry e = (Map.Entry) I.next();
+      double[] block =
+        e.getValue() instanceof Double
+        ? new double[]{ ((Double) e.getValue()).doubleValue() }
+        : (double[]) e.getValue();
+      int offset =
+        allocate(lexicon.lookupOrAdd((Feature) e.getKey()),
+                 block.length / width, 0);
+      System.arraycopy(block, 0, weights, offset, block.length);
+    }
+  }
+
+
   /**
     * This class simultaneously iterates over the features in the given vector
     * and their corresponding weights from a {@link SparseWeightVector}.
@@ -253,10 +533,20 @@ public class SparseWeightVector implements Cloneable, Serializable
     protected Feature currentFeature;
     /** <code>true</code> iff the current feature is discrete. */
     protected boolean isDiscrete;
-    /** The array of weights, if applicable. */
-    protected double[] weightArray;
-    /** Pointer into <code>weightArray</code>. */
+    /** The position of the current feature in its array, if applicable. */
     protected int arrayIndex;
+    /**
+      * The lexicon index of the current feature, or -1 if the lexicon
+      * hasn't seen it.
+     **/
+    protected int key;
+    /**
+      * The offset in {@link SparseWeightVector#weights} of the current
+      * feature's block, or -1 if the block doesn't exist yet.
+     **/
+    protected int offset;
+    /** The index of the current weight within its block. */
+    protected int position;
 
 
     /**
@@ -271,8 +561,8 @@ public class SparseWeightVector implements Cloneable, Serializable
       currentFeature = null;
       vector = example;
       I = vector.iterator();
-      weightArray = null;
       arrayIndex = -1;
+      key = offset = -1;
     }
 
 
@@ -292,7 +582,9 @@ public class SparseWeightVector implements Cloneable, Serializable
     /**
       * Repositions this iterator to point to the next weight in the
       * iteration.  If there is no next weight, this iterator will continue to
-      * point to the same weight as before.
+      * point to the same weight as before.  Consecutive elements of the same
+      * array share a block of weights, which is only looked up for the first
+      * of them.
      **/
     public void next()
     {
@@ -302,44 +594,33 @@ public class SparseWeightVector implements Cloneable, Serializable
       if (currentFeature != null && currentFeature.fromArray()
           && (!nextFeature.fromArray()
               || !currentFeature.nameEquals(nextFeature)))
-      {
         arrayIndex = -1;
-        weightArray = null;
-      }
 
       currentFeature = nextFeature;
+      isDiscrete = currentFeature instanceof DiscreteFeature;
+      int values = currentFeature.totalValues();
+      boolean first = true;
+      position = 0;
+
       if (currentFeature.fromArray())
       {
-        if (arrayIndex++ == -1)
-        {
-          isDiscrete = currentFeature instanceof DiscreteFeature;
-          if (currentFeature.totalValues() > 0)
-          {
-            DiscreteFeature key =
-              new DiscreteFeature(currentFeature.getPackage(),
-                                  currentFeature.getIdentifier(), "");
-            weightArray = (double[]) weights.get(key);
-          }
-          else if (!isDiscrete)
-          {
-            RealFeature key =
-              new RealFeature(currentFeature.getPackage(),
-                              currentFeature.getIdentifier(), 0);
-            weightArray = (double[]) weights.get(key);
-          }
-        }
+        first = arrayIndex++ == -1;
+        position = arrayIndex;
+      }
+
+      if (isDiscrete && values < 2)
+      {
+        first = true;
+        position = 0;
       }
-      else
+      else if (values > 2)
+        position = position * values
+                   + ((DiscreteFeature) currentFeature).getValueIndex();
+
+      if (first)
       {
-        isDiscrete = currentFeature instanceof DiscreteFeature;
-        if (currentFeature.totalValues() > 2)
-        {
-          DiscreteFeature key =
-            new DiscreteFeature(currentFeature.getPackage(),
-                                currentFeature.getIdentifier(), "");
-          weightArray = (double[]) weights.get(key);
-        }
-        else weightArray = null;
+        key = lexicon.lookup(currentFeature);
+        offset = key == -1 ? -1 : find(key);
       }
     }
 
@@ -348,8 +629,9 @@ public class SparseWeightVector implements Cloneable, Serializable
     public void reset()
     {
       I = vector.iterator();
-      weightArray = null;
+      currentFeature = null;
       arrayIndex = -1;
+      key = offset = -1;
     }
 
 
@@ -379,6 +661,54 @@ public class SparseWeightVector implements Cloneable, Serializable
     }
 
 
+    /**
+      * Returns the index in {@link SparseWeightVector#weights} of the first
+      * element of the current weight.
+      *
+      * @return The index of the current weight, or -1 if the location in the
+      *         weight vector pointed to by this iterator is empty.
+     **/
+    public int weightIndex()
+    {
+      return offset == -1 ? -1 : offset + position * width;
+    }
+
+
+    /**
+      * Returns the index in {@link SparseWeightVector#weights} of the first
+      * element of the current weight, creating the current feature's block
+      * of weights if necessary.  Creating a block may replace
+      * {@link SparseWeightVector#weights}, so the array must be read after
+      * this method returns.
+      *
+      * @param d  The default value for weights created by this invocation.
+      * @return The index of the current weight.
+     **/
+    public int createWeight(double d)
+    {
+      if (offset == -1)
+      {
+        if (key == -1) key = lexicon.lookupOrAdd(currentFeature);
+        offset = allocate(key, blockSize(currentFeature), d);
+      }
+
+      return offset + position * width;
+    }
+
+
+    /**
+      * Returns the double precision value pointed to by this iterator.
+      *
+      * @param d  The value to return if the location in the weight vector
+      *           pointed to by this iterator is empty.
+      * @return The double precision value pointed to by this iterator.
+     **/
+    public double getWeight(double d)
+    {
+      return offset == -1 ? d : weights[offset + position * width];
+    }
+
+
     /**
       * Returns the double precision value pointed to by this iterator.
       *
@@ -388,52 +718,8 @@ public class SparseWeightVector implements Cloneable, Serializable
      **/
     public Double getWeight()
     {
-      if (isDiscrete)
-      {
-        if (currentFeature.totalValues() >= 2)
-        {
-          if (currentFeature.fromArray())
-          {
-            if (weightArray != null)
-            {
-              if (currentFeature.totalValues() == 2)
-                return new Double(weightArray[arrayIndex]);
-              else
-              {
-                DiscreteFeature df = (DiscreteFeature) currentFeature;
-                return new Double(weightArray[arrayIndex * df.totalValues()
-                                              + df.getValueIndex()]);
-              }
-            }
-          }
-          else if (currentFeature.totalValues() == 2)
-          {
-            DiscreteFeature key =
-              new DiscreteFeature(currentFeature.getPackage(),
-                                  currentFeature.getIdentifier(), "");
-            return (Double) weights.get(key);
-          }
-          else if (weightArray != null)
-          {
-            DiscreteFeature df = (DiscreteFeature) currentFeature;
-            return new Double(weightArray[df.getValueIndex()]);
-          }
-        }
-        else return (Double) weights.get(currentFeature);
-      }
-      else if (currentFeature.fromArray())
-      {
-        if (weightArray != null) return new Double(weightArray[arrayIndex]);
-      }
-      else
-      {
-        RealFeature key =
-          new RealFeature(currentFeature.getPackage(),
-                          currentFeature.getIdentifier(), 0);
-        return (Double) weights.get(key);
-      }
-
-      return null;
+      if (offset == -1) return null;
+      return Double.valueOf(getWeight(0));
     }
 
 
@@ -456,116 +742,8 @@ public class SparseWeightVector implements Cloneable, Serializable
      **/
     public void setWeight(double w, double d)
     {
-      if (isDiscrete)
-      {
-        if (currentFeature.totalValues() >= 2)
-        {
-          if (currentFeature.fromArray())
-          {
-            if (currentFeature.totalValues() == 2)
-            {
-              if (weightArray == null)
-              {
-                DiscreteArrayFeature daf =
-                  (DiscreteArrayFeature) currentFeature;
-                weightArray = new double[daf.getArrayLength()];
-                DiscreteFeature key =
-                  new DiscreteFeature(daf.getPackage(), daf.getIdentifier(),
-                                      "");
-                key.intern();
-                weights.put(key, weightArray);
-
-                if (d != 0)
-                  for (int i = 0; i < weightArray.length; ++i)
-                    weightArray[i] = d;
-              }
-
-              weightArray[arrayIndex] = w;
-            }
-            else
-            {
-              DiscreteArrayFeature daf =
-                (DiscreteArrayFeature) currentFeature;
-              if (weightArray == null)
-              {
-                weightArray =
-                  new double[daf.getArrayLength() * daf.totalValues()];
-                DiscreteFeature key =
-                  new DiscreteFeature(daf.getPackage(), daf.getIdentifier(),
-                                      "");
-                key.intern();
-                weights.put(key, weightArray);
-
-                if (d != 0)
-                  for (int i = 0; i < weightArray.length; ++i)
-                    weightArray[i] = d;
-              }
-
-              weightArray[arrayIndex * daf.totalValues()
-                          + daf.getValueIndex()] = w;
-            }
-          }
-          else if (currentFeature.totalValues() == 2)
-          {
-            DiscreteFeature key =
-              new DiscreteFeature(currentFeature.getPackage(),
-                                  currentFeature.getIdentifier(), "");
-            key.intern();
-            weights.put(key, new Double(w));
-          }
-          else
-          {
-            if (weightArray == null)
-            {
-              weightArray = new double[currentFeature.totalValues()];
-              DiscreteFeature key =
-                new DiscreteFeature(currentFeature.getPackage(),
-                                    currentFeature.getIdentifier(), "");
-              key.intern();
-              weights.put(key, weightArray);
-
-              if (d != 0)
-                for (int i = 0; i < weightArray.length; ++i)
-                  weightArray[i] = d;
-            }
-
-            weightArray[((DiscreteFeature) currentFeature).getValueIndex()] =
-              w;
-          }
-        }
-        else
-        {
-          currentFeature.intern();
-          weights.put(currentFeature, new Double(w));
-        }
-      }
-      else if (currentFeature.fromArray())
-      {
-        if (weightArray == null)
-        {
-          RealArrayFeature raf = (RealArrayFeature) currentFeature;
-          weightArray = new double[raf.getArrayLength()];
-          RealFeature key =
-            new RealFeature(raf.getPackage(), raf.getIdentifier(), 0);
-          key.intern();
-          weights.put(key, weightArray);
-
-          if (d != 0)
-            for (int i = 0; i < weightArray.length; ++i)
-              weightArray[i] = d;
-        }
-
-        weightArray[arrayIndex] = w;
-      }
-      else
-      {
-        RealFeature key =
-          new RealFeature(currentFeature.getPackage(),
-                          currentFeature.getIdentifier(), 0);
-        key.intern();
-        weights.put(key, new Double(w));
-      }
+      int i = createWeight(d);
+      weights[i] = w;
     }
   }
 }
-
@@ -15,6 +15,27 @@ import javax.xml.parsers.*;
  **/
 public class ACE2004DocumentParser extends LineByLine
 {
+  /**
+    * SAX parsers are expensive to create, so each thread keeps one around
+    * and resets it between documents.
+   **/
+  protected static final ThreadLocal<SAXParser> saxParsers =
+    new ThreadLocal<SAXParser>() {
+      protected SAXParser initialValue()
+      {
+        try { return SAXParserFactory.newInstance().newSAXParser(); }
+        catch (Exception e)
+        {
+          System.err.println("Can't create a SAX parser:");
+          e.printStackTrace();
+          System.exit(1);
+        }
+
+        return null;
+      }
+    };
+
+
   /** An instance of the handler used to parse <code>.apf.xml</code> files. */
   protected APFHandler handler = new APFHandler();
   /**
@@ -110,11 +131,9 @@ public class ACE2004DocumentParser extends LineByLine
              + "' does not have the expected .apf.xml extension.";
              */
 
-    try
-    {
-      SAXParserFactory.newInstance().newSAXParser()
-        .parse(new File(apfFile), handler);
-    }
+    SAXParser saxParser = saxParsers.get();
+
+    try { saxParser.parse(new File(apfFile), handler); }
     catch (SAXParseException e)
     {
       System.err.println(apfFile + ":");
@@ -125,6 +144,7 @@ public class ACE2004DocumentParser extends LineByLine
       t.printStackTrace();
       System.exit(1);
     }
+    finally { saxParser.reset(); }
 
     String sgmFile = apfFile.substring(0, apfFile.length() - 7) + "sgm";
     return parseSGM(sgmFile, path, handler);
@@ -135,7 +155,10 @@ public class ACE2004DocumentParser extends LineByLine
     * Reads a <code>.sgm</code> file.  The name of the document is retrieved
     * from in between the <code>&lt;DOCNO&gt;&lt;/DOCNO&gt;</code> tags, and
     * the full text of the document is retrieved from in between the
-    * <code>&lt;TEXT&gt;&lt;/TEXT&gt;</code> tags.
+    * <code>&lt;TEXT&gt;&lt;/TEXT&gt;</code> tags.  The file is read in a
+    * single pass, appending each run of untagged characters to a buffer, and
+    * reading stops as soon as the closing <code>&lt;/TEXT&gt;</code> tag is
+    * seen.
     *
     * @param file     The name of the <code>.sgm</code> file.
     * @param path     The path within the ACE distribution where the file can
@@ -146,55 +169,77 @@ public class ACE2004DocumentParser extends LineByLine
    **/
   public Document parseSGM(String file, String path, APFHandler handler)
   {
-    LineByLine in =
-      new LineByLine(file) { public Object next() { return readLine(); } };
+    BufferedReader in = null;
+    try { in = new BufferedReader(new FileReader(file)); }
+    catch (Exception e)
+    {
+      System.err.println("Can't open '" + file + "' for input:");
+      e.printStackTrace();
+      System.exit(1);
+    }
+
     int offset = 0;
-    String text = "";
+    StringBuilder text = new StringBuilder();
     boolean foundTextStart = false;
     boolean foundTextEnd = false;
     boolean inTag = false;
 
-    for (String line = (String) in.next(); line != null && !foundTextEnd;
-         line = (String) in.next())
+    try
     {
-      for (int i = 0; i < line.length() && !foundTextEnd; ++i)
+      for (String line = in.readLine(); line != null && !foundTextEnd;
+           line = in.readLine())
       {
-        if (!inTag && line.charAt(i) == '<')
+        int length = line.length();
+        // Start of the current run of untagged characters in this line.
+        int runStart = 0;
+
+        for (int i = 0; i < length && !foundTextEnd; ++i)
         {
-          if (!foundTextStart && line.substring(i).startsWith("<TEXT>"))
+          char c = line.charAt(i);
+
+          if (inTag)
           {
-            foundTextStart = true;
-            i += 5;
-            continue;
+            if (c == '>')
+            {
+              inTag = false;
+              runStart = i + 1;
+            }
           }
-
-          if (foundTextStart && line.substring(i).startsWith("</TEXT>"))
+          else if (c == '<')
           {
-            foundTextEnd = true;
-            continue;
+            text.append(line, runStart, i);
+            if (!foundTextStart) offset += i - runStart;
+
+            if (!foundTextStart && line.startsWith("<TEXT>", i))
+            {
+              foundTextStart = true;
+              i += 5;
+              runStart = i + 1;
+            }
+            else if (foundTextStart && line.startsWith("</TEXT>", i))
+              foundTextEnd = true;
+            else inTag = true;
           }
-
-          inTag = true;
         }
 
-        if (!inTag)
+        if (!inTag && !foundTextEnd)
         {
-          text += line.substring(i, i + 1);
-          if (!foundTextStart) ++offset;
+          text.append(line, runStart, length).append('\n');
+          if (!foundTextStart) offset += length - runStart + 1;
         }
-
-        if (inTag && line.charAt(i) == '>') inTag = false;
       }
 
-      if (!inTag && !foundTextEnd)
-      {
-        text += "\n";
-        if (!foundTextStart) ++offset;
-      }
+      in.close();
+    }
+    catch (Exception e)
+    {
+      System.err.println("Can't read from '" + file + "':");
+      e.printStackTrace();
+      System.exit(1);
     }
 
     return
-      new Document(handler.getDocumentID(), path, text, offset,
+      new Document(handler.getDocumentID(), path, text.toString(), offset,
                    handler.getMentions());
   }
 
@@ -0,0 +1,265 @@
+package LBJ2.nlp.coref;
+
+import LBJ2.classify.*;
+import LBJ2.infer.*;
+import LBJ2.learn.*;
+
+
+/**
+  * Solves the inference problem posed by the {@link BestLink} constraint
+  * exactly without translating it to an ILP.  <code>BestLink</code> allows
+  * each mention at most one earlier mention with which a pairwise
+  * coreference classifier links it, and the objective function sums the
+  * scores of the values assigned to every pair.  Such a problem decomposes
+  * into an independent problem for each mention, whose optimal solution
+  * links the mention to the earlier mention whose <code>"true"</code> score
+  * exceeds its <code>"false"</code> score by the most, provided that
+  * difference is positive, and to nothing otherwise.  This class makes that
+  * decision for every mention after reading each pair's scores once, the
+  * first time one of the classifier's constrained predictions is requested.
+  * Ties go to the earliest mention.
+  *
+  * <p> The pairs of mentions are the arrays returned by
+  * {@link Document#getMentionPair(Document.Mention,Document.Mention)}, and
+  * the scores are normalized by {@link #getNormalizer(Learner)}.  The
+  * classifier whose predictions are constrained is the one passed to the
+  * first call of {@link #valueOf(Learner,Object)}; other classifiers' values
+  * are their unconstrained predictions.  To use this class in an LBJ source
+  * file, name it in the <code>with</code> clause of an inference whose head
+  * is a {@link Document} and whose only constraint is <code>BestLink</code>
+  * or an equivalent constraint:
+  *
+  * <blockquote><pre>
+  *   inference DecodeBL head Document d
+  *   {
+  *     ...
+  *     subjectto { @BestLink(d); }
+  *     with new BestLinkInference()
+  *   }
+  * </pre></blockquote>
+  *
+  * <p> If this object is constructed in checking mode, it also solves the
+  * same problem with an {@link ILPInference} backed by a
+  * {@link PresolvingILPSolver} and a {@link BranchAndBoundILPSolver} and
+  * halts the program with an error message if the two solutions' objective
+  * function values differ.  The ILP is built from the constraint that the
+  * LBJ compiler's generated subclass fills in, or from a new
+  * {@link BestLink} constraint if there is none.
+ **/
+public class BestLinkInference extends Inference
+{
+  /** Whether to check the solution against the ILP solution. */
+  protected boolean check;
+  /** The classifier whose predictions are decoded. */
+  protected Learner learner;
+  /**
+    * The position in {@link #head} of each mention, indexed by
+    * {@link Document.Mention#getIndexInDocument()}.
+   **/
+  protected int[] positions;
+  /**
+    * The index in the document of the mention each mention is linked to, or
+    * -1 if it's linked to none, indexed by
+    * {@link Document.Mention#getIndexInDocument()}.
+   **/
+  protected int[] antecedents;
+
+
+  /** Default constructor. */
+  public BestLinkInference() { this(null); }
+
+  /**
+    * Initializes the checking mode, but not the head object.
+    *
+    * @param c  Whether to check the solution against the ILP solution.
+   **/
+  public BestLinkInference(boolean c) { this(null, c); }
+
+  /**
+    * Initializes the head object.
+    *
+    * @param h  The head object, which must be a {@link Document}.
+   **/
+  public BestLinkInference(Object h) { this(h, false); }
+
+  /**
+    * Initializes the head object and the checking mode.
+    *
+    * @param h  The head object, which must be a {@link Document}.
+    * @param c  Whether to check the solution against the ILP solution.
+   **/
+  public BestLinkInference(Object h, boolean c)
+  {
+    super(h);
+    check = c;
+  }
+
+
+  /** Returns the fully qualified name of the type of the head object. */
+  public String getHeadType() { return "LBJ2.nlp.coref.Document"; }
+
+
+  /**
+    * Returns the normalized scores of a pair of mentions.
+    *
+    * @param pair The pair.
+    * @return The pair's scores, normalized by the learner's normalizer.
+   **/
+  protected ScoreSet scores(Document.Mention[] pair)
+  {
+    return getNormalizer(learner).normalize(learner.scores(pair));
+  }
+
+
+  /**
+    * Links each mention of the head document to its best earlier mention, if
+    * any.
+   **/
+  protected void infer() throws Exception
+  {
+    Document d = (Document) head;
+    int n = d.totalMentions();
+    positions = new int[n];
+    antecedents = new int[n];
+    Document.Mention[] order = new Document.Mention[n];
+    int p = 0;
+
+    for (int i = 0; i < d.sentences(); ++i)
+      for (int j = 0; j < d.mentionsInSentence(i); ++j, ++p)
+      {
+        Document.Mention m = d.getMention(i, j);
+        order[p] = m;
+        positions[m.getIndexInDocument()] = p;
+        double highest = 0;
+        int best = -1;
+
+        for (int k = 0; k < p; ++k)
+        {
+          ScoreSet s = scores(d.getMentionPair(order[k], m));
+          double difference = s.get("true") - s.get("false");
+
+          if (difference > highest)
+          {
+            highest = difference;
+            best = order[k].getIndexInDocument();
+          }
+        }
+
+        antecedents[m.getIndexInDocument()] = best;
+      }
+
+    if (check) checkAgainstILP(order);
+  }
+
+
+  /**
+    * Solves the problem with an ILP and halts the program if the objective
+    * function value of the ILP's solution differs from that of this object's
+    * solution.
+    *
+    * @param order  The head document's mentions in order.
+   **/
+  protected void checkAgainstILP(Document.Mention[] order) throws Exception
+  {
+    Document d = (Document) head;
+    ILPSolver solver =
+      new PresolvingILPSolver(new BranchAndBoundILPSolver());
+    ILPInference ilp = new ILPInference(d, solver)
+      {
+        public Normalizer getNormalizer(Learner c)
+        {
+          return BestLinkInference.this.getNormalizer(c);
+        }
+      };
+
+    if (constraint == null)
+      ilp.addConstraint(new BestLink().makeConstraint(d));
+    else ilp.addConstraint((FirstOrderConstraint) constraint);
+
+    double ours = 0, theirs = 0;
+
+    for (int i = 1; i < order.length; ++i)
+      for (int k = 0; k < i; ++k)
+      {
+        Document.Mention[] pair = d.getMentionPair(order[k], order[i]);
+        ScoreSet s = scores(pair);
+        boolean linked =
+          antecedents[order[i].getIndexInDocument()]
+          == order[k].getIndexInDocument();
+        ours += s.get("" + linked);
+        theirs += s.get(ilp.valueOf(learner, pair));
+      }
+
+    if (Math.abs(ours - theirs) > 1e-9 * (1 + Math.abs(theirs)))
+    {
+      System.err.println(
+          "LBJ ERROR: BestLinkInference found a solution with objective "
+          + "value " + ours + " for document '" + d.getName() + "', but the "
+          + "ILP solution's value is " + theirs + ".");
+      System.exit(1);
+    }
+  }
+
+
+  /**
+    * Retrieves the value of the specified variable as identified by the
+    * classifier and the object that produce that variable.
+    *
+    * @param c  The classifier producing the variable.
+    * @param o  The object from which the variable is produced.
+    * @return   <code>"true"</code> iff the later mention in the pair is
+    *           linked to the earlier one, if <code>c</code> is the
+    *           constrained classifier and the pair comes from the head
+    *           document; <code>c</code>'s unconstrained prediction
+    *           otherwise.
+   **/
+  public String valueOf(Learner c, Object o) throws Exception
+  {
+    if (learner == null)
+    {
+      learner = c;
+      infer();
+    }
+
+    if (!learner.equals(c)) return c.discreteValue(o);
+    Document.Mention[] pair = (Document.Mention[]) o;
+
+    try
+    {
+      ((Document) head).checkMention(pair[0]);
+      ((Document) head).checkMention(pair[1]);
+    }
+    catch (java.util.NoSuchElementException e)
+    {
+      return c.discreteValue(o);
+    }
+
+    int i0 = pair[0].getIndexInDocument(), i1 = pair[1].getIndexInDocument();
+    if (positions[i0] > positions[i1]) return "" + (antecedents[i0] == i1);
+    return "" + (antecedents[i1] == i0);
+  }
+
+
+  /**
+    * Two <code>Inference</code> objects are equal when they have the same
+    * run-time type and store the same head object.
+    *
+    * @param o  The object to compare to this object.
+    * @return   <code>true</code> iff this object equals the argument object
+    *           as defined above.
+   **/
+  public boolean equals(Object o)
+  {
+    if (!(o instanceof BestLinkInference)) return false;
+    return head == ((BestLinkInference) o).head;
+  }
+
+
+  /**
+    * Hashes the head object by identity, since {@link #equals(Object)}
+    * compares head objects with <code>==</code>.
+    *
+    * @return The identity hash code of the head object.
+   **/
+  public int hashCode() { return System.identityHashCode(head); }
+}
@@ -874,8 +874,9 @@ public class ClusterMerger implements Comparable<ClusterMerger> {
 		}
 
 		protected boolean reject() {
+			Document document = getDocument();
 			Vector<Vector<Document.Mention>> clusters = new Vector<Vector<Document.Mention>>();
-			clusters.addAll(getDocument().getAllChains());
+			clusters.addAll(document.getAllChains());
 			double highest = -Double.MAX_VALUE;
 			int I = i, J = j;
 			for (int k = J - 1; k >= 0; --k)
@@ -887,7 +888,7 @@ public class ClusterMerger implements Comparable<ClusterMerger> {
 
 			for (Document.Mention mi : clusters.get(I))
 				for (Document.Mention mj : clusters.get(J))
-					highest = Math.max(highest, coref.scores(new Document.Mention[] { mi, mj }).get("true"));
+					highest = Math.max(highest, document.linkScore(coref, mi, mj));
 
 			return highest < threshold;
 		}
@@ -3,6 +3,7 @@ package LBJ2.nlp.coref;
 import java.util.*;
 import LBJ2.classify.Classifier;
 import LBJ2.parse.Parser;
+import LBJ2.parse.PrefetchingParser;
 
 
 /**
@@ -13,7 +14,10 @@ public class ClusterMergerParser implements Parser
 {
   /** A file containing the names of files to be parsed. */
   private String filename;
-  /** A parser returning labeled documents. */
+  /**
+    * A parser returning labeled documents, which are parsed in the
+    * background while the beam search works on the current one.
+   **/
   private Parser parser;
   /** The document are currently merging clusters over. */
   private Document currentDocument;
@@ -126,7 +130,7 @@ public class ClusterMergerParser implements Parser
                                 ClusterMerger.Filter f)
   {
     filename = file;
-    parser = new ACE2004DocumentParser(filename);
+    parser = new PrefetchingParser(new ACE2004DocumentParser(filename));
     beam = new LinkedList<ClusterMerger>();
     nextLevel = new LinkedList<ClusterMerger>();
     coref = c;
@@ -2,6 +2,7 @@ package LBJ2.nlp.coref;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.*;
 import LBJ2.classify.*;
 import LBJ2.parse.*;
 
@@ -14,8 +15,8 @@ public class DataCoref extends LBJ2.learn.Learner {
 	 * A score set with scores of 0 for variables representing identity
 	 * coreference.
 	 **/
-	private static final ScoreSet zeroScore = new ScoreSet(new String[] {
-			"false", "true" }, new double[] { 0, 0 });
+	private static final ScoreSet zeroScore = new BinaryScoreSet("false", 0,
+			"true", 0);
 	/** The name of the file from which this learner reads its data. */
 	private static final String scoresDirectory = 
 		"data" + File.separator+ "data" + File.separator+ "ace_tides_multling_train" + File.separator + "NoConstraints";
@@ -25,48 +26,164 @@ public class DataCoref extends LBJ2.learn.Learner {
 	 * The threshold adjustment, as if supplied to
 	 * <code>LinearThresholdUnit.setThreshold(double)</code>.
 	 **/
-	private static double thresholdAdjustment = -5.5;
-	/** The name of the currently loaded scores file. */
-	private static String currentScoresFile = new String();
+	private static volatile double thresholdAdjustment = -5.5;
+	/** The default value of {@link #cacheCapacity}. */
+	public static final int defaultCacheCapacity = 16;
+	/** The maximum number of documents whose scores are kept in memory. */
+	private static int cacheCapacity = defaultCacheCapacity;
+	/** The name of the document whose scores were most recently used. */
+	private static volatile String currentDocument = new String();
 	/**
-	 * A cache of all <code>ScoreSet</code>s this learner is capable of
-	 * returning.
+	 * The score tables of the most recently used documents, keyed by document
+	 * name and kept in least recently used order. A table maps the ID of
+	 * each mention to the scores of its pairs, keyed by the other mention's
+	 * ID. Each table
+	 * is loaded by the first thread that asks for it; any other thread asking
+	 * for the same table while it loads waits for that load to finish instead
+	 * of reading the file again. Guarded by its own monitor.
 	 **/
-	private static HashMap<String, ScoreSet> scores = new HashMap<String, ScoreSet>();
+	private static final LinkedHashMap<String, FutureTask<HashMap<String, HashMap<String, Double>>>> scores = new LinkedHashMap<String, FutureTask<HashMap<String, HashMap<String, Double>>>>(
+			16, 0.75f, true) {
+		protected boolean removeEldestEntry(
+				Map.Entry<String, FutureTask<HashMap<String, HashMap<String, Double>>>> eldest) {
+			return size() > cacheCapacity;
+		}
+	};
 
 	/**
-	 * Determines if <code>DataCoref</code> currently has the predictions for
-	 * the specified document cached.
+	 * When not <code>null</code>, scores are read from this binary corpus
+	 * instead of the text files in {@link #scoresDirectory}.
+	 **/
+	private static volatile PairScoreCorpus scoreCorpus;
+
+	/**
+	 * Determines if <code>DataCoref</code> most recently returned predictions
+	 * for the specified document.
 	 * 
 	 * @param name
 	 *            The name of the document.
-	 * @return <code>true</code> iff the predictions for the specified document
-	 *         are currently cached.
+	 * @return <code>true</code> iff the last scores returned by any
+	 *         <code>DataCoref</code> were for the specified document.
 	 **/
 	public static boolean isCached(String name) {
-		return (name + ".scores").equals(currentScoresFile);
+		return name.equals(currentDocument);
+	}
+
+	/**
+	 * Sets the maximum number of documents whose scores are kept in memory at
+	 * once. When a document's scores are needed and this many other
+	 * documents' scores are already loaded, the least recently used ones are
+	 * discarded.
+	 * 
+	 * @param c
+	 *            The new capacity, at least 1.
+	 **/
+	public static void setCacheCapacity(int c) {
+		if (c < 1)
+			throw new IllegalArgumentException(
+					"DataCoref: cache capacity must be positive, not " + c);
+		synchronized (scores) {
+			cacheCapacity = c;
+			Iterator<String> I = scores.keySet().iterator();
+			while (scores.size() > c) {
+				I.next();
+				I.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the scores of the specified document, reading its scores file
+	 * only if they aren't already cached or being read by another thread.
+	 * 
+	 * @param name
+	 *            The name of the document.
+	 * @return A map storing the scores for every pair of mentions in the
+	 *         document, as returned by {@link #readData(String)}.
+	 **/
+	private static HashMap<String, HashMap<String, Double>> getData(
+			final String name) {
+		FutureTask<HashMap<String, HashMap<String, Double>>> task;
+		boolean load = false;
+
+		synchronized (scores) {
+			task = scores.get(name);
+			if (task == null) {
+				task = new FutureTask<HashMap<String, HashMap<String, Double>>>(
+						new Callable<HashMap<String, HashMap<String, Double>>>() {
+							public HashMap<String, HashMap<String, Double>> call() {
+								return readData(name + ".scores");
+							}
+						});
+				scores.put(name, task);
+				load = true;
+			}
+		}
+
+		if (load)
+			task.run();
+
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			synchronized (scores) {
+				if (scores.get(name) == task)
+					scores.remove(name);
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
-	 * Reads this classifier's internal representation into memory.
+	 * Makes every <code>DataCoref</code> read its scores from the specified
+	 * binary corpus instead of the text scores files.
 	 * 
 	 * @param file
-	 *            The name of the file to read it from.
-	 * @return A map storing the scores for every possible example object.
+	 *            The name of a file written by
+	 *            {@link PairScoreCorpus#compile(Parser,String)}, or
+	 *            <code>null</code> to go back to the text files.
 	 **/
-	private static void readData(String file) {
-		if (file.equals(currentScoresFile))
-			return;
-		currentScoresFile = file;
+	public static void useScoreCorpus(String file) {
+		scoreCorpus = file == null ? null : new PairScoreCorpus(file);
+	}
+
+	/**
+	 * Reads the scores stored in the specified file into memory.
+	 * 
+	 * @param name
+	 *            The name of the file to read them from, which is looked for
+	 *            in each of the <code>dev</code>, <code>test</code>, and
+	 *            <code>train</code> subdirectories of
+	 *            {@link #scoresDirectory}.
+	 * @return A map from each mention ID to a map from each other mention ID
+	 *         to the score of that pair.
+	 **/
+	static HashMap<String, HashMap<String, Double>> readData(String name) {
 		final String[] dirs = { "dev", "test", "train" };
+		String file = null;
 
 		for (int i = 0; i < 3; ++i) {
-			file = scoresDirectory + File.separator + dirs[i] + File.separator + currentScoresFile;
+			file = scoresDirectory + File.separator + dirs[i] + File.separator + name;
 			if (new File(file).exists())
 				break;
 		}
 
-		scores = new HashMap<String, ScoreSet>();
+		HashMap<String, HashMap<String, Double>> scores = new HashMap<String, HashMap<String, Double>>();
 		Parser parser = new LineByLine(file) {
 			public Object next() {
 				return readLine();
@@ -80,13 +197,34 @@ public class DataCoref extends LBJ2.learn.Learner {
 			String[] fields = line.split("\\s+");
 			double score = Double.parseDouble(fields[1]);
 			String[] ids = fields[0].split("\\|");
-			scores.put(fields[0], new ScoreSet(
-					new String[] { "false", "true" }, new double[] { -score,
-							score }));
-			scores.put(ids[0] + "|" + ids[2] + "|" + ids[1], new ScoreSet(
-					new String[] { "false", "true" }, new double[] { -score,
-							score }));
+			put(scores, ids[1], ids[2], score);
+			put(scores, ids[2], ids[1], score);
+		}
+
+		return scores;
+	}
+
+	/**
+	 * Stores the score of a mention pair in a table returned by
+	 * {@link #readData(String)}.
+	 * 
+	 * @param scores
+	 *            The table.
+	 * @param id1
+	 *            The ID of the first mention in the pair.
+	 * @param id2
+	 *            The ID of the second mention in the pair.
+	 * @param score
+	 *            The score of the pair.
+	 **/
+	private static void put(HashMap<String, HashMap<String, Double>> scores,
+			String id1, String id2, double score) {
+		HashMap<String, Double> row = scores.get(id1);
+		if (row == null) {
+			row = new HashMap<String, Double>();
+			scores.put(id1, row);
 		}
+		row.put(id2, score);
 	}
 
 	/** Constructor. */
@@ -137,7 +275,81 @@ public class DataCoref extends LBJ2.learn.Learner {
 	}
 
 	/**
-	 * Looks up the scores for the given example in {@link #scores}.
+	 * Returns the precomputed score of the given mention pair with the
+	 * threshold adjustment applied; i.e., the score {@link #scores(Object)}
+	 * assigns to <code>"true"</code>. The score is looked up in the
+	 * document's table in {@link #scores}, or in the {@link #scoreCorpus} if
+	 * one is in use, without allocating any objects once the document's
+	 * scores are loaded. Any number of threads may call this method at once.
+	 * 
+	 * @param m1
+	 *            The first mention in the pair.
+	 * @param m2
+	 *            The second mention in the pair.
+	 * @return The score of the pair, which is 0 for a mention paired with
+	 *         itself.
+	 **/
+	public double score(Document.Mention m1, Document.Mention m2) {
+		if (m1.getMentionID().equals(m2.getMentionID())) {
+			currentDocument = m1.getDocument().getName();
+			return 0;
+		}
+		return adjust(rawScore(m1, m2));
+	}
+
+	/**
+	 * Applies the threshold adjustment currently in effect to a score
+	 * returned by {@link #rawScore(Document.Mention,Document.Mention)}.
+	 * 
+	 * @param raw
+	 *            The score without the threshold adjustment.
+	 * @return The score with the threshold adjustment.
+	 **/
+	static double adjust(double raw) {
+		return raw - thresholdAdjustment;
+	}
+
+	/**
+	 * Looks up the precomputed score of the given pair of distinct mentions.
+	 * 
+	 * @param m1
+	 *            The first mention in the pair.
+	 * @param m2
+	 *            The second mention in the pair.
+	 * @return The score of the pair without the threshold adjustment.
+	 **/
+	static double rawScore(Document.Mention m1, Document.Mention m2) {
+		String docName = m1.getDocument().getName();
+		currentDocument = docName;
+		double result = Double.NaN;
+		PairScoreCorpus corpus = scoreCorpus;
+
+		if (corpus != null) {
+			PairScoreCorpus.Table table = corpus.get(docName);
+			if (table != null)
+				result = table.score(m1, m2);
+		} else {
+			HashMap<String, Double> row = getData(docName).get(
+					m1.getMentionID());
+			Double score = row == null ? null : row.get(m2.getMentionID());
+			if (score != null)
+				result = score;
+		}
+
+		if (Double.isNaN(result)) {
+			System.err.println("ERROR: No entry for mention pair '" + docName
+					+ "|" + m1.getMentionID() + "|" + m2.getMentionID() + "'");
+			System.exit(1);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the scores of <code>"false"</code> and <code>"true"</code> for
+	 * the given example, as computed by
+	 * {@link #score(Document.Mention,Document.Mention)}. The score of
+	 * <code>"false"</code> is the opposite of the score of <code>"true"</code>.
 	 * 
 	 * @param example
 	 *            The example for which scores are desired.
@@ -145,35 +357,28 @@ public class DataCoref extends LBJ2.learn.Learner {
 	 **/
 	public ScoreSet scores(Object example) {
 		Document.Mention[] pair = (Document.Mention[]) example;
-		String docName = pair[0].getDocument().getName();
-		readData(docName + ".scores");
-
-		if (pair[0].getMentionID().equals(pair[1].getMentionID()))
+		if (pair[0].getMentionID().equals(pair[1].getMentionID())) {
+			currentDocument = pair[0].getDocument().getName();
 			return zeroScore;
-		String key = pair[0].getDocument().getName() + "|"
-				+ pair[0].getMentionID() + "|" + pair[1].getMentionID();
-
-		if (!scores.containsKey(key)) {
-			System.err.println("ERROR: No entry for mention pair '" + key + "'");
-			System.exit(1);
 		}
-
-		ScoreSet result = (ScoreSet) scores.get(key).clone();
-		result.getScore("true").score -= thresholdAdjustment;
-		result.getScore("false").score += thresholdAdjustment;
-		return result;
+		double score = rawScore(pair[0], pair[1]);
+		double adjustment = thresholdAdjustment;
+		return new BinaryScoreSet("false", -score + adjustment, "true", score
+				- adjustment);
 	}
 
 	/**
 	 * Returns the value with the highest score as computed by
-	 * {@link #scores(Object)}.
+	 * {@link #scores(Object)} without creating the score set; i.e.,
+	 * <code>"true"</code> iff the pair's score is positive.
 	 * 
 	 * @param example
 	 *            The example to classify.
 	 * @return The classification for the given example.
 	 **/
 	public String discreteValue(Object example) {
-		return scores(example).highScoreValue();
+		Document.Mention[] pair = (Document.Mention[]) example;
+		return score(pair[0], pair[1]) > 0 ? "true" : "false";
 	}
 
 	/**
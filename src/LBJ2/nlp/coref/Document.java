@@ -2,8 +2,11 @@ package LBJ2.nlp.coref;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import LBJ2.util.TableFormat;
 import LBJ2.classify.Classifier;
+import LBJ2.learn.Learner;
 import LBJ2.nlp.*;
 import LBJ2.parse.LinkedVector;
 
@@ -16,6 +19,28 @@ public class Document
 {
   /** A flag controlling whether debugging messages are generated. */
   public static boolean DEBUG = false;
+  /**
+    * The number of threads {@link #fillInPredictions(Classifier,int)} scores
+    * candidate antecedents with.
+   **/
+  public static int predictionThreads = 1;
+  /**
+    * The number of consecutive mentions whose antecedents are searched for
+    * together by a single thread.
+   **/
+  public static int antecedentChunkSize = 16;
+  /** Runs antecedent searches on behalf of all documents. */
+  private static final ExecutorService antecedentPool =
+    Executors.newCachedThreadPool(
+        new ThreadFactory()
+        {
+          public Thread newThread(Runnable r)
+          {
+            Thread result = new Thread(r, "Document.fillInPredictions");
+            result.setDaemon(true);
+            return result;
+          }
+        });
   /** The four mention types in an array. */
   public static final String[] mentionTypes =
     new String[]{ "NAM", "NOM", "PRO", "PRE" };
@@ -45,6 +70,12 @@ public class Document
   private int offset;
   /** {@link Mention} pairs are cached here. */
   private Mention[][][] mentionPairCache;
+  /**
+    * Classifier decisions and scores for this document's mention pairs,
+    * shared with every document cloned from the same labeled document that
+    * keeps the mentions in the same order.
+   **/
+  private MentionPairTable pairTable;
   /** Pairs of consecutive {@link Mention} arrays are cached here. */
   private Mention[][][] sentencePairCache;
   /** A label used by coherence classifiers. */
@@ -54,6 +85,28 @@ public class Document
     * the labeled version from the data.
    **/
   private Document labeled;
+  /**
+    * When this document is a view created by
+    * {@link #shuffleSentences(Random)}, the document whose {@link Mention}s
+    * and sentences it shows in a different order; otherwise
+    * <code>null</code>.
+   **/
+  private Document viewOf;
+  /**
+    * When this document is a view, the index in {@link #viewOf} of the
+    * sentence at each position in this document.
+   **/
+  private int[] sentenceOrder;
+  /**
+    * When this document is a view, the position in this document of each
+    * sentence in {@link #viewOf}.
+   **/
+  private int[] sentencePositions;
+  /**
+    * When this document is a view, the number of words that precede each
+    * position in this document.
+   **/
+  private int[] sentenceWordStarts;
 
   /** Cache for {@link #getNgramCounts(int)}. */
   private Vector<HashMap<String, Integer>> ngramCounts =
@@ -75,17 +128,44 @@ public class Document
   /** Cache for {@link #getSubjectNgramCounts(int)}. */
   private Vector<HashMap<String, Integer>> subjectNgramCounts =
     new Vector<HashMap<String, Integer>>();
+  /**
+    * When not <code>null</code>, the counts each cluster contributes to
+    * {@link #getRepresentativeNgramCounts(int)} and
+    * {@link #getChainNgramCounts(int)} are looked up here before they are
+    * computed.
+   **/
+  private ClusterCounts clusterCounts;
 
 
   /**
-    * This constructor should only used by the
-    * {@link #shuffleSentences(Random)} and {@link #shuffleEntityIds(Random)}
-    * methods.
+    * Creates an empty document with no sentences and no mentions.  A
+    * coherence classifier can compare a single document with an empty one
+    * to score that document on its own.
+   **/
+  public Document()
+  {
+    name = "";
+    path = "";
+    text = "";
+    mentions = new Mention[0][];
+    sentences = new LinkedVector[0];
+    mentionPairCache = new Mention[0][0][];
+    pairTable = new MentionPairTable(0);
+  }
+
+  /**
+    * Copies a document, optionally rearranging the copy's sentences.  When
+    * they are rearranged, the copied mentions' indexes are set for their new
+    * positions, and the copied words' and mentions' character offsets are
+    * shifted so that the sentences appear one after the other in their new
+    * order.  Used only by {@link #Document(Document)}.
     *
     * @param d  A document to clone.
-    * @param I  Whether or not to set the mentions' indexes.
+    * @param o  The index in <code>d</code> of the sentence at each position
+    *           in the copy, or <code>null</code> to keep the order of
+    *           <code>d</code>.
    **/
-  private Document(Document d, boolean I)
+  private Document(Document d, int[] o)
   {
     name = d.name;
     path = d.path;
@@ -93,37 +173,109 @@ public class Document
     text = d.text;
     sentences = new LinkedVector[d.sentences.length];
     for (int i = 0; i < d.sentences.length; ++i)
-      sentences[i] = (LinkedVector) d.sentences[i].clone();
+      sentences[i] =
+        (LinkedVector) d.sentences[o == null ? i : o[i]].clone();
 
     offset = d.offset;
     mentionPairCache =
       new Mention[d.mentionPairCache.length][d.mentionPairCache.length][];
+    pairTable =
+      o == null ? d.pairTable : new MentionPairTable(mentionPairCache.length);
+
+    int k = 0, words = 0;
+    int start = o == null ? 0 : ((Word) d.sentences[0].get(0)).start;
 
     for (int i = 0; i < mentions.length; ++i)
     {
-      mentions[i] = new Mention[d.mentions[i].length];
+      Mention[] m = d.mentions[o == null ? i : o[i]];
+      mentions[i] = new Mention[m.length];
+      int delta = 0;
 
-      for (int j = 0; j < mentions[i].length; ++j)
+      if (o != null)
+      {
+        delta = start - ((Word) sentences[i].get(0)).start;
+        for (int j = 0; j < sentences[i].size(); ++j)
+        {
+          Word w = (Word) sentences[i].get(j);
+          w.start += delta;
+          w.end += delta;
+        }
+      }
+
+      for (int j = 0; j < m.length; ++j, ++k)
+      {
+        mentions[i][j] = new Mention(m[j]);
+        int wordOffset = m[j].getWordIndexInSentence();
+        if (o == null)
+          mentions[i][j].setIndexes(i, j, m[j].getIndexInDocument(),
+                                    wordOffset, m[j].getWordIndexInDocument(),
+                                    0);
+        else
+          mentions[i][j].setIndexes(i, j, k, wordOffset, words + wordOffset,
+                                    delta);
+      }
+
+      if (o != null)
       {
-        mentions[i][j] = new Mention(d.mentions[i][j]);
-        if (I)
-          mentions[i][j].setIndexes(
-              i, j, d.mentions[i][j].getIndexInDocument(),
-              d.mentions[i][j].getWordIndexInSentence(),
-              d.mentions[i][j].getWordIndexInDocument(), 0);
+        int wordLength = sentences[i].size();
+        words += wordLength;
+        start += ((Word) sentences[i].get(wordLength - 1)).end + 2;
       }
     }
 
     buildSentencePairCache();
-    labeled = d;
   }
 
   /**
-    * Clones the specified document.
+    * Clones the specified document.  If <code>d</code> is a view created by
+    * {@link #shuffleSentences(Random)}, the clone is a full copy of the
+    * document the view was created from, with its own mentions, sentences,
+    * and indexes in the shuffled order.
     *
     * @param d  A document to clone.
    **/
-  public Document(Document d) { this(d, true); }
+  public Document(Document d)
+  {
+    this(d.viewOf == null ? d : d.viewOf, d.sentenceOrder);
+    labeled = d;
+  }
+
+  /**
+    * Creates a view of a document with its sentences in a different order.
+    * The view shares the other document's {@link Mention}s, words, and
+    * mention pair caches, and stores only the new order of its sentences.
+    * Used only by {@link #shuffleSentences(Random)}.
+    *
+    * @param d  The document whose sentences are reordered.
+    * @param o  The index in <code>d</code> of the sentence at each position
+    *           in the view.
+    * @param l  The document the view was created from.
+   **/
+  private Document(Document d, int[] o, Document l)
+  {
+    name = d.name;
+    path = d.path;
+    text = d.text;
+    offset = d.offset;
+    mentionPairCache = d.mentionPairCache;
+    pairTable = d.pairTable;
+    labeled = l;
+    viewOf = d;
+    sentenceOrder = o;
+    sentencePositions = new int[o.length];
+    sentenceWordStarts = new int[o.length];
+    sentences = new LinkedVector[o.length];
+    mentions = new Mention[d.mentions.length][];
+
+    for (int i = 0, words = 0; i < o.length; ++i)
+    {
+      sentences[i] = d.sentences[o[i]];
+      if (i < mentions.length) mentions[i] = d.mentions[o[i]];
+      sentencePositions[o[i]] = i;
+      sentenceWordStarts[i] = words;
+      words += sentences[i].size();
+    }
+  }
 
   /**
     * Initializing constructor.
@@ -143,6 +295,7 @@ public class Document
     text = t;
     offset = o;
     mentionPairCache = new Mention[list.size()][list.size()][];
+    pairTable = new MentionPairTable(list.size());
     moreCoherent = true;
     Vector<LinkedList<Mention>> temp = new Vector<LinkedList<Mention>>();
     LinkedList<Mention> sentence = new LinkedList<Mention>();
@@ -252,6 +405,57 @@ public class Document
   }
 
 
+  /**
+    * Reconstructs a document whose sentences have already been split into
+    * words and whose mentions have already been aligned with their head
+    * words, as done by the constructor above.  Used by
+    * {@link DocumentCorpus} to rebuild documents without repeating that
+    * work.
+    *
+    * @param n    The name of the document.
+    * @param p    The path within the ACE dataset where the document can be
+    *             found.
+    * @param t    The full text of the document.
+    * @param o    The offset within the input file at which the full text
+    *             started.
+    * @param s    The words of the document, sentence by sentence.
+    * @param m    The mention data in the document, grouped by the sentence
+    *             the mentions appear in and in document order.
+    * @param w    For each mention in <code>m</code>, the index of its head
+    *             word in its sentence.
+   **/
+  Document(String n, String p, String t, int o, LinkedVector[] s,
+           MentionData[][] m, int[][] w)
+  {
+    name = n;
+    path = p;
+    text = t;
+    offset = o;
+    sentences = s;
+    moreCoherent = true;
+    mentions = new Mention[m.length][];
+    int d = 0, wordIndex = 0;
+
+    for (int i = 0; i < m.length; ++i)
+    {
+      mentions[i] = new Mention[m[i].length];
+
+      for (int j = 0; j < m[i].length; ++j)
+      {
+        mentions[i][j] = new Mention(m[i][j]);
+        mentions[i][j].setIndexes(i, j, d++, w[i][j], wordIndex + w[i][j],
+                                  0);
+      }
+
+      if (i < sentences.length) wordIndex += sentences[i].size();
+    }
+
+    mentionPairCache = new Mention[d][d][];
+    pairTable = new MentionPairTable(d);
+    buildSentencePairCache();
+  }
+
+
   /** Only used by assertions. */
   private static final String[] codes = { "&AMP;", "&amp;" };
   /** Only used by assertions. */
@@ -375,6 +579,11 @@ public class Document
   public String getPath() { return path; }
   /** Returns the full text of the document. */
   public String getText() { return text.substring(offset); }
+  /**
+    * Returns the full text of the document, including whatever came before
+    * the {@link #offset}.
+   **/
+  String getFullText() { return text; }
   /** Returns the offset within the text at which the content starts. */
   public int getOffset() { return offset; }
   /** Returns the total number of mentions in the document. */
@@ -385,6 +594,14 @@ public class Document
   public Document getLabeled() { return labeled; }
 
 
+  /**
+    * Returns the number of sentences the text was split into, which can be
+    * larger than {@link #sentences()} when the last sentences contain no
+    * mentions.
+   **/
+  public int wordSentences() { return sentences.length; }
+
+
   /**
     * Returns the number of mentions in the specified sentence.
     *
@@ -451,7 +668,8 @@ public class Document
    **/
   public void checkMention(Mention m)
   {
-    if (m != mentions[m.getSentenceIndex()][m.getIndexInSentence()])
+    Mention[][] owner = viewOf == null ? mentions : viewOf.mentions;
+    if (m != owner[m.getSentenceIndex()][m.getIndexInSentence()])
       throw
         new NoSuchElementException(
             "ERROR: Mention '" + m + "' not from document " + name);
@@ -488,7 +706,11 @@ public class Document
     *         object is guaranteed to be the same array object every time this
     *         method is called with the same argument.
    **/
-  public Mention[][] getSentencePair(int i1) { return sentencePairCache[i1]; }
+  public Mention[][] getSentencePair(int i1)
+  {
+    checkNotView("pair sentences");
+    return sentencePairCache[i1];
+  }
 
 
   /**
@@ -502,6 +724,7 @@ public class Document
    **/
   public Mention[] getMentionPair(Mention m1, Mention m2)
   {
+    checkNotView("pair mentions");
     checkMention(m1);
     checkMention(m2);
     int i1 = m1.getIndexInDocument();
@@ -524,6 +747,49 @@ public class Document
   }
 
 
+  /**
+    * Determines whether the specified classifier predicts that the specified
+    * mentions are coreferent.  A {@link DataCoref} looks up the score of
+    * each pair at most once for this document and every other rendition of
+    * the same labeled document.
+    *
+    * @param c  The classifier that predicts links between mentions.
+    * @param m1 The first mention in the pair.
+    * @param m2 The second mention in the pair.
+    * @return <code>true</code> iff the classifier's prediction for the pair
+    *         returned by {@link #getMentionPair(Mention,Mention)} is
+    *         <code>"true"</code>.
+   **/
+  public boolean predictCoreferent(Classifier c, Mention m1, Mention m2)
+  {
+    checkMention(m1);
+    checkMention(m2);
+    return pairTable.coreferent(c, this, m1, m2);
+  }
+
+
+  /**
+    * Returns the score that the specified learner gives to the value
+    * <code>"true"</code> for the specified mention pair.  A
+    * {@link DataCoref} looks up the score of each pair at most once for this
+    * document and every other rendition of the same labeled document, and
+    * applies its current threshold every time.
+    *
+    * @param c  The learner that scores links between mentions.
+    * @param m1 The first mention in the pair.
+    * @param m2 The second mention in the pair.
+    * @return The score of <code>"true"</code> for the pair
+    *         <code>{ m1, m2 }</code>.
+   **/
+  public double linkScore(Learner c, Mention m1, Mention m2)
+  {
+    checkNotView("score mention pairs");
+    checkMention(m1);
+    checkMention(m2);
+    return pairTable.trueScore(c, m1, m2);
+  }
+
+
   /**
     * Returns a copy of this object whose sentences have been shuffled into a
     * random order.  This method simply passes a random number generator
@@ -541,56 +807,90 @@ public class Document
     * random order.  The provided random number generator is used to do the
     * shuffling.
     *
+    * <p> The copy is a read-only view that shares this document's
+    * {@link Mention}s and words and stores only the shuffled order of the
+    * sentences, so creating one costs next to nothing.  The view's mentions
+    * are found in their new sentences by {@link #getMention(int,int)} and
+    * the other accessors of this class, but the mentions themselves still
+    * report the indexes and character offsets they have in the original
+    * document; use {@link #sentenceIndexOf(Document.Mention)} and
+    * {@link #wordIndexInDocumentOf(Document.Mention)} for their positions in
+    * the view.  Pairing mentions or sentences, scoring mention pairs, and
+    * filling in predictions all depend on the mentions' own indexes, so
+    * they exit with an error on a view.  {@link #Document(Document)} turns
+    * a view into a full copy whose mentions, indexes, and offsets are all in
+    * the shuffled order.
+    *
     * @param randomizer A random number generator.
     * @return A copy of this object whose sentences have been shuffled.
    **/
   public Document shuffleSentences(Random randomizer)
   {
-    Document result = new Document(this, false);
-    int[][] wordOffsets = new int[mentions.length][];
+    Document base = viewOf == null ? this : viewOf;
+    int[] order = new int[sentences.length];
+    for (int i = 0; i < order.length; ++i)
+      order[i] = sentenceOrder == null ? i : sentenceOrder[i];
 
     for (int i = 0; i < mentions.length; ++i)
     {
-      wordOffsets[i] = new int[mentions[i].length];
-      for (int j = 0; j < mentions[i].length; ++j)
-        wordOffsets[i][j] = mentions[i][j].getWordIndexInSentence();
+      int j = i + randomizer.nextInt(mentions.length - i);
+      int s = order[j];
+      order[j] = order[i];
+      order[i] = s;
     }
 
-    int d = 0, words = 0, offset = ((Word) result.sentences[0].get(0)).start;
-
-    for (int i = 0; i < result.mentions.length; ++i)
-    {
-      int j = i + randomizer.nextInt(result.mentions.length - i);
-      LinkedVector s = result.sentences[j];
-      result.sentences[j] = result.sentences[i];
-      result.sentences[i] = s;
-      int delta = offset - ((Word) result.sentences[i].get(0)).start;
+    return new Document(base, order, this);
+  }
 
-      for (int k = 0; k < result.sentences[i].size(); ++k)
-      {
-        Word w = (Word) result.sentences[i].get(k);
-        w.start += delta;
-        w.end += delta;
-      }
 
-      Mention[] m = result.mentions[j];
-      result.mentions[j] = result.mentions[i];
-      result.mentions[i] = m;
+  /**
+    * Exits with an error message if this document is a view created by
+    * {@link #shuffleSentences(Random)}.  A view's mentions keep the indexes
+    * they have in the original document, so operations that rely on those
+    * indexes need a full copy of the view made by {@link #Document(Document)}
+    * instead.
+    *
+    * @param operation  The name of the operation, for the error message.
+   **/
+  private void checkNotView(String operation)
+  {
+    if (viewOf == null) return;
+    System.err.println("ERROR: Can't " + operation
+                       + " on a shuffled view of document " + name
+                       + "; copy it with Document(Document) first.");
+    System.exit(1);
+  }
 
-      int[] a = wordOffsets[j];
-      wordOffsets[j] = wordOffsets[i];
-      wordOffsets[i] = a;
 
-      for (int k = 0; k < result.mentions[i].length; ++k, ++d)
-        result.mentions[i][k].setIndexes(i, k, d, wordOffsets[i][k],
-                                         words + wordOffsets[i][k], delta);
+  /**
+    * Returns the index of the sentence containing the given mention in this
+    * document, which differs from {@link Mention#getSentenceIndex()} when
+    * this document is a view created by {@link #shuffleSentences(Random)}.
+    *
+    * @param m  A mention from this document.
+    * @return The index of the mention's sentence in this document.
+   **/
+  public int sentenceIndexOf(Mention m)
+  {
+    if (sentencePositions == null) return m.getSentenceIndex();
+    return sentencePositions[m.getSentenceIndex()];
+  }
 
-      int wordLength = result.sentences[i].size();
-      words += wordLength;
-      offset += ((Word) result.sentences[i].get(wordLength - 1)).end + 2;
-    }
 
-    return result;
+  /**
+    * Returns the index of the given mention's head word among all the words
+    * in this document, which differs from
+    * {@link Mention#getWordIndexInDocument()} when this document is a view
+    * created by {@link #shuffleSentences(Random)}.
+    *
+    * @param m  A mention from this document.
+    * @return The index of the mention's head word in this document.
+   **/
+  public int wordIndexInDocumentOf(Mention m)
+  {
+    if (sentencePositions == null) return m.getWordIndexInDocument();
+    return sentenceWordStarts[sentencePositions[m.getSentenceIndex()]]
+           + m.getWordIndexInSentence();
   }
 
 
@@ -621,9 +921,32 @@ public class Document
   }
 
 
+  /**
+    * Creates a copy of this document in which the entity IDs of the mentions
+    * are replaced with the specified IDs.
+    *
+    * @param ids  The new entity ID of each mention, in document order.
+    * @param c    Counts shared with other relabelings of this document, or
+    *             <code>null</code>.
+    * @return A copy of this document with the specified entity IDs.
+   **/
+  public Document relabel(String[] ids, ClusterCounts c)
+  {
+    Document result = new Document(this);
+
+    for (int i = 0, d = 0; i < mentions.length; ++i)
+      for (int j = 0; j < mentions[i].length; ++j)
+        result.mentions[i][j].setEntityID(ids[d++]);
+
+    result.clusterCounts = c;
+    return result;
+  }
+
+
   /**
     * Overwrites the {@link Mention#entityID} fields of the mentions in the
-    * document using predictions from the specified classifier.
+    * document using predictions from the specified classifier.  Candidate
+    * antecedents are scored on {@link #predictionThreads} threads.
     *
     * @param classifier The classifier that predicts links between mentions.
     * @param verbosity  The higher this number, the more messages will be sent
@@ -634,40 +957,147 @@ public class Document
    **/
   public int fillInPredictions(Classifier classifier, int verbosity)
   {
+    return fillInPredictions(classifier, verbosity, predictionThreads);
+  }
+
+
+  /**
+    * Overwrites the {@link Mention#entityID} fields of the mentions in the
+    * document using predictions from the specified classifier.  Each mention
+    * is linked to the closest preceding mention the classifier says it is
+    * coreferent with, or starts a new entity if there is none.
+    *
+    * <p> A mention's closest positive antecedent depends only on the
+    * classifier's pairwise decisions, so when <code>threads</code> is greater
+    * than 1, the antecedents of different mentions are searched for
+    * concurrently, in chunks of {@link #antecedentChunkSize} mentions.  The
+    * entity IDs are then assigned in document order in a single pass, so the
+    * result is the same no matter how many threads are used.  The classifier
+    * must be safe to call from several threads in that case.
+    *
+    * @param classifier The classifier that predicts links between mentions.
+    * @param verbosity  The higher this number, the more messages will be sent
+    *                   to <code>STDOUT</code> describing the activity of this
+    *                   method.
+    * @param threads    The number of threads to score antecedents with.
+    * @return The number of coreference clusters (i.e. chains) in the
+    *         document.
+   **/
+  public int fillInPredictions(Classifier classifier, int verbosity,
+                               int threads)
+  {
+    checkNotView("fill in predictions");
+
+    Mention[] all = new Mention[totalMentions()];
+    for (int i = 0, d = 0; i < mentions.length; ++i)
+      for (int j = 0; j < mentions[i].length; ++j)
+        all[d++] = mentions[i][j];
+
+    int[] antecedents = findAntecedents(classifier, all, threads);
     int nextEntityID = 0;
     String message = null;
     if (verbosity > 2) message = getName() + ", " + classifier.name + ": ";
 
-    for (int i = 0; i < mentions.length; ++i)
-      for (int j = 0; j < mentions[i].length; ++j)
-      {
-        boolean assigned = false;
+    for (int d = 0; d < all.length; ++d)
+    {
+      if (antecedents[d] == -1) all[d].setEntityID("e" + nextEntityID++);
+      else all[d].setEntityID(all[antecedents[d]].getEntityID());
+      if (verbosity > 2) message += all[d].getEntityID() + ", ";
+    }
 
-        for (int l = j - 1; l >= 0 && !assigned; --l)
-          if (classifier.discreteValue(
-                getMentionPair(mentions[i][l], mentions[i][j]))
-              .equals("true"))
-          {
-            mentions[i][j].setEntityID(mentions[i][l].getEntityID());
-            assigned = true;
-          }
+    if (verbosity > 2) System.out.println(message);
+    return nextEntityID;
+  }
 
-        for (int k = i - 1; k >= 0 && !assigned; --k)
-          for (int l = mentions[k].length - 1; l >= 0 && !assigned; --l)
-          if (classifier.discreteValue(
-                getMentionPair(mentions[k][l], mentions[i][j]))
-              .equals("true"))
-          {
-            mentions[i][j].setEntityID(mentions[k][l].getEntityID());
-            assigned = true;
-          }
 
-        if (!assigned) mentions[i][j].setEntityID("e" + nextEntityID++);
-        if (verbosity > 2) message += mentions[i][j].getEntityID() + ", ";
+  /**
+    * Finds the index of the closest preceding mention that the classifier
+    * says is coreferent with each mention.
+    *
+    * @param classifier The classifier that predicts links between mentions.
+    * @param all        All the mentions in the document in document order.
+    * @param threads    The number of threads to score antecedents with.
+    * @return An array containing, for each mention, the index in
+    *         <code>all</code> of its antecedent, or -1 if it has none.
+   **/
+  private int[] findAntecedents(final Classifier classifier,
+                                final Mention[] all, int threads)
+  {
+    final int[] result = new int[all.length];
+    int chunks =
+      (all.length + antecedentChunkSize - 1) / antecedentChunkSize;
+    threads = Math.min(threads, chunks);
+
+    if (threads <= 1)
+    {
+      findAntecedents(classifier, all, 0, all.length, result);
+      return result;
+    }
+
+    // Later mentions have more candidates, so the chunks are handed out
+    // from the end of the document to the beginning.
+    final AtomicInteger nextChunk = new AtomicInteger(chunks);
+    Runnable worker =
+      new Runnable()
+      {
+        public void run()
+        {
+          for (int c = nextChunk.decrementAndGet(); c >= 0;
+               c = nextChunk.decrementAndGet())
+            findAntecedents(
+                classifier, all, c * antecedentChunkSize,
+                Math.min(all.length, (c + 1) * antecedentChunkSize), result);
+        }
+      };
+
+    LinkedList<Future<?>> futures = new LinkedList<Future<?>>();
+    for (int t = 1; t < threads; ++t)
+      futures.add(antecedentPool.submit(worker));
+    worker.run();
+
+    for (Future<?> f : futures)
+    {
+      try { f.get(); }
+      catch (ExecutionException e)
+      {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new RuntimeException(cause);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
       }
+    }
 
-    if (verbosity > 2) System.out.println(message);
-    return nextEntityID;
+    return result;
+  }
+
+
+  /**
+    * Finds the closest positive antecedent of each mention in a contiguous
+    * range of mentions.
+    *
+    * @param classifier The classifier that predicts links between mentions.
+    * @param all        All the mentions in the document in document order.
+    * @param from       The index of the first mention in the range.
+    * @param to         One past the index of the last mention in the range.
+    * @param result     Antecedent indexes are stored here, as described in
+    *                   {@link #findAntecedents(Classifier,Mention[],int)}.
+   **/
+  private void findAntecedents(Classifier classifier, Mention[] all,
+                               int from, int to, int[] result)
+  {
+    for (int d = from; d < to; ++d)
+    {
+      int l = d - 1;
+      while (l >= 0
+             && !pairTable.coreferent(classifier, this, all[l], all[d]))
+        --l;
+      result[d] = l;
+    }
   }
 
 
@@ -816,9 +1246,32 @@ public class Document
     }
 
     int N = Math.min(grid.size(), n);
+    HashMap<String, String> keys = null;
+
+    if (clusterCounts != null)
+    {
+      keys = new HashMap<String, String>();
+      for (Vector<Mention> chain : getAllChains())
+        keys.put(chain.get(0).getEntityID(), "r" + n + clusterKey(chain));
+    }
 
     for (String id : ids)
     {
+      HashMap<String, Integer> entityCounts = counts;
+
+      if (keys != null)
+      {
+        HashMap<String, Integer> cached = clusterCounts.get(keys.get(id));
+
+        if (cached != null)
+        {
+          addCounts(counts, cached);
+          continue;
+        }
+
+        entityCounts = new HashMap<String, Integer>();
+      }
+
       String[] column = new String[grid.size()];
 
       for (int i = 0; i < grid.size(); ++i)
@@ -840,11 +1293,17 @@ public class Document
 
         if (!allX)
         {
-          Integer count = counts.get(ngram);
+          Integer count = entityCounts.get(ngram);
           if (count == null) count = 0;
-          counts.put(ngram, count + 1);
+          entityCounts.put(ngram, count + 1);
         }
       }
+
+      if (keys != null)
+      {
+        clusterCounts.put(keys.get(id), entityCounts);
+        addCounts(counts, entityCounts);
+      }
     }
 
     /*
@@ -1047,7 +1506,7 @@ public class Document
     Mention[] last = mentions[mentions.length - 1];
     for (int i = mentions.length - 2; last.length == 0; --i)
       last = mentions[i];
-    int totalWords = last[last.length - 1].getWordIndexInDocument() + 1;
+    int totalWords = wordIndexInDocumentOf(last[last.length - 1]) + 1;
     /*
     int totalWords = 0;
     for (int i = 0; i < sentences.length; ++i)
@@ -1083,7 +1542,7 @@ public class Document
           */
 
       for (int j = 0; j < data.length; ++j)
-        data[j] = chain.get(j).getWordIndexInDocument() / (double) totalWords;
+        data[j] = wordIndexInDocumentOf(chain.get(j)) / (double) totalWords;
       statistics.addAll(moments(data, false));
       if (++i == 3) break;
     }
@@ -1186,6 +1645,23 @@ public class Document
 
     for (Vector<Mention> chain : chains)
     {
+      HashMap<String, Integer> counts = result;
+      String key = null;
+
+      if (clusterCounts != null)
+      {
+        key = "c" + n + clusterKey(chain);
+        HashMap<String, Integer> cached = clusterCounts.get(key);
+
+        if (cached != null)
+        {
+          addCounts(result, cached);
+          continue;
+        }
+
+        counts = new HashMap<String, Integer>();
+      }
+
       int N = Math.min(chain.size(), n);
 
       for (int i = 0; i + N - 1 < chain.size(); ++i)
@@ -1194,9 +1670,15 @@ public class Document
         for (int j = 1; j < N; ++j)
           ngram += "-" + chain.get(i + j).getType();
 
-        Integer count = result.get(ngram);
+        Integer count = counts.get(ngram);
         if (count == null) count = 0;
-        result.put(ngram, count + 1);
+        counts.put(ngram, count + 1);
+      }
+
+      if (key != null)
+      {
+        clusterCounts.put(key, counts);
+        addCounts(result, counts);
       }
     }
 
@@ -1213,6 +1695,39 @@ public class Document
   }
 
 
+  /**
+    * Names a cluster by the indexes of its mentions in the document, so that
+    * the same cluster has the same name in every relabeling of the document.
+    *
+    * @param chain  The mentions in the cluster.
+    * @return The cluster's name.
+   **/
+  private static String clusterKey(Vector<Mention> chain)
+  {
+    StringBuffer result = new StringBuffer();
+    for (Mention m : chain) result.append(":" + m.getIndexInDocument());
+    return result.toString();
+  }
+
+
+  /**
+    * Adds the counts in one map to the counts in another.
+    *
+    * @param total  The map that receives the counts.
+    * @param counts The counts to add.
+   **/
+  private static void addCounts(HashMap<String, Integer> total,
+                                HashMap<String, Integer> counts)
+  {
+    for (Map.Entry<String, Integer> e : counts.entrySet())
+    {
+      Integer count = total.get(e.getKey());
+      if (count == null) count = 0;
+      total.put(e.getKey(), count + e.getValue());
+    }
+  }
+
+
   /**
     * Records counts of how many clusters each word in the head of a mention
     * appears in.
@@ -1641,6 +2156,46 @@ public class Document
   }
 
 
+  /**
+    * Holds the counts each cluster contributes to
+    * {@link Document#getRepresentativeNgramCounts(int)} and
+    * {@link Document#getChainNgramCounts(int)}, so that documents that differ
+    * only in the way their mentions are clustered count the clusters they
+    * have in common only once.  An instance may only be shared by documents
+    * with the same mentions in the same sentences, such as those returned by
+    * {@link Document#relabel(String[],Document.ClusterCounts)}.  It may be
+    * shared by documents on different threads.
+   **/
+  public static class ClusterCounts
+  {
+    /** The counts of each cluster, keyed by n-gram kind, size, and cluster. */
+    private ConcurrentHashMap<String, HashMap<String, Integer>> counts =
+      new ConcurrentHashMap<String, HashMap<String, Integer>>();
+
+
+    /**
+      * Retrieves the counts of a cluster.
+      *
+      * @param key  The n-gram kind, size, and cluster.
+      * @return The counts, or <code>null</code> if they haven't been stored.
+     **/
+    public HashMap<String, Integer> get(String key) { return counts.get(key); }
+
+
+    /**
+      * Stores the counts of a cluster.  The counts must not be modified
+      * afterward.
+      *
+      * @param key  The n-gram kind, size, and cluster.
+      * @param c    The counts.
+     **/
+    public void put(String key, HashMap<String, Integer> c)
+    {
+      counts.putIfAbsent(key, c);
+    }
+  }
+
+
   /**
     * Itermediary containing the raw data partaining to a mention.
    **/
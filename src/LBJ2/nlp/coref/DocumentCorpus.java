@@ -0,0 +1,375 @@
+package LBJ2.nlp.coref;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import LBJ2.nlp.Word;
+import LBJ2.parse.*;
+
+
+/**
+  * A corpus of fully built {@link Document}s stored in a compact binary file.
+  * Building a {@link Document} from the ACE data involves SAX parsing the
+  * <code>.apf.xml</code> file, reading the <code>.sgm</code> file, splitting
+  * sentences and words, and aligning mentions with their head words.  Since
+  * the corpus doesn't change between experiments, this class does all that
+  * once and stores the results.  As a parser, it memory maps such a file and
+  * returns the same documents the original parser would have, in the same
+  * order, skipping all of the work above.
+  *
+  * <p> The file contains a table of all the strings (word forms, mention
+  * heads, extents, IDs, and types) followed by one record per document
+  * holding its text, its word boundaries sentence by sentence, and its
+  * mentions with their character offsets and head word indexes.  Strings in
+  * document records are indexes into the string table.
+  *
+  * <h4>Usage</h4>
+  * <blockquote><pre>
+  *   java LBJ2.nlp.coref.DocumentCorpus &lt;input file&gt; &lt;corpus file&gt; \
+  *                                      [&lt;prediction root&gt;]
+  * </pre></blockquote>
+  *
+  * <h4>Input</h4>
+  * <p> <code>&lt;input file&gt;</code> contains the names of
+  * <code>.apf.xml</code> files, one per line, exactly as accepted by
+  * {@link ACE2004DocumentParser}.  If <code>&lt;prediction root&gt;</code> is
+  * specified, the documents are read with a
+  * {@link PrePredictedDocumentParser} rooted there instead.
+  *
+  * <h4>Output</h4>
+  * <p> <code>&lt;corpus file&gt;</code> is written.  Afterwards,
+  * <code>new DocumentCorpus(&lt;corpus file&gt;)</code> can replace the
+  * original parser.
+ **/
+public class DocumentCorpus implements Parser
+{
+  /** Identifies a corpus file. */
+  private static final int magic = 0x4c424a43;
+  /** The version of the file format written by this class. */
+  private static final int version = 1;
+
+
+  /** The name of the corpus file. */
+  protected String fileName;
+  /** The memory mapped contents of the corpus file. */
+  protected ByteBuffer buffer;
+  /** The string table. */
+  protected String[] strings;
+  /** The position in {@link #buffer} of each document's record. */
+  protected int[] documents;
+  /** The index of the next document to return. */
+  protected int index;
+
+
+  /**
+    * Memory maps the specified corpus file and reads its string table.
+    *
+    * @param file The name of a file written by
+    *             {@link #compile(Parser,String)}.
+   **/
+  public DocumentCorpus(String file)
+  {
+    fileName = file;
+
+    try
+    {
+      RandomAccessFile in = new RandomAccessFile(fileName, "r");
+      FileChannel channel = in.getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      in.close();
+    }
+    catch (Exception e)
+    {
+      System.err.println("Can't open '" + fileName + "' for input:");
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+    if (buffer.getInt() != magic || buffer.getInt() != version)
+    {
+      System.err.println("'" + fileName + "' is not a version " + version
+                         + " document corpus.");
+      System.exit(1);
+    }
+
+    strings = new String[buffer.getInt()];
+    for (int i = 0; i < strings.length; ++i) strings[i] = readString(buffer);
+
+    documents = new int[buffer.getInt()];
+    for (int i = 0; i < documents.length; ++i)
+      documents[i] = buffer.getInt();
+  }
+
+
+  /** Returns the number of documents in the corpus. */
+  public int size() { return documents.length; }
+
+
+  /**
+    * Returns the next document in the corpus.
+    *
+    * @return The next document, or <code>null</code> if there are no more.
+   **/
+  public Object next()
+  {
+    if (index == documents.length) return null;
+    return get(index++);
+  }
+
+
+  /**
+    * Builds the specified document.  Any number of threads may call this
+    * method at once.
+    *
+    * @param i  The index of the document in the corpus.
+    * @return The <code>i</code><sup>th</sup> document.
+   **/
+  public Document get(int i)
+  {
+    ByteBuffer in = buffer.duplicate();
+    in.position(documents[i]);
+
+    String name = strings[in.getInt()];
+    String path = strings[in.getInt()];
+    String text = readString(in);
+    int offset = in.getInt();
+
+    LinkedVector[] sentences = new LinkedVector[in.getInt()];
+
+    for (int s = 0; s < sentences.length; ++s)
+    {
+      int words = in.getInt();
+      Word w = new Word(strings[in.getInt()], in.getInt(), in.getInt());
+
+      for (int j = 1; j < words; ++j)
+      {
+        w.next = new Word(strings[in.getInt()], w, in.getInt(), in.getInt());
+        w = (Word) w.next;
+      }
+
+      sentences[s] = new LinkedVector(w);
+    }
+
+    Document.MentionData[][] mentions =
+      new Document.MentionData[in.getInt()][];
+    int[][] headWords = new int[mentions.length][];
+
+    for (int s = 0; s < mentions.length; ++s)
+    {
+      mentions[s] = new Document.MentionData[in.getInt()];
+      headWords[s] = new int[mentions[s].length];
+
+      for (int j = 0; j < mentions[s].length; ++j)
+      {
+        mentions[s][j] =
+          new Document.MentionData(
+              strings[in.getInt()], strings[in.getInt()],
+              strings[in.getInt()], strings[in.getInt()],
+              strings[in.getInt()], in.getInt(), in.getInt(),
+              strings[in.getInt()], in.getInt(), in.getInt());
+        headWords[s][j] = in.getInt();
+      }
+    }
+
+    return
+      new Document(name, path, text, offset, sentences, mentions, headWords);
+  }
+
+
+  /** Sets this parser back to the first document in the corpus. */
+  public void reset() { index = 0; }
+
+
+  /**
+    * Reads a string stored as its length followed by its characters.
+    *
+    * @param in The buffer to read from.
+    * @return The string.
+   **/
+  private static String readString(ByteBuffer in)
+  {
+    int length = in.getInt();
+    if (length == -1) return null;
+    char[] result = new char[length];
+    in.asCharBuffer().get(result);
+    in.position(in.position() + 2 * length);
+    return new String(result);
+  }
+
+
+  /**
+    * Writes a string as its length followed by its characters.
+    *
+    * @param out  The stream to write to.
+    * @param s    The string.
+   **/
+  private static void writeString(DataOutputStream out, String s)
+    throws IOException
+  {
+    if (s == null)
+    {
+      out.writeInt(-1);
+      return;
+    }
+
+    out.writeInt(s.length());
+    out.writeChars(s);
+  }
+
+
+  /**
+    * Reads every document from the given parser and writes them all to a
+    * corpus file.
+    *
+    * @param parser A parser returning labeled {@link Document}s.
+    * @param file   The name of the corpus file to write.
+   **/
+  public static void compile(Parser parser, String file)
+  {
+    HashMap<String, Integer> stringIndexes = new HashMap<String, Integer>();
+    LinkedList<String> stringTable = new LinkedList<String>();
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(records);
+    LinkedList<Integer> recordStarts = new LinkedList<Integer>();
+
+    try
+    {
+      for (Document d = (Document) parser.next(); d != null;
+           d = (Document) parser.next())
+      {
+        recordStarts.add(out.size());
+        out.writeInt(intern(d.getName(), stringIndexes, stringTable));
+        out.writeInt(intern(d.getPath(), stringIndexes, stringTable));
+        writeString(out, d.getFullText());
+        out.writeInt(d.getOffset());
+
+        out.writeInt(d.wordSentences());
+        for (int i = 0; i < d.wordSentences(); ++i)
+        {
+          out.writeInt(d.wordsInSentence(i));
+
+          for (int j = 0; j < d.wordsInSentence(i); ++j)
+          {
+            Word w = d.getWord(i, j);
+            out.writeInt(intern(w.form, stringIndexes, stringTable));
+            out.writeInt(w.start);
+            out.writeInt(w.end);
+          }
+        }
+
+        out.writeInt(d.sentences());
+        for (int i = 0; i < d.sentences(); ++i)
+        {
+          out.writeInt(d.mentionsInSentence(i));
+
+          for (int j = 0; j < d.mentionsInSentence(i); ++j)
+          {
+            Document.Mention m = d.getMention(i, j);
+            out.writeInt(intern(m.getEntityID(), stringIndexes, stringTable));
+            out.writeInt(
+                intern(m.getEntityType(), stringIndexes, stringTable));
+            out.writeInt(
+                intern(m.getMentionID(), stringIndexes, stringTable));
+            out.writeInt(intern(m.getType(), stringIndexes, stringTable));
+            out.writeInt(intern(m.getHead(), stringIndexes, stringTable));
+            out.writeInt(m.getHeadStart());
+            out.writeInt(m.getHeadEnd());
+            out.writeInt(intern(m.getExtent(), stringIndexes, stringTable));
+            out.writeInt(m.getExtentStart());
+            out.writeInt(m.getExtentEnd());
+            out.writeInt(m.getWordIndexInSentence());
+          }
+        }
+      }
+
+      out.close();
+    }
+    catch (IOException e)
+    {
+      System.err.println("Can't serialize documents for '" + file + "':");
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+    try
+    {
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      DataOutputStream headerOut = new DataOutputStream(header);
+      headerOut.writeInt(magic);
+      headerOut.writeInt(version);
+      headerOut.writeInt(stringTable.size());
+      for (String s : stringTable) writeString(headerOut, s);
+      headerOut.writeInt(recordStarts.size());
+      int base = headerOut.size() + 4 * recordStarts.size();
+      for (int start : recordStarts) headerOut.writeInt(base + start);
+      headerOut.close();
+
+      OutputStream fileOut =
+        new BufferedOutputStream(new FileOutputStream(file));
+      header.writeTo(fileOut);
+      records.writeTo(fileOut);
+      fileOut.close();
+    }
+    catch (IOException e)
+    {
+      System.err.println("Can't write to '" + file + "':");
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+
+  /**
+    * Finds the index of the given string in the string table, adding it if
+    * it isn't there yet.
+    *
+    * @param s        The string.
+    * @param indexes  Maps strings to their indexes in the table.
+    * @param table    The string table.
+    * @return The index of <code>s</code> in the table.
+   **/
+  private static int intern(String s, HashMap<String, Integer> indexes,
+                            LinkedList<String> table)
+  {
+    Integer result = indexes.get(s);
+
+    if (result == null)
+    {
+      result = table.size();
+      indexes.put(s, result);
+      table.add(s);
+    }
+
+    return result;
+  }
+
+
+  public static void main(String[] args)
+  {
+    String inputFile = null;
+    String corpusFile = null;
+    String predictionRoot = null;
+
+    try
+    {
+      inputFile = args[0];
+      corpusFile = args[1];
+      if (args.length == 3) predictionRoot = args[2];
+      if (args.length > 3) throw new Exception();
+    }
+    catch (Exception e)
+    {
+      System.out.println(
+        "usage: java LBJ2.nlp.coref.DocumentCorpus <input file> <corpus file> \\\n"
+      + "                                          [<prediction root>]");
+      System.exit(1);
+    }
+
+    Parser parser =
+      predictionRoot == null
+        ? (Parser) new ACE2004DocumentParser(inputFile)
+        : (Parser) new PrePredictedDocumentParser(predictionRoot, inputFile);
+    compile(parser, corpusFile);
+  }
+}
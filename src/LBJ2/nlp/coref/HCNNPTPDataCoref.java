@@ -65,8 +65,7 @@ public class HCNNPTPDataCoref extends Classifier
                  ++l)
             {
               Document.Mention p = d.getMention(k, l);
-              double current =
-                dataCoref.scores(d.getMentionPair(p, m)).get("true");
+              double current = dataCoref.score(p, m);
 
               if ((m.getType().equals("PRO") || !p.getType().equals("PRO"))
                   && current > highest)
@@ -0,0 +1,125 @@
+package LBJ2.nlp.coref;
+
+import java.util.*;
+import LBJ2.classify.Classifier;
+import LBJ2.learn.Learner;
+
+
+/**
+  * Remembers the raw scores that {@link DataCoref} learners have looked up
+  * for the mention pairs of one document.  The same pairs are classified
+  * over and over as different renditions of a document are created from its
+  * labeled version, so every {@link Document} cloned from the same labeled
+  * document without reordering its mentions shares a single table.  Entries
+  * are indexed by {@link Document.Mention#getIndexInDocument()} and stored in
+  * primitive arrays, one per learner instance.
+  *
+  * <p> Only the scores from before the threshold adjustment are stored, and
+  * the adjustment in effect is applied each time one is read, so changing
+  * the threshold with {@link DataCoref#setThreshold(double)} takes effect
+  * immediately.  Other classifiers' decisions and scores may depend on
+  * thresholds this table can't see, so they are computed every time.
+  *
+  * <p> Several threads may use the same table.  Two threads asking about the
+  * same unseen pair at the same moment may both look it up, but they store
+  * the same score.
+ **/
+class MentionPairTable
+{
+  /** The number of mentions in the document. */
+  private int mentions;
+  /**
+    * Each learner's raw scores, indexed by the mentions' indexes.  Scores
+    * that haven't been looked up yet are <code>NaN</code>.
+   **/
+  private IdentityHashMap<Learner, double[]> scores =
+    new IdentityHashMap<Learner, double[]>();
+
+
+  /**
+    * Initializing constructor.
+    *
+    * @param n  The number of mentions in the document.
+   **/
+  MentionPairTable(int n) { mentions = n; }
+
+
+  /**
+    * Returns the array of raw scores looked up by the given learner,
+    * creating it if necessary.
+    *
+    * @param c  The learner.
+    * @return The learner's raw scores.
+   **/
+  private synchronized double[] getScores(Learner c)
+  {
+    double[] result = scores.get(c);
+
+    if (result == null)
+    {
+      result = new double[mentions * mentions];
+      Arrays.fill(result, Double.NaN);
+      scores.put(c, result);
+    }
+
+    return result;
+  }
+
+
+  /**
+    * Determines whether the given classifier predicts that the given mentions
+    * are coreferent.  A {@link DataCoref} predicts that they are when the
+    * score returned by
+    * {@link #trueScore(Learner,Document.Mention,Document.Mention)} for the
+    * pair is positive.
+    *
+    * @param c  The classifier.
+    * @param d  The document containing the mentions.
+    * @param m1 The first mention in the pair.
+    * @param m2 The second mention in the pair.
+    * @return <code>true</code> iff the classifier's prediction for the pair
+    *         returned by {@link Document#getMentionPair(Document.Mention,Document.Mention)}
+    *         is <code>"true"</code>.
+   **/
+  boolean coreferent(Classifier c, Document d, Document.Mention m1,
+                     Document.Mention m2)
+  {
+    Document.Mention[] pair = d.getMentionPair(m1, m2);
+    if (c instanceof DataCoref)
+      return trueScore((Learner) c, pair[0], pair[1]) > 0;
+    return c.discreteValue(pair).equals("true");
+  }
+
+
+  /**
+    * Returns the score that the given learner assigns to the
+    * <code>"true"</code> value for the given mention pair.  A
+    * {@link DataCoref} looks up the pair's raw score only the first time it
+    * is asked.
+    *
+    * @param c  The learner.
+    * @param m1 The first mention in the pair.
+    * @param m2 The second mention in the pair.
+    * @return The score of <code>"true"</code> for the pair
+    *         <code>{ m1, m2 }</code>.
+   **/
+  double trueScore(Learner c, Document.Mention m1, Document.Mention m2)
+  {
+    if (!(c instanceof DataCoref))
+      return c.scores(new Document.Mention[]{ m1, m2 }).get("true");
+    if (m1.getMentionID().equals(m2.getMentionID()))
+      return ((DataCoref) c).score(m1, m2);
+
+    double[] table = getScores(c);
+    int i = m1.getIndexInDocument() * mentions + m2.getIndexInDocument();
+    double result = table[i];
+
+    if (Double.isNaN(result))
+    {
+      result = DataCoref.rawScore(m1, m2);
+      table[i] = result;
+    }
+
+    return DataCoref.adjust(result);
+  }
+}
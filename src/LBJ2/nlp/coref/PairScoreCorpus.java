@@ -0,0 +1,335 @@
+package LBJ2.nlp.coref;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import LBJ2.parse.*;
+
+
+/**
+  * The mention pair scores that {@link DataCoref} reads from its text
+  * <code>.scores</code> files, stored for a whole corpus in one compact
+  * binary file.  Reading a text scores file means matching regular
+  * expressions, splitting every line, and building two string keyed
+  * {@link LBJ2.classify.ScoreSet}s per pair.  This class does all that once
+  * and then memory maps the result, so that looking up a score is an array
+  * read.
+  *
+  * <p> For each document, the file holds the IDs of its mentions in
+  * document order followed by the scores of all pairs of distinct mentions,
+  * stored as the lower triangle of a matrix indexed by those positions.
+  * Pairs missing from the text file are stored as <code>NaN</code>.  Scores
+  * are stored as <code>double</code>s, exactly as they were parsed from the
+  * text files.
+  *
+  * <h4>Usage</h4>
+  * <blockquote><pre>
+  *   java LBJ2.nlp.coref.PairScoreCorpus &lt;input file&gt; &lt;corpus file&gt; \
+  *                                       [&lt;prediction root&gt;]
+  * </pre></blockquote>
+  *
+  * <h4>Input</h4>
+  * <p> <code>&lt;input file&gt;</code> contains the names of
+  * <code>.apf.xml</code> files, one per line, exactly as accepted by
+  * {@link ACE2004DocumentParser}, and determines which documents are
+  * converted and the order of their mentions.  If
+  * <code>&lt;prediction root&gt;</code> is specified, the documents are read
+  * with a {@link PrePredictedDocumentParser} rooted there instead.  Each
+  * document's scores are read from the same text file {@link DataCoref}
+  * would read them from.
+  *
+  * <h4>Output</h4>
+  * <p> <code>&lt;corpus file&gt;</code> is written.  Afterwards,
+  * {@link DataCoref#useScoreCorpus(String)} makes {@link DataCoref} read its
+  * scores from it.
+ **/
+public class PairScoreCorpus
+{
+  /** Identifies a pair score corpus file. */
+  private static final int magic = 0x4c424a53;
+  /** The version of the file format written by this class. */
+  private static final int version = 1;
+
+
+  /** The name of the corpus file. */
+  protected String fileName;
+  /** The memory mapped contents of the corpus file. */
+  protected ByteBuffer buffer;
+  /** The score table of each document, keyed by document name. */
+  protected HashMap<String, Table> tables;
+
+
+  /**
+    * Memory maps the specified corpus file and reads its mention ID tables.
+    *
+    * @param file The name of a file written by
+    *             {@link #compile(Parser,String)}.
+   **/
+  public PairScoreCorpus(String file)
+  {
+    fileName = file;
+
+    try
+    {
+      RandomAccessFile in = new RandomAccessFile(fileName, "r");
+      FileChannel channel = in.getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      in.close();
+    }
+    catch (Exception e)
+    {
+      System.err.println("Can't open '" + fileName + "' for input:");
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+    if (buffer.getInt() != magic || buffer.getInt() != version)
+    {
+      System.err.println("'" + fileName + "' is not a version " + version
+                         + " pair score corpus.");
+      System.exit(1);
+    }
+
+    int documents = buffer.getInt();
+    tables = new HashMap<String, Table>(documents * 4 / 3 + 1);
+
+    for (int i = 0; i < documents; ++i)
+    {
+      String name = readString(buffer);
+      String[] ids = new String[buffer.getInt()];
+      for (int j = 0; j < ids.length; ++j) ids[j] = readString(buffer);
+      tables.put(name, new Table(ids, buffer.position()));
+      int pairs = ids.length * (ids.length - 1) / 2;
+      buffer.position(buffer.position() + 8 * pairs);
+    }
+  }
+
+
+  /** Returns the number of documents in the corpus. */
+  public int size() { return tables.size(); }
+
+
+  /**
+    * Returns the score table of the specified document.  Any number of
+    * threads may call this method at once.
+    *
+    * @param name The name of the document.
+    * @return The document's score table, or <code>null</code> if the corpus
+    *         doesn't contain the document.
+   **/
+  public Table get(String name) { return tables.get(name); }
+
+
+  /**
+    * Reads a string stored as its length followed by its characters.
+    *
+    * @param in The buffer to read from.
+    * @return The string.
+   **/
+  private static String readString(ByteBuffer in)
+  {
+    int length = in.getInt();
+    char[] result = new char[length];
+    in.asCharBuffer().get(result);
+    in.position(in.position() + 2 * length);
+    return new String(result);
+  }
+
+
+  /**
+    * Writes a string as its length followed by its characters.
+    *
+    * @param out  The stream to write to.
+    * @param s    The string.
+   **/
+  private static void writeString(DataOutputStream out, String s)
+    throws IOException
+  {
+    out.writeInt(s.length());
+    out.writeChars(s);
+  }
+
+
+  /**
+    * Returns the index in a document's score array of the score for the
+    * mentions at the given positions.
+    *
+    * @param i  The position of one mention.
+    * @param j  The position of the other mention, different from
+    *           <code>i</code>.
+    * @return The index of their score.
+   **/
+  private static int index(int i, int j)
+  {
+    if (i < j) return j * (j - 1) / 2 + i;
+    return i * (i - 1) / 2 + j;
+  }
+
+
+  /**
+    * Reads every document from the given parser, looks up the scores of all
+    * its mention pairs in the text scores files read by {@link DataCoref},
+    * and writes them to a corpus file.
+    *
+    * @param parser A parser returning {@link Document}s.
+    * @param file   The name of the corpus file to write.
+   **/
+  public static void compile(Parser parser, String file)
+  {
+    try
+    {
+      ByteArrayOutputStream records = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(records);
+      int documents = 0;
+
+      for (Document d = (Document) parser.next(); d != null;
+           d = (Document) parser.next(), ++documents)
+      {
+        HashMap<String, HashMap<String, Double>> scores =
+          DataCoref.readData(d.getName() + ".scores");
+        String[] ids = new String[d.totalMentions()];
+        for (int i = 0; i < d.sentences(); ++i)
+          for (int j = 0; j < d.mentionsInSentence(i); ++j)
+          {
+            Document.Mention m = d.getMention(i, j);
+            ids[m.getIndexInDocument()] = m.getMentionID();
+          }
+
+        writeString(out, d.getName());
+        out.writeInt(ids.length);
+        for (int i = 0; i < ids.length; ++i) writeString(out, ids[i]);
+
+        for (int j = 1; j < ids.length; ++j)
+          for (int i = 0; i < j; ++i)
+          {
+            HashMap<String, Double> row = scores.get(ids[i]);
+            Double s = row == null ? null : row.get(ids[j]);
+            out.writeDouble(s == null ? Double.NaN : s);
+          }
+      }
+
+      out.close();
+
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      DataOutputStream headerOut = new DataOutputStream(header);
+      headerOut.writeInt(magic);
+      headerOut.writeInt(version);
+      headerOut.writeInt(documents);
+      headerOut.close();
+
+      OutputStream fileOut =
+        new BufferedOutputStream(new FileOutputStream(file));
+      header.writeTo(fileOut);
+      records.writeTo(fileOut);
+      fileOut.close();
+    }
+    catch (IOException e)
+    {
+      System.err.println("Can't write to '" + file + "':");
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+
+  public static void main(String[] args)
+  {
+    String inputFile = null;
+    String corpusFile = null;
+    String predictionRoot = null;
+
+    try
+    {
+      inputFile = args[0];
+      corpusFile = args[1];
+      if (args.length == 3) predictionRoot = args[2];
+      if (args.length > 3) throw new Exception();
+    }
+    catch (Exception e)
+    {
+      System.out.println(
+        "usage: java LBJ2.nlp.coref.PairScoreCorpus <input file> <corpus file> \\\n"
+      + "                                           [<prediction root>]");
+      System.exit(1);
+    }
+
+    Parser parser =
+      predictionRoot == null
+        ? (Parser) new ACE2004DocumentParser(inputFile)
+        : (Parser) new PrePredictedDocumentParser(predictionRoot, inputFile);
+    compile(parser, corpusFile);
+  }
+
+
+  /**
+    * The scores of one document's mention pairs.  Mentions are usually found
+    * at the position given by {@link Document.Mention#getIndexInDocument()};
+    * mentions of documents whose mentions have been rearranged are looked up
+    * by ID instead.
+   **/
+  public class Table
+  {
+    /** The IDs of the document's mentions, in document order. */
+    private String[] ids;
+    /** The position in {@link #buffer} of the document's scores. */
+    private int start;
+    /** Maps mention IDs to their positions; created when first needed. */
+    private HashMap<String, Integer> positions;
+
+
+    /**
+      * Initializing constructor.
+      *
+      * @param i  The IDs of the document's mentions, in document order.
+      * @param s  The position in {@link #buffer} of the document's scores.
+     **/
+    Table(String[] i, int s)
+    {
+      ids = i;
+      start = s;
+    }
+
+
+    /**
+      * Finds the position of the given mention in this table.
+      *
+      * @param m  The mention.
+      * @return Its position, or -1 if the document has no mention with its
+      *         ID.
+     **/
+    private int position(Document.Mention m)
+    {
+      int result = m.getIndexInDocument();
+      if (result < ids.length && ids[result].equals(m.getMentionID()))
+        return result;
+
+      synchronized (this)
+      {
+        if (positions == null)
+        {
+          positions = new HashMap<String, Integer>(ids.length * 4 / 3 + 1);
+          for (int i = 0; i < ids.length; ++i) positions.put(ids[i], i);
+        }
+
+        Integer p = positions.get(m.getMentionID());
+        return p == null ? -1 : p;
+      }
+    }
+
+
+    /**
+      * Returns the precomputed score of the given pair of distinct mentions.
+      *
+      * @param m1 One mention in the pair.
+      * @param m2 The other mention in the pair.
+      * @return The score of the pair, or <code>NaN</code> if it has none.
+     **/
+    public double score(Document.Mention m1, Document.Mention m2)
+    {
+      int i = position(m1), j = position(m2);
+      if (i == -1 || j == -1 || i == j) return Double.NaN;
+      return buffer.getDouble(start + 8 * index(i, j));
+    }
+  }
+}
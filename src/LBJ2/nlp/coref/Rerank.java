@@ -1,6 +1,8 @@
 package LBJ2.nlp.coref;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import LBJ2.classify.*;
 import LBJ2.learn.*;
 import LBJ2.infer.*;
@@ -17,6 +19,25 @@ import LBJ2.infer.*;
  **/
 public class Rerank extends Inference
 {
+  /**
+    * The number of threads {@link #scoreCoherence(List)} scores the
+    * <i>k</i>-best list with.
+   **/
+  public static int coherenceThreads = 1;
+  /** Runs coherence scoring on behalf of all rerankers. */
+  private static final ExecutorService coherencePool =
+    Executors.newCachedThreadPool(
+        new ThreadFactory()
+        {
+          public Thread newThread(Runnable r)
+          {
+            Thread result = new Thread(r, "Rerank.scoreCoherence");
+            result.setDaemon(true);
+            return result;
+          }
+        });
+
+
   /** The classifier being reranked. */
   protected DataCoref classifier;
   /** A coherence classifier to do the reranking. */
@@ -108,72 +129,49 @@ public class Rerank extends Inference
     System.out.println(headDocument.getName() + "  "
                        + headDocument.totalMentions() + " mentions");
     instantiateVariables();
-    Normalizer norm = getNormalizer(cohere);
 
-    PredictedDocument[] kBest = new PredictedDocument[K];
     LinkedList<PredictedDocument> kBestDifferent =
       new LinkedList<PredictedDocument>();
-    PredictedDocument.NextBests[] nextBests =
-      new PredictedDocument.NextBests[K];
-    kBest[0] = new PredictedDocument(new int[mentions.length]);
-    /*
-    kBest[0].coherenceScore =
-      (1 - alpha)
-      * norm.normalize(
-          cohere.scores(new Document[]{ kBest[0].document, new Document() }))
-        .get("true");
-        */
-    kBest[0].bCubed();
-    kBestDifferent.add(kBest[0]);
-    kBest[0].original = true;
-
-    HashSet<String> seen = new HashSet<String>();
-    String identifier = kBest[0].toString();
-    seen.add(identifier);
-
-    for (int i = 1; i < K; ++i)
-    {
-      nextBests[i - 1] = kBest[i - 1].getNextBests();
-      int bestJ = -1;
-      double bestScore = -Double.MAX_VALUE;
-
-      for (int j = 0; j < i; ++j)
-      {
-        double current = nextBests[j].nextScore();
-
-        if (current > bestScore)
-        {
-          bestScore = current;
-          bestJ = j;
-        }
-      }
-
-      if (bestJ == -1)
-      {
-        PredictedDocument[] temp = new PredictedDocument[i];
-        System.arraycopy(kBest, 0, temp, 0, i);
-        kBest = temp;
-        break;
-      }
-
-      kBest[i] = nextBests[bestJ].next();
-
-      identifier = kBest[i].toString();
-      if (seen.contains(identifier)) continue;
-      seen.add(identifier);
-      kBestDifferent.add(kBest[i]);
+    PredictedDocument first = new PredictedDocument(new int[mentions.length]);
+    first.bCubed();
+    kBestDifferent.add(first);
+    first.original = true;
+
+    // The frontier holds, for each prediction generated so far, an iterator
+    // whose next prediction hasn't been generated yet.  Ties go to the
+    // earliest generated prediction.
+    PriorityQueue<PredictedDocument.NextBests> frontier =
+      new PriorityQueue<PredictedDocument.NextBests>(11,
+          new Comparator<PredictedDocument.NextBests>()
+          {
+            public int compare(PredictedDocument.NextBests n1,
+                               PredictedDocument.NextBests n2)
+            {
+              int result = Double.compare(n2.nextScore(), n1.nextScore());
+              if (result != 0) return result;
+              return n1.getRank() - n2.getRank();
+            }
+          });
+    HashSet<Partition> seen = new HashSet<Partition>();
+    seen.add(first.getPartition());
+    PredictedDocument.NextBests nextBests = first.getNextBests();
+    if (nextBests.hasNext()) frontier.add(nextBests);
 
-      /*
-      kBest[i].coherenceScore =
-        (1 - alpha)
-        * norm.normalize(
-            cohere.scores(
-              new Document[]{ kBest[i].document, new Document() }))
-          .get("true");
-          */
-      kBest[i].bCubed();
+    for (int i = 1; i < K && !frontier.isEmpty(); ++i)
+    {
+      nextBests = frontier.poll();
+      PredictedDocument current = nextBests.next();
+      current.rank = i;
+      if (nextBests.hasNext()) frontier.add(nextBests);
+      nextBests = current.getNextBests();
+      if (nextBests.hasNext()) frontier.add(nextBests);
+
+      if (!seen.add(current.getPartition())) continue;
+      kBestDifferent.add(current);
+      current.bCubed();
     }
 
+    if (cohere != null && alpha < 1) scoreCoherence(kBestDifferent);
     Collections.sort(kBestDifferent);
     kBestDifferent.getFirst().setVariables();
 
@@ -188,6 +186,68 @@ public class Rerank extends Inference
   }
 
 
+  /**
+    * Sets the {@link PredictedDocument#coherenceScore} of every prediction in
+    * the given list.  Each prediction is scored as a relabeled copy of the
+    * head document compared with an empty document.  The copies share a
+    * {@link Document.ClusterCounts}, so the n-gram counts of a cluster that
+    * appears in many predictions are only computed once.  When
+    * {@link #coherenceThreads} is greater than 1, the predictions are scored
+    * concurrently, so the coherence classifier must be safe to call from
+    * several threads in that case.  Each copy is discarded as soon as it has
+    * been scored.
+    *
+    * @param docs The predictions to score.
+   **/
+  protected void scoreCoherence(List<PredictedDocument> docs)
+  {
+    final PredictedDocument[] all =
+      docs.toArray(new PredictedDocument[docs.size()]);
+    final Normalizer norm = getNormalizer(cohere);
+    final Document.ClusterCounts shared = new Document.ClusterCounts();
+    final AtomicInteger next = new AtomicInteger();
+    Runnable worker =
+      new Runnable()
+      {
+        public void run()
+        {
+          for (int i = next.getAndIncrement(); i < all.length;
+               i = next.getAndIncrement())
+          {
+            Document[] example =
+              new Document[]{ all[i].buildDocument(shared), new Document() };
+            all[i].coherenceScore =
+              (1 - alpha)
+              * norm.normalize(cohere.scores(example)).get("true");
+          }
+        }
+      };
+
+    LinkedList<Future<?>> futures = new LinkedList<Future<?>>();
+    int threads = Math.min(coherenceThreads, all.length);
+    for (int t = 1; t < threads; ++t)
+      futures.add(coherencePool.submit(worker));
+    worker.run();
+
+    for (Future<?> f : futures)
+    {
+      try { f.get(); }
+      catch (ExecutionException e)
+      {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new RuntimeException(cause);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+
   /**
     * Creates the first order variables involved in this inference problem as
     * well as initializing the {@link #mentions} and {@link #scores} member
@@ -199,10 +259,11 @@ public class Rerank extends Inference
     double normZero =
       alpha
       * norm.normalize(new ScoreSet(new Score[]{ new Score("", 0) })).get("");
-    /*
-    mentions =
-      (Document.Mention[]) headDocument.toArray(new Document.Mention[0]);
-      */
+    LinkedList<Document.Mention> all = new LinkedList<Document.Mention>();
+    for (int i = 0; i < headDocument.sentences(); ++i)
+      for (int j = 0; j < headDocument.mentionsInSentence(i); ++j)
+        all.add(headDocument.getMention(i, j));
+    mentions = all.toArray(new Document.Mention[all.size()]);
     scores = new ScoreEntry[mentions.length][];
 
     for (int i = 0; i < mentions.length; ++i)
@@ -342,6 +403,13 @@ public class Rerank extends Inference
       * coreference classifier before reranking.
      **/
     public boolean original;
+    /**
+      * The position of this prediction in the order in which the
+      * <i>k</i>-best list was generated, counting duplicates.
+     **/
+    protected int rank;
+    /** The clustering of the mentions this prediction represents. */
+    protected Partition partition;
 
 
     /**
@@ -386,6 +454,16 @@ public class Rerank extends Inference
       this.indexes = indexes;
       corefScore = corefS;
 
+      int[] first = new int[indexes.length];
+      for (int i = 0; i < indexes.length; ++i)
+      {
+        int antecedent = scores[i][indexes[i]].index;
+        first[i] = antecedent == -1 ? i : first[antecedent];
+      }
+
+      partition = new Partition(first);
+
+      /*
       Vector<Document.Mention> newMentions = new Vector<Document.Mention>();
       int entityID = 0;
 
@@ -394,42 +472,39 @@ public class Rerank extends Inference
         Document.Mention newMention =
           mentions[i].getDocument().new Mention(mentions[i]);
         newMentions.add(newMention);
-        /*
         if (scores[i][indexes[i]].index == -1)
           newMention.entityID = "e" + entityID++;
         else
           newMention.entityID =
             ((Mention) newMentions.get(scores[i][indexes[i]].index)).entityID;
-            */
       }
 
-      /*
       document =
         new Document(headDocument.getName(), headDocument.getPath(),
                      headDocument.getText(), headDocument.getOffset(),
                      newMentions);
                      */
 
+      // The score lost by moving each mention's link to its next best
+      // antecedent.
+      final double[] difference = new double[indexes.length];
       nextI = new int[indexes.length][1];
-      for (int i = 0; i < indexes.length; ++i) nextI[i][0] = i;
-      final ScoreEntry[][] entries = scores;
+
+      for (int i = 0; i < indexes.length; ++i)
+      {
+        nextI[i][0] = i;
+        difference[i] = Double.MAX_VALUE;
+        if (indexes[i] + 1 < scores[i].length)
+          difference[i] =
+            scores[i][indexes[i]].score - scores[i][indexes[i] + 1].score;
+      }
 
       Arrays.sort(nextI,
           new Comparator<int[]>()
           {
-            Double difference(int[] i)
-            {
-              double result = Double.MAX_VALUE;
-              if (indexes[i[0]] + 1 < entries[i[0]].length)
-                result =
-                  entries[i[0]][indexes[i[0]]].score
-                  - entries[i[0]][indexes[i[0]] + 1].score;
-              return new Double(result);
-            }
-
             public int compare(int[] i1, int[] i2)
             {
-              return difference(i1).compareTo(difference(i2));
+              return Double.compare(difference[i1[0]], difference[i2[0]]);
             }
           });
     }
@@ -491,8 +566,37 @@ public class Rerank extends Inference
      **/
     public String scoresToString()
     {
-      return corefScore + "\t" + coherenceScore + "\t" + bCubedScores[0]
-             + "\t" + bCubedScores[1] + "\t" + bCubedScores[2];
+      String result = corefScore + "\t" + coherenceScore;
+      if (bCubedScores != null)
+        result += "\t" + bCubedScores[0] + "\t" + bCubedScores[1] + "\t"
+                  + bCubedScores[2];
+      return result;
+    }
+
+
+    /** Returns the value of {@link #partition}. */
+    public Partition getPartition() { return partition; }
+
+
+    /**
+      * Creates a copy of the head document whose entity IDs reflect the
+      * predictions in this document.
+      *
+      * @param c  Counts shared with the other predictions' copies, or
+      *           <code>null</code>.
+      * @return The relabeled copy of the head document.
+     **/
+    public Document buildDocument(Document.ClusterCounts c)
+    {
+      String[] ids = new String[partition.first.length];
+
+      for (int i = 0, entityID = 0; i < ids.length; ++i)
+      {
+        if (partition.first[i] == i) ids[i] = "e" + entityID++;
+        else ids[i] = ids[partition.first[i]];
+      }
+
+      return headDocument.relabel(ids, c);
     }
 
 
@@ -580,6 +684,13 @@ public class Rerank extends Inference
       protected int index;
 
 
+      /**
+        * Returns the {@link LBJ2.nlp.coref.Rerank.PredictedDocument#rank} of
+        * the prediction whose next best predictions are iterated through.
+       **/
+      public int getRank() { return rank; }
+
+
       /**
         * Returns <code>true</code> iff there is another index that can be
         * incremented.
@@ -630,5 +741,50 @@ public class Rerank extends Inference
       }
     }
   }
-}
 
+
+  /**
+    * A clustering of the mentions, represented by the index of the first
+    * mention in each mention's cluster.  Different sets of best-link
+    * decisions can produce the same clustering, and two clusterings are
+    * compared by hashing and comparing these arrays.
+   **/
+  protected static class Partition
+  {
+    /** The index of the first mention in each mention's cluster. */
+    protected int[] first;
+    /** The hash code of {@link #first}. */
+    protected int hashCode;
+
+
+    /**
+      * Initializing constructor.
+      *
+      * @param f  The index of the first mention in each mention's cluster.
+     **/
+    public Partition(int[] f)
+    {
+      first = f;
+      hashCode = Arrays.hashCode(f);
+    }
+
+
+    /** Returns the hash code of {@link #first}. */
+    public int hashCode() { return hashCode; }
+
+
+    /**
+      * Two partitions are equal when they put the same mentions in the same
+      * clusters.
+      *
+      * @param o  The object to compare with.
+      * @return   <code>true</code> iff the argument is an equal partition.
+     **/
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Partition)) return false;
+      Partition p = (Partition) o;
+      return hashCode == p.hashCode && Arrays.equals(first, p.first);
+    }
+  }
+}
@@ -0,0 +1,421 @@
+package LBJ2.nlp.coref;
+
+import java.util.*;
+import LBJ2.parse.Parser;
+import LBJ2.util.TableFormat;
+
+
+/**
+  * Evaluates {@link DataCoref} with the <i>B<sup>3</sup></i> metric at many
+  * threshold adjustments at once.  Running {@link DataCorefTester} once per
+  * threshold scores every mention pair and clusters every document again
+  * for each threshold.  Instead, this program reads each document's pair
+  * scores once and, for each mention, records which preceding mentions
+  * could ever be its closest antecedent: scanning backwards from the
+  * mention, only a mention whose score beats those of all closer mentions
+  * can be.  For any threshold, a mention's antecedent is then the first of
+  * those whose score exceeds the threshold, which is exactly the decision
+  * {@link Document#fillInPredictions(LBJ2.classify.Classifier,int)} makes.
+  * The resulting clusters are built with a union-find structure and scored
+  * in a single pass over the document's mentions.
+  *
+  * <p> The results are the same as those {@link DataCorefTester} would
+  * report with the same thresholds and a {@link DataCoref} classifier.
+  * Scores are read through {@link DataCoref}, so a
+  * {@link PairScoreCorpus} can be used by calling
+  * {@link DataCoref#useScoreCorpus(String)} before sweeping.
+  *
+  * <h4>Usage</h4>
+  * <blockquote><pre>
+  *   java LBJ2.nlp.coref.ThresholdSweep &lt;test data&gt; &lt;first&gt; \
+  *                                      &lt;last&gt; &lt;step&gt; \
+  *                                      [&lt;score corpus&gt;]
+  * </pre></blockquote>
+  *
+  * <h4>Input</h4>
+  * <p> <code>&lt;test data&gt;</code> is the name of a file containing test
+  * data.  Threshold adjustments from <code>&lt;first&gt;</code> to
+  * <code>&lt;last&gt;</code> in increments of <code>&lt;step&gt;</code> are
+  * evaluated.  If <code>&lt;score corpus&gt;</code> is specified, scores are
+  * read from that {@link PairScoreCorpus} file.
+  *
+  * <h4>Output</h4>
+  * <p> Precision, recall, and <i>F<sub>1</sub></i> are sent to
+  * <code>STDOUT</code> as computed by <i>B<sup>3</sup></i>, one row per
+  * threshold adjustment.
+ **/
+public class ThresholdSweep
+{
+  public static final String[] columnLabels =
+    { "Threshold", "Precision", "Recall", "F1" };
+  public static final int[] sigDigits = { 3, 3, 3 };
+
+
+  /**
+    * Computes <i>F<sub>1</sub></i>.
+    *
+    * @param p  The precision.
+    * @param r  The recall.
+    * @return The <i>F<sub>1</sub></i>.
+   **/
+  private static double F1(double p, double r) { return 2 * p * r / (p + r); }
+
+
+  public static void main(String[] args)
+  {
+    String testFile = null;
+    double first = 0, last = 0, step = 0;
+
+    try
+    {
+      testFile = args[0];
+      first = Double.parseDouble(args[1]);
+      last = Double.parseDouble(args[2]);
+      step = Double.parseDouble(args[3]);
+      if (args.length == 5) DataCoref.useScoreCorpus(args[4]);
+      if (args.length > 5 || !(step > 0)) throw new Exception();
+    }
+    catch (Exception e)
+    {
+      System.err.println(
+  "usage: java LBJ2.nlp.coref.ThresholdSweep <test data> <first> <last> \\\n"
++ "                                          <step> [<score corpus>]");
+      System.exit(1);
+    }
+
+    int count = (int) Math.floor((last - first) / step + 1e-9) + 1;
+    double[] thresholds = new double[Math.max(count, 0)];
+    for (int i = 0; i < thresholds.length; ++i)
+      thresholds[i] = first + i * step;
+
+    double[][] results =
+      sweep(new ACE2004DocumentParser(testFile), thresholds);
+    String[] rowLabels = new String[thresholds.length];
+
+    for (int i = 0; i < thresholds.length; ++i)
+    {
+      rowLabels[i] = "" + thresholds[i];
+      for (int j = 0; j < results[i].length; ++j) results[i][j] *= 100;
+    }
+
+    String[] output =
+      TableFormat.tableFormat(columnLabels, rowLabels, results, sigDigits);
+    for (int i = 0; i < output.length; ++i)
+      System.out.println(output[i]);
+  }
+
+
+  /**
+    * Evaluates {@link DataCoref} on every document from the given parser at
+    * each of the given threshold adjustments.
+    *
+    * @param parser     A parser returning labeled {@link Document}s.
+    * @param thresholds The threshold adjustments, as would be passed to
+    *                   {@link DataCoref#setThreshold(double)}.
+    * @return For each threshold adjustment, the total
+    *         <i>B<sup>3</sup></i> precision, recall, and
+    *         <i>F<sub>1</sub></i> for all the documents, in that order, in
+    *         an array.
+   **/
+  public static double[][] sweep(Parser parser, double[] thresholds)
+  {
+    double[][] results = new double[thresholds.length][3];
+    int mentions = 0;
+
+    for (Document d = (Document) parser.next(); d != null;
+         d = (Document) parser.next())
+    {
+      new ThresholdSweep(d).test(thresholds, results);
+      mentions += d.totalMentions();
+    }
+
+    for (int i = 0; i < thresholds.length; ++i)
+    {
+      double F1 = 0;
+
+      if (mentions > 0)
+      {
+        results[i][0] /= (double) mentions;
+        results[i][1] /= (double) mentions;
+        if (results[i][0] + results[i][1] != 0)
+          F1 = F1(results[i][0], results[i][1]);
+      }
+
+      results[i][2] = F1;
+    }
+
+    return results;
+  }
+
+
+  /** The labeled document's mentions in document order. */
+  protected Document.Mention[] mentions;
+  /**
+    * For each mention, the positions of the preceding mentions that could be
+    * its closest antecedent, closest first.
+   **/
+  protected int[][] candidates;
+  /** The scores of the pairs formed with the {@link #candidates}. */
+  protected double[][] candidateScores;
+  /** For each mention, the index of its labeled entity. */
+  protected int[] entities;
+  /** The number of mentions in each labeled entity. */
+  protected int[] entitySizes;
+  /**
+    * Whether some mentions of the document are equal to each other, in which
+    * case they count only once in a cluster, as in
+    * {@link CoreferenceTester}.
+   **/
+  protected boolean duplicates;
+
+
+  /**
+    * Reads the scores of all pairs of mentions in the given document and
+    * records their candidate antecedents.
+    *
+    * @param d  A labeled document.
+   **/
+  public ThresholdSweep(Document d)
+  {
+    mentions = new Document.Mention[d.totalMentions()];
+    for (int i = 0, k = 0; i < d.sentences(); ++i)
+      for (int j = 0; j < d.mentionsInSentence(i); ++j)
+        mentions[k++] = d.getMention(i, j);
+
+    candidates = new int[mentions.length][];
+    candidateScores = new double[mentions.length][];
+    int[] positions = new int[mentions.length];
+    double[] scores = new double[mentions.length];
+
+    for (int m = 0; m < mentions.length; ++m)
+    {
+      int count = 0;
+      double best = Double.NEGATIVE_INFINITY;
+
+      for (int l = m - 1; l >= 0; --l)
+      {
+        // DataCoref gives pairs with the same mention ID a score of 0
+        // regardless of the threshold, so they are never linked.
+        if (mentions[l].getMentionID().equals(mentions[m].getMentionID()))
+          continue;
+        double score = DataCoref.rawScore(mentions[l], mentions[m]);
+
+        if (score > best)
+        {
+          best = score;
+          positions[count] = l;
+          scores[count++] = score;
+        }
+      }
+
+      candidates[m] = new int[count];
+      candidateScores[m] = new double[count];
+      System.arraycopy(positions, 0, candidates[m], 0, count);
+      System.arraycopy(scores, 0, candidateScores[m], 0, count);
+    }
+
+    HashMap<String, Integer> entityIndexes = new HashMap<String, Integer>();
+    HashSet<Document.Mention> distinct = new HashSet<Document.Mention>();
+    entities = new int[mentions.length];
+
+    for (int m = 0; m < mentions.length; ++m)
+    {
+      Integer e = entityIndexes.get(mentions[m].getEntityID());
+
+      if (e == null)
+      {
+        e = entityIndexes.size();
+        entityIndexes.put(mentions[m].getEntityID(), e);
+      }
+
+      entities[m] = e;
+      duplicates |= !distinct.add(mentions[m]);
+    }
+
+    entitySizes = new int[entityIndexes.size()];
+    for (int m = 0; m < mentions.length; ++m) ++entitySizes[entities[m]];
+  }
+
+
+  /**
+    * Finds the closest antecedent of each mention at the given threshold
+    * adjustment.
+    *
+    * @param threshold  The threshold adjustment.
+    * @param antecedents  Filled with the position of each mention's closest
+    *                     antecedent, or -1 if it has none.
+   **/
+  protected void findAntecedents(double threshold, int[] antecedents)
+  {
+    for (int m = 0; m < mentions.length; ++m)
+    {
+      antecedents[m] = -1;
+      for (int c = 0; c < candidates[m].length && antecedents[m] == -1; ++c)
+        if (candidateScores[m][c] - threshold > 0)
+          antecedents[m] = candidates[m][c];
+    }
+  }
+
+
+  /**
+    * Finds the representative of a mention's cluster in a union-find
+    * forest, compressing the path to it.
+    *
+    * @param parents  The forest.
+    * @param m        The position of the mention.
+    * @return The position of the representative.
+   **/
+  private static int find(int[] parents, int m)
+  {
+    int root = m;
+    while (parents[root] != root) root = parents[root];
+
+    while (parents[m] != root)
+    {
+      int next = parents[m];
+      parents[m] = root;
+      m = next;
+    }
+
+    return root;
+  }
+
+
+  /**
+    * Adds this document's cumulative <i>B<sup>3</sup></i> precision and
+    * recall at each of the given threshold adjustments to the given
+    * results.
+    *
+    * @param thresholds The threshold adjustments.
+    * @param results    For each threshold adjustment, the cumulative
+    *                   precision and recall so far, in that order, in an
+    *                   array.
+   **/
+  public void test(double[] thresholds, double[][] results)
+  {
+    int n = mentions.length;
+    int[] antecedents = new int[n];
+    int[] parents = new int[n];
+    int[] roots = new int[n];
+    int[] clusterSizes = new int[n];
+    int[] overlaps = new int[n];
+    int[] counts = new int[n];
+
+    // The members of each labeled entity, in document order.
+    int[][] members = new int[entitySizes.length][];
+    for (int e = 0; e < members.length; ++e)
+      members[e] = new int[entitySizes[e]];
+    int[] filled = new int[entitySizes.length];
+    for (int m = 0; m < n; ++m) members[entities[m]][filled[entities[m]]++] = m;
+
+    for (int t = 0; t < thresholds.length; ++t)
+    {
+      findAntecedents(thresholds[t], antecedents);
+      for (int m = 0; m < n; ++m) parents[m] = m;
+      for (int m = 0; m < n; ++m)
+        if (antecedents[m] != -1)
+          parents[find(parents, m)] = find(parents, antecedents[m]);
+
+      if (duplicates)
+      {
+        addSetScores(parents, results[t]);
+        continue;
+      }
+
+      Arrays.fill(clusterSizes, 0);
+      for (int m = 0; m < n; ++m)
+      {
+        roots[m] = find(parents, m);
+        ++clusterSizes[roots[m]];
+      }
+
+      for (int e = 0; e < members.length; ++e)
+      {
+        for (int i = 0; i < members[e].length; ++i)
+          ++counts[roots[members[e][i]]];
+        for (int i = 0; i < members[e].length; ++i)
+          overlaps[members[e][i]] = counts[roots[members[e][i]]];
+        for (int i = 0; i < members[e].length; ++i)
+          counts[roots[members[e][i]]] = 0;
+      }
+
+      double precision = 0, recall = 0;
+
+      for (int m = 0; m < n; ++m)
+      {
+        precision += overlaps[m] / (double) clusterSizes[roots[m]];
+        recall += overlaps[m] / (double) entitySizes[entities[m]];
+      }
+
+      results[t][0] += precision;
+      results[t][1] += recall;
+    }
+  }
+
+
+  /**
+    * Adds this document's cumulative <i>B<sup>3</sup></i> precision and
+    * recall to the given results by building each cluster as a set of
+    * mentions, so that mentions equal to each other count only once, as in
+    * {@link CoreferenceTester}.
+    *
+    * @param parents  The union-find forest of the predicted clusters.
+    * @param results  The cumulative precision and recall so far, in that
+    *                 order, in an array.
+   **/
+  protected void addSetScores(int[] parents, double[] results)
+  {
+    int n = mentions.length;
+    HashMap<Integer, HashSet<Document.Mention>> predicted =
+      new HashMap<Integer, HashSet<Document.Mention>>();
+    HashMap<Integer, HashSet<Document.Mention>> labeled =
+      new HashMap<Integer, HashSet<Document.Mention>>();
+
+    for (int m = 0; m < n; ++m)
+    {
+      add(predicted, find(parents, m), mentions[m]);
+      add(labeled, entities[m], mentions[m]);
+    }
+
+    double precision = 0, recall = 0;
+
+    for (int m = 0; m < n; ++m)
+    {
+      HashSet<Document.Mention> p = predicted.get(find(parents, m));
+      HashSet<Document.Mention> l = labeled.get(entities[m]);
+      HashSet<Document.Mention> smaller = p.size() < l.size() ? p : l;
+      HashSet<Document.Mention> larger = smaller == p ? l : p;
+      int overlap = 0;
+      for (Document.Mention mention : smaller)
+        if (larger.contains(mention)) ++overlap;
+      precision += overlap / (double) p.size();
+      recall += overlap / (double) l.size();
+    }
+
+    results[0] += precision;
+    results[1] += recall;
+  }
+
+
+  /**
+    * Adds a mention to the set with the given key, creating the set if
+    * necessary.
+    *
+    * @param sets     The sets.
+    * @param key      The key of the set.
+    * @param mention  The mention to add.
+   **/
+  private static void add(HashMap<Integer, HashSet<Document.Mention>> sets,
+                          int key, Document.Mention mention)
+  {
+    HashSet<Document.Mention> set = sets.get(key);
+
+    if (set == null)
+    {
+      set = new HashSet<Document.Mention>();
+      sets.put(key, set);
+    }
+
+    set.add(mention);
+  }
+}
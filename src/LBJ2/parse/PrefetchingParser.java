@@ -0,0 +1,191 @@
+package LBJ2.parse;
+
+import java.util.concurrent.*;
+
+
+/**
+  * This parser wraps another parser and calls its <code>next()</code> method
+  * on a background thread, keeping up to a fixed number of parsed examples
+  * waiting in a bounded queue.  The consumer can therefore work on one
+  * example while the next few are being parsed.  Examples are returned in
+  * exactly the order the wrapped parser produces them.
+  *
+  * <p> Since a parser's <code>next()</code> method depends on the state left
+  * behind by the previous call, only one background thread ever calls it.
+  * The wrapped parser must not be used directly once it has been handed to
+  * this parser.
+ **/
+public class PrefetchingParser implements Parser
+{
+  /** The default number of examples parsed ahead of the consumer. */
+  public static final int defaultCapacity = 2;
+  /** Marks the end of the wrapped parser's data in the {@link #queue}. */
+  private static final Object end = new Object();
+  /**
+    * How long, in milliseconds, the background thread waits for room in the
+    * {@link #queue} before checking whether it has been asked to stop.
+   **/
+  private static final long offerTimeout = 50;
+
+
+  /** The parser whose examples are being prefetched. */
+  protected Parser parser;
+  /** The maximum number of examples parsed ahead of the consumer. */
+  protected int capacity;
+  /** Holds examples that have been parsed but not yet returned. */
+  protected BlockingQueue<Object> queue;
+  /** The background thread currently calling {@link #parser}. */
+  protected Producer producer;
+  /** Set once the end of the data has been returned to the consumer. */
+  protected boolean exhausted;
+
+
+  /**
+    * Prefetches {@link #defaultCapacity} examples.
+    *
+    * @param p  The parser whose examples are being prefetched.
+   **/
+  public PrefetchingParser(Parser p) { this(p, defaultCapacity); }
+
+  /**
+    * Initializing constructor.
+    *
+    * @param p  The parser whose examples are being prefetched.
+    * @param c  The maximum number of examples parsed ahead of the consumer.
+   **/
+  public PrefetchingParser(Parser p, int c)
+  {
+    if (c < 1)
+      throw new IllegalArgumentException(
+          "PrefetchingParser: capacity must be positive, not " + c);
+    parser = p;
+    capacity = c;
+    queue = new ArrayBlockingQueue<Object>(capacity);
+    start();
+  }
+
+
+  /** Starts a new background thread reading from {@link #parser}. */
+  protected void start()
+  {
+    exhausted = false;
+    producer = new Producer();
+    producer.start();
+  }
+
+
+  /**
+    * Asks the background thread to stop, waits for it to do so, and then
+    * discards any examples it left in the {@link #queue}.
+   **/
+  protected void stop()
+  {
+    producer.stopped = true;
+    queue.clear();
+
+    boolean interrupted = false;
+    while (producer.isAlive())
+    {
+      try { producer.join(); }
+      catch (InterruptedException e) { interrupted = true; }
+    }
+
+    queue.clear();
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
+
+  /**
+    * Returns the next example parsed by the wrapped parser, waiting for the
+    * background thread if it hasn't finished parsing it yet.
+    *
+    * @return The next example, or <code>null</code> if there are no more.
+   **/
+  public Object next()
+  {
+    if (exhausted) return null;
+
+    Object result = null;
+    boolean interrupted = false;
+    while (result == null)
+    {
+      try { result = queue.take(); }
+      catch (InterruptedException e) { interrupted = true; }
+    }
+
+    if (interrupted) Thread.currentThread().interrupt();
+
+    if (result == end)
+    {
+      exhausted = true;
+      Throwable t = producer.failure;
+      if (t instanceof RuntimeException) throw (RuntimeException) t;
+      if (t instanceof Error) throw (Error) t;
+      return null;
+    }
+
+    return result;
+  }
+
+
+  /**
+    * Discards any prefetched examples, resets the wrapped parser, and starts
+    * prefetching from the beginning of the raw data again.
+   **/
+  public void reset()
+  {
+    stop();
+    parser.reset();
+    start();
+  }
+
+
+  /**
+    * The background thread that fills the {@link #queue}.  It is a daemon
+    * thread so that an unfinished prefetch never keeps the JVM alive.
+   **/
+  protected class Producer extends Thread
+  {
+    /** Set by the consumer when this thread should stop parsing. */
+    volatile boolean stopped;
+    /** Anything thrown by the wrapped parser, rethrown to the consumer. */
+    volatile Throwable failure;
+
+
+    /** Creates a daemon thread. */
+    Producer()
+    {
+      super("PrefetchingParser");
+      setDaemon(true);
+    }
+
+
+    /** Repeatedly parses the next example and puts it in the queue. */
+    public void run()
+    {
+      try
+      {
+        for (Object example = parser.next(); !stopped;
+             example = parser.next())
+        {
+          if (example == null) example = end;
+          while (!stopped
+                 && !queue.offer(example, offerTimeout,
+                                 TimeUnit.MILLISECONDS));
+          if (example == end) return;
+        }
+      }
+      catch (InterruptedException e) { }
+      catch (Throwable t)
+      {
+        failure = t;
+        try
+        {
+          while (!stopped
+                 && !queue.offer(end, offerTimeout, TimeUnit.MILLISECONDS));
+        }
+        catch (InterruptedException e) { }
+      }
+    }
+  }
+}